@@ -0,0 +1,63 @@
+package org.galatea.starter.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.galatea.starter.AppConfig;
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.service.IAgreementTransformer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the agreement to mission transformation defined in AppConfig. The batch benchmark maps
+ * a list of agreements the same way SettlementService.spawnMissions does.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = BenchmarkContext.LOG_CONFIG)
+@State(Scope.Benchmark)
+public class AgreementTransformerBenchmark {
+
+  @Param({"1", "25", "1000", "100000"})
+  private int batchSize;
+
+  private IAgreementTransformer transformer;
+
+  private TradeAgreement agreement;
+
+  private List<TradeAgreement> agreements;
+
+  /**
+   * Create the transformer and the agreements to transform.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    transformer = new AppConfig().agreementTransformer();
+    agreements = BenchmarkContext.agreements(batchSize);
+    agreement = agreements.get(0);
+  }
+
+  @Benchmark
+  public SettlementMission transform() {
+    return transformer.transform(agreement);
+  }
+
+  @Benchmark
+  public List<SettlementMission> transformBatch() {
+    return agreements.stream().map(transformer::transform).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,72 @@
+package org.galatea.starter.benchmarks;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.ArrayUtils;
+import org.galatea.starter.Application;
+import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.testutils.TestDataGenerator;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Shared setup for the JMH benchmarks.
+ *
+ * <p>Benchmarks that exercise Spring-managed beans start the full application (embedded H2
+ * datasource, caches, embedded broker) so that we measure the same code paths we run in
+ * production, including the aspects and proxies wrapped around the services.
+ */
+@Slf4j
+public final class BenchmarkContext {
+
+  /**
+   * JVM argument for forked benchmark JVMs so that logging doesn't dominate the measurements.
+   */
+  public static final String LOG_CONFIG = "-Dlog4j.configurationFile=log4j2-benchmark.yml";
+
+  // Private constructor to appease Sonar
+  private BenchmarkContext() {}
+
+  /**
+   * Start the application with a random server port and no external dependencies. Additional
+   * command line style arguments (e.g. "--some.property=value") can be provided to override
+   * configuration for a particular benchmark.
+   */
+  public static ConfigurableApplicationContext start(final String... args) {
+    return start(context -> { }, args);
+  }
+
+  /**
+   * Start the application as above, after applying the initializer to its context (e.g. to add a
+   * BeanPostProcessor that instruments some of its beans).
+   */
+  public static ConfigurableApplicationContext start(
+      final ApplicationContextInitializer<ConfigurableApplicationContext> initializer,
+      final String... args) {
+    String[] defaultArgs = {
+        // Application refuses to start without a port; 0 picks a random free one
+        "--server.port=0",
+        // The test profile expects wiremock to provide this
+        "--spring.rest.iexBasePath=http://localhost/"};
+
+    log.warn("Starting application context for benchmark");
+    return new SpringApplicationBuilder(Application.class).initializers(initializer)
+        .run(ArrayUtils.addAll(defaultArgs, args));
+  }
+
+  /**
+   * Generate the given number of distinct trade agreements.
+   */
+  public static List<TradeAgreement> agreements(final int count) {
+    return IntStream.range(0, count)
+        .mapToObj(i -> TestDataGenerator.defaultTradeAgreementData()
+            .instrument("INST-" + (i % 500))
+            .buySell(i % 2 == 0 ? "B" : "S")
+            .qty(i + 1d)
+            .build())
+        .collect(Collectors.toList());
+  }
+}
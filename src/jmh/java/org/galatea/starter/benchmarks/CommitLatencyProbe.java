@@ -0,0 +1,157 @@
+package org.galatea.starter.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+/**
+ * Records how long each message took from being sent to being committed by the listener that
+ * consumed it, without touching the listener containers.
+ *
+ * <p>The probe wraps the application's ConnectionFactory bean, so that the sessions of the
+ * listener containers remember the messages they receive and, when they are committed, record the
+ * latency of those that were registered with sent (so the sender must run in the same JVM).
+ * Messages received by a session that is rolled back are forgotten, and recorded when they are
+ * received again and committed.
+ */
+public class CommitLatencyProbe implements BeanPostProcessor {
+
+  private final Map<String, Long> sentNanos = new ConcurrentHashMap<>();
+
+  private final Recorder latencies = new Recorder(3);
+
+  private final AtomicLong committed = new AtomicLong();
+
+  private final AtomicLong lastCommitNanos = new AtomicLong();
+
+  @Override
+  public Object postProcessAfterInitialization(final Object bean, final String beanName) {
+    if (!(bean instanceof ConnectionFactory)) {
+      return bean;
+    }
+    return proxy(ConnectionFactory.class, bean, (target, method, args) -> {
+      Object result = invoke(target, method, args);
+      return result instanceof Connection ? connection((Connection) result) : result;
+    });
+  }
+
+  /**
+   * Register a message that was sent, before the transaction it was sent in is committed.
+   *
+   * @param nanos the System.nanoTime just before the message was sent
+   */
+  public void sent(final String messageId, final long nanos) {
+    sentNanos.put(messageId, nanos);
+  }
+
+  /**
+   * Returns the number of messages committed since the last reset.
+   */
+  public long committed() {
+    return committed.get();
+  }
+
+  /**
+   * Returns the System.nanoTime of the last commit that recorded a message.
+   */
+  public long lastCommitNanos() {
+    return lastCommitNanos.get();
+  }
+
+  /**
+   * Returns the latencies (in nanoseconds) recorded since the last reset, and resets the probe.
+   */
+  public Histogram reset() {
+    committed.set(0);
+    return latencies.getIntervalHistogram();
+  }
+
+  private Connection connection(final Connection connection) {
+    return proxy(Connection.class, connection, (target, method, args) -> {
+      Object result = invoke(target, method, args);
+      return result instanceof Session ? session((Session) result) : result;
+    });
+  }
+
+  private Session session(final Session session) {
+    // Sessions are only used by one thread at a time
+    List<Message> received = new ArrayList<>();
+    return proxy(Session.class, session, (target, method, args) -> {
+      Object result = invoke(target, method, args);
+      if (result instanceof MessageConsumer) {
+        return consumer((MessageConsumer) result, received);
+      } else if ("commit".equals(method.getName())) {
+        record(received);
+      } else if ("rollback".equals(method.getName())) {
+        received.clear();
+      }
+      return result;
+    });
+  }
+
+  private static MessageConsumer consumer(final MessageConsumer consumer,
+      final List<Message> received) {
+    return proxy(MessageConsumer.class, consumer, (target, method, args) -> {
+      Object result = invoke(target, method, args);
+      if (result instanceof Message) {
+        received.add((Message) result);
+      }
+      return result;
+    });
+  }
+
+  private void record(final List<Message> received) throws JMSException {
+    long now = System.nanoTime();
+    int recorded = 0;
+    for (Message message : received) {
+      Long sent = sentNanos.remove(message.getJMSMessageID());
+      if (sent != null) {
+        latencies.recordValue(Math.max(now - sent, 0));
+        recorded++;
+      }
+    }
+    received.clear();
+
+    if (recorded > 0) {
+      lastCommitNanos.accumulateAndGet(now, Math::max);
+      committed.addAndGet(recorded);
+    }
+  }
+
+  private static Object invoke(final Object target, final Method method, final Object[] args)
+      throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static <T> T proxy(final Class<T> type, final Object target, final Handler handler) {
+    InvocationHandler invocationHandler =
+        (proxy, method, args) -> handler.invoke(target, method, args);
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+        invocationHandler));
+  }
+
+  @FunctionalInterface
+  private interface Handler {
+
+    Object invoke(Object target, Method method, Object[] args) throws Throwable;
+  }
+}
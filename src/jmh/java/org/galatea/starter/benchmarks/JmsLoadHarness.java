@@ -0,0 +1,368 @@
+package org.galatea.starter.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import lombok.Value;
+import org.HdrHistogram.Histogram;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.entrypoint.messagecontracts.TradeAgreementMessage;
+import org.galatea.starter.testutils.TestDataGenerator;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jms.core.MessageCreator;
+
+/**
+ * Measures how fast SettlementJmsListener drains the agreement queues of the embedded broker, end
+ * to end: from a message being sent, through the listener container, translation, validation and
+ * the settlement service, to the listener committing it.
+ *
+ * <p>The harness runs every combination of the formats, batch modes, listener concurrencies and
+ * persistence modes it is given as a scenario, each against a freshly started application with
+ * its own broker and database. A scenario publishes warmup agreements and waits for them to be
+ * committed, then publishes the measured agreements, either as fast as it can or at a fixed rate,
+ * and records the latency of each from being sent to being committed (see CommitLatencyProbe).
+ * The throughput is the number of measured agreements over the time from the first of them being
+ * sent to the last being committed. A row per scenario is printed, and written to a CSV file so
+ * that runs can be compared.
+ *
+ * <p>Options are given as "--name=value" arguments, lists being comma separated (see DEFAULTS).
+ * Any other "--name=value" argument is passed to the application, e.g.
+ * "--jms.autoscaling-enabled=true".
+ */
+public final class JmsLoadHarness {
+
+  /**
+   * The options of the harness and their default values.
+   */
+  public static final Map<String, String> DEFAULTS = defaults();
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  // Private constructor to appease Sonar
+  private JmsLoadHarness() {}
+
+  private static Map<String, String> defaults() {
+    Map<String, String> defaults = new LinkedHashMap<>();
+    // json and/or proto
+    defaults.put("formats", "json,proto");
+    // single (one message per transaction), batch and/or partitioned (batches split by instrument)
+    defaults.put("batch-modes", "single,batch,partitioned");
+    // Values of jms.listener-concurrency. Partitioned listeners always have a single consumer.
+    defaults.put("concurrency", "1,1-5");
+    // memory (a non-persistent broker) and/or kahadb (persistent messages in a KahaDB store)
+    defaults.put("persistence", "memory,kahadb");
+    defaults.put("messages", "20000");
+    defaults.put("warmup", "2000");
+    // Agreements published per second, or 0 to publish them as fast as possible
+    defaults.put("rate", "0");
+    // Agreements per producer transaction when publishing as fast as possible. Paced agreements
+    // are committed one by one so that they don't wait for the rest of a transaction.
+    defaults.put("publish-batch", "100");
+    defaults.put("timeout-s", "600");
+    defaults.put("report", "target/jms-load-report.csv");
+    return defaults;
+  }
+
+  /**
+   * Run the scenarios given by the arguments and report the results.
+   */
+  public static void main(final String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+    List<String> applicationArgs = new ArrayList<>();
+    for (String arg : args) {
+      int equals = arg.indexOf('=');
+      if (!arg.startsWith("--") || equals < 0) {
+        throw new IllegalArgumentException("Expected --name=value but was " + arg);
+      }
+      String name = arg.substring(2, equals);
+      if (options.containsKey(name)) {
+        options.put(name, arg.substring(equals + 1));
+      } else {
+        applicationArgs.add(arg);
+      }
+    }
+
+    Load load = new Load(Integer.parseInt(options.get("messages")),
+        Integer.parseInt(options.get("warmup")), Integer.parseInt(options.get("rate")),
+        Integer.parseInt(options.get("publish-batch")),
+        TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("timeout-s"))));
+    List<Scenario> scenarios = scenarios(options);
+
+    List<Result> results = new ArrayList<>(scenarios.size());
+    for (Scenario scenario : scenarios) {
+      System.out.printf("Running scenario %d of %d: %s%n", results.size() + 1, scenarios.size(),
+          scenario);
+      results.add(run(scenario, results.size(), load, applicationArgs));
+    }
+
+    System.out.println();
+    System.out.printf("%-6s %-12s %-11s %-11s %9s %9s %9s %9s %9s %9s %9s%n", "format",
+        "batch mode", "concurrency", "persistence", "msgs", "msgs/s", "p50 ms", "p90 ms", "p99 ms",
+        "p99.9 ms", "max ms");
+    for (Result result : results) {
+      Scenario scenario = result.getScenario();
+      System.out.printf("%-6s %-12s %-11s %-11s %9d %9.0f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+          lower(scenario.getFormat()), lower(scenario.getBatchMode()), scenario.getConcurrency(),
+          lower(scenario.getPersistence()), result.getMessages(), result.throughput(),
+          result.latencyMillis(50), result.latencyMillis(90), result.latencyMillis(99),
+          result.latencyMillis(99.9), result.latencyMillis(100));
+    }
+
+    Path report = Paths.get(options.get("report"));
+    write(report, load, results);
+    System.out.printf("%nWrote %s%n", report.toAbsolutePath());
+  }
+
+  private static List<Scenario> scenarios(final Map<String, String> options) {
+    // Sets, so that partitioned scenarios that only differ by concurrency are only run once
+    Set<Scenario> scenarios = new LinkedHashSet<>();
+    for (Format format : values(options.get("formats"), Format.class)) {
+      for (BatchMode batchMode : values(options.get("batch-modes"), BatchMode.class)) {
+        for (String concurrency : values(options.get("concurrency"))) {
+          for (Persistence persistence : values(options.get("persistence"), Persistence.class)) {
+            scenarios.add(new Scenario(format, batchMode,
+                batchMode == BatchMode.PARTITIONED ? "1" : concurrency, persistence));
+          }
+        }
+      }
+    }
+    return new ArrayList<>(scenarios);
+  }
+
+  private static List<String> values(final String list) {
+    return Arrays.stream(list.split(",")).map(String::trim).filter(value -> !value.isEmpty())
+        .collect(Collectors.toList());
+  }
+
+  private static <E extends Enum<E>> List<E> values(final String list, final Class<E> type) {
+    return values(list).stream()
+        .map(value -> Enum.valueOf(type, value.toUpperCase(Locale.ROOT)))
+        .collect(Collectors.toList());
+  }
+
+  private static String lower(final Enum<?> value) {
+    return value.name().toLowerCase(Locale.ROOT);
+  }
+
+  private static Result run(final Scenario scenario, final int index, final Load load,
+      final List<String> applicationArgs) throws Exception {
+    // A broker and database per scenario, so that nothing is left over from the previous one
+    String name = "jms-load-" + index;
+    boolean persistent = scenario.getPersistence() == Persistence.KAHADB;
+    String brokerUrl = "vm://" + name + "?broker.schedulerSupport=true&broker.persistent="
+        + persistent + (persistent ? "&broker.deleteAllMessagesOnStartup=true"
+        + "&broker.dataDirectory=target/jms-load" : "");
+
+    List<String> args = new ArrayList<>(Arrays.asList(
+        "--spring.activemq.broker-url=" + brokerUrl,
+        "--spring.datasource.url=jdbc:h2:mem:" + name,
+        "--jms.listener-batch-enabled=" + (scenario.getBatchMode() != BatchMode.SINGLE),
+        "--jms.partitioning-enabled=" + (scenario.getBatchMode() == BatchMode.PARTITIONED),
+        "--jms.listener-concurrency=" + scenario.getConcurrency()));
+    args.addAll(applicationArgs);
+
+    CommitLatencyProbe probe = new CommitLatencyProbe();
+    List<MessageCreator> messages =
+        messages(scenario.getFormat(), Math.max(load.getMessages(), load.getWarmup()));
+
+    try (ConfigurableApplicationContext context = BenchmarkContext.start(
+        applicationContext -> applicationContext.getBeanFactory().addBeanPostProcessor(probe),
+        args.toArray(new String[0]))) {
+      String queue = context.getEnvironment().getRequiredProperty(
+          scenario.getFormat() == Format.JSON ? "jms.agreement-queue-json"
+              : "jms.agreement-queue-proto");
+
+      Connection connection =
+          new ActiveMQConnectionFactory("vm://" + name + "?create=false").createConnection();
+      try {
+        Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+        MessageProducer producer = session.createProducer(session.createQueue(queue));
+        producer.setDeliveryMode(
+            persistent ? DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT);
+
+        if (load.getWarmup() > 0) {
+          publish(session, producer, messages.subList(0, load.getWarmup()), load, probe);
+          awaitCommitted(probe, load.getWarmup(), load);
+        }
+        probe.reset();
+
+        long start = System.nanoTime();
+        publish(session, producer, messages.subList(0, load.getMessages()), load, probe);
+        awaitCommitted(probe, load.getMessages(), load);
+        long elapsed = probe.lastCommitNanos() - start;
+
+        return new Result(scenario, load.getMessages(), elapsed, probe.reset());
+      } finally {
+        connection.close();
+      }
+    }
+  }
+
+  /**
+   * Create the messages for distinct agreements from TestDataGenerator, up front so that
+   * serializing them doesn't slow down publishing.
+   */
+  private static List<MessageCreator> messages(final Format format, final int count)
+      throws JsonProcessingException {
+    List<MessageCreator> messages = new ArrayList<>(count);
+    for (TradeAgreement agreement : BenchmarkContext.agreements(count)) {
+      if (format == Format.JSON) {
+        String json = MAPPER.writeValueAsString(TradeAgreementMessage.builder()
+            .instrument(agreement.getInstrument()).internalParty(agreement.getInternalParty())
+            .externalParty(agreement.getExternalParty()).buySell(agreement.getBuySell())
+            .qty(agreement.getQty()).build());
+        messages.add(session -> session.createTextMessage(json));
+      } else {
+        byte[] bytes = TestDataGenerator.defaultTradeAgreementProtoMessageData()
+            .setInstrument(agreement.getInstrument()).setInternalParty(agreement.getInternalParty())
+            .setExternalParty(agreement.getExternalParty()).setBuySell(agreement.getBuySell())
+            .setQty(agreement.getQty()).build().toByteArray();
+        messages.add(session -> {
+          BytesMessage message = session.createBytesMessage();
+          message.writeBytes(bytes);
+          return message;
+        });
+      }
+    }
+    return messages;
+  }
+
+  private static void publish(final Session session, final MessageProducer producer,
+      final List<MessageCreator> messages, final Load load, final CommitLatencyProbe probe)
+      throws JMSException {
+    long intervalNanos = load.getRate() > 0 ? TimeUnit.SECONDS.toNanos(1) / load.getRate() : 0;
+    int transactionSize = load.getRate() > 0 ? 1 : load.getPublishBatch();
+
+    long start = System.nanoTime();
+    for (int i = 0; i < messages.size(); i++) {
+      if (intervalNanos > 0) {
+        long wait;
+        while ((wait = start + i * intervalNanos - System.nanoTime()) > 0) {
+          LockSupport.parkNanos(wait);
+        }
+      }
+
+      Message message = messages.get(i).createMessage(session);
+      long sent = System.nanoTime();
+      producer.send(message);
+      probe.sent(message.getJMSMessageID(), sent);
+      if ((i + 1) % transactionSize == 0) {
+        session.commit();
+      }
+    }
+    session.commit();
+  }
+
+  private static void awaitCommitted(final CommitLatencyProbe probe, final int count,
+      final Load load) {
+    long deadline = System.nanoTime() + load.getTimeoutNanos();
+    while (probe.committed() < count) {
+      if (System.nanoTime() > deadline) {
+        throw new IllegalStateException("Only " + probe.committed() + " of " + count
+            + " agreements were committed within the timeout");
+      }
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+    }
+  }
+
+  private static void write(final Path report, final Load load, final List<Result> results)
+      throws IOException {
+    if (report.getParent() != null) {
+      Files.createDirectories(report.getParent());
+    }
+    try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(report))) {
+      writer.println("format,batchMode,concurrency,persistence,messages,rate,seconds,msgsPerSec,"
+          + "p50Ms,p90Ms,p99Ms,p999Ms,maxMs");
+      for (Result result : results) {
+        Scenario scenario = result.getScenario();
+        writer.printf(Locale.ROOT, "%s,%s,%s,%s,%d,%d,%.3f,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f%n",
+            lower(scenario.getFormat()), lower(scenario.getBatchMode()),
+            scenario.getConcurrency(), lower(scenario.getPersistence()), result.getMessages(),
+            load.getRate(), result.getElapsedNanos() / 1e9, result.throughput(),
+            result.latencyMillis(50), result.latencyMillis(90), result.latencyMillis(99),
+            result.latencyMillis(99.9), result.latencyMillis(100));
+      }
+    }
+  }
+
+  private enum Format {
+    JSON, PROTO
+  }
+
+  private enum BatchMode {
+    SINGLE, BATCH, PARTITIONED
+  }
+
+  private enum Persistence {
+    MEMORY, KAHADB
+  }
+
+  @Value
+  private static class Load {
+
+    int messages;
+
+    int warmup;
+
+    int rate;
+
+    int publishBatch;
+
+    long timeoutNanos;
+  }
+
+  @Value
+  private static class Scenario {
+
+    Format format;
+
+    BatchMode batchMode;
+
+    String concurrency;
+
+    Persistence persistence;
+  }
+
+  @Value
+  private static class Result {
+
+    Scenario scenario;
+
+    int messages;
+
+    long elapsedNanos;
+
+    Histogram latencies;
+
+    double throughput() {
+      return messages / (elapsedNanos / 1e9);
+    }
+
+    double latencyMillis(final double percentile) {
+      return latencies.getValueAtPercentile(percentile) / 1e6;
+    }
+  }
+}
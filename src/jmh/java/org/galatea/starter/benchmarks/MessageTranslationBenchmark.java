@@ -0,0 +1,93 @@
+package org.galatea.starter.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.galatea.starter.MessageTranslationConfig;
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.entrypoint.messagecontracts.SettlementMissionMessage;
+import org.galatea.starter.entrypoint.messagecontracts.TradeAgreementMessage;
+import org.galatea.starter.entrypoint.messagecontracts.TradeAgreementMessages;
+import org.galatea.starter.testutils.TestDataGenerator;
+import org.galatea.starter.utils.translation.ITranslator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the JSON/XML message translators defined in MessageTranslationConfig.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = BenchmarkContext.LOG_CONFIG)
+@State(Scope.Benchmark)
+public class MessageTranslationBenchmark {
+
+  @Param({"1", "25", "1000", "100000"})
+  private int batchSize;
+
+  private ITranslator<TradeAgreementMessages, List<TradeAgreement>> agreementMessagesTranslator;
+
+  private ITranslator<SettlementMission, SettlementMissionMessage> missionTranslator;
+
+  private ITranslator<SettlementMissionMessage, SettlementMission> missionMsgTranslator;
+
+  private TradeAgreementMessages agreementMessages;
+
+  private SettlementMission mission;
+
+  private SettlementMissionMessage missionMessage;
+
+  /**
+   * Create the translators and the messages to translate.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    MessageTranslationConfig config = new MessageTranslationConfig();
+    agreementMessagesTranslator =
+        config.tradeAgreementMessagesTranslator(config.tradeAgreementMessageTranslator());
+    missionTranslator = config.settlementMissionTranslator();
+    missionMsgTranslator = config.settlementMissionMsgTranslator();
+
+    agreementMessages = TradeAgreementMessages.builder()
+        .agreements(BenchmarkContext.agreements(batchSize).stream()
+            .map(agr -> TradeAgreementMessage.builder()
+                .instrument(agr.getInstrument())
+                .internalParty(agr.getInternalParty())
+                .externalParty(agr.getExternalParty())
+                .buySell(agr.getBuySell())
+                .qty(agr.getQty()).build())
+            .collect(Collectors.toList()))
+        .build();
+
+    mission = TestDataGenerator.defaultSettlementMissionData().build();
+    missionMessage = missionTranslator.translate(mission);
+  }
+
+  @Benchmark
+  public List<TradeAgreement> translateAgreementMessages() {
+    return agreementMessagesTranslator.translate(agreementMessages);
+  }
+
+  @Benchmark
+  public SettlementMissionMessage translateMission() {
+    return missionTranslator.translate(mission);
+  }
+
+  @Benchmark
+  public SettlementMission translateMissionMessage() {
+    return missionMsgTranslator.translate(missionMessage);
+  }
+}
@@ -0,0 +1,76 @@
+package org.galatea.starter.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.service.SettlementService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Compares mission lookups with the on-heap missions cache alone (offHeapBytes of 0) and with an
+ * off-heap tier behind it that is large enough for every seeded mission.
+ *
+ * <p>The seeded missions far outnumber the entries of the on-heap cache, so without the off-heap
+ * tier most random lookups go to the database. Sample time mode reports the p99 lookup latency,
+ * and the gc profiler of the benchmarks profile reports the GC time and allocation rate.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {BenchmarkContext.LOG_CONFIG, "-Xmx2g"})
+@State(Scope.Benchmark)
+public class MissionCacheBenchmark {
+
+  @Param({"0", "268435456"})
+  private long offHeapBytes;
+
+  @Param({"200000"})
+  private int missionCount;
+
+  private ConfigurableApplicationContext context;
+
+  private SettlementService service;
+
+  private List<Long> seededIds;
+
+  /**
+   * Start the application with the off-heap tier under test, seed the missions and read them all
+   * once so that they are cached.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    context = BenchmarkContext.start("--cache-missions-offheap-bytes=" + offHeapBytes);
+    service = context.getBean(SettlementService.class);
+
+    seededIds = new ArrayList<>(service.spawnMissions(BenchmarkContext.agreements(missionCount)));
+    seededIds.forEach(service::findMission);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public Optional<SettlementMission> findMission() {
+    return service.findMission(
+        seededIds.get(ThreadLocalRandom.current().nextInt(seededIds.size())));
+  }
+}
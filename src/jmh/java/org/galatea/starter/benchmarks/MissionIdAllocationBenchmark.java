@@ -0,0 +1,95 @@
+package org.galatea.starter.benchmarks;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.service.SettlementService;
+import org.galatea.starter.utils.jpa.PooledIdGenerator;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Compares mission insert throughput with and without block id allocation.
+ *
+ * <p>An idBlockSize of 1 fetches one id per inserted row, which is how ids were allocated before
+ * PooledIdGenerator was introduced. The "rows" secondary result is the insert rate in rows/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = BenchmarkContext.LOG_CONFIG)
+@State(Scope.Benchmark)
+public class MissionIdAllocationBenchmark {
+
+  @Param({"1", "1000"})
+  private int idBlockSize;
+
+  @Param({"10000", "100000"})
+  private int agreementCount;
+
+  private ConfigurableApplicationContext context;
+
+  private SettlementService service;
+
+  private JdbcTemplate jdbcTemplate;
+
+  private List<TradeAgreement> agreements;
+
+  /**
+   * Counts the rows inserted so that JMH reports a rows/s rate next to the calls/s rate.
+   */
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class InsertedRows {
+
+    public long rows;
+  }
+
+  /**
+   * Start the application with the id block size under test.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    context = BenchmarkContext.start(
+        "--spring.jpa.properties." + PooledIdGenerator.BLOCK_SIZE_SETTING + "=" + idBlockSize);
+    service = context.getBean(SettlementService.class);
+    jdbcTemplate = context.getBean(JdbcTemplate.class);
+    agreements = BenchmarkContext.agreements(agreementCount);
+  }
+
+  @TearDown(Level.Iteration)
+  public void removeSpawnedMissions() {
+    jdbcTemplate.update("delete from settlement_mission");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  /**
+   * Insert all of the agreements in one spawnMissions call.
+   */
+  @Benchmark
+  public Set<Long> spawnMissions(final InsertedRows counter) {
+    Set<Long> ids = service.spawnMissions(agreements);
+    counter.rows += ids.size();
+    return ids;
+  }
+}
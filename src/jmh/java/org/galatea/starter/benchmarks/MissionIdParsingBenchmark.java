@@ -0,0 +1,98 @@
+package org.galatea.starter.benchmarks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import org.galatea.starter.utils.LongIdSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the id handling around a multi-mission lookup: parsing the ids parameter, checking that
+ * every id was found and putting the missions back into the requested order. The cache and the
+ * database are left out, so that only the cost of boxing and hashing the ids shows.
+ *
+ * <p>boxedIds is how getMissions and findMissions handled ids before they moved to primitive
+ * arrays; primitiveIds is the LongIdSet based version they use now. The gc profiler of the
+ * benchmarks profile reports the allocation rate of each.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = BenchmarkContext.LOG_CONFIG)
+@State(Scope.Benchmark)
+public class MissionIdParsingBenchmark {
+
+  @Param({"100", "10000", "50000"})
+  private int idCount;
+
+  private String idsParam;
+
+  /**
+   * Build an ids parameter of distinct, shuffled ids, like a client asking for a set of missions
+   * in no particular order.
+   */
+  @Setup
+  public void setup() {
+    List<Long> ids = LongStream.range(1_000_000L, 1_000_000L + idCount).boxed()
+        .collect(Collectors.toList());
+    Collections.shuffle(ids, ThreadLocalRandom.current());
+    idsParam = ids.stream().map(String::valueOf).collect(Collectors.joining(","));
+  }
+
+  @Benchmark
+  public Object boxedIds() {
+    List<Long> ids = Arrays.stream(idsParam.split(","))
+        .map(Long::parseLong)
+        .collect(Collectors.toList());
+
+    // Stands in for the map that the cache and database lookups used to produce
+    Map<Long, Long> found = new LinkedHashMap<>(ids.size() * 2);
+    for (Long id : ids) {
+      found.put(id, id);
+    }
+
+    Set<Long> missing = new LinkedHashSet<>(ids);
+    missing.removeAll(found.keySet());
+    if (!missing.isEmpty()) {
+      throw new IllegalStateException("Missing " + missing);
+    }
+    return found.values().toArray();
+  }
+
+  @Benchmark
+  public Object primitiveIds() {
+    LongIdSet ids = LongIdSet.parse(idsParam);
+
+    // Stands in for the array that the cache and database lookups produce
+    long[] found = new long[ids.size()];
+    for (int i = 0; i < found.length; i++) {
+      found[ids.indexOf(ids.get(i))] = ids.get(i);
+    }
+
+    for (int i = 0; i < found.length; i++) {
+      if (found[i] == 0) {
+        throw new IllegalStateException("Missing " + ids.get(i));
+      }
+    }
+    return found;
+  }
+}
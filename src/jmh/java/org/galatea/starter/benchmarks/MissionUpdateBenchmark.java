@@ -0,0 +1,133 @@
+package org.galatea.starter.benchmarks;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.domain.rpsy.ISettlementMissionRpsy;
+import org.galatea.starter.service.MissionCacheWriter;
+import org.galatea.starter.service.MissionEventOutbox;
+import org.galatea.starter.service.SettlementService;
+import org.galatea.starter.testutils.TestDataGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Compares mission update throughput under concurrent writers for the existence check plus
+ * load-and-save path that PUT used to take and the single conditional UPDATE it takes now.
+ *
+ * <p>Each thread updates its own mission and tracks its version, so the comparison measures
+ * database round trips and lock hold times rather than version conflicts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = BenchmarkContext.LOG_CONFIG)
+@Threads(4)
+@State(Scope.Benchmark)
+public class MissionUpdateBenchmark {
+
+  private ConfigurableApplicationContext context;
+
+  private SettlementService service;
+
+  private ISettlementMissionRpsy missionRpsy;
+
+  private TransactionOperations transactionOperations;
+
+  private MissionEventOutbox missionEventOutbox;
+
+  private MissionCacheWriter missionCacheWriter;
+
+  /**
+   * The mission updated by one benchmark thread.
+   */
+  @State(Scope.Thread)
+  public static class ThreadMission {
+
+    private long id;
+
+    private long version;
+
+    /**
+     * Spawn the mission this thread updates.
+     */
+    @Setup(Level.Trial)
+    public void setup(final MissionUpdateBenchmark benchmark) {
+      id = benchmark.service.spawnMissions(
+          Collections.singletonList(TestDataGenerator.defaultTradeAgreementData().build()))
+          .iterator().next();
+      version = benchmark.service.findMission(id).get().getVersion();
+    }
+
+    SettlementMission nextUpdate() {
+      return TestDataGenerator.defaultSettlementMissionData().id(id).version(version)
+          .qty(version + 1d).build();
+    }
+
+    Optional<SettlementMission> updated(final Optional<SettlementMission> mission) {
+      version = mission.get().getVersion();
+      return mission;
+    }
+  }
+
+  /**
+   * Start the application.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    context = BenchmarkContext.start();
+    service = context.getBean(SettlementService.class);
+    missionRpsy = context.getBean(ISettlementMissionRpsy.class);
+    transactionOperations = context.getBean(TransactionOperations.class);
+    missionEventOutbox = context.getBean(MissionEventOutbox.class);
+    missionCacheWriter = context.getBean(MissionCacheWriter.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  /**
+   * Check that the mission exists, then load and save it (merge it) in one transaction with its
+   * UPDATED event, like SettlementService used to.
+   */
+  @Benchmark
+  public Optional<SettlementMission> existsThenSave(final ThreadMission mission) {
+    SettlementMission update = mission.nextUpdate();
+    if (!service.missionExists(update.getId())) {
+      throw new IllegalStateException("Mission " + update.getId() + " is gone");
+    }
+    SettlementMission saved = transactionOperations.execute(status -> {
+      SettlementMission merged = missionRpsy.save(update);
+      missionEventOutbox.missionsUpdated(Collections.singletonList(merged));
+      return merged;
+    });
+    missionCacheWriter.missionsSaved(Collections.singletonList(saved));
+    return mission.updated(Optional.ofNullable(saved));
+  }
+
+  /**
+   * Update the mission with one conditional UPDATE statement.
+   */
+  @Benchmark
+  public Optional<SettlementMission> conditionalUpdate(final ThreadMission mission) {
+    SettlementMission update = mission.nextUpdate();
+    return mission.updated(service.updateMissionIfCurrent(update.getId(), update));
+  }
+}
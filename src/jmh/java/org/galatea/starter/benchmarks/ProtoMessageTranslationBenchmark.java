@@ -0,0 +1,139 @@
+package org.galatea.starter.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.galatea.starter.ProtoMessageTranslationConfig;
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementMissionProtoMessage;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessage;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessages;
+import org.galatea.starter.testutils.TestDataGenerator;
+import org.galatea.starter.utils.translation.ITranslator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the protobuf message translators defined in ProtoMessageTranslationConfig, including
+ * the ones used by the protobuf JMS listener.
+ *
+ * <p>copyAndParseBytesMessage is how the listener read agreements before
+ * TradeAgreementProtoReader: the body copied into a new byte[] (as the message converter did) and
+ * parsed into a TradeAgreementProtoMessage. readBytesMessage reads the agreement straight from the
+ * message. Both rewind the message first. The gc profiler of the benchmarks profile reports the
+ * bytes allocated per message by each (gc.alloc.rate.norm). readEnvelopeBytesMessage reads an
+ * envelope of batchSize agreements.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = BenchmarkContext.LOG_CONFIG)
+@State(Scope.Benchmark)
+public class ProtoMessageTranslationBenchmark {
+
+  @Param({"1", "25", "1000", "100000"})
+  private int batchSize;
+
+  private ITranslator<byte[], TradeAgreement> binaryTranslator;
+
+  private ITranslator<BytesMessage, List<TradeAgreement>> bytesMessageTranslator;
+
+  private ITranslator<TradeAgreementProtoMessages, List<TradeAgreement>> agreementMessagesTranslator;
+
+  private ITranslator<SettlementMission, SettlementMissionProtoMessage> missionTranslator;
+
+  private byte[] agreementBytes;
+
+  private ActiveMQBytesMessage agreementMessage;
+
+  private TradeAgreementProtoMessages agreementMessages;
+
+  private ActiveMQBytesMessage envelopeMessage;
+
+  private SettlementMission mission;
+
+  /**
+   * Create the translators and the messages to translate.
+   */
+  @Setup(Level.Trial)
+  public void setup() throws JMSException {
+    ProtoMessageTranslationConfig config = new ProtoMessageTranslationConfig();
+    ITranslator<TradeAgreementProtoMessage, TradeAgreement> agreementTranslator =
+        config.tradeAgreementProtoTranslator();
+    binaryTranslator = config.tradeAgreementBinaryProtobufTranslator(agreementTranslator);
+    agreementMessagesTranslator = config.tradeAgreementProtoMessagesTranslator(agreementTranslator);
+    bytesMessageTranslator = config.tradeAgreementsBytesMessageTranslator();
+    missionTranslator = config.settlementMissionProtoTranslator();
+
+    agreementBytes = TestDataGenerator.defaultTradeAgreementProtoMessageData().build().toByteArray();
+    agreementMessage = new ActiveMQBytesMessage();
+    agreementMessage.writeBytes(agreementBytes);
+    agreementMessage.reset();
+
+    agreementMessages = TradeAgreementProtoMessages.newBuilder()
+        .addAllMessage(BenchmarkContext.agreements(batchSize).stream()
+            .map(agr -> TradeAgreementProtoMessage.newBuilder()
+                .setInstrument(agr.getInstrument())
+                .setInternalParty(agr.getInternalParty())
+                .setExternalParty(agr.getExternalParty())
+                .setBuySell(agr.getBuySell())
+                .setQty(agr.getQty()).build())
+            .collect(Collectors.toList()))
+        .build();
+    envelopeMessage = new ActiveMQBytesMessage();
+    envelopeMessage.writeBytes(agreementMessages.toByteArray());
+    envelopeMessage.reset();
+
+    mission = TestDataGenerator.defaultSettlementMissionData().build();
+  }
+
+  @Benchmark
+  public TradeAgreement translateAgreementBytes() {
+    return binaryTranslator.translate(agreementBytes);
+  }
+
+  @Benchmark
+  public TradeAgreement copyAndParseBytesMessage() throws JMSException {
+    agreementMessage.reset();
+    byte[] body = new byte[(int) agreementMessage.getBodyLength()];
+    agreementMessage.readBytes(body);
+    return binaryTranslator.translate(body);
+  }
+
+  @Benchmark
+  public List<TradeAgreement> readBytesMessage() throws JMSException {
+    agreementMessage.reset();
+    return bytesMessageTranslator.translate(agreementMessage);
+  }
+
+  @Benchmark
+  public List<TradeAgreement> readEnvelopeBytesMessage() throws JMSException {
+    envelopeMessage.reset();
+    return bytesMessageTranslator.translate(envelopeMessage);
+  }
+
+  @Benchmark
+  public List<TradeAgreement> translateAgreementMessages() {
+    return agreementMessagesTranslator.translate(agreementMessages);
+  }
+
+  @Benchmark
+  public SettlementMissionProtoMessage translateMission() {
+    return missionTranslator.translate(mission);
+  }
+}
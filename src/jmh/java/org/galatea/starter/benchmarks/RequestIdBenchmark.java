@@ -0,0 +1,53 @@
+package org.galatea.starter.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.galatea.starter.utils.RequestIds;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.MDC;
+
+/**
+ * Compares the request id handling of FuseHttpTraceFilter under concurrency: generating the
+ * internal id, putting it into the MDC and reading it back for the audit header.
+ *
+ * <p>sharedRandom is how the filter did it before RequestIds: every thread draws from one
+ * java.util.Random, and the " - " separator of the log pattern is appended to the MDC value and
+ * stripped again for the header. requestIds is the current version. The gc profiler of the
+ * benchmarks profile reports the allocation rate of each.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = BenchmarkContext.LOG_CONFIG)
+@Threads(8)
+public class RequestIdBenchmark {
+
+  private static final String INTERNAL_REQUEST_ID = "internal-request-id";
+
+  private static final Random QUERY_ID_GENERATOR = new Random();
+
+  @Benchmark
+  public String sharedRandom() {
+    String id = Integer.toString(QUERY_ID_GENERATOR.nextInt(Integer.MAX_VALUE));
+    MDC.put(INTERNAL_REQUEST_ID, id + " - ");
+    String header = MDC.get(INTERNAL_REQUEST_ID).replace(" - ", "");
+    MDC.remove(INTERNAL_REQUEST_ID);
+    return header;
+  }
+
+  @Benchmark
+  public String requestIds() {
+    MDC.put(RequestIds.INTERNAL_REQUEST_ID, RequestIds.next());
+    String header = MDC.get(RequestIds.INTERNAL_REQUEST_ID);
+    MDC.remove(RequestIds.INTERNAL_REQUEST_ID);
+    return header;
+  }
+}
@@ -0,0 +1,109 @@
+package org.galatea.starter.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.service.SettlementService;
+import org.galatea.starter.utils.LongIdSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Measures the settlement service end to end (validation, transformation, JPA and caching) against
+ * the embedded H2 datasource.
+ *
+ * <p>batchSize is the number of agreements per spawnMissions call, and the number of missions that
+ * are seeded (and subsequently looked up) for the find benchmarks.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = BenchmarkContext.LOG_CONFIG)
+@State(Scope.Benchmark)
+public class SettlementServiceBenchmark {
+
+  @Param({"1", "25", "1000", "100000"})
+  private int batchSize;
+
+  private ConfigurableApplicationContext context;
+
+  private SettlementService service;
+
+  private JdbcTemplate jdbcTemplate;
+
+  private List<TradeAgreement> agreements;
+
+  private List<Long> seededIds;
+
+  private LongIdSet seededIdSet;
+
+  private long maxSeededId;
+
+  /**
+   * Start the application and seed the missions used by the find benchmarks.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    context = BenchmarkContext.start();
+    service = context.getBean(SettlementService.class);
+    jdbcTemplate = context.getBean(JdbcTemplate.class);
+
+    agreements = BenchmarkContext.agreements(batchSize);
+
+    Set<Long> ids = service.spawnMissions(agreements);
+    seededIds = new ArrayList<>(ids);
+    Collections.sort(seededIds);
+    maxSeededId = seededIds.get(seededIds.size() - 1);
+    seededIdSet = LongIdSet.of(seededIds.stream().mapToLong(Long::longValue).toArray());
+  }
+
+  /**
+   * Remove the missions created by spawnMissions so that the table (and the heap of the in-memory
+   * database) doesn't grow without bound over the course of the run.
+   */
+  @TearDown(Level.Iteration)
+  public void removeSpawnedMissions() {
+    jdbcTemplate.update("delete from settlement_mission where id > ?", maxSeededId);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public Set<Long> spawnMissions() {
+    return service.spawnMissions(agreements);
+  }
+
+  @Benchmark
+  public Optional<SettlementMission> findMission() {
+    return service.findMission(
+        seededIds.get(ThreadLocalRandom.current().nextInt(seededIds.size())));
+  }
+
+  @Benchmark
+  public List<SettlementMission> findMissions() {
+    return service.findMissions(seededIdSet);
+  }
+}
@@ -1,11 +1,23 @@
 package org.galatea.starter;
 
 import feign.Logger;
+import java.time.Duration;
+import java.util.Collections;
 import lombok.extern.slf4j.Slf4j;
 import net.sf.aspect4log.aspect.LogAspect;
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
 import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.service.CachingMissionLoader;
 import org.galatea.starter.service.IAgreementTransformer;
+import org.galatea.starter.utils.MdcTaskDecorator;
+import org.galatea.starter.utils.cache.LongKeySerializer;
+import org.galatea.starter.utils.cache.MissionCacheSerializer;
+import org.galatea.starter.utils.cache.OffHeapCache;
+import org.galatea.starter.utils.cache.TieredEhCacheCacheManager;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.cache.ehcache.EhCacheCacheManager;
@@ -15,6 +27,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.task.TaskDecorator;
 
 @Slf4j
 @Configuration
@@ -23,6 +36,9 @@ import org.springframework.core.io.ClassPathResource;
 @EnableFeignClients
 public class AppConfig {
 
+  // Matches the timeToLiveSeconds of the missions cache in ehcache.xml
+  private static final Duration MISSIONS_TIME_TO_LIVE = Duration.ofSeconds(1200);
+
   /**
    * Create a LogAspect for use with the SpringAOP @Log annotation.
    */
@@ -31,6 +47,15 @@ public class AppConfig {
     return new LogAspect();
   }
 
+  /**
+   * Propagates the MDC (and so the request ids in it) to the tasks run by the executors that
+   * Spring Boot configures.
+   */
+  @Bean
+  public TaskDecorator mdcTaskDecorator() {
+    return new MdcTaskDecorator();
+  }
+
   /**
    * Returns an anonymous class implementing the IAgreementTransformer interface. Demonstrates the
    * use of a lambda function which can stand in as an anonymous class with a single method:
@@ -46,10 +71,42 @@ public class AppConfig {
   /**
    * CacheManager that contains the Cache Configuration. Spring will use this cache if any
    * cache annotations are used.
+   *
+   * <p>When the off-heap missions cache is enabled, the missions cache from the config file is
+   * kept as a small heap tier in front of it. Every other cache comes from the config file alone.
    */
   @Bean
-  public CacheManager cacheManager(final EhCacheManagerFactoryBean ehCacheCacheManagerFactoryBean) {
-    return new EhCacheCacheManager(ehCacheCacheManagerFactoryBean.getObject());
+  public CacheManager cacheManager(final EhCacheManagerFactoryBean ehCacheCacheManagerFactoryBean,
+      final ObjectProvider<OHCache<Object, Object>> offHeapMissionsCache) {
+    OHCache<Object, Object> offHeap = offHeapMissionsCache.getIfAvailable();
+    if (offHeap == null) {
+      return new EhCacheCacheManager(ehCacheCacheManagerFactoryBean.getObject());
+    }
+
+    log.info("Using an off-heap tier of {} bytes for the missions cache", offHeap.capacity());
+    return new TieredEhCacheCacheManager(ehCacheCacheManagerFactoryBean.getObject(),
+        Collections.singletonMap(CachingMissionLoader.CACHE_NAME,
+            new OffHeapCache(CachingMissionLoader.CACHE_NAME, offHeap)));
+  }
+
+  /**
+   * Creates an off-heap store for the missions cache of cache-missions-offheap-bytes bytes. Its
+   * entries are kept serialized by MissionCacheSerializer in memory allocated outside of the
+   * garbage collected heap, so even a large number of them adds nothing to GC work.
+   *
+   * <p>Only created when cache-missions-offheap-bytes is positive.
+   */
+  @Bean(destroyMethod = "close")
+  @ConditionalOnExpression("${cache-missions-offheap-bytes:0} > 0")
+  public OHCache<Object, Object> offHeapMissionsCache(
+      @Value("${cache-missions-offheap-bytes}") final long offHeapBytes) {
+    return OHCacheBuilder.newBuilder()
+        .keySerializer(new LongKeySerializer())
+        .valueSerializer(new MissionCacheSerializer())
+        .capacity(offHeapBytes)
+        .timeouts(true)
+        .defaultTTLmillis(MISSIONS_TIME_TO_LIVE.toMillis())
+        .build();
   }
 
   /**
@@ -1,11 +1,38 @@
 package org.galatea.starter;
 
+import com.google.common.base.Throwables;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.function.BiConsumer;
+import java.util.function.DoubleSupplier;
 import javax.jms.ConnectionFactory;
 import javax.jms.Message;
+import javax.sql.DataSource;
+import javax.validation.ValidationException;
 import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.rpsy.IMissionEventRpsy;
+import org.galatea.starter.entrypoint.SettlementJmsListener;
+import org.galatea.starter.service.MissionEventRelay;
+import org.galatea.starter.utils.jms.AutoscalingSettings;
+import org.galatea.starter.utils.jms.BatchJmsListenerEndpoint;
+import org.galatea.starter.utils.jms.BatchMessageListener;
+import org.galatea.starter.utils.jms.BrokerQueueStatistics;
+import org.galatea.starter.utils.jms.FuseBatchJmsListenerContainerFactory;
 import org.galatea.starter.utils.jms.FuseJmsListenerContainerFactory;
+import org.galatea.starter.utils.jms.MessageRetrier;
+import org.galatea.starter.utils.jms.PartitionedBatchExecutor;
+import org.galatea.starter.utils.translation.TranslationException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.jms.DefaultJmsListenerContainerFactoryConfigurer;
+import org.springframework.boot.autoconfigure.jms.activemq.ActiveMQConnectionFactoryCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jms.annotation.EnableJms;
@@ -17,12 +44,19 @@ import org.springframework.messaging.converter.MappingJackson2MessageConverter;
 import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.messaging.handler.annotation.support.DefaultMessageHandlerMethodFactory;
 import org.springframework.messaging.handler.annotation.support.MessageHandlerMethodFactory;
+import org.springframework.transaction.support.TransactionOperations;
 
 @Slf4j
 @Configuration
 @EnableJms
 public class JmsConfig implements JmsListenerConfigurer {
 
+  // Failures of the message itself, which it would fail with again however often it was retried
+  private static final List<Class<? extends Throwable>> NON_RETRYABLE_FAILURES = Arrays.asList(
+      org.springframework.jms.support.converter.MessageConversionException.class,
+      org.springframework.messaging.converter.MessageConversionException.class,
+      TranslationException.class, ValidationException.class);
+
   /**
    * Returns an implementation of failed message consumer that simply logs the message.
    */
@@ -45,6 +79,10 @@ public class JmsConfig implements JmsListenerConfigurer {
    * listener container which adds tracing of how the message is handled. We also manually set the
    * message converter to ensure that it is using the correct message format.
    *
+   * <p>This factory creates the containers for the @JmsListener methods, which handle one message
+   * at a time. When batch listeners are enabled, those containers are not started so that only the
+   * batch listeners consume from the queues.
+   *
    * @param queueConnectionFactory injected by spring
    * @param configurer injected by spring
    * @return the factory.
@@ -53,7 +91,12 @@ public class JmsConfig implements JmsListenerConfigurer {
   public JmsListenerContainerFactory<DefaultMessageListenerContainer> jmsListenerContainerFactory(
       final ConnectionFactory queueConnectionFactory,
       final DefaultJmsListenerContainerFactoryConfigurer configurer,
-      final BiConsumer<Message, Exception> failedMessageConsumer) {
+      final BiConsumer<Message, Exception> failedMessageConsumer,
+      @Value("${jms.listener-batch-enabled}") final boolean batchEnabled,
+      final ObjectProvider<MessageRetrier> messageRetrier,
+      final ObjectProvider<AutoscalingSettings> autoscalingSettings, final DataSource dataSource,
+      final ObjectProvider<BrokerQueueStatistics> queueStatistics,
+      final ObjectProvider<MeterRegistry> meterRegistry) {
 
     FuseJmsListenerContainerFactory listenerFactory =
         new FuseJmsListenerContainerFactory(failedMessageConsumer);
@@ -64,11 +107,208 @@ public class JmsConfig implements JmsListenerConfigurer {
     // http://docs.spring.io/spring-framework/docs/current/javadoc-api/org/springframework/
     // jms/listener/DefaultMessageListenerContainer.html
     configurer.configure(listenerFactory, queueConnectionFactory);
+    messageRetrier.ifAvailable(listenerFactory::setMessageRetrier);
+    autoscalingSettings.ifAvailable(settings -> listenerFactory.setAutoscaling(settings,
+        poolSaturation(dataSource), queueStatistics.getObject(),
+        meterRegistry.getIfAvailable(SimpleMeterRegistry::new)));
+
+    listenerFactory.setAutoStartup(!batchEnabled);
 
     // TODO: override any defaults in the listener factory before we return the object
     return listenerFactory;
   }
 
+  /**
+   * Listener container factory for batch listeners. Its containers drain up to
+   * jms.listener-batch-size messages, waiting at most jms.listener-batch-linger-ms for a batch to
+   * fill up, and acknowledge each batch with a single commit.
+   */
+  @Bean
+  @ConditionalOnProperty("jms.listener-batch-enabled")
+  public FuseBatchJmsListenerContainerFactory batchJmsListenerContainerFactory(
+      final ConnectionFactory queueConnectionFactory,
+      final DefaultJmsListenerContainerFactoryConfigurer configurer,
+      final BiConsumer<Message, Exception> failedMessageConsumer,
+      @Value("${jms.listener-batch-size}") final int batchSize,
+      @Value("${jms.listener-batch-linger-ms}") final long batchLingerMillis,
+      final ObjectProvider<MessageRetrier> messageRetrier,
+      final ObjectProvider<AutoscalingSettings> autoscalingSettings, final DataSource dataSource,
+      final ObjectProvider<BrokerQueueStatistics> queueStatistics,
+      final ObjectProvider<MeterRegistry> meterRegistry) {
+
+    FuseBatchJmsListenerContainerFactory listenerFactory =
+        new FuseBatchJmsListenerContainerFactory(failedMessageConsumer, batchSize,
+            batchLingerMillis);
+
+    configurer.configure(listenerFactory, queueConnectionFactory);
+    messageRetrier.ifAvailable(listenerFactory::setMessageRetrier);
+    autoscalingSettings.ifAvailable(settings -> listenerFactory.setAutoscaling(settings,
+        poolSaturation(dataSource), queueStatistics.getObject(),
+        meterRegistry.getIfAvailable(SimpleMeterRegistry::new)));
+    return listenerFactory;
+  }
+
+  /**
+   * Reschedules the messages that the listeners fail to handle with a growing delay, and moves
+   * them to a dead-letter queue once they have failed jms.retry-max-attempts times. Messages that
+   * fail for reasons a retry wouldn't change (they can't be read, or their agreements are
+   * invalid) are dead-lettered straight away.
+   */
+  @Bean
+  @ConditionalOnProperty("jms.retry-enabled")
+  public MessageRetrier messageRetrier(
+      @Value("${jms.retry-max-attempts}") final int maxAttempts,
+      @Value("${jms.retry-initial-delay-ms}") final long initialDelayMillis,
+      @Value("${jms.retry-multiplier}") final double multiplier,
+      @Value("${jms.retry-max-delay-ms}") final long maxDelayMillis,
+      @Value("${jms.dead-letter-prefix}") final String deadLetterPrefix) {
+    return new MessageRetrier(maxAttempts, initialDelayMillis, multiplier, maxDelayMillis,
+        deadLetterPrefix, failure -> Throwables.getCausalChain(failure).stream()
+            .noneMatch(cause -> NON_RETRYABLE_FAILURES.stream()
+                .anyMatch(type -> type.isInstance(cause))));
+  }
+
+  /**
+   * Keeps the attempt and original message ID of retried protobuf messages through the JMS
+   * tracing, which would otherwise drop the properties of bytes messages.
+   */
+  @Bean
+  @ConditionalOnProperty("jms.retry-enabled")
+  public ActiveMQConnectionFactoryCustomizer retriedMessageTransformer() {
+    return factory -> factory.setTransformer(MessageRetrier.consumerTransformer());
+  }
+
+  /**
+   * Settings of the controllers that scale the consumers of the listener containers within the
+   * bounds of jms.listener-concurrency, from the depth of their queues, the latency of their
+   * listeners and the saturation of the database connection pool.
+   */
+  @Bean
+  @ConditionalOnProperty("jms.autoscaling-enabled")
+  public AutoscalingSettings autoscalingSettings(
+      @Value("${jms.autoscaling-interval-ms}") final long intervalMillis,
+      @Value("${jms.autoscaling-target-drain-ms}") final long targetDrainMillis,
+      @Value("${jms.autoscaling-max-pool-saturation}") final double maxPoolSaturation,
+      @Value("${jms.autoscaling-max-messages-per-task}") final int maxMessagesPerTask) {
+    return AutoscalingSettings.builder().intervalMillis(intervalMillis)
+        .targetDrainMillis(targetDrainMillis).maxPoolSaturation(maxPoolSaturation)
+        .maxMessagesPerTask(maxMessagesPerTask).build();
+  }
+
+  /**
+   * Reads the depths of the listeners' queues, for autoscaling, from the MBeans of the broker:
+   * those at jms.autoscaling-jmx-url, or those that the embedded broker registers with the platform
+   * MBean server if it is empty.
+   */
+  @Bean
+  @ConditionalOnProperty("jms.autoscaling-enabled")
+  public BrokerQueueStatistics brokerQueueStatistics(
+      @Value("${jms.autoscaling-jmx-url}") final String jmxUrl) throws IOException {
+    return BrokerQueueStatistics.connect(jmxUrl);
+  }
+
+  /**
+   * Splits the batches of the settlement listeners by instrument, into jms.partition-count
+   * partitions (one per core if it is 0) that are settled in parallel. If partitioning is
+   * disabled, each batch is settled as a whole on the listener thread.
+   */
+  @Bean
+  public PartitionedBatchExecutor partitionedBatchExecutor(
+      @Value("${jms.partitioning-enabled}") final boolean partitioningEnabled,
+      @Value("${jms.partition-count}") final int partitionCount) {
+    int partitions = !partitioningEnabled ? 1
+        : partitionCount > 0 ? partitionCount : Runtime.getRuntime().availableProcessors();
+    return new PartitionedBatchExecutor(partitions);
+  }
+
+  /**
+   * Publishes the mission events recorded in the outbox to the mission-events.topic topic.
+   */
+  @Bean
+  @ConditionalOnProperty("mission-events.enabled")
+  public MissionEventRelay missionEventRelay(final IMissionEventRpsy missionEventRpsy,
+      final ConnectionFactory connectionFactory,
+      @Value("${mission-events.topic}") final String topic,
+      @Value("${mission-events.relay-batch-size}") final int batchSize,
+      @Value("${mission-events.relay-interval-ms}") final long intervalMillis,
+      final TransactionOperations transactionOperations,
+      final ObjectProvider<MeterRegistry> meterRegistry) {
+    return new MissionEventRelay(missionEventRpsy, connectionFactory, topic, batchSize,
+        transactionOperations, intervalMillis,
+        meterRegistry.getIfAvailable(SimpleMeterRegistry::new));
+  }
+
+  /**
+   * Registers the batch variants of the settlement listeners. These consume from the same queues
+   * as the @JmsListener methods of SettlementJmsListener and replace them when batch listeners are
+   * enabled.
+   *
+   * <p>When partitioning is enabled, each of them runs a single consumer, rather than
+   * jms.listener-concurrency, so that its batches are settled one after the other and the
+   * agreements for each instrument stay in the order they were received. The parallelism comes
+   * from the partitions of each batch instead. Since there is then no range of consumers to scale
+   * within, a warning is logged at startup if jms.listener-concurrency is anything but 1, and says
+   * so if autoscaling is enabled.
+   */
+  @Bean
+  @ConditionalOnProperty("jms.listener-batch-enabled")
+  public JmsListenerConfigurer batchJmsListenerConfigurer(
+      final SettlementJmsListener settlementJmsListener,
+      final FuseBatchJmsListenerContainerFactory batchJmsListenerContainerFactory,
+      @Value("${jms.agreement-queue-json}") final String jsonQueue,
+      @Value("${jms.agreement-queue-proto}") final String protoQueue,
+      @Value("${jms.listener-concurrency}") final String listenerConcurrency,
+      @Value("${jms.partitioning-enabled}") final boolean partitioningEnabled,
+      @Value("${jms.partition-count}") final int partitionCount,
+      final ObjectProvider<AutoscalingSettings> autoscalingSettings) {
+
+    if (partitioningEnabled && !"1".equals(listenerConcurrency.trim())) {
+      log.warn("jms.listener-concurrency {} is not applied to the batch listeners: with"
+          + " jms.partitioning-enabled each runs a single consumer, and settles its batches in"
+          + " jms.partition-count {} partitions instead{}", listenerConcurrency, partitionCount,
+          autoscalingSettings.getIfAvailable() == null ? ""
+              : ", so jms.autoscaling-enabled has no consumers to scale");
+    }
+    final String concurrency = partitioningEnabled ? "1" : listenerConcurrency;
+    return registrar -> {
+      registrar.registerEndpoint(batchEndpoint("settleAgreementsJson", jsonQueue, concurrency,
+          settlementJmsListener::settleAgreementsJson), batchJmsListenerContainerFactory);
+      registrar.registerEndpoint(batchEndpoint("settleAgreementsProto", protoQueue, concurrency,
+          settlementJmsListener::settleAgreementsProto), batchJmsListenerContainerFactory);
+    };
+  }
+
+  /**
+   * Returns the number of connections of the Hikari pool that are in use or waited for, as a
+   * fraction of the size of the pool. Other data sources never count as saturated.
+   */
+  private static DoubleSupplier poolSaturation(final DataSource dataSource) {
+    HikariDataSource hikariDataSource;
+    try {
+      hikariDataSource = dataSource.unwrap(HikariDataSource.class);
+    } catch (SQLException e) {
+      log.info("Not autoscaling by the saturation of data source {}", dataSource);
+      return () -> 0;
+    }
+
+    return () -> {
+      // Null until the pool has been started
+      HikariPoolMXBean pool = hikariDataSource.getHikariPoolMXBean();
+      return pool == null ? 0 : (double) (pool.getActiveConnections()
+          + pool.getThreadsAwaitingConnection()) / hikariDataSource.getMaximumPoolSize();
+    };
+  }
+
+  private static BatchJmsListenerEndpoint batchEndpoint(final String id,
+      final String destination, final String concurrency, final BatchMessageListener listener) {
+    BatchJmsListenerEndpoint endpoint = new BatchJmsListenerEndpoint();
+    endpoint.setId(id);
+    endpoint.setDestination(destination);
+    endpoint.setConcurrency(concurrency);
+    endpoint.setMessageListener(listener);
+    return endpoint;
+  }
+
   /**
    * For JSON messages we want to use the spring messaging converter instead of the spring jms
    * converter. The spring jms converter expects the type of object to deserialize the json to being
@@ -2,6 +2,7 @@ package org.galatea.starter;
 
 import java.util.List;
 import java.util.stream.Collectors;
+import org.galatea.starter.domain.MissionAmendment;
 import org.galatea.starter.domain.SettlementMission;
 import org.galatea.starter.domain.TradeAgreement;
 import org.galatea.starter.entrypoint.messagecontracts.SettlementMissionMessage;
@@ -44,6 +45,20 @@ public class MessageTranslationConfig {
         .version(message.getVersion()).build();
   }
 
+  /**
+   * Returns a translator to convert SettlementMissionMessages to MissionAmendments. Fields that are
+   * left out of the message are left unchanged by the amendment; the id and version are ignored.
+   */
+  @Bean
+  public ITranslator<SettlementMissionMessage, MissionAmendment> missionAmendmentMsgTranslator() {
+    return message -> MissionAmendment.builder()
+        .instrument(message.getInstrument())
+        .externalParty(message.getExternalParty())
+        .direction(message.getDirection())
+        .depot(message.getDepot())
+        .qty(message.getQty()).build();
+  }
+
   /**
    * Returns a translator to convert protobuf messages to TradeAgreements.
    */
@@ -2,12 +2,22 @@ package org.galatea.starter;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Sets;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import lombok.extern.slf4j.Slf4j;
 import org.galatea.starter.utils.FuseHttpTraceRepository;
+import org.galatea.starter.utils.FuseHttpTraceRepository.FullBufferPolicy;
+import org.galatea.starter.utils.HttpTraceSampler;
 import org.galatea.starter.utils.http.converter.SettlementMissionCsvConverter;
 import org.galatea.starter.utils.http.converter.SettlementMissionXlsxConverter;
 import org.galatea.starter.utils.rest.FuseHttpTraceFilter;
+import org.galatea.starter.utils.rest.LatencyEndpoint;
+import org.galatea.starter.utils.rest.LatencyHistograms;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.trace.http.HttpExchangeTracer;
 import org.springframework.boot.actuate.trace.http.Include;
 import org.springframework.boot.actuate.web.trace.servlet.HttpTraceFilter;
@@ -33,23 +43,68 @@ public class MvcConfig implements WebMvcConfigurer {
   public static final MediaType APPLICATION_EXCEL = new MediaType("application", "vnd.ms-excel");
   public static final String APPLICATION_EXCEL_VALUE = "application/vnd.ms-excel";
 
+  // Newline-delimited JSON, one JSON document per line. Used for streaming request bodies.
+  public static final MediaType APPLICATION_NDJSON = new MediaType("application", "x-ndjson");
+  public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+  // A stream of protobuf messages, each prefixed with its varint-encoded length (the format read
+  // and written by parseDelimitedFrom and writeDelimitedTo). Used for streaming request bodies.
+  public static final MediaType APPLICATION_PROTOBUF_DELIMITED =
+      new MediaType("application", "x-protobuf-delimited");
+  public static final String APPLICATION_PROTOBUF_DELIMITED_VALUE =
+      "application/x-protobuf-delimited";
+
+  // Response bodies that are exports or written as they are produced. The trace filter passes them
+  // through to the client rather than holding them back.
+  public static final List<MediaType> STREAMED_MEDIA_TYPES = Collections.unmodifiableList(
+      Arrays.asList(TEXT_CSV, APPLICATION_EXCEL, APPLICATION_NDJSON,
+          APPLICATION_PROTOBUF_DELIMITED, MediaType.APPLICATION_OCTET_STREAM));
+
   /**
    * This is used to trace web requests and store that trace info.
    *
    * @return the trace filter
    */
   @Bean
-  public HttpTraceFilter httpTraceFilter() {
-    return new FuseHttpTraceFilter(fuseHttpTraceRepository(), httpExchangeTracer(),
-        path -> path.startsWith("/trace"));
+  public HttpTraceFilter httpTraceFilter(final FuseHttpTraceRepository fuseHttpTraceRepository,
+      @Value("${mvc.max-size-trace-payload}") final int maxSizeTracePayload) {
+    return new FuseHttpTraceFilter(fuseHttpTraceRepository, httpExchangeTracer(),
+        path -> path.startsWith("/trace"), maxSizeTracePayload, STREAMED_MEDIA_TYPES,
+        latencyHistograms());
+  }
+
+  /**
+   * Latency histograms of the requests traced by the trace filter.
+   */
+  @Bean
+  public LatencyHistograms latencyHistograms() {
+    return new LatencyHistograms();
+  }
+
+  /**
+   * Actuator endpoint that reports (and resets) the latency histograms.
+   */
+  @Bean
+  public LatencyEndpoint latencyEndpoint() {
+    return new LatencyEndpoint(latencyHistograms());
   }
 
   /**
-   * Repository for storing trace info.
+   * Repository for storing trace info. Traces are sampled and then recorded by a background
+   * writer, see FuseHttpTraceRepository.
    */
   @Bean
-  public FuseHttpTraceRepository fuseHttpTraceRepository() {
-    return new FuseHttpTraceRepository(new ObjectMapper());
+  public FuseHttpTraceRepository fuseHttpTraceRepository(
+      @Value("${trace.buffer-size}") final int bufferSize,
+      @Value("${trace.full-buffer-policy}") final FullBufferPolicy fullBufferPolicy,
+      @Value("${trace.sample-rate}") final double sampleRate,
+      @Value("${trace.path-sample-rates}") final String pathSampleRates,
+      @Value("${trace.always-trace-status}") final int alwaysTraceStatus,
+      final ObjectProvider<MeterRegistry> meterRegistry) {
+    // Test slices may not have a meter registry
+    return new FuseHttpTraceRepository(new ObjectMapper(), bufferSize, fullBufferPolicy,
+        new HttpTraceSampler(sampleRate, pathSampleRates, alwaysTraceStatus),
+        meterRegistry.getIfAvailable(SimpleMeterRegistry::new));
   }
 
   /**
@@ -1,14 +1,18 @@
 package org.galatea.starter;
 
+import com.google.common.base.Strings;
 import com.google.protobuf.InvalidProtocolBufferException;
 import java.util.List;
 import java.util.stream.Collectors;
+import javax.jms.BytesMessage;
+import org.galatea.starter.domain.MissionAmendment;
 import org.galatea.starter.domain.SettlementMission;
 import org.galatea.starter.domain.TradeAgreement;
 import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementMissionProtoMessage;
 import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessage;
 import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessages;
 import org.galatea.starter.utils.translation.ITranslator;
+import org.galatea.starter.utils.translation.TradeAgreementProtoReader;
 import org.galatea.starter.utils.translation.TranslationException;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -41,6 +45,17 @@ public class ProtoMessageTranslationConfig {
     };
   }
 
+  /**
+   * Implements a translator to read TradeAgreements straight from the body of JMS BytesMessages
+   * holding a serialized TradeAgreementProtoMessage or TradeAgreementProtoMessages envelope,
+   * without copying the body or building the protobuf messages. Used by the protobuf JMS
+   * listeners.
+   */
+  @Bean
+  public ITranslator<BytesMessage, List<TradeAgreement>> tradeAgreementsBytesMessageTranslator() {
+    return new TradeAgreementProtoReader();
+  }
+
   /**
    * Implements a translator to convert TradeAgreement protobuf messages to TradeAgreement domain
    * objects.
@@ -65,6 +80,22 @@ public class ProtoMessageTranslationConfig {
         .setQty(msg.getQty()).setVersion(msg.getVersion()).build();
   }
 
+  /**
+   * Implements a translator to convert SettlementMission protobuf messages to MissionAmendments.
+   * Proto3 fields can't be told apart from their defaults, so empty strings and a zero quantity
+   * (which would be invalid anyway) are left unchanged by the amendment. The id and version are
+   * ignored.
+   */
+  @Bean
+  public ITranslator<SettlementMissionProtoMessage, MissionAmendment>
+      missionAmendmentProtoTranslator() {
+    return msg -> MissionAmendment.builder().depot(Strings.emptyToNull(msg.getDepot()))
+        .direction(Strings.emptyToNull(msg.getDirection()))
+        .externalParty(Strings.emptyToNull(msg.getExternalParty()))
+        .instrument(Strings.emptyToNull(msg.getInstrument()))
+        .qty(msg.getQty() == 0 ? null : msg.getQty()).build();
+  }
+
   /**
    * Implements a translator to convert a TradeAgreement protobuf collection to a list of
    * TradeAgreement domain objects.
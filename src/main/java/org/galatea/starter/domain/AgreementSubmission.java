@@ -0,0 +1,56 @@
+package org.galatea.starter.domain;
+
+import java.time.Instant;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import org.springframework.data.domain.Persistable;
+
+/**
+ * Records the missions that were spawned for a submission of trade agreements under an idempotency
+ * key, so that a replay of the submission can be answered with the same missions.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE) // For builder
+@NoArgsConstructor(access = AccessLevel.PRIVATE) // For hibernate
+@Builder
+@Data
+@Entity
+public class AgreementSubmission implements Persistable<String> {
+
+  public static final int MAX_KEY_LENGTH = 255;
+
+  @Id
+  @Column(length = MAX_KEY_LENGTH)
+  @NonNull
+  protected String idempotencyKey;
+
+  /* Comma-separated ids of the missions that were spawned for the submission */
+  @Lob
+  @NonNull
+  protected String missionIds;
+
+  @NonNull
+  protected Instant submittedAt;
+
+  @Override
+  public String getId() {
+    return idempotencyKey;
+  }
+
+  /**
+   * Submissions are only ever inserted, so save persists them without selecting them first to
+   * merge them. A second submission with the same key then fails on the primary key rather than
+   * overwriting the first.
+   */
+  @Override
+  public boolean isNew() {
+    return true;
+  }
+}
@@ -0,0 +1,34 @@
+package org.galatea.starter.domain;
+
+import javax.validation.constraints.DecimalMin;
+import lombok.Builder;
+import lombok.Value;
+import org.galatea.starter.utils.validation.StringEnumeration;
+
+/**
+ * Changes to apply to many settlement missions at once. Fields that are null are left as they are.
+ */
+@Builder
+@Value
+public class MissionAmendment {
+
+  private String instrument;
+
+  private String externalParty;
+
+  private String depot;
+
+  @StringEnumeration(enumClass = Direction.class, message = "Direction must be valid")
+  private String direction;
+
+  @DecimalMin(value = "0.0", inclusive = false, message = "Quantity must be greater than 0")
+  private Double qty;
+
+  /**
+   * Return true if the amendment doesn't change anything.
+   */
+  public boolean isEmpty() {
+    return instrument == null && externalParty == null && depot == null && direction == null
+        && qty == null;
+  }
+}
@@ -0,0 +1,59 @@
+package org.galatea.starter.domain;
+
+import java.time.Instant;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import lombok.ToString;
+
+/**
+ * A change to settlement missions that is waiting in the outbox to be published, see
+ * MissionEventOutbox. It is saved in the same transaction as the change, and deleted once it has
+ * been published.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE) // For builder
+@NoArgsConstructor(access = AccessLevel.PRIVATE) // For hibernate
+@Builder
+@Data
+@Entity
+public class MissionEvent {
+
+  /**
+   * What happened to the missions of an event.
+   */
+  public enum Type {
+    CREATED, UPDATED, DELETED
+  }
+
+  /* Assigned by the database on insert, which orders the events roughly as they were committed */
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  protected Long id;
+
+  @Column(length = 16)
+  @Enumerated(EnumType.STRING)
+  @NonNull
+  protected Type type;
+
+  /* The missions as a serialized SettlementMissionProtoMessages; deleted missions only have ids */
+  @Lob
+  @NonNull
+  @ToString.Exclude
+  protected byte[] missions;
+
+  protected int missionCount;
+
+  @NonNull
+  protected Instant createdAt;
+}
@@ -0,0 +1,27 @@
+package org.galatea.starter.domain;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Criteria for listing settlement missions. Criteria that are null match every mission.
+ */
+@Builder
+@Value
+public class MissionFilter {
+
+  private String depot;
+
+  private String instrument;
+
+  private String direction;
+
+  private String externalParty;
+
+  /**
+   * Return true if the filter has no criteria, so that it matches every mission.
+   */
+  public boolean matchesAll() {
+    return depot == null && instrument == null && direction == null && externalParty == null;
+  }
+}
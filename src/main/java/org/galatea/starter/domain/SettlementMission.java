@@ -4,6 +4,8 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
 import javax.persistence.Version;
 import javax.validation.constraints.DecimalMin;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -13,7 +15,11 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
+import org.galatea.starter.utils.jpa.PooledIdGenerator;
 import org.galatea.starter.utils.validation.StringEnumeration;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 
 /* For builder since we explicitly want to make the all args ctor private */
 @AllArgsConstructor(access = AccessLevel.PRIVATE)
@@ -21,11 +27,19 @@ import org.galatea.starter.utils.validation.StringEnumeration;
 @Builder
 @Data
 @Entity
+// Lets listings filtered by depot or instrument seek straight to the page after a given id
+@Table(indexes = {
+    @Index(name = "settlement_mission_depot_id", columnList = "depot,id"),
+    @Index(name = "settlement_mission_instrument_id", columnList = "instrument,id")})
 @XmlRootElement(name = "settlementMission")
 public class SettlementMission {
 
+  /* Ids are handed out in blocks so that inserts can be batched, see PooledIdGenerator */
   @Id
-  @GeneratedValue(strategy = GenerationType.AUTO)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "settlement_mission_id")
+  @GenericGenerator(name = "settlement_mission_id", strategy = PooledIdGenerator.STRATEGY,
+      parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM,
+          value = "settlement_mission_seq"))
   protected Long id;
 
   @NonNull
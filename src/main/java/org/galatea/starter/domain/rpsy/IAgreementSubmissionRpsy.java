@@ -0,0 +1,8 @@
+package org.galatea.starter.domain.rpsy;
+
+import org.galatea.starter.domain.AgreementSubmission;
+import org.springframework.data.repository.CrudRepository;
+
+public interface IAgreementSubmissionRpsy extends CrudRepository<AgreementSubmission, String> {
+
+}
@@ -0,0 +1,41 @@
+package org.galatea.starter.domain.rpsy;
+
+import java.util.Collection;
+import java.util.List;
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import org.galatea.starter.domain.MissionEvent;
+import org.hibernate.LockOptions;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface IMissionEventRpsy extends CrudRepository<MissionEvent, Long> {
+
+  /**
+   * Returns the oldest events in the outbox, in id order, and locks them until the end of the
+   * transaction. Events that are locked by another transaction are skipped if the database
+   * supports SKIP LOCKED (a lock timeout of LockOptions.SKIP_LOCKED); otherwise the query waits
+   * for them.
+   */
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @QueryHints(@QueryHint(name = "javax.persistence.lock.timeout",
+      value = "" + LockOptions.SKIP_LOCKED))
+  @Query("select e from MissionEvent e order by e.id")
+  List<MissionEvent> claimOldest(Pageable pageable);
+
+  /**
+   * Deletes the events with the given ids in a single statement, without loading them first.
+   *
+   * @return the number of events deleted
+   */
+  @Modifying
+  @Transactional
+  @Query("delete from MissionEvent e where e.id in :ids")
+  int deletePublished(@Param("ids") Collection<Long> ids);
+}
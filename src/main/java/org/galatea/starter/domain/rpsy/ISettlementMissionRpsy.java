@@ -1,19 +1,175 @@
 package org.galatea.starter.domain.rpsy;
 
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
 import org.galatea.starter.domain.SettlementMission;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface ISettlementMissionRpsy extends CrudRepository<SettlementMission, Long> {
 
+  /**
+   * Number of rows fetched from the database per round trip when streaming missions.
+   */
+  String STREAM_FETCH_SIZE = "1000";
+
   /**
    * Retrieves all entities with the given depot.
    */
   List<SettlementMission> findByDepot(String depot);
 
+  /**
+   * Retrieves all entities with ids from fromId to toId, inclusive.
+   */
+  List<SettlementMission> findByIdBetween(Long fromId, Long toId);
+
+  /**
+   * Streams the missions with ids greater than afterId that match the given criteria, in id order.
+   * Criteria that are null match every mission. Only the first page.getPageSize() missions are
+   * returned; page should always be the first page, since afterId takes the place of the offset.
+   *
+   * <p>Rows are fetched from the database STREAM_FETCH_SIZE at a time and the missions aren't
+   * tracked for changes. Has to be called in a transaction, and the stream closed after use.
+   */
+  @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+      @QueryHint(name = HINT_READONLY, value = "true")})
+  @Query("select m from SettlementMission m where m.id > :afterId"
+      + " and (:depot is null or m.depot = :depot)"
+      + " and (:instrument is null or m.instrument = :instrument)"
+      + " and (:direction is null or m.direction = :direction)"
+      + " and (:externalParty is null or m.externalParty = :externalParty)"
+      + " order by m.id")
+  Stream<SettlementMission> streamMissions(@Param("afterId") long afterId,
+      @Param("depot") String depot, @Param("instrument") String instrument,
+      @Param("direction") String direction, @Param("externalParty") String externalParty,
+      Pageable page);
+
+  /**
+   * Updates the mission with the given id in a single statement, but only if it is still at the
+   * version of the given mission, and increments its version. This is what save does for a
+   * versioned entity, without first selecting it to merge it.
+   *
+   * @return the number of missions updated, 0 if there is no mission with the id at that version
+   */
+  default int updateIfVersionMatches(final Long id, final SettlementMission mission) {
+    return updateIfVersionMatches(id, mission.getVersion(), mission.getInstrument(),
+        mission.getExternalParty(), mission.getDepot(), mission.getDirection(), mission.getQty());
+  }
+
+  /**
+   * Updates the mission with the given id to the given state if it is at the given version. The
+   * fields are bound one by one rather than with SpEL on the mission, since evaluating SpEL looks
+   * up the evaluation context extensions in the bean factory on every call.
+   *
+   * @return the number of missions updated, 0 if there is no mission with the id at that version
+   */
+  @Modifying
+  @Transactional
+  @Query("update SettlementMission m set m.instrument = :instrument,"
+      + " m.externalParty = :externalParty, m.depot = :depot, m.direction = :direction,"
+      + " m.qty = :qty, m.version = m.version + 1 where m.id = :id and m.version = :version")
+  int updateIfVersionMatches(@Param("id") Long id, @Param("version") Long version,
+      @Param("instrument") String instrument, @Param("externalParty") String externalParty,
+      @Param("depot") String depot, @Param("direction") String direction,
+      @Param("qty") Double qty);
+
+  /**
+   * Retrieves the ids greater than afterId of the missions that match the given criteria, in id
+   * order. Criteria that are null match every mission. Only the first page.getPageSize() ids are
+   * returned; page should always be the first page, since afterId takes the place of the offset.
+   *
+   * <p>The missions are locked until the end of the transaction, so that they still match when
+   * they are changed by the ids.
+   */
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query("select m.id from SettlementMission m where m.id > :afterId"
+      + " and (:depot is null or m.depot = :depot)"
+      + " and (:instrument is null or m.instrument = :instrument)"
+      + " and (:direction is null or m.direction = :direction)"
+      + " and (:externalParty is null or m.externalParty = :externalParty)"
+      + " order by m.id")
+  List<Long> findIds(@Param("afterId") long afterId, @Param("depot") String depot,
+      @Param("instrument") String instrument, @Param("direction") String direction,
+      @Param("externalParty") String externalParty, Pageable page);
+
+  /**
+   * Retrieves the ids among the given ones of the missions that match the given criteria, in id
+   * order. Criteria that are null match every mission.
+   *
+   * <p>The missions are locked until the end of the transaction, so that they still match when
+   * they are changed by the ids.
+   */
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query("select m.id from SettlementMission m where m.id in :ids"
+      + " and (:depot is null or m.depot = :depot)"
+      + " and (:instrument is null or m.instrument = :instrument)"
+      + " and (:direction is null or m.direction = :direction)"
+      + " and (:externalParty is null or m.externalParty = :externalParty)"
+      + " order by m.id")
+  List<Long> findIdsIn(@Param("ids") Collection<Long> ids, @Param("depot") String depot,
+      @Param("instrument") String instrument, @Param("direction") String direction,
+      @Param("externalParty") String externalParty);
+
+  /**
+   * Deletes the missions with the given ids that match the given criteria in a single statement,
+   * without loading them first. Criteria that are null match every mission.
+   *
+   * @return the number of missions deleted
+   */
+  @Modifying
+  @Transactional
+  @Query("delete from SettlementMission m where m.id in :ids"
+      + " and (:depot is null or m.depot = :depot)"
+      + " and (:instrument is null or m.instrument = :instrument)"
+      + " and (:direction is null or m.direction = :direction)"
+      + " and (:externalParty is null or m.externalParty = :externalParty)")
+  int deleteMatching(@Param("ids") Collection<Long> ids, @Param("depot") String depot,
+      @Param("instrument") String instrument, @Param("direction") String direction,
+      @Param("externalParty") String externalParty);
+
+  /**
+   * Applies the given changes to the missions with the given ids that match the given criteria in
+   * a single statement, and increments their versions. Changes and criteria that are null are
+   * ignored. The persistence context is cleared afterwards, so that the missions are read again
+   * in their amended state.
+   *
+   * @return the number of missions updated
+   */
+  @Modifying(clearAutomatically = true)
+  @Transactional
+  @Query("update SettlementMission m set m.instrument = coalesce(:newInstrument, m.instrument),"
+      + " m.externalParty = coalesce(:newExternalParty, m.externalParty),"
+      + " m.depot = coalesce(:newDepot, m.depot),"
+      + " m.direction = coalesce(:newDirection, m.direction),"
+      + " m.qty = coalesce(:newQty, m.qty), m.version = m.version + 1"
+      + " where m.id in :ids"
+      + " and (:depot is null or m.depot = :depot)"
+      + " and (:instrument is null or m.instrument = :instrument)"
+      + " and (:direction is null or m.direction = :direction)"
+      + " and (:externalParty is null or m.externalParty = :externalParty)")
+  int amendMatching(@Param("ids") Collection<Long> ids, @Param("depot") String depot,
+      @Param("instrument") String instrument, @Param("direction") String direction,
+      @Param("externalParty") String externalParty,
+      @Param("newInstrument") String newInstrument,
+      @Param("newExternalParty") String newExternalParty, @Param("newDepot") String newDepot,
+      @Param("newDirection") String newDirection, @Param("newQty") Double newQty);
+
+  // Saved missions are put into the cache by MissionCacheWriter once their transaction commits
   @Override
   @Cacheable(cacheNames = "missions", sync = true)
   Optional<SettlementMission> findById(Long id);
@@ -21,12 +177,4 @@ public interface ISettlementMissionRpsy extends CrudRepository<SettlementMission
   @Override
   @CacheEvict(cacheNames = "missions")
   void deleteById(Long id);
-
-  /**
-   * 'p0' required in key because java does not retain parameter names during compilation unless
-   * specified. You must use position parameter bindings otherwise.
-   */
-  @Override
-  @CacheEvict(cacheNames = "missions", key = "#p0.getId()")
-  <S extends SettlementMission> S save(S entity);
 }
@@ -30,7 +30,7 @@ public abstract class BaseRestController {
       log.info("Request received.  Cleaned id: {}", cleanedRequestId);
       // And add to MDC so it will show up in the logs
       // The key used here must align with the key defined in the logging config's log-pattern
-      MDC.put(EXTERNAL_REQUEST_ID, cleanedRequestId + " - ");
+      MDC.put(EXTERNAL_REQUEST_ID, cleanedRequestId);
     }
   }
 }
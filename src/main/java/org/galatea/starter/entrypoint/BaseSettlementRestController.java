@@ -1,8 +1,11 @@
 package org.galatea.starter.entrypoint;
 
+import com.google.common.collect.Iterators;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import lombok.AccessLevel;
 import lombok.NonNull;
@@ -10,9 +13,13 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.sf.aspect4log.Log;
 import net.sf.aspect4log.Log.Level;
+import org.galatea.starter.domain.MissionAmendment;
+import org.galatea.starter.domain.MissionFilter;
 import org.galatea.starter.domain.SettlementMission;
 import org.galatea.starter.domain.TradeAgreement;
 import org.galatea.starter.service.SettlementService;
+import org.galatea.starter.utils.LongIdSet;
+import org.springframework.web.bind.MissingServletRequestParameterException;
 
 /**
  * Implements a base class for settlement rest controllers to avoid duplicating the logic of calling
@@ -27,16 +34,48 @@ public abstract class BaseSettlementRestController extends BaseRestController {
   SettlementService settlementService;
 
   /**
-   * Invokes the settlement service to spawn missions for the specified trade agreements.
+   * Invokes the settlement service to spawn missions for the specified trade agreements. If the
+   * agreements were already submitted under the same request id, the paths of the missions spawned
+   * back then are returned instead.
+   *
+   * @param requestId the request id the agreements were submitted under, or null
    */
   protected Set<String> settleAgreementInternal(final List<TradeAgreement> agreements,
-      final String getMissionPath) {
+      final String requestId, final String getMissionPath) {
 
-    Set<Long> missionIds = settlementService.spawnMissions(agreements);
+    Set<Long> missionIds = settlementService.spawnMissions(requestId, agreements);
     return missionIds.stream().map(id -> getMissionPath + id)
         .collect(Collectors.toSet());
   }
 
+  /**
+   * Invokes the settlement service for consecutive chunks of the specified trade agreements so that
+   * an arbitrarily long stream of agreements never has to be held in memory at once. Each chunk is
+   * committed on its own, and the paths of its missions are handed to the consumer before the next
+   * chunk is read. Each chunk is submitted under the request id followed by its position in the
+   * stream, so a replayed stream spawns missions only for the chunks that weren't committed.
+   *
+   * @param requestId the request id the stream was submitted under, or null
+   * @return the total number of missions spawned
+   */
+  protected int settleAgreementChunksInternal(final Iterator<TradeAgreement> agreements,
+      final int chunkSize, final String requestId, final String getMissionPath,
+      final Consumer<Set<String>> chunkConsumer) {
+
+    int spawned = 0;
+    int chunkNumber = 0;
+    Iterator<List<TradeAgreement>> chunks = Iterators.partition(agreements, chunkSize);
+    while (chunks.hasNext()) {
+      String chunkRequestId = requestId == null ? null : requestId + "#" + chunkNumber++;
+      Set<String> missionPaths = settleAgreementInternal(chunks.next(), chunkRequestId,
+          getMissionPath);
+      spawned += missionPaths.size();
+      chunkConsumer.accept(missionPaths);
+    }
+
+    return spawned;
+  }
+
   /**
    * Retrieves settlement missions from the settlement service.
    */
@@ -47,22 +86,27 @@ public abstract class BaseSettlementRestController extends BaseRestController {
   /**
    * Retrieves multiple settlement missions from the settlement service.
    *
-   * @param ids a comma-separated list of IDs of the missions to retrieve
+   * @param ids the distinct IDs of the missions to retrieve
    */
-  protected List<SettlementMission> getMissionsInternal(final List<Long> ids) {
+  protected List<SettlementMission> getMissionsInternal(final LongIdSet ids) {
     return settlementService.findMissions(ids);
   }
 
   /**
-   * Updates settlement mission, if it exists.
+   * Lists settlement missions through the settlement service.
+   */
+  protected List<SettlementMission> listMissionsInternal(final MissionFilter filter,
+      final long afterId, final int limit) {
+    return settlementService.listMissions(filter, afterId, limit);
+  }
+
+  /**
+   * Updates settlement mission, if it exists and hasn't been updated since the given version of it
+   * was read.
    */
   protected Optional<SettlementMission> updateMissionInternal(final Long id,
       final SettlementMission mission) {
-    if (settlementService.missionExists(id)) {
-      return settlementService.updateMission(id, mission);
-    } else {
-      return Optional.empty();
-    }
+    return settlementService.updateMissionIfCurrent(id, mission);
   }
 
   /**
@@ -71,4 +115,43 @@ public abstract class BaseSettlementRestController extends BaseRestController {
   protected void deleteMissionInternal(final Long id) {
     settlementService.deleteMission(id);
   }
+
+  /**
+   * Deletes the settlement missions with the given ids that match the filter, or every mission that
+   * matches the filter if ids is null, through the settlement service.
+   *
+   * @param ids a comma-separated list of IDs of the missions to delete, or null
+   * @return the number of missions deleted
+   */
+  protected int deleteMissionsInternal(final String ids, final MissionFilter filter)
+      throws MissingServletRequestParameterException {
+    return settlementService.deleteMissions(selectMissions(ids, filter), filter);
+  }
+
+  /**
+   * Amends the settlement missions with the given ids that match the filter, or every mission that
+   * matches the filter if ids is null, through the settlement service.
+   *
+   * @param ids a comma-separated list of IDs of the missions to amend, or null
+   * @return the number of missions updated
+   */
+  protected int amendMissionsInternal(final String ids, final MissionFilter filter,
+      final MissionAmendment amendment) throws MissingServletRequestParameterException {
+    return settlementService.amendMissions(selectMissions(ids, filter), filter, amendment);
+  }
+
+  /**
+   * Parses the ids of a bulk request. A bulk request has to name its missions by id, by filter
+   * criteria or both, so that a request that leaves them all out can't affect every mission.
+   */
+  private static LongIdSet selectMissions(final String ids, final MissionFilter filter)
+      throws MissingServletRequestParameterException {
+    if (ids != null) {
+      return LongIdSet.parse(ids);
+    }
+    if (filter.matchesAll()) {
+      throw new MissingServletRequestParameterException("ids", "String");
+    }
+    return null;
+  }
 }
@@ -1,5 +1,6 @@
 package org.galatea.starter.entrypoint;
 
+import java.util.Set;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 
@@ -12,9 +13,16 @@ public class ConstraintViolationMessageFormatter {
    * Creates a String listing all the violations held in the given ConstraintViolationException.
    */
   public static String toMessage(final ConstraintViolationException exception) {
+    return toMessage(exception.getConstraintViolations());
+  }
+
+  /**
+   * Creates a String listing all the given violations.
+   */
+  public static String toMessage(final Set<? extends ConstraintViolation<?>> violations) {
     StringBuilder sb = new StringBuilder();
 
-    for (ConstraintViolation<?> cv : exception.getConstraintViolations()) {
+    for (ConstraintViolation<?> cv : violations) {
       sb.append(cv.getMessage());
       sb.append(". ");
     }
@@ -1,15 +1,44 @@
 package org.galatea.starter.entrypoint;
 
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.TextMessage;
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validator;
+import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.AgreementFailureProtoMessage;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementResponseProtoMessage;
 import org.galatea.starter.entrypoint.messagecontracts.TradeAgreementMessage;
 import org.galatea.starter.service.SettlementService;
+import org.galatea.starter.utils.jms.MessageRetrier;
+import org.galatea.starter.utils.jms.PartitionedBatchExecutor;
 import org.galatea.starter.utils.translation.ITranslator;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jms.annotation.JmsListener;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.support.JmsHeaders;
+import org.springframework.jms.support.converter.MessageConversionException;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Component;
 
 @RequiredArgsConstructor
@@ -21,36 +50,239 @@ public class SettlementJmsListener {
   protected SettlementService settlementService;
 
   @NonNull
-  protected ITranslator<byte[], TradeAgreement> tradeAgreementProtoTranslator;
+  protected ITranslator<BytesMessage, List<TradeAgreement>> tradeAgreementsBytesMessageTranslator;
 
   @NonNull
   protected ITranslator<TradeAgreementMessage, TradeAgreement> tradeAgreementMessageTranslator;
 
+  @NonNull
+  protected Validator validator;
+
+  @NonNull
+  protected JmsTemplate jmsTemplate;
+
+  @NonNull
+  protected PartitionedBatchExecutor partitionedBatchExecutor;
+
+  @NonNull
+  protected ObjectMapper objectMapper;
+
+  @Value("${mvc.getMissionPath}")
+  protected String getMissionPath;
+
+  // Like the MappingJackson2MessageConverter of the @JmsListener methods, ignores unknown fields
+  @Getter(value = AccessLevel.PRIVATE, lazy = true)
+  private final ObjectReader agreementReader = objectMapper.readerFor(TradeAgreementMessage.class)
+      .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
   /**
-   * Spawns Missions for any TradeAgreements pulled off the jms queue in JSON format.
+   * Spawns Missions for any TradeAgreements pulled off the jms queue in JSON format. A redelivered
+   * message, recognized by its message ID (which retries of it keep), doesn't spawn its missions
+   * again.
    */
   @JmsListener(destination = "${jms.agreement-queue-json}",
       concurrency = "${jms.listener-concurrency}")
-  public void settleAgreementJson(final TradeAgreementMessage agreementMessage) {
+  public void settleAgreementJson(final TradeAgreementMessage agreementMessage,
+      @Header(JmsHeaders.MESSAGE_ID) final String messageId,
+      @Header(name = MessageRetrier.ORIGINAL_MESSAGE_ID, required = false)
+      final String originalMessageId) {
     log.info("Handling agreements {}", agreementMessage);
 
     TradeAgreement agreement = tradeAgreementMessageTranslator.translate(agreementMessage);
-    Set<Long> missionIds = settlementService.spawnMissions(Arrays.asList(agreement));
+    Set<Long> missionIds = settlementService.spawnMissions(
+        originalMessageId != null ? originalMessageId : messageId, Arrays.asList(agreement));
     log.info("Created missions {}", missionIds);
   }
 
   /**
-   * Spawns missions for any TradeAgreements pulled off the jms queue in protobuf format.
+   * Spawns missions for any TradeAgreements pulled off the jms queue in protobuf format. Each
+   * message holds a single agreement or an envelope of them; see settleEnvelope. The agreements
+   * are read straight from the message body rather than converted to a byte[] first.
    */
   @JmsListener(destination = "${jms.agreement-queue-proto}",
       concurrency = "${jms.listener-concurrency}")
-  public void settleAgreementProto(final byte[] message) {
+  public void settleAgreementProto(final Message message) throws JMSException {
     log.info("Received message. Translating.");
-    TradeAgreement agreement = tradeAgreementProtoTranslator.translate(message);
+    List<TradeAgreement> agreements =
+        tradeAgreementsBytesMessageTranslator.translate(asBytes(message));
+
+    settleEnvelope(message, agreements);
+  }
+
+  /**
+   * Spawns missions for a batch of TradeAgreements pulled off the jms queue in JSON format. Used in
+   * place of settleAgreementJson when batch listeners are enabled. The batch is partitioned by
+   * instrument, and each partition spawned in one call; see PartitionedBatchExecutor. Redelivered
+   * messages, recognized by their message IDs (which retries keep), don't spawn their missions
+   * again.
+   */
+  public void settleAgreementsJson(final List<Message> messages) throws JMSException {
+    List<Submission> submissions = new ArrayList<>(messages.size());
+    for (Message message : messages) {
+      submissions.add(new Submission(message, Collections.singletonList(
+          tradeAgreementMessageTranslator.translate(readJson(message)))));
+    }
+
+    partitionedBatchExecutor.execute(submissions, Submission::instruments, this::spawnSingles);
+  }
+
+  /**
+   * Spawns missions for a batch of TradeAgreements pulled off the jms queue in protobuf format.
+   * Used in place of settleAgreementProto when batch listeners are enabled. The batch is
+   * partitioned by instrument (an envelope with agreements for instruments of several partitions
+   * is settled on its own, between them; see PartitionedBatchExecutor). Within a partition,
+   * consecutive messages that hold a single valid agreement and don't ask for a reply are spawned
+   * together in one call; envelopes (and the other messages) are each settled on their own by
+   * settleEnvelope. Redelivered messages, recognized by their message IDs (which retries keep),
+   * don't spawn their missions again.
+   */
+  public void settleAgreementsProto(final List<Message> messages) throws JMSException {
+    List<Submission> submissions = new ArrayList<>(messages.size());
+    for (Message message : messages) {
+      submissions.add(new Submission(message,
+          tradeAgreementsBytesMessageTranslator.translate(asBytes(message))));
+    }
+
+    partitionedBatchExecutor.execute(submissions, Submission::instruments,
+        this::settleProtoPartition);
+  }
+
+  private void settleProtoPartition(final List<Submission> submissions) throws JMSException {
+    List<Submission> singles = new ArrayList<>(submissions.size());
+    for (Submission submission : submissions) {
+      if (submission.agreements.size() == 1 && submission.message.getJMSReplyTo() == null
+          && validator.validate(submission.agreements.get(0)).isEmpty()) {
+        singles.add(submission);
+      } else {
+        // The agreements received before the envelope are spawned before it, to keep them in order
+        spawnSingles(singles);
+        singles.clear();
+        settleEnvelope(submission.message, submission.agreements);
+      }
+    }
+    spawnSingles(singles);
+  }
+
+  /**
+   * Spawns missions for messages that hold a single agreement each in one call, with their
+   * message IDs as the idempotency keys.
+   */
+  private void spawnSingles(final List<Submission> submissions) throws JMSException {
+    if (submissions.isEmpty()) {
+      return;
+    }
 
-    log.info("Handling agreement {}", agreement);
+    List<String> messageIds = new ArrayList<>(submissions.size());
+    List<TradeAgreement> agreements = new ArrayList<>(submissions.size());
+    for (Submission submission : submissions) {
+      messageIds.add(MessageRetrier.originalMessageId(submission.message));
+      agreements.add(submission.agreements.get(0));
+    }
 
-    Set<Long> missionIds = settlementService.spawnMissions(Arrays.asList(agreement));
+    log.info("Handling batch of {} agreements", agreements.size());
+    Set<Long> missionIds = settlementService.spawnMissionsOnce(messageIds, agreements);
     log.info("Created missions {}", missionIds);
   }
+
+  /**
+   * Spawns missions for the agreements of one message in a single call, with the message ID as
+   * the idempotency key, so that a redelivered message doesn't spawn its missions again. If the
+   * message has a JMSReplyTo destination, invalid agreements are left out rather than failing the
+   * whole message, and a SettlementResponseProtoMessage with the paths of the spawned missions and
+   * the positions of the rejected agreements is sent there, correlated by the message's
+   * correlation ID if it has one, or else by its message ID. A reply that can't be sent fails the
+   * message, which is delivered and replied to again.
+   *
+   * <p>A message without a JMSReplyTo destination that has an invalid agreement, or a message
+   * whose agreements are all invalid, fails with a ConstraintViolationException instead, as an
+   * invalid JSON agreement does, so that the rejection isn't lost (it is dead-lettered if there is
+   * a message retrier).
+   */
+  private void settleEnvelope(final Message message, final List<TradeAgreement> agreements)
+      throws JMSException {
+    log.info("Handling envelope of {} agreements", agreements.size());
+    final String messageId = MessageRetrier.originalMessageId(message);
+
+    List<TradeAgreement> validAgreements = new ArrayList<>(agreements.size());
+    List<AgreementFailureProtoMessage> failures = new ArrayList<>();
+    Set<ConstraintViolation<TradeAgreement>> allViolations = new LinkedHashSet<>();
+    for (int i = 0; i < agreements.size(); i++) {
+      Set<ConstraintViolation<TradeAgreement>> violations = validator.validate(agreements.get(i));
+      if (violations.isEmpty()) {
+        validAgreements.add(agreements.get(i));
+      } else {
+        String reason = ConstraintViolationMessageFormatter.toMessage(violations);
+        log.warn("Rejected agreement {} of message {}: {}", i, messageId, reason);
+        failures.add(AgreementFailureProtoMessage.newBuilder().setIndex(i).setReason(reason)
+            .build());
+        allViolations.addAll(violations);
+      }
+    }
+
+    Destination replyTo = message.getJMSReplyTo();
+    if (!failures.isEmpty() && (replyTo == null || validAgreements.isEmpty())) {
+      throw new ConstraintViolationException(String.format("%d of the %d agreements of message"
+          + " %s are invalid: %s", failures.size(), agreements.size(), messageId,
+          ConstraintViolationMessageFormatter.toMessage(allViolations)), allViolations);
+    }
+
+    Set<Long> missionIds = validAgreements.isEmpty() ? Collections.emptySet()
+        : settlementService.spawnMissions(messageId, validAgreements);
+    log.info("Created missions {}", missionIds);
+
+    if (replyTo != null) {
+      byte[] response = SettlementResponseProtoMessage.newBuilder()
+          .addAllSpawnedMissionPaths(missionIds.stream().map(id -> getMissionPath + id)
+              .collect(Collectors.toList()))
+          .addAllFailures(failures).build().toByteArray();
+      String correlationId = message.getJMSCorrelationID() != null
+          ? message.getJMSCorrelationID() : messageId;
+
+      jmsTemplate.send(replyTo, session -> {
+        BytesMessage reply = session.createBytesMessage();
+        reply.writeBytes(response);
+        reply.setJMSCorrelationID(correlationId);
+        return reply;
+      });
+    }
+  }
+
+  private TradeAgreementMessage readJson(final Message message) throws JMSException {
+    if (!(message instanceof TextMessage)) {
+      throw new MessageConversionException("Expected a TextMessage but got " + message);
+    }
+
+    try {
+      return getAgreementReader().readValue(((TextMessage) message).getText());
+    } catch (IOException e) {
+      throw new MessageConversionException("Could not read agreement from " + message, e);
+    }
+  }
+
+  private static BytesMessage asBytes(final Message message) {
+    if (!(message instanceof BytesMessage)) {
+      throw new MessageConversionException("Expected a BytesMessage but got " + message);
+    }
+    return (BytesMessage) message;
+  }
+
+  /**
+   * A message of a batch, and the agreements read from it.
+   */
+  private static final class Submission {
+
+    private final Message message;
+
+    private final List<TradeAgreement> agreements;
+
+    private Submission(final Message message, final List<TradeAgreement> agreements) {
+      this.message = message;
+      this.agreements = agreements;
+    }
+
+    private Collection<String> instruments() {
+      return agreements.size() == 1 ? Collections.singleton(agreements.get(0).getInstrument())
+          : agreements.stream().map(TradeAgreement::getInstrument).collect(Collectors.toSet());
+    }
+  }
 }
@@ -1,16 +1,29 @@
 package org.galatea.starter.entrypoint;
 
+import com.google.common.collect.AbstractIterator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import net.sf.aspect4log.Log;
 import net.sf.aspect4log.Log.Level;
+import org.galatea.starter.MvcConfig;
+import org.galatea.starter.domain.MissionAmendment;
+import org.galatea.starter.domain.MissionFilter;
 import org.galatea.starter.domain.SettlementMission;
 import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementBulkResponseProtoMessage;
 import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementMissionProtoMessage;
 import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementResponseProtoMessage;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessage;
 import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessages;
 import org.galatea.starter.service.SettlementService;
 import org.galatea.starter.utils.translation.ITranslator;
@@ -18,7 +31,10 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.MissingServletRequestParameterException;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -40,9 +56,19 @@ public class SettlementProtoRestController extends BaseSettlementRestController
   @NonNull
   private ITranslator<SettlementMission, SettlementMissionProtoMessage> settlementMissionTranslator;
 
+  @NonNull
+  private ITranslator<SettlementMissionProtoMessage, MissionAmendment>
+      missionAmendmentProtoTranslator;
+
   @NonNull
   private ITranslator<TradeAgreementProtoMessages, List<TradeAgreement>> tradeAgreementTranslator;
 
+  @NonNull
+  private ITranslator<TradeAgreementProtoMessage, TradeAgreement> tradeAgreementProtoTranslator;
+
+  @Value("${mvc.settle-stream-chunk-size}")
+  private int settleStreamChunkSize;
+
   @Value("${mvc.settleMissionPath}")
   private String settleMissionPath;
 
@@ -57,10 +83,16 @@ public class SettlementProtoRestController extends BaseSettlementRestController
   public SettlementProtoRestController(final SettlementService settlementService,
       final ITranslator<TradeAgreementProtoMessages, List<TradeAgreement>> tradeAgreementTranslator,
       final ITranslator<SettlementMission, SettlementMissionProtoMessage>
-          settlementMissionTranslator) {
+          settlementMissionTranslator,
+      final ITranslator<TradeAgreementProtoMessage, TradeAgreement>
+          tradeAgreementProtoTranslator,
+      final ITranslator<SettlementMissionProtoMessage, MissionAmendment>
+          missionAmendmentProtoTranslator) {
     super(settlementService);
+    this.missionAmendmentProtoTranslator = missionAmendmentProtoTranslator;
     this.settlementMissionTranslator = settlementMissionTranslator;
     this.tradeAgreementTranslator = tradeAgreementTranslator;
+    this.tradeAgreementProtoTranslator = tradeAgreementProtoTranslator;
   }
 
   /**
@@ -75,12 +107,58 @@ public class SettlementProtoRestController extends BaseSettlementRestController
     processRequestId(requestId);
 
     List<TradeAgreement> agreements = tradeAgreementTranslator.translate(messages);
-    Set<String> missionPaths = settleAgreementInternal(agreements, getMissionPath);
+    Set<String> missionPaths = settleAgreementInternal(agreements, requestId, getMissionPath);
 
     return SettlementResponseProtoMessage.newBuilder().addAllSpawnedMissionPaths(missionPaths)
         .build();
   }
 
+  /**
+   * Spawn settlement missions from a length-delimited stream of trade agreement messages.
+   *
+   * <p>The agreements are read, translated and committed in chunks of mvc.settle-stream-chunk-size
+   * so the request body is never materialized as a whole. One length-delimited
+   * SettlementResponseProtoMessage is written and flushed for each committed chunk.
+   */
+  @PostMapping(value = "${mvc.settleMissionPath}",
+      consumes = MvcConfig.APPLICATION_PROTOBUF_DELIMITED_VALUE,
+      produces = MvcConfig.APPLICATION_PROTOBUF_DELIMITED_VALUE)
+  public void settleAgreementStream(final HttpServletRequest request,
+      final HttpServletResponse response,
+      @RequestParam(value = "requestId", required = false) final String requestId)
+      throws IOException {
+    // if an external request id was provided, grab it
+    processRequestId(requestId);
+
+    response.setContentType(MvcConfig.APPLICATION_PROTOBUF_DELIMITED_VALUE);
+    InputStream in = request.getInputStream();
+    OutputStream out = response.getOutputStream();
+
+    Iterator<TradeAgreement> agreements = new AbstractIterator<TradeAgreement>() {
+      @Override
+      protected TradeAgreement computeNext() {
+        try {
+          // parseDelimitedFrom returns null once the end of the stream is reached
+          TradeAgreementProtoMessage message = TradeAgreementProtoMessage.parseDelimitedFrom(in);
+          return message == null ? endOfData() : tradeAgreementProtoTranslator.translate(message);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    };
+
+    settleAgreementChunksInternal(agreements, settleStreamChunkSize, requestId, getMissionPath,
+        missionPaths -> {
+          try {
+            SettlementResponseProtoMessage.newBuilder().addAllSpawnedMissionPaths(missionPaths)
+                .build().writeDelimitedTo(out);
+            out.flush();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
   /**
    * Retrieves existing settlement mission messages.
    */
@@ -103,4 +181,56 @@ public class SettlementProtoRestController extends BaseSettlementRestController
     // could add a test for the not-found case in order to meet coverage requirements
     return new ResponseEntity<>(HttpStatus.NOT_FOUND);
   }
+
+  /**
+   * Amends many missions at once. The missions are named by ids, by criteria or both, and the
+   * fields that are set in the SettlementMissionProtoMessage are applied to all of them in one
+   * transaction.
+   */
+  @PatchMapping(value = "${mvc.updateMissionsPath}", consumes = APPLICATION_X_PROTOBUF,
+      produces = APPLICATION_X_PROTOBUF)
+  public SettlementBulkResponseProtoMessage updateMissions(
+      @RequestBody final SettlementMissionProtoMessage amendmentMessage,
+      @RequestParam(value = "ids", required = false) final String ids,
+      @RequestParam(value = "depot", required = false) final String depot,
+      @RequestParam(value = "instrument", required = false) final String instrument,
+      @RequestParam(value = "direction", required = false) final String direction,
+      @RequestParam(value = "externalParty", required = false) final String externalParty,
+      @RequestParam(value = "requestId", required = false) final String requestId)
+      throws MissingServletRequestParameterException {
+    // if an external request id was provided, grab it
+    processRequestId(requestId);
+
+    MissionFilter filter = MissionFilter.builder().depot(depot).instrument(instrument)
+        .direction(direction).externalParty(externalParty).build();
+
+    int updated = amendMissionsInternal(ids, filter,
+        missionAmendmentProtoTranslator.translate(amendmentMessage));
+
+    return SettlementBulkResponseProtoMessage.newBuilder().setAffectedMissions(updated).build();
+  }
+
+  /**
+   * Deletes many missions at once. The missions are named by ids, by criteria or both, and are
+   * deleted in one transaction.
+   */
+  @DeleteMapping(value = "${mvc.deleteMissionsPath}", produces = APPLICATION_X_PROTOBUF)
+  public SettlementBulkResponseProtoMessage deleteMissions(
+      @RequestParam(value = "ids", required = false) final String ids,
+      @RequestParam(value = "depot", required = false) final String depot,
+      @RequestParam(value = "instrument", required = false) final String instrument,
+      @RequestParam(value = "direction", required = false) final String direction,
+      @RequestParam(value = "externalParty", required = false) final String externalParty,
+      @RequestParam(value = "requestId", required = false) final String requestId)
+      throws MissingServletRequestParameterException {
+    // if an external request id was provided, grab it
+    processRequestId(requestId);
+
+    MissionFilter filter = MissionFilter.builder().depot(depot).instrument(instrument)
+        .direction(direction).externalParty(externalParty).build();
+
+    int deleted = deleteMissionsInternal(ids, filter);
+
+    return SettlementBulkResponseProtoMessage.newBuilder().setAffectedMissions(deleted).build();
+  }
 }
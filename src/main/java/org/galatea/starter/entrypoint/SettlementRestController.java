@@ -1,30 +1,48 @@
 package org.galatea.starter.entrypoint;
 
-import java.util.Arrays;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.collect.Iterators;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import net.sf.aspect4log.Log;
 import net.sf.aspect4log.Log.Level;
 import org.galatea.starter.MvcConfig;
+import org.galatea.starter.domain.MissionAmendment;
+import org.galatea.starter.domain.MissionFilter;
 import org.galatea.starter.domain.SettlementMission;
 import org.galatea.starter.domain.TradeAgreement;
 import org.galatea.starter.entrypoint.exception.EntityNotFoundException;
+import org.galatea.starter.entrypoint.messagecontracts.SettlementBulkResponseMessage;
 import org.galatea.starter.entrypoint.messagecontracts.SettlementMissionList;
 import org.galatea.starter.entrypoint.messagecontracts.SettlementMissionMessage;
+import org.galatea.starter.entrypoint.messagecontracts.SettlementMissionPage;
 import org.galatea.starter.entrypoint.messagecontracts.SettlementResponseMessage;
+import org.galatea.starter.entrypoint.messagecontracts.TradeAgreementMessage;
 import org.galatea.starter.entrypoint.messagecontracts.TradeAgreementMessages;
 import org.galatea.starter.service.SettlementService;
+import org.galatea.starter.utils.LongIdSet;
 import org.galatea.starter.utils.translation.ITranslator;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.http.MediaType;
 import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
@@ -42,15 +60,33 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 public class SettlementRestController extends BaseSettlementRestController {
 
+  private static final String DEFAULT_LIST_LIMIT = "1000";
+
+  private static final long MAX_LIST_LIMIT = 10000;
+
   @NonNull
   ITranslator<SettlementMission, SettlementMissionMessage> settlementMissionTranslator;
 
   @NonNull
   ITranslator<SettlementMissionMessage, SettlementMission> settlementMissionMsgTranslator;
 
+  @NonNull
+  ITranslator<SettlementMissionMessage, MissionAmendment> missionAmendmentMsgTranslator;
+
   @NonNull
   ITranslator<TradeAgreementMessages, List<TradeAgreement>> tradeAgreementTranslator;
 
+  @NonNull
+  ITranslator<TradeAgreementMessage, TradeAgreement> tradeAgreementMessageTranslator;
+
+  // Read and write the NDJSON streams like the message converters read and write JSON bodies
+  private final ObjectReader agreementReader;
+
+  private final ObjectWriter responseWriter;
+
+  @Value("${mvc.settle-stream-chunk-size}")
+  private int settleStreamChunkSize;
+
   @Value("${mvc.settleMissionPath}")
   private String settleMissionPath;
 
@@ -66,11 +102,19 @@ public class SettlementRestController extends BaseSettlementRestController {
       final ITranslator<TradeAgreementMessages, List<TradeAgreement>> tradeAgreementTranslator,
       final ITranslator<SettlementMission, SettlementMissionMessage> settlementMissionTranslator,
       final ITranslator<SettlementMissionMessage, SettlementMission>
-          settlementMissionMsgTranslator) {
+          settlementMissionMsgTranslator,
+      final ITranslator<TradeAgreementMessage, TradeAgreement> tradeAgreementMessageTranslator,
+      final ITranslator<SettlementMissionMessage, MissionAmendment>
+          missionAmendmentMsgTranslator,
+      final ObjectMapper objectMapper) {
     super(settlementService);
+    this.missionAmendmentMsgTranslator = missionAmendmentMsgTranslator;
     this.tradeAgreementTranslator = tradeAgreementTranslator;
+    this.tradeAgreementMessageTranslator = tradeAgreementMessageTranslator;
     this.settlementMissionTranslator = settlementMissionTranslator;
     this.settlementMissionMsgTranslator = settlementMissionMsgTranslator;
+    this.agreementReader = objectMapper.readerFor(TradeAgreementMessage.class);
+    this.responseWriter = objectMapper.writerFor(SettlementResponseMessage.class);
   }
 
   /**
@@ -90,11 +134,51 @@ public class SettlementRestController extends BaseSettlementRestController {
 
     List<TradeAgreement> agreements = tradeAgreementTranslator.translate(messages);
 
-    Set<String> missionPaths = settleAgreementInternal(agreements, getMissionPath);
+    Set<String> missionPaths = settleAgreementInternal(agreements, requestId, getMissionPath);
 
     return SettlementResponseMessage.builder().spawnedMissions(missionPaths).build();
   }
 
+  /**
+   * Generate Missions from a newline-delimited stream of TradeAgreements.
+   *
+   * <p>The agreements are read, translated and committed in chunks of mvc.settle-stream-chunk-size
+   * so the request body is never materialized as a whole. One SettlementResponseMessage line is
+   * written and flushed for each committed chunk.
+   */
+  // The raw request and response are used so that both bodies can be streamed. Note that a
+  // failure part way through leaves the chunks that were already reported committed.
+  @PostMapping(value = "${mvc.settleMissionPath}", consumes = MvcConfig.APPLICATION_NDJSON_VALUE,
+      produces = MvcConfig.APPLICATION_NDJSON_VALUE)
+  public void settleAgreementStream(final HttpServletRequest request,
+      final HttpServletResponse response,
+      @RequestParam(value = "requestId", required = false) final String requestId)
+      throws IOException {
+
+    // if an external request id was provided, grab it
+    processRequestId(requestId);
+
+    response.setContentType(MvcConfig.APPLICATION_NDJSON_VALUE);
+    OutputStream out = response.getOutputStream();
+
+    try (MappingIterator<TradeAgreementMessage> messages =
+        agreementReader.readValues(request.getInputStream())) {
+      settleAgreementChunksInternal(
+          Iterators.transform(messages, tradeAgreementMessageTranslator::translate),
+          settleStreamChunkSize, requestId, getMissionPath, missionPaths -> {
+            try {
+              // writeValueAsBytes rather than writeValue, which would close the response stream
+              out.write(responseWriter.writeValueAsBytes(
+                  SettlementResponseMessage.builder().spawnedMissions(missionPaths).build()));
+              out.write('\n');
+              out.flush();
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    }
+  }
+
   /**
    * Retrieve a previously generated Mission.
    */
@@ -137,14 +221,47 @@ public class SettlementRestController extends BaseSettlementRestController {
     // if an external request id was provided, grab it
     processRequestId(requestId);
 
-    List<Long> idLongs = Arrays.stream(ids.split(","))
-        .map(Long::parseLong)
-        .collect(Collectors.toList());
-    List<SettlementMission> missions = getMissionsInternal(idLongs);
+    List<SettlementMission> missions = getMissionsInternal(LongIdSet.parse(ids));
 
     return new SettlementMissionList(missions);
   }
 
+  /**
+   * List the missions that match the given criteria one page at a time, in id order. Criteria that
+   * are left out match every mission. The response holds the id to list after for the next page.
+   */
+  // @GetMapping to link http GET requests to this method
+  @GetMapping(value = "${mvc.listMissionsPath}", produces = {
+      MediaType.APPLICATION_JSON_VALUE,
+      MediaType.APPLICATION_XML_VALUE})
+  public SettlementMissionPage listMissions(
+      // @RequestParam to take the criteria from the url (ex: http://url?depot=DTC&direction=REC)
+      @RequestParam(value = "depot", required = false) final String depot,
+      @RequestParam(value = "instrument", required = false) final String instrument,
+      @RequestParam(value = "direction", required = false) final String direction,
+      @RequestParam(value = "externalParty", required = false) final String externalParty,
+      // the nextAfterId of the previous page, if any
+      @RequestParam(value = "after", defaultValue = "0") final long afterId,
+      @RequestParam(value = "limit", defaultValue = DEFAULT_LIST_LIMIT)
+      @Min(1) @Max(MAX_LIST_LIMIT) final int limit,
+      @RequestParam(value = "requestId", required = false) final String requestId) {
+
+    // if an external request id was provided, grab it
+    processRequestId(requestId);
+
+    MissionFilter filter = MissionFilter.builder().depot(depot).instrument(instrument)
+        .direction(direction).externalParty(externalParty).build();
+
+    // Ask for one more mission than fits on the page to find out whether there is a next page
+    List<SettlementMission> missions = listMissionsInternal(filter, afterId, limit + 1);
+    if (missions.size() <= limit) {
+      return new SettlementMissionPage(missions, null);
+    }
+
+    List<SettlementMission> page = missions.subList(0, limit);
+    return new SettlementMissionPage(page, page.get(limit - 1).getId());
+  }
+
   /**
    * Update an existing mission given an ID.
    */
@@ -196,4 +313,66 @@ public class SettlementRestController extends BaseSettlementRestController {
     }
   }
 
+  /**
+   * Amend many missions at once. The missions are named by ids, by criteria or both, and the
+   * fields that are set in the request body are applied to all of them in one transaction.
+   */
+  // @PatchMapping to link http PATCH requests to this method
+  @PatchMapping(value = "${mvc.updateMissionsPath}",
+      consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE},
+      produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
+  public SettlementBulkResponseMessage updateMissions(
+      @RequestBody final SettlementMissionMessage amendmentMessage,
+      // @RequestParam to take a comma-separated list of ids from the url (ex: http://url?ids=1,2,3)
+      @RequestParam(value = "ids", required = false) final String ids,
+      // @RequestParam to take the criteria from the url (ex: http://url?depot=DTC&direction=REC)
+      @RequestParam(value = "depot", required = false) final String depot,
+      @RequestParam(value = "instrument", required = false) final String instrument,
+      @RequestParam(value = "direction", required = false) final String direction,
+      @RequestParam(value = "externalParty", required = false) final String externalParty,
+      @RequestParam(value = "requestId", required = false) final String requestId)
+      throws MissingServletRequestParameterException {
+
+    // if an external request id was provided, grab it
+    processRequestId(requestId);
+
+    MissionFilter filter = MissionFilter.builder().depot(depot).instrument(instrument)
+        .direction(direction).externalParty(externalParty).build();
+
+    int updated = amendMissionsInternal(ids, filter,
+        missionAmendmentMsgTranslator.translate(amendmentMessage));
+
+    return SettlementBulkResponseMessage.builder().affectedMissions(updated).build();
+  }
+
+  /**
+   * Delete many missions at once. The missions are named by ids, by criteria or both, and are
+   * deleted in one transaction.
+   */
+  // @DeleteMapping to link http DELETE requests to this method
+  @DeleteMapping(value = "${mvc.deleteMissionsPath}", produces = {
+      MediaType.APPLICATION_JSON_VALUE,
+      MediaType.APPLICATION_XML_VALUE})
+  public SettlementBulkResponseMessage deleteMissions(
+      // @RequestParam to take a comma-separated list of ids from the url (ex: http://url?ids=1,2,3)
+      @RequestParam(value = "ids", required = false) final String ids,
+      // @RequestParam to take the criteria from the url (ex: http://url?depot=DTC&direction=REC)
+      @RequestParam(value = "depot", required = false) final String depot,
+      @RequestParam(value = "instrument", required = false) final String instrument,
+      @RequestParam(value = "direction", required = false) final String direction,
+      @RequestParam(value = "externalParty", required = false) final String externalParty,
+      @RequestParam(value = "requestId", required = false) final String requestId)
+      throws MissingServletRequestParameterException {
+
+    // if an external request id was provided, grab it
+    processRequestId(requestId);
+
+    MissionFilter filter = MissionFilter.builder().depot(depot).instrument(instrument)
+        .direction(direction).externalParty(externalParty).build();
+
+    int deleted = deleteMissionsInternal(ids, filter);
+
+    return SettlementBulkResponseMessage.builder().affectedMissions(deleted).build();
+  }
+
 }
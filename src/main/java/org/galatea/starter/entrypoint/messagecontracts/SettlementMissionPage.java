@@ -0,0 +1,29 @@
+package org.galatea.starter.entrypoint.messagecontracts;
+
+import java.util.List;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.galatea.starter.domain.SettlementMission;
+
+/**
+ * One page of a mission listing. To get the next page, list again with nextAfterId as the after
+ * parameter. nextAfterId is null on the last page.
+ */
+@AllArgsConstructor
+@NoArgsConstructor(access = AccessLevel.PRIVATE) // For spring and jackson
+@Data
+@XmlRootElement(name = "settlementMissionPage")
+@XmlAccessorType(XmlAccessType.FIELD) // required if using lombok to avoid duplicate properties
+public class SettlementMissionPage {
+
+  @XmlElement(name = "settlementMission")
+  protected List<SettlementMission> settlementMissions;
+
+  protected Long nextAfterId;
+}
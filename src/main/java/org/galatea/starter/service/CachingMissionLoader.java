@@ -0,0 +1,137 @@
+package org.galatea.starter.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.domain.rpsy.ISettlementMissionRpsy;
+import org.galatea.starter.utils.LongIdSet;
+import org.springframework.cache.Cache;
+import org.springframework.cache.Cache.ValueWrapper;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+/**
+ * Looks up several missions at once through the missions cache.
+ *
+ * <p>CrudRepository.findAllById bypasses the cache that backs ISettlementMissionRpsy.findById, so
+ * this reads whatever it can from the cache first, loads only the misses from the database, and
+ * puts the loaded missions back into the cache under the same keys that findById uses (unless a
+ * newer version was cached in the meantime). Ids are passed around as a LongIdSet, so large
+ * lookups don't box and hash every id into a HashSet.
+ * The number of ids served from the cache and from the database are counted in the
+ * {@value #METRIC_NAME} meter, tagged with result=hit or result=miss.
+ */
+@Slf4j
+@Component
+public class CachingMissionLoader {
+
+  public static final String CACHE_NAME = "missions";
+
+  public static final String METRIC_NAME = "missions.cache.multiget";
+
+  // Shorter runs of consecutive ids are cheaper to add to the IN query than to query separately
+  static final int MIN_RANGE_LENGTH = 16;
+
+  private final Cache cache;
+
+  private final ISettlementMissionRpsy missionrpsy;
+
+  private final MissionCacheWriter cacheWriter;
+
+  private final Counter hits;
+
+  private final Counter misses;
+
+  /**
+   * Create a loader that reads through the missions cache of the given cache manager.
+   */
+  public CachingMissionLoader(final CacheManager cacheManager,
+      final ISettlementMissionRpsy missionrpsy, final MissionCacheWriter cacheWriter,
+      final MeterRegistry meterRegistry) {
+    this.cache = cacheManager.getCache(CACHE_NAME);
+    if (cache == null) {
+      throw new IllegalStateException("No cache named '" + CACHE_NAME + "' is configured");
+    }
+    this.missionrpsy = missionrpsy;
+    this.cacheWriter = cacheWriter;
+    this.hits = Counter.builder(METRIC_NAME).tag("result", "hit")
+        .description("Missions served from the cache by multi-get lookups")
+        .register(meterRegistry);
+    this.misses = Counter.builder(METRIC_NAME).tag("result", "miss")
+        .description("Missions loaded from the database by multi-get lookups")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Find the missions with the given ids.
+   *
+   * @return the missions that were found, each at the same position as its id in the set. Ids that
+   *     do not exist have null at their position.
+   */
+  public SettlementMission[] findAllById(final LongIdSet ids) {
+    SettlementMission[] found = new SettlementMission[ids.size()];
+    long[] missing = new long[ids.size()];
+    int missingCount = 0;
+
+    for (int i = 0; i < ids.size(); i++) {
+      // findById caches absent missions as null. Those are looked up again rather than trusted,
+      // since the id may have been used since.
+      ValueWrapper cached = cache.get(ids.get(i));
+      if (cached != null && cached.get() != null) {
+        found[i] = (SettlementMission) cached.get();
+      } else {
+        missing[missingCount++] = ids.get(i);
+      }
+    }
+
+    hits.increment(ids.size() - missingCount);
+    misses.increment(missingCount);
+    log.debug("{} of {} missions were cached", ids.size() - missingCount, ids.size());
+
+    if (missingCount > 0) {
+      Arrays.sort(missing, 0, missingCount);
+      for (SettlementMission mission : load(missing, missingCount)) {
+        found[ids.indexOf(mission.getId())] = mission;
+        cacheWriter.putIfNewer(mission);
+      }
+    }
+
+    return found;
+  }
+
+  /**
+   * Load the first count of the given sorted ids from the database. Runs of at least
+   * MIN_RANGE_LENGTH consecutive ids are each loaded with a range query, which the database can
+   * answer from the primary key index without matching a long IN list, and the rest are loaded
+   * with one IN query.
+   */
+  private List<SettlementMission> load(final long[] sortedIds, final int count) {
+    List<SettlementMission> loaded = new ArrayList<>(count);
+    List<Long> scattered = new ArrayList<>();
+
+    int runStart = 0;
+    for (int i = 1; i <= count; i++) {
+      if (i < count && sortedIds[i] == sortedIds[i - 1] + 1) {
+        continue;
+      }
+
+      if (i - runStart >= MIN_RANGE_LENGTH) {
+        loaded.addAll(missionrpsy.findByIdBetween(sortedIds[runStart], sortedIds[i - 1]));
+      } else {
+        for (int j = runStart; j < i; j++) {
+          scattered.add(sortedIds[j]);
+        }
+      }
+      runStart = i;
+    }
+
+    if (!scattered.isEmpty()) {
+      missionrpsy.findAllById(scattered).forEach(loaded::add);
+    }
+    return loaded;
+  }
+}
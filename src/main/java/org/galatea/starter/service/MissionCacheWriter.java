@@ -0,0 +1,161 @@
+package org.galatea.starter.service;
+
+import com.google.common.util.concurrent.Striped;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.SettlementMission;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.Cache.ValueWrapper;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps the missions cache up to date with missions that have been saved.
+ *
+ * <p>With cache-write-through enabled, saved missions are put into the cache once the transaction
+ * that saved them commits, so the next read is served from the cache. Otherwise they are evicted
+ * at that point, and the next read goes to the database. Either way nothing happens if the
+ * transaction rolls back.
+ *
+ * <p>A mission is only put into the cache if it is newer (has a higher version) than the cached
+ * one. Puts for the same id are serialized on a striped lock so that when several writers race,
+ * the cache ends up with the latest version no matter which of them gets there last.
+ */
+@Slf4j
+@Component
+public class MissionCacheWriter {
+
+  private static final int LOCK_STRIPES = 64;
+
+  private final Cache cache;
+
+  private final boolean writeThrough;
+
+  private final Striped<Lock> locks = Striped.lock(LOCK_STRIPES);
+
+  /**
+   * Create a writer for the missions cache of the given cache manager.
+   */
+  public MissionCacheWriter(final CacheManager cacheManager,
+      @Value("${cache-write-through}") final boolean writeThrough) {
+    this.cache = cacheManager.getCache(CachingMissionLoader.CACHE_NAME);
+    if (cache == null) {
+      throw new IllegalStateException(
+          "No cache named '" + CachingMissionLoader.CACHE_NAME + "' is configured");
+    }
+    this.writeThrough = writeThrough;
+  }
+
+  /**
+   * Put (or evict) the saved missions once the current transaction commits, or straight away if
+   * there is no transaction.
+   */
+  public void missionsSaved(final Iterable<? extends SettlementMission> missions) {
+    // Copy, since the caller may reuse or modify its collection before the transaction commits
+    List<SettlementMission> saved = new ArrayList<>();
+    missions.forEach(saved::add);
+
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+              update(saved);
+            }
+          });
+    } else {
+      update(saved);
+    }
+  }
+
+  /**
+   * Evict the removed or changed missions once the current transaction commits, or straight away if
+   * there is no transaction. All of them are evicted in one go after the commit, rather than one
+   * synchronization being registered per mission.
+   */
+  public void missionsRemoved(final long[] ids) {
+    long[] removed = ids.clone();
+
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+              evict(removed);
+            }
+          });
+    } else {
+      evict(removed);
+    }
+  }
+
+  /**
+   * Clear the cache once the current transaction commits, or straight away if there is no
+   * transaction. For changes to more missions than are worth evicting one by one.
+   */
+  public void allMissionsRemoved() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+              clear();
+            }
+          });
+    } else {
+      clear();
+    }
+  }
+
+  /**
+   * Put the mission into the cache unless the cache already holds the same or a newer version of
+   * it.
+   *
+   * @return true if the mission was put into the cache
+   */
+  public boolean putIfNewer(final SettlementMission mission) {
+    Lock lock = locks.get(mission.getId());
+    lock.lock();
+    try {
+      ValueWrapper cached = cache.get(mission.getId());
+      SettlementMission current = cached == null ? null : (SettlementMission) cached.get();
+      if (current != null && current.getVersion() >= mission.getVersion()) {
+        log.debug("Not caching version {} of mission {} over version {}", mission.getVersion(),
+            mission.getId(), current.getVersion());
+        return false;
+      }
+
+      cache.put(mission.getId(), mission);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void evict(final long[] ids) {
+    for (long id : ids) {
+      cache.evict(id);
+    }
+    log.debug("Evicted {} missions", ids.length);
+  }
+
+  private void clear() {
+    cache.clear();
+    log.debug("Cleared the missions cache");
+  }
+
+  private void update(final List<SettlementMission> missions) {
+    for (SettlementMission mission : missions) {
+      if (writeThrough) {
+        putIfNewer(mission);
+      } else {
+        cache.evict(mission.getId());
+      }
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package org.galatea.starter.service;
+
+import java.time.Instant;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.MissionEvent;
+import org.galatea.starter.domain.MissionEvent.Type;
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.domain.rpsy.IMissionEventRpsy;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementMissionProtoMessage;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementMissionProtoMessages;
+import org.galatea.starter.utils.translation.ITranslator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records changes to settlement missions in the outbox, for MissionEventRelay to publish.
+ *
+ * <p>Each call saves a single MissionEvent holding all of the missions it was given, serialized
+ * as a SettlementMissionProtoMessages, in the current transaction. So an event is published if and
+ * only if its change is committed, and the write path only pays for one insert per change rather
+ * than a round trip to the broker. Nothing is recorded if mission-events.enabled is false.
+ */
+@Slf4j
+@Component
+public class MissionEventOutbox {
+
+  private final IMissionEventRpsy eventRpsy;
+
+  private final ITranslator<SettlementMission, SettlementMissionProtoMessage> missionTranslator;
+
+  private final boolean enabled;
+
+  /**
+   * Create an outbox that saves events with the given repository.
+   */
+  public MissionEventOutbox(final IMissionEventRpsy eventRpsy,
+      final ITranslator<SettlementMission, SettlementMissionProtoMessage> missionTranslator,
+      @Value("${mission-events.enabled}") final boolean enabled) {
+    this.eventRpsy = eventRpsy;
+    this.missionTranslator = missionTranslator;
+    this.enabled = enabled;
+  }
+
+  /**
+   * Record that the missions were created.
+   */
+  public void missionsCreated(final Iterable<? extends SettlementMission> missions) {
+    record(Type.CREATED, missions);
+  }
+
+  /**
+   * Record that the missions were updated to the given state.
+   */
+  public void missionsUpdated(final Iterable<? extends SettlementMission> missions) {
+    record(Type.UPDATED, missions);
+  }
+
+  /**
+   * Record that the missions with the given ids were deleted.
+   */
+  public void missionsDeleted(final long... ids) {
+    if (!enabled || ids.length == 0) {
+      return;
+    }
+
+    SettlementMissionProtoMessages.Builder deleted = SettlementMissionProtoMessages.newBuilder();
+    for (long id : ids) {
+      deleted.addMessage(SettlementMissionProtoMessage.newBuilder().setId(id));
+    }
+    save(Type.DELETED, deleted.build());
+  }
+
+  private void record(final Type type, final Iterable<? extends SettlementMission> missions) {
+    if (!enabled) {
+      return;
+    }
+
+    SettlementMissionProtoMessages.Builder changed = SettlementMissionProtoMessages.newBuilder();
+    missions.forEach(mission -> changed.addMessage(missionTranslator.translate(mission)));
+    if (changed.getMessageCount() > 0) {
+      save(type, changed.build());
+    }
+  }
+
+  private void save(final Type type, final SettlementMissionProtoMessages missions) {
+    MissionEvent event = eventRpsy.save(MissionEvent.builder().type(type)
+        .missions(missions.toByteArray()).missionCount(missions.getMessageCount())
+        .createdAt(Instant.now()).build());
+    log.debug("Recorded mission event {}", event);
+  }
+}
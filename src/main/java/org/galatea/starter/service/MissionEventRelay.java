@@ -0,0 +1,191 @@
+package org.galatea.starter.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.jms.BytesMessage;
+import javax.jms.ConnectionFactory;
+import javax.jms.MessageProducer;
+import javax.jms.Topic;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.MissionEvent;
+import org.galatea.starter.domain.rpsy.IMissionEventRpsy;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.support.JmsUtils;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Publishes the events in the mission event outbox (see MissionEventOutbox) to a JMS topic, and
+ * deletes them from the outbox once the broker has them.
+ *
+ * <p>Once started, a background thread checks the outbox every intervalMillis, and relays the
+ * events it finds in id order, up to batchSize at a time, until the outbox is empty. The thread is
+ * started and stopped with the application context, as a SmartLifecycle. Each event becomes a
+ * BytesMessage whose body is the SettlementMissionProtoMessages of the event, with the type of
+ * the event in its {@value #TYPE} property and its id in its {@value #EVENT_ID} property. The
+ * messages of a batch are sent in one JMS transaction, so the broker takes them without a round
+ * trip per message, and the batch is only deleted from the outbox once that transaction commits.
+ *
+ * <p>Each batch is claimed, published and deleted in one database transaction, which locks the
+ * events of the batch (see IMissionEventRpsy.claimOldest). So when several instances share the
+ * outbox, a batch is only ever relayed by one of them: the others skip the locked events where the
+ * database supports it, and otherwise wait for the batch to be deleted.
+ *
+ * <p>If publishing fails, the batch stays in the outbox and is relayed again at the next check.
+ * An event can therefore be published twice (if the relay fails between the commit and the
+ * delete), which subscribers can tell by its id. Subscribers should also compare the versions of
+ * the missions, since events that are committed concurrently are not strictly in commit order.
+ * The missions of the events published are counted in the {@value #METRIC_NAME} meter, tagged
+ * with the type of the event.
+ */
+@Slf4j
+public class MissionEventRelay implements SmartLifecycle {
+
+  public static final String METRIC_NAME = "mission.events.published";
+
+  public static final String TYPE = "FuseMissionEventType";
+
+  public static final String EVENT_ID = "FuseMissionEventId";
+
+  private final IMissionEventRpsy eventRpsy;
+
+  private final JmsTemplate jmsTemplate;
+
+  private final String topic;
+
+  private final int batchSize;
+
+  private final TransactionOperations transactionOperations;
+
+  private final long intervalMillis;
+
+  private final MeterRegistry meterRegistry;
+
+  private ScheduledExecutorService executor;
+
+  /**
+   * Create a relay. Its thread only runs once it is started.
+   *
+   * @param topic the name of the topic to publish to
+   * @param batchSize the number of events sent per JMS transaction
+   * @param intervalMillis the time between checks of the outbox
+   */
+  public MissionEventRelay(final IMissionEventRpsy eventRpsy,
+      final ConnectionFactory connectionFactory, final String topic, final int batchSize,
+      final TransactionOperations transactionOperations, final long intervalMillis,
+      final MeterRegistry meterRegistry) {
+    this.eventRpsy = eventRpsy;
+    this.topic = topic;
+    this.batchSize = batchSize;
+    this.transactionOperations = transactionOperations;
+    this.intervalMillis = intervalMillis;
+    this.meterRegistry = meterRegistry;
+
+    this.jmsTemplate = new JmsTemplate(connectionFactory);
+    jmsTemplate.setPubSubDomain(true);
+    jmsTemplate.setSessionTransacted(true);
+  }
+
+  /**
+   * Start the relay thread, which checks the outbox every intervalMillis.
+   */
+  @Override
+  public synchronized void start() {
+    if (executor != null) {
+      return;
+    }
+
+    executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "mission-event-relay");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::relay, intervalMillis, intervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop the relay thread. Events that are still in the outbox are published after a restart.
+   */
+  @Override
+  public synchronized void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  @Override
+  public synchronized boolean isRunning() {
+    return executor != null;
+  }
+
+  /**
+   * Publish the events in the outbox until it is empty or publishing fails.
+   *
+   * @return the number of events published
+   */
+  public int relay() {
+    int published = 0;
+    try {
+      int relayed;
+      do {
+        relayed = transactionOperations.execute(status -> relayBatch());
+        published += relayed;
+      } while (relayed == batchSize && !Thread.currentThread().isInterrupted());
+    } catch (RuntimeException e) {
+      log.warn("Could not publish mission events to {}; they will be published later", topic, e);
+    }
+    return published;
+  }
+
+  /**
+   * Claim the oldest batch of events, publish it and delete it; has to be called in a transaction.
+   *
+   * @return the number of events published
+   */
+  private int relayBatch() {
+    List<MissionEvent> events = eventRpsy.claimOldest(PageRequest.of(0, batchSize));
+    if (events.isEmpty()) {
+      return 0;
+    }
+
+    publish(events);
+    eventRpsy.deletePublished(
+        events.stream().map(MissionEvent::getId).collect(Collectors.toList()));
+    log.debug("Published {} mission events to {}", events.size(), topic);
+    return events.size();
+  }
+
+  private void publish(final List<MissionEvent> events) {
+    jmsTemplate.execute(session -> {
+      Topic destination = session.createTopic(topic);
+      MessageProducer producer = session.createProducer(destination);
+      try {
+        for (MissionEvent event : events) {
+          BytesMessage message = session.createBytesMessage();
+          message.writeBytes(event.getMissions());
+          message.setStringProperty(TYPE, event.getType().name());
+          message.setLongProperty(EVENT_ID, event.getId());
+          producer.send(message);
+        }
+        JmsUtils.commitIfNecessary(session);
+      } finally {
+        JmsUtils.closeMessageProducer(producer);
+      }
+      return null;
+    }, false);
+
+    for (MissionEvent event : events) {
+      Counter.builder(METRIC_NAME).tag("type", event.getType().name())
+          .description("Missions whose changes were published to the topic")
+          .register(meterRegistry).increment(event.getMissionCount());
+    }
+  }
+}
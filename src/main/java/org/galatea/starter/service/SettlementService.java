@@ -1,23 +1,38 @@
 package org.galatea.starter.service;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.primitives.Longs;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.stream.Stream;
 import javax.validation.Valid;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.sf.aspect4log.Log;
+import org.galatea.starter.domain.MissionAmendment;
+import org.galatea.starter.domain.MissionFilter;
 import org.galatea.starter.domain.SettlementMission;
 import org.galatea.starter.domain.TradeAgreement;
 import org.galatea.starter.domain.rpsy.ISettlementMissionRpsy;
 import org.galatea.starter.entrypoint.exception.EntityNotFoundException;
+import org.galatea.starter.utils.LongIdSet;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.validation.annotation.Validated;
 
 @RequiredArgsConstructor
@@ -27,34 +42,153 @@ import org.springframework.validation.annotation.Validated;
 @Service
 public class SettlementService {
 
+  // Number of ids bound to the IN list of each bulk statement
+  static final int BULK_STATEMENT_SIZE = 1000;
+
   @NonNull
   ISettlementMissionRpsy missionrpsy;
 
   @NonNull
   IAgreementTransformer agreementTransformer;
 
+  @NonNull
+  CachingMissionLoader missionLoader;
+
+  @NonNull
+  MissionCacheWriter missionCacheWriter;
+
+  @NonNull
+  SubmissionIndex submissionIndex;
+
+  @NonNull
+  TransactionOperations transactionOperations;
+
+  @NonNull
+  MissionEventOutbox missionEventOutbox;
+
   /**
-   * Create missions based on the agreements provided.
+   * Create missions based on the agreements provided, in one transaction with their CREATED event.
    *
    * @param agreements the agreements used to generate missions
    * @return the ids of the missions that were created
    */
   public Set<Long> spawnMissions(@Valid final List<TradeAgreement> agreements) {
+    Set<Long> idSet = transactionOperations.execute(status -> saveMissions(agreements).stream()
+        .map(SettlementMission::getId).collect(Collectors.toSet()));
+    log.info("Returning {} mission id(s)", idSet.size());
 
-    // Map each agreement to a mission, collect to a list, and then same in bulk
-    Iterable<SettlementMission> savedMissions = missionrpsy.saveAll(agreements.stream()
-        .map(agr -> agreementTransformer.transform(agr)).collect(Collectors.toList()));
-    log.debug("The following missions were saved: {}", savedMissions);
+    return idSet;
+  }
 
-    // We have to do all of this StreamSupport crap since the repository returns an iterable instead
-    // of a normal collection
-    Set<Long> idSet = StreamSupport.stream(savedMissions.spliterator(), false)
-        .map(SettlementMission::getId).collect(Collectors.toSet());
-    log.info("Returning {} mission id(s)", idSet.size());
+  /**
+   * Create missions based on the agreements provided, unless they were submitted before under the
+   * same idempotency key. A replayed submission returns the ids of the missions that were created
+   * the first time, without transforming or saving anything.
+   *
+   * <p>The missions are saved in the same transaction as the key, so if two submissions with the
+   * same key race, the one that commits second is rolled back and returns the missions of the
+   * first.
+   *
+   * @param idempotencyKey identifies the submission, or null if it can't be replayed
+   * @param agreements the agreements used to generate missions
+   * @return the ids of the missions that were created for the submission
+   */
+  public Set<Long> spawnMissions(final String idempotencyKey,
+      @Valid final List<TradeAgreement> agreements) {
+    if (idempotencyKey == null) {
+      return spawnMissions(agreements);
+    }
+
+    Optional<Set<Long>> replayed = submissionIndex.find(idempotencyKey);
+    if (replayed.isPresent()) {
+      log.info("Agreements with idempotency key {} were already submitted; returning {} mission"
+          + " id(s)", idempotencyKey, replayed.get().size());
+      return replayed.get();
+    }
 
+    try {
+      return transactionOperations.execute(status -> {
+        Set<Long> idSet = spawnMissions(agreements);
+        submissionIndex.record(Collections.singletonMap(idempotencyKey, idSet));
+        return idSet;
+      });
+    } catch (DataIntegrityViolationException e) {
+      log.info("Agreements with idempotency key {} were submitted concurrently", idempotencyKey);
+      return submissionIndex.find(idempotencyKey).orElseThrow(() -> e);
+    }
+  }
+
+  /**
+   * Create one mission for each agreement that wasn't submitted before under the same idempotency
+   * key, where idempotencyKeys.get(i) is the key of agreements.get(i). The new missions and their
+   * keys are saved in one transaction. The keys are looked up in the submission index all at once
+   * (see SubmissionIndex.findAll). Unlike spawnMissions, a race with another submission of one of
+   * the keys fails the whole call, for the caller to retry.
+   *
+   * @param idempotencyKeys the key of each agreement, or null for agreements that can't be
+   *     replayed
+   * @param agreements the agreements used to generate missions
+   * @return the ids of the missions of all of the agreements, including replayed ones
+   */
+  public Set<Long> spawnMissionsOnce(final List<String> idempotencyKeys,
+      @Valid final List<TradeAgreement> agreements) {
+    Set<Long> idSet = new HashSet<>();
+    List<String> newKeys = new ArrayList<>(agreements.size());
+    List<TradeAgreement> newAgreements = new ArrayList<>(agreements.size());
+    Set<String> batchKeys = new HashSet<>();
+    Map<String, Set<Long>> replayedByKey = submissionIndex.findAll(idempotencyKeys.stream()
+        .filter(Objects::nonNull).collect(Collectors.toList()));
+
+    for (int i = 0; i < agreements.size(); i++) {
+      String key = idempotencyKeys.get(i);
+      Set<Long> replayed = key == null ? null : replayedByKey.get(key);
+      if (replayed != null) {
+        idSet.addAll(replayed);
+      } else if (key == null || batchKeys.add(key)) {
+        newKeys.add(key);
+        newAgreements.add(agreements.get(i));
+      }
+    }
+    log.info("{} of {} agreement(s) were already submitted", agreements.size()
+        - newAgreements.size(), agreements.size());
+
+    if (!newAgreements.isEmpty()) {
+      transactionOperations.execute(status -> {
+        List<SettlementMission> savedMissions = saveMissions(newAgreements);
+        Map<String, Set<Long>> idsByKey = new HashMap<>();
+        for (int i = 0; i < newKeys.size(); i++) {
+          Long id = savedMissions.get(i).getId();
+          idSet.add(id);
+          if (newKeys.get(i) != null) {
+            idsByKey.put(newKeys.get(i), Collections.singleton(id));
+          }
+        }
+        submissionIndex.record(idsByKey);
+        return null;
+      });
+    }
+
+    log.info("Returning {} mission id(s)", idSet.size());
     return idSet;
   }
 
+  /**
+   * Transform each agreement to a mission and save them in bulk, and record a CREATED event for
+   * them in the outbox. Must be called in a transaction, so that the event is only published if
+   * the missions are saved.
+   *
+   * @return the saved missions, in the order of their agreements
+   */
+  private List<SettlementMission> saveMissions(final List<TradeAgreement> agreements) {
+    List<SettlementMission> savedMissions = new ArrayList<>(agreements.size());
+    missionrpsy.saveAll(agreements.stream()
+        .map(agr -> agreementTransformer.transform(agr)).collect(Collectors.toList()))
+        .forEach(savedMissions::add);
+    log.debug("The following missions were saved: {}", savedMissions);
+    missionCacheWriter.missionsSaved(savedMissions);
+    missionEventOutbox.missionsCreated(savedMissions);
+    return savedMissions;
+  }
 
   /**
    * Retrieve a previously-generated settlement mission from the database.
@@ -67,40 +201,198 @@ public class SettlementService {
   }
 
   /**
-   * Retrieve multiple previously-generated settlement missions from the database.
+   * Retrieve multiple previously-generated settlement missions. Missions that are in the cache are
+   * served from there, and the rest are retrieved from the database.
    *
-   * @param ids a comma-separated list of IDs of the missions to retrieve
+   * @param ids the IDs of the missions to retrieve
+   * @return the missions in the order of their IDs
    */
-  public List<SettlementMission> findMissions(final List<Long> ids) {
+  public List<SettlementMission> findMissions(final LongIdSet ids) {
     log.info("Retrieving settlement missions with ids: {}", ids);
 
-    List<SettlementMission> retrievedMissions = Lists.newArrayList(missionrpsy.findAllById(ids));
+    SettlementMission[] retrievedMissions = missionLoader.findAllById(ids);
 
-    // CrudRepository.findAll(Iterable ids) succeeds even if some provided IDs aren't found, so
-    // if we want to alert on any not-found IDs we have to manually check
-    Set<Long> retrievedMissionIds = retrievedMissions.stream()
-        .map(SettlementMission::getId)
-        .collect(Collectors.toSet());
-    Sets.SetView<Long> missingMissions = Sets.difference(new HashSet<>(ids), retrievedMissionIds);
+    // The lookup succeeds even if some provided IDs aren't found, so if we want to alert on any
+    // not-found IDs we have to manually check
+    List<Long> missingMissions = new ArrayList<>();
+    for (int i = 0; i < retrievedMissions.length; i++) {
+      if (retrievedMissions[i] == null) {
+        missingMissions.add(ids.get(i));
+      }
+    }
     if (!missingMissions.isEmpty()) {
       throw new EntityNotFoundException(SettlementMission.class, missingMissions);
     }
 
-    return retrievedMissions;
+    return Arrays.asList(retrievedMissions);
   }
 
   /**
-   * Update the mission with the given ID.
+   * List the missions that match the filter in id order, starting after the mission with the
+   * given id. This is keyset pagination: to get the next page, list again after the id of the last
+   * mission of this page. Each page is an index range scan from that id, so later pages are no
+   * slower than the first.
+   *
+   * @param filter the criteria the missions have to match
+   * @param afterId only missions with greater ids are listed
+   * @param limit the maximum number of missions to list
+   * @return the missions in id order
+   */
+  @Transactional(readOnly = true)
+  public List<SettlementMission> listMissions(final MissionFilter filter, final long afterId,
+      final int limit) {
+    log.info("Listing up to {} settlement missions after id {} matching {}", limit, afterId,
+        filter);
+
+    try (Stream<SettlementMission> missions = missionrpsy.streamMissions(afterId,
+        filter.getDepot(), filter.getInstrument(), filter.getDirection(),
+        filter.getExternalParty(), PageRequest.of(0, limit))) {
+      return missions.collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * Update the mission with the given ID, provided that it is still at the version of the given
+   * mission, with a single UPDATE statement. Only if nothing was updated is the database asked
+   * whether the mission exists, to tell a missing mission from a version conflict. The UPDATED
+   * event is recorded in the same transaction as the update.
    *
    * @param id identifier of the mission
-   * @param mission the mission to update
-   * @return optional containing the saved mission
+   * @param mission the new state of the mission, with the version it was read at
+   * @return optional containing the updated mission, with its new version, or empty if there is
+   *     no mission with the ID
+   * @throws ObjectOptimisticLockingFailureException if the mission has been updated since it was
+   *     read at that version
+   */
+  public Optional<SettlementMission> updateMissionIfCurrent(final Long id,
+      @Valid final SettlementMission mission) {
+    SettlementMission updatedMission = SettlementMission.builder().id(id)
+        .instrument(mission.getInstrument()).externalParty(mission.getExternalParty())
+        .depot(mission.getDepot()).direction(mission.getDirection()).qty(mission.getQty())
+        .version(mission.getVersion() + 1).build();
+    boolean updated = transactionOperations.execute(status -> {
+      if (missionrpsy.updateIfVersionMatches(id, mission) == 0) {
+        return false;
+      }
+      missionEventOutbox.missionsUpdated(Collections.singletonList(updatedMission));
+      return true;
+    });
+
+    if (!updated) {
+      if (!missionrpsy.existsById(id)) {
+        return Optional.empty();
+      }
+      throw new ObjectOptimisticLockingFailureException(SettlementMission.class, id);
+    }
+
+    log.info("The following mission was updated: {}", updatedMission);
+    missionCacheWriter.missionsSaved(Collections.singletonList(updatedMission));
+    return Optional.of(updatedMission);
+  }
+
+  /**
+   * Delete the missions with the given IDs that match the filter, or every mission that matches
+   * the filter if no IDs are given, in one transaction. The missions are deleted with set-based
+   * statements of up to BULK_STATEMENT_SIZE IDs each, without being loaded first, and are evicted
+   * from the cache once the transaction commits (see executeInChunks). A DELETED event is recorded
+   * for each chunk.
+   *
+   * @param ids identifiers of the missions to delete, or null to select them by the filter alone
+   * @param filter the criteria the missions have to match
+   * @return the number of missions deleted
+   */
+  @Transactional
+  public int deleteMissions(final LongIdSet ids, final MissionFilter filter) {
+    int deleted = executeInChunks(ids, filter, chunk -> {
+      int count = missionrpsy.deleteMatching(chunk, filter.getDepot(), filter.getInstrument(),
+          filter.getDirection(), filter.getExternalParty());
+      missionEventOutbox.missionsDeleted(Longs.toArray(chunk));
+      return count;
+    });
+
+    log.info("{} missions matching {} were deleted", deleted, filter);
+    return deleted;
+  }
+
+  /**
+   * Apply the amendment to the missions with the given IDs that match the filter, or to every
+   * mission that matches the filter if no IDs are given, in one transaction. The missions are
+   * updated with set-based statements of up to BULK_STATEMENT_SIZE IDs each, which also increment
+   * their versions, and are evicted from the cache once the transaction commits (see
+   * executeInChunks). Each chunk is read again after its update, to record an UPDATED event with
+   * the amended missions.
+   *
+   * @param ids identifiers of the missions to amend, or null to select them by the filter alone
+   * @param filter the criteria the missions have to match
+   * @param amendment the changes to apply
+   * @return the number of missions updated
    */
-  public Optional<SettlementMission> updateMission(final Long id, final SettlementMission mission) {
-    mission.setId(id);
-    SettlementMission savedMission = missionrpsy.save(mission);
-    log.info("The following mission was updated: {}", savedMission);
-    return Optional.ofNullable(savedMission);
+  @Transactional
+  public int amendMissions(final LongIdSet ids, final MissionFilter filter,
+      @Valid final MissionAmendment amendment) {
+    if (amendment.isEmpty()) {
+      log.info("Amendment has no changes; no missions were updated");
+      return 0;
+    }
+
+    int updated = executeInChunks(ids, filter, chunk -> {
+      int count = missionrpsy.amendMatching(chunk, filter.getDepot(), filter.getInstrument(),
+          filter.getDirection(), filter.getExternalParty(), amendment.getInstrument(),
+          amendment.getExternalParty(), amendment.getDepot(), amendment.getDirection(),
+          amendment.getQty());
+      missionEventOutbox.missionsUpdated(missionrpsy.findAllById(chunk));
+      return count;
+    });
+
+    log.info("{} missions matching {} were amended with {}", updated, filter, amendment);
+    return updated;
+  }
+
+  /**
+   * Run a bulk statement on chunks of up to BULK_STATEMENT_SIZE IDs of the missions that match the
+   * filter: among the given IDs, or among all missions if none are given. The matching missions
+   * are selected and locked before the statement runs, so the statement gets exactly the IDs it
+   * changes, and a chunk is changed as a whole even if the statement changes the fields the filter
+   * is on.
+   *
+   * <p>Given IDs are evicted from the cache once the transaction commits. The IDs of the missions
+   * that match the filter are read one chunk at a time, after the last ID of the previous chunk,
+   * so that they are never all held in memory, and the whole cache is cleared instead.
+   *
+   * @return the sum of the counts returned by the statement
+   */
+  private int executeInChunks(final LongIdSet ids, final MissionFilter filter,
+      final ToIntFunction<List<Long>> statement) {
+    int count = 0;
+    if (ids != null) {
+      long[] selectedIds = ids.toArray();
+      for (List<Long> chunk : Lists.partition(Longs.asList(selectedIds), BULK_STATEMENT_SIZE)) {
+        List<Long> matching = missionrpsy.findIdsIn(chunk, filter.getDepot(),
+            filter.getInstrument(), filter.getDirection(), filter.getExternalParty());
+        if (!matching.isEmpty()) {
+          count += statement.applyAsInt(matching);
+        }
+      }
+      missionCacheWriter.missionsRemoved(selectedIds);
+      return count;
+    }
+    if (filter.matchesAll()) {
+      throw new IllegalArgumentException("Either mission ids or filter criteria are required");
+    }
+
+    List<Long> chunk;
+    long afterId = Long.MIN_VALUE;
+    do {
+      chunk = missionrpsy.findIds(afterId, filter.getDepot(), filter.getInstrument(),
+          filter.getDirection(), filter.getExternalParty(),
+          PageRequest.of(0, BULK_STATEMENT_SIZE));
+      if (!chunk.isEmpty()) {
+        count += statement.applyAsInt(chunk);
+        afterId = chunk.get(chunk.size() - 1);
+      }
+    } while (chunk.size() == BULK_STATEMENT_SIZE);
+    missionCacheWriter.allMissionsRemoved();
+    return count;
   }
 
   /**
@@ -114,13 +406,17 @@ public class SettlementService {
   }
 
   /**
-   * Delete the mission by ID.
+   * Delete the mission by ID, in one transaction with its DELETED event.
    * This removes the mission from the cache as well.
    *
    * @param id identifier of the mission to delete
    */
   public void deleteMission(final Long id) {
-    missionrpsy.deleteById(id);
+    transactionOperations.execute(status -> {
+      missionrpsy.deleteById(id);
+      missionEventOutbox.missionsDeleted(id);
+      return null;
+    });
     log.info("Mission with id '{}' was deleted", id);
   }
 }
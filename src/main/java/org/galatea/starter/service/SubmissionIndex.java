@@ -0,0 +1,175 @@
+package org.galatea.starter.service;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.domain.AgreementSubmission;
+import org.galatea.starter.domain.rpsy.IAgreementSubmissionRpsy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Remembers which missions were spawned for each idempotency key, so that a replayed submission of
+ * trade agreements can be answered without spawning its missions again.
+ *
+ * <p>Recently recorded keys are held in a concurrent in-memory index that forgets them
+ * idempotency.index-ttl-seconds after they were recorded, or sooner once it holds more than
+ * idempotency.index-max-missions mission ids. Every key is also stored as an AgreementSubmission
+ * in the same transaction as its missions, and keys that aren't in the index (because they were
+ * evicted, recorded by another node or recorded before a restart) are looked up there.
+ */
+@Slf4j
+@Component
+public class SubmissionIndex {
+
+  private static final Joiner ID_JOINER = Joiner.on(',');
+
+  private static final Splitter ID_SPLITTER = Splitter.on(',');
+
+  private static final String HASHED_KEY_PREFIX = "sha256:";
+
+  private final IAgreementSubmissionRpsy submissionRpsy;
+
+  // Mission ids are held as primitive arrays, which take a fraction of the space of a Set<Long>
+  private final Cache<String, long[]> recent;
+
+  /**
+   * Create an index that holds up to maxMissions mission ids for up to ttlSeconds each.
+   */
+  public SubmissionIndex(final IAgreementSubmissionRpsy submissionRpsy,
+      @Value("${idempotency.index-max-missions}") final long maxMissions,
+      @Value("${idempotency.index-ttl-seconds}") final long ttlSeconds) {
+    this.submissionRpsy = submissionRpsy;
+    this.recent = CacheBuilder.newBuilder()
+        .maximumWeight(maxMissions)
+        .weigher((String key, long[] missionIds) -> missionIds.length)
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .build();
+  }
+
+  /**
+   * Find the ids of the missions that were spawned for the submission with the given key.
+   *
+   * @return the mission ids, or empty if nothing was submitted with the key
+   */
+  public Optional<Set<Long>> find(final String idempotencyKey) {
+    String key = storedKey(idempotencyKey);
+    long[] missionIds = recent.getIfPresent(key);
+    if (missionIds == null) {
+      Optional<AgreementSubmission> stored = submissionRpsy.findById(key);
+      if (!stored.isPresent()) {
+        return Optional.empty();
+      }
+
+      log.debug("Idempotency key {} was not in the index; found it in the database",
+          idempotencyKey);
+      missionIds = parse(stored.get().getMissionIds());
+      recent.put(key, missionIds);
+    }
+
+    return Optional.of(asSet(missionIds));
+  }
+
+  /**
+   * Find the ids of the missions that were spawned for each of the submissions with the given
+   * keys. The keys that aren't in the index are looked up in the database with one query.
+   *
+   * @return the mission ids by idempotency key, for the keys that something was submitted with
+   */
+  public Map<String, Set<Long>> findAll(final Collection<String> idempotencyKeys) {
+    Map<String, Set<Long>> found = new HashMap<>();
+    Map<String, String> missingByStoredKey = new HashMap<>();
+    for (String idempotencyKey : idempotencyKeys) {
+      String key = storedKey(idempotencyKey);
+      long[] missionIds = recent.getIfPresent(key);
+      if (missionIds != null) {
+        found.put(idempotencyKey, asSet(missionIds));
+      } else {
+        missingByStoredKey.put(key, idempotencyKey);
+      }
+    }
+    if (missingByStoredKey.isEmpty()) {
+      return found;
+    }
+
+    log.debug("{} idempotency key(s) were not in the index; looking them up in the database",
+        missingByStoredKey.size());
+    for (AgreementSubmission stored : submissionRpsy.findAllById(missingByStoredKey.keySet())) {
+      long[] missionIds = parse(stored.getMissionIds());
+      recent.put(stored.getIdempotencyKey(), missionIds);
+      found.put(missingByStoredKey.get(stored.getIdempotencyKey()), asSet(missionIds));
+    }
+    return found;
+  }
+
+  /**
+   * Record the ids of the missions that were spawned for each submission, by idempotency key. The
+   * submissions are stored in the current transaction, and only added to the index once it commits
+   * so that the submissions of a transaction that rolls back can be submitted again.
+   */
+  public void record(final Map<String, ? extends Set<Long>> missionIdsByKey) {
+    Instant now = Instant.now();
+    List<AgreementSubmission> submissions = missionIdsByKey.entrySet().stream()
+        .map(entry -> AgreementSubmission.builder().idempotencyKey(storedKey(entry.getKey()))
+            .missionIds(ID_JOINER.join(entry.getValue())).submittedAt(now).build())
+        .collect(Collectors.toList());
+    submissionRpsy.saveAll(submissions);
+
+    Map<String, long[]> indexed = new HashMap<>();
+    missionIdsByKey.forEach(
+        (key, missionIds) -> indexed.put(storedKey(key), Longs.toArray(missionIds)));
+
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+              recent.putAll(indexed);
+            }
+          });
+    } else {
+      recent.putAll(indexed);
+    }
+  }
+
+  /**
+   * Return the key that a submission is stored under. Keys that don't fit in the key column are
+   * stored under their hash.
+   */
+  private static String storedKey(final String idempotencyKey) {
+    if (idempotencyKey.length() <= AgreementSubmission.MAX_KEY_LENGTH) {
+      return idempotencyKey;
+    }
+    return HASHED_KEY_PREFIX
+        + Hashing.sha256().hashString(idempotencyKey, StandardCharsets.UTF_8).toString();
+  }
+
+  private static Set<Long> asSet(final long[] missionIds) {
+    return Collections.unmodifiableSet(new LinkedHashSet<>(Longs.asList(missionIds)));
+  }
+
+  private static long[] parse(final String missionIds) {
+    if (missionIds.isEmpty()) {
+      return new long[0];
+    }
+    return ID_SPLITTER.splitToList(missionIds).stream().mapToLong(Long::parseLong).toArray();
+  }
+}
@@ -2,29 +2,161 @@ package org.galatea.starter.utils;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.EqualsAndHashCode;
-import lombok.RequiredArgsConstructor;
-import lombok.ToString;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.actuate.trace.http.HttpTrace;
 import org.springframework.boot.actuate.trace.http.InMemoryHttpTraceRepository;
 
-@RequiredArgsConstructor
-@ToString(callSuper = true)
-@EqualsAndHashCode(callSuper = true)
+/**
+ * Logs HTTP traces as JSON and keeps the most recent ones in memory.
+ *
+ * <p>Serializing and logging a trace takes a noticeable share of a short request, so add only
+ * decides whether to keep the trace (see HttpTraceSampler) and hands it to a background writer
+ * thread through a lock-free ring buffer; the writer does the rest. The writer parks while the
+ * buffer is empty, and add only wakes it when it is parked. When the buffer is full, the trace is
+ * dropped with the DROP policy, or the request thread waits for room with the BLOCK policy,
+ * backing off from a few microseconds to a millisecond between attempts. The number of traces
+ * recorded, skipped by the sampler and dropped are counted in the {@value #METRIC_NAME} meter,
+ * tagged with result=recorded, result=skipped or result=dropped.
+ */
 @Slf4j
-public class FuseHttpTraceRepository extends InMemoryHttpTraceRepository {
+public class FuseHttpTraceRepository extends InMemoryHttpTraceRepository implements AutoCloseable {
+
+  public static final String METRIC_NAME = "http.traces";
+
+  /**
+   * What add does with a trace when the buffer is full.
+   */
+  public enum FullBufferPolicy {
+    DROP, BLOCK
+  }
+
+  // Traces logged by the writer between checks for shutdown
+  private static final int DRAIN_BATCH_SIZE = 256;
+
+  private static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+  private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static final long CLOSE_TIMEOUT_MILLIS = 5000;
 
   private final ObjectMapper objectMapper;
 
+  private final MpscRingBuffer<HttpTrace> buffer;
+
+  private final FullBufferPolicy fullBufferPolicy;
+
+  private final Predicate<HttpTrace> sampler;
+
+  private final Counter recorded;
+
+  private final Counter skipped;
+
+  private final Counter dropped;
+
+  private final Thread writer;
+
+  private volatile boolean running = true;
+
+  // Set by the writer before it checks the buffer one last time and parks
+  private volatile boolean writerParked;
+
+  /**
+   * Create a repository and start its writer thread.
+   *
+   * @param bufferSize number of traces that can wait for the writer
+   * @param fullBufferPolicy what to do with traces that arrive when the buffer is full
+   * @param sampler returns true for the traces to record
+   */
+  public FuseHttpTraceRepository(final ObjectMapper objectMapper, final int bufferSize,
+      final FullBufferPolicy fullBufferPolicy, final Predicate<HttpTrace> sampler,
+      final MeterRegistry meterRegistry) {
+    this.objectMapper = objectMapper;
+    this.buffer = new MpscRingBuffer<>(bufferSize);
+    this.fullBufferPolicy = fullBufferPolicy;
+    this.sampler = sampler;
+    this.recorded = Counter.builder(METRIC_NAME).tag("result", "recorded")
+        .description("HTTP traces logged by the trace writer").register(meterRegistry);
+    this.skipped = Counter.builder(METRIC_NAME).tag("result", "skipped")
+        .description("HTTP traces not recorded because of sampling").register(meterRegistry);
+    this.dropped = Counter.builder(METRIC_NAME).tag("result", "dropped")
+        .description("HTTP traces not recorded because the trace buffer was full")
+        .register(meterRegistry);
+    Gauge.builder(METRIC_NAME + ".buffered", buffer, MpscRingBuffer::size)
+        .description("HTTP traces waiting for the trace writer").register(meterRegistry);
+
+    this.writer = new Thread(this::writeTraces, "http-trace-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
   @Override
   public void add(final HttpTrace trace) {
+    if (!sampler.test(trace)) {
+      skipped.increment();
+      return;
+    }
+
+    long backoffNanos = MIN_BACKOFF_NANOS;
+    while (!buffer.offer(trace)) {
+      if (fullBufferPolicy == FullBufferPolicy.DROP || !running) {
+        dropped.increment();
+        return;
+      }
+      LockSupport.parkNanos(backoffNanos);
+      backoffNanos = Math.min(backoffNanos * 2, MAX_BACKOFF_NANOS);
+    }
+
+    if (writerParked) {
+      LockSupport.unpark(writer);
+    }
+  }
+
+  /**
+   * Stop the writer thread once it has recorded the traces that are already buffered.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    running = false;
+    LockSupport.unpark(writer);
+    writer.join(CLOSE_TIMEOUT_MILLIS);
+  }
+
+  private void writeTraces() {
+    while (true) {
+      if (buffer.drain(this::record, DRAIN_BATCH_SIZE) == 0) {
+        if (!running) {
+          // Drain once more for traces that were added while running was being cleared
+          buffer.drain(this::record, Integer.MAX_VALUE);
+          return;
+        }
+        // A trace offered after the buffer is checked again sees writerParked, and unparks the
+        // writer; one offered before it is seen by the check
+        writerParked = true;
+        if (buffer.size() == 0 && running) {
+          LockSupport.park(this);
+        }
+        writerParked = false;
+      }
+    }
+  }
+
+  private void record(final HttpTrace trace) {
     // HttpTrace has no toString, nor do its inner classes...
     try {
       log.info("Adding trace info: {}", objectMapper.writeValueAsString(trace));
     } catch (JsonProcessingException e) {
       log.warn("Error logging trace info: ", e);
+    } catch (RuntimeException e) {
+      // Keep the writer alive; a trace that can't be logged shouldn't stop all later ones
+      log.warn("Error recording trace: ", e);
     }
     super.add(trace);
+    recorded.increment();
   }
 }
@@ -0,0 +1,91 @@
+package org.galatea.starter.utils;
+
+import com.google.common.base.Splitter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+import lombok.ToString;
+import org.springframework.boot.actuate.trace.http.HttpTrace;
+
+/**
+ * Decides which HTTP traces are recorded. Each trace is kept with the sample rate of the longest
+ * configured path prefix that its request path starts with, or the default rate if none match.
+ * Traces of responses with a status of at least alwaysTraceStatus (failed requests, by default)
+ * are always kept, whatever the rate of their path.
+ */
+@ToString
+public class HttpTraceSampler implements Predicate<HttpTrace> {
+
+  private static final Splitter RATE_SPLITTER = Splitter.on(',').omitEmptyStrings().trimResults();
+
+  private final double defaultRate;
+
+  // Longest prefix first, so the first match is the most specific
+  private final List<PathRate> pathRates = new ArrayList<>();
+
+  private final int alwaysTraceStatus;
+
+  /**
+   * Create a sampler.
+   *
+   * @param defaultRate fraction of the requests to trace, from 0 (none) to 1 (all)
+   * @param pathRates comma separated path prefixes with their own rates, ex:
+   *     "/settlementEngine/missions=0.1,/iex=0". May be empty.
+   * @param alwaysTraceStatus responses with this status or higher are always traced
+   */
+  public HttpTraceSampler(final double defaultRate, final String pathRates,
+      final int alwaysTraceStatus) {
+    this.defaultRate = checkRate(defaultRate);
+    this.alwaysTraceStatus = alwaysTraceStatus;
+
+    Map<String, String> rates = RATE_SPLITTER.withKeyValueSeparator('=').split(pathRates);
+    rates.forEach((prefix, rate) ->
+        this.pathRates.add(new PathRate(prefix, checkRate(Double.parseDouble(rate)))));
+    this.pathRates.sort(Comparator.comparingInt((PathRate pathRate) -> pathRate.prefix.length())
+        .reversed());
+  }
+
+  @Override
+  public boolean test(final HttpTrace trace) {
+    if (trace.getResponse() != null && trace.getResponse().getStatus() >= alwaysTraceStatus) {
+      return true;
+    }
+
+    double rate = rateFor(trace.getRequest().getUri().getPath());
+    return rate >= 1 || rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+  }
+
+  private double rateFor(final String path) {
+    if (path != null) {
+      for (PathRate pathRate : pathRates) {
+        if (path.startsWith(pathRate.prefix)) {
+          return pathRate.rate;
+        }
+      }
+    }
+    return defaultRate;
+  }
+
+  private static double checkRate(final double rate) {
+    if (rate < 0 || rate > 1) {
+      throw new IllegalArgumentException("Sample rates must be between 0 and 1: " + rate);
+    }
+    return rate;
+  }
+
+  @ToString
+  private static final class PathRate {
+
+    private final String prefix;
+
+    private final double rate;
+
+    private PathRate(final String prefix, final double rate) {
+      this.prefix = prefix;
+      this.rate = rate;
+    }
+  }
+}
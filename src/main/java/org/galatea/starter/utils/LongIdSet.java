@@ -0,0 +1,197 @@
+package org.galatea.starter.utils;
+
+import java.util.Arrays;
+
+/**
+ * Set of ids that keeps them in the order they were first added, and can tell the position of
+ * each. The ids are held in primitive arrays (an open addressing hash table of positions into an
+ * array of ids), so a request for thousands of missions doesn't box and hash every id into a
+ * HashSet.
+ */
+public final class LongIdSet {
+
+  private static final int MIN_CAPACITY = 8;
+
+  // Fibonacci hashing multiplier, spreads sequential ids across the table
+  private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+  private long[] ids;
+
+  private int size;
+
+  // Position + 1 of the id in each slot, 0 for empty slots. Kept at most half full.
+  private int[] slots;
+
+  private int shift;
+
+  /**
+   * Create an empty set with room for expectedSize ids before it needs to grow.
+   */
+  public LongIdSet(final int expectedSize) {
+    ids = new long[Math.max(expectedSize, 1)];
+    int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(expectedSize, 1)) << 2);
+    slots = new int[capacity];
+    shift = Long.SIZE - Integer.numberOfTrailingZeros(capacity);
+  }
+
+  /**
+   * Create a set of the given ids. Duplicates are dropped.
+   */
+  public static LongIdSet of(final long... ids) {
+    LongIdSet set = new LongIdSet(ids.length);
+    for (long id : ids) {
+      set.add(id);
+    }
+    return set;
+  }
+
+  /**
+   * Parse a comma-separated list of ids (ex: "1,2,3") without splitting it into strings.
+   * Duplicates are dropped, and so are empty ids (ex: the trailing one of "1,2,").
+   *
+   * @throws NumberFormatException if any of the ids is not a long
+   */
+  public static LongIdSet parse(final String csv) {
+    int count = 1;
+    for (int i = 0; i < csv.length(); i++) {
+      if (csv.charAt(i) == ',') {
+        count++;
+      }
+    }
+
+    LongIdSet set = new LongIdSet(count);
+    int start = 0;
+    for (int i = 0; i < count; i++) {
+      int end = csv.indexOf(',', start);
+      if (end < 0) {
+        end = csv.length();
+      }
+      if (end > start) {
+        set.add(Long.parseLong(csv, start, end, 10));
+      }
+      start = end + 1;
+    }
+    return set;
+  }
+
+  /**
+   * Add the id to the end of the set unless it's already there.
+   *
+   * @return true if the id was added
+   */
+  public boolean add(final long id) {
+    int slot = slot(id);
+    if (slots[slot] != 0) {
+      return false;
+    }
+
+    if (size == ids.length) {
+      ids = Arrays.copyOf(ids, size * 2);
+    }
+    ids[size++] = id;
+    slots[slot] = size;
+
+    if (size * 2 > slots.length) {
+      rehash(slots.length * 2);
+    }
+    return true;
+  }
+
+  /**
+   * Return the position of the id in the set, or -1 if it's not in the set.
+   */
+  public int indexOf(final long id) {
+    return slots[slot(id)] - 1;
+  }
+
+  /**
+   * Return true if the id is in the set.
+   */
+  public boolean contains(final long id) {
+    return indexOf(id) >= 0;
+  }
+
+  /**
+   * Return the id at the given position.
+   */
+  public long get(final int index) {
+    if (index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " is not less than " + size);
+    }
+    return ids[index];
+  }
+
+  /**
+   * Return the number of ids in the set.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Return true if the set has no ids.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Return the ids in the order they were added.
+   */
+  public long[] toArray() {
+    return Arrays.copyOf(ids, size);
+  }
+
+  /**
+   * Return the slot that holds the id, or the empty slot where it would go.
+   */
+  private int slot(final long id) {
+    int mask = slots.length - 1;
+    int slot = (int) ((id * HASH_MULTIPLIER) >>> shift);
+    while (slots[slot] != 0 && ids[slots[slot] - 1] != id) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void rehash(final int capacity) {
+    slots = new int[capacity];
+    shift = Long.SIZE - Integer.numberOfTrailingZeros(capacity);
+    for (int i = 0; i < size; i++) {
+      slots[slot(ids[i])] = i + 1;
+    }
+  }
+
+  @Override
+  public boolean equals(final Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof LongIdSet)) {
+      return false;
+    }
+    LongIdSet that = (LongIdSet) other;
+    return Arrays.equals(ids, 0, size, that.ids, 0, that.size);
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 1;
+    for (int i = 0; i < size; i++) {
+      hash = 31 * hash + Long.hashCode(ids[i]);
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("[");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append(ids[i]);
+    }
+    return builder.append(']').toString();
+  }
+}
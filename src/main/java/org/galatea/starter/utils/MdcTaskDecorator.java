@@ -0,0 +1,39 @@
+package org.galatea.starter.utils;
+
+import java.util.Map;
+import org.slf4j.MDC;
+import org.springframework.core.task.TaskDecorator;
+
+/**
+ * Runs tasks with the MDC of the thread that submitted them, so that log lines written by an
+ * executor thread carry the request ids of the request they work for. The executor thread's own
+ * MDC is put back once the task is done.
+ *
+ * <p>The submitting thread's MDC is copied once, when the task is submitted. Spring Boot applies
+ * a TaskDecorator bean to the executors it configures, including the one used for asynchronous
+ * MVC requests.
+ */
+public class MdcTaskDecorator implements TaskDecorator {
+
+  @Override
+  public Runnable decorate(final Runnable runnable) {
+    Map<String, String> context = MDC.getCopyOfContextMap();
+    if (context == null || context.isEmpty()) {
+      return runnable;
+    }
+
+    return () -> {
+      Map<String, String> previous = MDC.getCopyOfContextMap();
+      MDC.setContextMap(context);
+      try {
+        runnable.run();
+      } finally {
+        if (previous == null) {
+          MDC.clear();
+        } else {
+          MDC.setContextMap(previous);
+        }
+      }
+    };
+  }
+}
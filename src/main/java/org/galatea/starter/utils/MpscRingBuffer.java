@@ -0,0 +1,129 @@
+package org.galatea.starter.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded queue for many producer threads and a single consumer thread, backed by a ring of
+ * preallocated slots. Producers claim a slot with a compare-and-set on the tail counter and never
+ * block each other or the consumer, so handing an element off costs a few atomic operations rather
+ * than a lock. When the ring is full, offer fails instead of waiting; what to do then is up to the
+ * caller.
+ *
+ * <p>Each slot carries a sequence number that tells producers whether the consumer has freed it
+ * and tells the consumer whether a producer has finished filling it (D. Vyukov's bounded queue,
+ * with the consumer side simplified to a single thread).
+ */
+public final class MpscRingBuffer<E> {
+
+  private final int mask;
+
+  private final AtomicReferenceArray<E> elements;
+
+  private final AtomicLongArray sequences;
+
+  private final AtomicLong tail = new AtomicLong();
+
+  // Only written by the consumer thread; volatile so that size() can be called from any thread
+  private volatile long head;
+
+  /**
+   * Create a ring with room for at least capacity elements. The capacity is rounded up to a power
+   * of two.
+   */
+  public MpscRingBuffer(final int capacity) {
+    if (capacity < 1 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + capacity);
+    }
+    int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    mask = size - 1;
+    elements = new AtomicReferenceArray<>(size);
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Add the element to the ring. Safe to call from any number of threads.
+   *
+   * @return false if the ring is full
+   */
+  public boolean offer(final E element) {
+    if (element == null) {
+      throw new NullPointerException("Null elements are not supported");
+    }
+
+    long position = tail.get();
+    while (true) {
+      int slot = (int) position & mask;
+      long sequence = sequences.get(slot);
+      if (sequence == position) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements.lazySet(slot, element);
+          // Publishes the element to the consumer
+          sequences.set(slot, position + 1);
+          return true;
+        }
+        position = tail.get();
+      } else if (sequence < position) {
+        // The consumer hasn't freed the slot from the previous lap yet
+        return false;
+      } else {
+        // Another producer claimed this position first
+        position = tail.get();
+      }
+    }
+  }
+
+  /**
+   * Remove the oldest element. Must only be called from the consumer thread.
+   *
+   * @return the element, or null if the ring is empty (or its oldest element is still being added)
+   */
+  public E poll() {
+    int slot = (int) head & mask;
+    if (sequences.get(slot) != head + 1) {
+      return null;
+    }
+
+    final E element = elements.get(slot);
+    elements.lazySet(slot, null);
+    // Hands the slot back to producers for the next lap
+    sequences.set(slot, head + mask + 1);
+    head++;
+    return element;
+  }
+
+  /**
+   * Remove up to limit of the oldest elements and pass each of them to the consumer. Must only be
+   * called from the consumer thread.
+   *
+   * @return the number of elements drained
+   */
+  public int drain(final Consumer<? super E> consumer, final int limit) {
+    int drained = 0;
+    E element;
+    while (drained < limit && (element = poll()) != null) {
+      consumer.accept(element);
+      drained++;
+    }
+    return drained;
+  }
+
+  /**
+   * Number of elements in the ring. Only an estimate while producers are adding elements.
+   */
+  public int size() {
+    return (int) Math.max(0, Math.min(tail.get() - head, mask + 1L));
+  }
+
+  /**
+   * Maximum number of elements the ring can hold.
+   */
+  public int capacity() {
+    return mask + 1;
+  }
+}
@@ -0,0 +1,73 @@
+package org.galatea.starter.utils;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates the internal ids that correlate the log lines of a request or message.
+ *
+ * <p>An id is the random id this instance picked at startup followed by a sequence number, as
+ * hex digits (ex: 5f3a09c1-00000004e2a1), so ids are unique across instances without any
+ * coordination. Each thread reserves blocks of BLOCK_SIZE sequence numbers from a shared counter
+ * and hands them out on its own, so generating an id takes one shared atomic update per
+ * BLOCK_SIZE ids rather than one per id, and never contends the way a shared Random does.
+ */
+public final class RequestIds {
+
+  // MDC key of the internal id. Must align with the key used in the logging config's log-pattern.
+  public static final String INTERNAL_REQUEST_ID = "internal-request-id";
+
+  static final int BLOCK_SIZE = 1024;
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private static final int NODE_DIGITS = 8;
+
+  private static final int SEQUENCE_DIGITS = 12;
+
+  private static final int NODE_ID = new SecureRandom().nextInt();
+
+  private static final AtomicLong NEXT_BLOCK = new AtomicLong();
+
+  private static final ThreadLocal<SequenceBlock> BLOCKS =
+      ThreadLocal.withInitial(SequenceBlock::new);
+
+  private RequestIds() {}
+
+  /**
+   * Generate a new id.
+   */
+  public static String next() {
+    return format(NODE_ID, BLOCKS.get().next());
+  }
+
+  static String format(final int nodeId, final long sequence) {
+    char[] id = new char[NODE_DIGITS + 1 + SEQUENCE_DIGITS];
+    for (int i = NODE_DIGITS - 1; i >= 0; i--) {
+      id[i] = HEX_DIGITS[(nodeId >>> ((NODE_DIGITS - 1 - i) * 4)) & 0xf];
+    }
+    id[NODE_DIGITS] = '-';
+    for (int i = id.length - 1; i > NODE_DIGITS; i--) {
+      id[i] = HEX_DIGITS[(int) (sequence >>> ((id.length - 1 - i) * 4)) & 0xf];
+    }
+    return new String(id);
+  }
+
+  /**
+   * The sequence numbers a thread has reserved but not handed out yet.
+   */
+  private static final class SequenceBlock {
+
+    private long next;
+
+    private long end;
+
+    long next() {
+      if (next == end) {
+        next = NEXT_BLOCK.getAndIncrement() * BLOCK_SIZE;
+        end = next + BLOCK_SIZE;
+      }
+      return next++;
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package org.galatea.starter.utils.cache;
+
+import java.nio.ByteBuffer;
+import org.caffinitas.ohc.CacheSerializer;
+
+/**
+ * Stores the Long keys of an off-heap cache, such as the mission ids of the missions cache, as 8
+ * bytes.
+ */
+public class LongKeySerializer implements CacheSerializer<Object> {
+
+  @Override
+  public void serialize(final Object key, final ByteBuffer buf) {
+    buf.putLong(toLong(key));
+  }
+
+  @Override
+  public Object deserialize(final ByteBuffer buf) {
+    return buf.getLong();
+  }
+
+  @Override
+  public int serializedSize(final Object key) {
+    toLong(key);
+    return Long.BYTES;
+  }
+
+  private static long toLong(final Object key) {
+    if (!(key instanceof Long)) {
+      throw new IllegalArgumentException("Off-heap cache keys must be Longs but got " + key);
+    }
+    return (Long) key;
+  }
+}
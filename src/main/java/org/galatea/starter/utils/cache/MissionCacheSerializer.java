@@ -0,0 +1,83 @@
+package org.galatea.starter.utils.cache;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import org.caffinitas.ohc.CacheSerializer;
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementMissionProtoMessage;
+import org.springframework.cache.support.NullValue;
+
+/**
+ * Stores missions cache entries off-heap in the SettlementMissionProtoMessage wire format, which
+ * takes a fraction of the space of java serialization. The cache may also hold Spring's NullValue
+ * for missions that don't exist; that is stored as a single zero byte, which can't start a protobuf
+ * message since field number 0 is not valid.
+ */
+public class MissionCacheSerializer implements CacheSerializer<Object> {
+
+  private static final byte NULL_VALUE = 0;
+
+  @Override
+  public void serialize(final Object value, final ByteBuffer buf) {
+    if (value instanceof NullValue) {
+      buf.put(NULL_VALUE);
+      return;
+    }
+
+    try {
+      CodedOutputStream out = CodedOutputStream.newInstance(buf);
+      toMessage(value).writeTo(out);
+      out.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public Object deserialize(final ByteBuffer buf) {
+    if (buf.remaining() == 1 && buf.get(buf.position()) == NULL_VALUE) {
+      return NullValue.INSTANCE;
+    }
+
+    try {
+      SettlementMissionProtoMessage message = SettlementMissionProtoMessage.parseFrom(buf);
+      return SettlementMission.builder()
+          .id(message.getId())
+          .instrument(message.getInstrument())
+          .externalParty(message.getExternalParty())
+          .depot(message.getDepot())
+          .direction(message.getDirection())
+          .qty(message.getQty())
+          .version(message.getVersion())
+          .build();
+    } catch (InvalidProtocolBufferException e) {
+      throw new IllegalStateException("Corrupt missions cache entry", e);
+    }
+  }
+
+  @Override
+  public int serializedSize(final Object value) {
+    return value instanceof NullValue ? 1 : toMessage(value).getSerializedSize();
+  }
+
+  private static SettlementMissionProtoMessage toMessage(final Object value) {
+    if (!(value instanceof SettlementMission)) {
+      throw new IllegalArgumentException(
+          "Cannot store a " + value.getClass() + " in the missions cache");
+    }
+
+    SettlementMission mission = (SettlementMission) value;
+    return SettlementMissionProtoMessage.newBuilder()
+        .setId(mission.getId())
+        .setInstrument(mission.getInstrument())
+        .setExternalParty(mission.getExternalParty())
+        .setDepot(mission.getDepot())
+        .setDirection(mission.getDirection())
+        .setQty(mission.getQty())
+        .setVersion(mission.getVersion())
+        .build();
+  }
+}
@@ -0,0 +1,101 @@
+package org.galatea.starter.utils.cache;
+
+import com.google.common.util.concurrent.Striped;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Lock;
+import org.caffinitas.ohc.OHCache;
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+
+/**
+ * Spring cache backed by an OHC off-heap cache. Entries live serialized in direct memory, so they
+ * don't add to the garbage collected heap no matter how many there are; each read deserializes a
+ * fresh copy.
+ */
+public class OffHeapCache extends AbstractValueAdaptingCache {
+
+  private static final int LOCK_STRIPES = 64;
+
+  private final String name;
+
+  private final OHCache<Object, Object> store;
+
+  private final Striped<Lock> loadLocks = Striped.lock(LOCK_STRIPES);
+
+  /**
+   * Create a cache that allows null values. The serializer of the store has to handle NullValue.
+   */
+  public OffHeapCache(final String name, final OHCache<Object, Object> store) {
+    super(true);
+    this.name = name;
+    this.store = store;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public OHCache<Object, Object> getNativeCache() {
+    return store;
+  }
+
+  @Override
+  protected Object lookup(final Object key) {
+    return store.get(key);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T get(final Object key, final Callable<T> valueLoader) {
+    ValueWrapper cached = get(key);
+    if (cached != null) {
+      return (T) cached.get();
+    }
+
+    // Only one thread loads a given key; the others wait for it and then find the loaded value
+    Lock lock = loadLocks.get(key);
+    lock.lock();
+    try {
+      cached = get(key);
+      if (cached != null) {
+        return (T) cached.get();
+      }
+
+      T value;
+      try {
+        value = valueLoader.call();
+      } catch (Exception e) {
+        throw new ValueRetrievalException(key, valueLoader, e);
+      }
+      put(key, value);
+      return value;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void put(final Object key, final Object value) {
+    store.put(key, toStoreValue(value));
+  }
+
+  @Override
+  public ValueWrapper putIfAbsent(final Object key, final Object value) {
+    Object storeValue = toStoreValue(value);
+    if (store.putIfAbsent(key, storeValue)) {
+      return null;
+    }
+    return toValueWrapper(store.get(key));
+  }
+
+  @Override
+  public void evict(final Object key) {
+    store.remove(key);
+  }
+
+  @Override
+  public void clear() {
+    store.clear();
+  }
+}
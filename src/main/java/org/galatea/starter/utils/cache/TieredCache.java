@@ -0,0 +1,104 @@
+package org.galatea.starter.utils.cache;
+
+import java.util.concurrent.Callable;
+import lombok.Getter;
+import org.springframework.cache.Cache;
+
+/**
+ * Two level cache: a small heap cache in front of a large (typically off-heap) cache. Reads try
+ * the heap first and promote entries found in the second level to it; writes and evictions go to
+ * both levels.
+ */
+public class TieredCache implements Cache {
+
+  @Getter
+  private final Cache heap;
+
+  @Getter
+  private final Cache secondLevel;
+
+  /**
+   * Create a cache in front of secondLevel. Both caches should have the same name.
+   */
+  public TieredCache(final Cache heap, final Cache secondLevel) {
+    this.heap = heap;
+    this.secondLevel = secondLevel;
+  }
+
+  @Override
+  public String getName() {
+    return heap.getName();
+  }
+
+  @Override
+  public Object getNativeCache() {
+    return secondLevel.getNativeCache();
+  }
+
+  @Override
+  public ValueWrapper get(final Object key) {
+    ValueWrapper value = heap.get(key);
+    if (value == null) {
+      value = secondLevel.get(key);
+      if (value != null) {
+        heap.put(key, value.get());
+      }
+    }
+    return value;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T get(final Object key, final Class<T> type) {
+    ValueWrapper value = get(key);
+    Object result = value == null ? null : value.get();
+    if (result != null && type != null && !type.isInstance(result)) {
+      throw new IllegalStateException(
+          "Cached value is not of required type [" + type.getName() + "]: " + result);
+    }
+    return (T) result;
+  }
+
+  @Override
+  public <T> T get(final Object key, final Callable<T> valueLoader) {
+    ValueWrapper value = heap.get(key);
+    if (value != null) {
+      @SuppressWarnings("unchecked")
+      T result = (T) value.get();
+      return result;
+    }
+
+    T result = secondLevel.get(key, valueLoader);
+    heap.put(key, result);
+    return result;
+  }
+
+  @Override
+  public void put(final Object key, final Object value) {
+    secondLevel.put(key, value);
+    heap.put(key, value);
+  }
+
+  @Override
+  public ValueWrapper putIfAbsent(final Object key, final Object value) {
+    ValueWrapper existing = get(key);
+    if (existing != null) {
+      return existing;
+    }
+    existing = secondLevel.putIfAbsent(key, value);
+    heap.put(key, existing == null ? value : existing.get());
+    return existing;
+  }
+
+  @Override
+  public void evict(final Object key) {
+    secondLevel.evict(key);
+    heap.evict(key);
+  }
+
+  @Override
+  public void clear() {
+    secondLevel.clear();
+    heap.clear();
+  }
+}
@@ -0,0 +1,31 @@
+package org.galatea.starter.utils.cache;
+
+import java.util.Map;
+import net.sf.ehcache.CacheManager;
+import org.springframework.cache.Cache;
+import org.springframework.cache.ehcache.EhCacheCacheManager;
+
+/**
+ * EhCacheCacheManager that puts the caches configured in the Ehcache config file in front of
+ * second level caches with the same name, such as an OffHeapCache. Caches without a second level
+ * are returned as they are.
+ */
+public class TieredEhCacheCacheManager extends EhCacheCacheManager {
+
+  private final Map<String, Cache> secondLevelCaches;
+
+  /**
+   * Create a cache manager for the given Ehcache manager and second level caches, keyed by name.
+   */
+  public TieredEhCacheCacheManager(final CacheManager cacheManager,
+      final Map<String, Cache> secondLevelCaches) {
+    super(cacheManager);
+    this.secondLevelCaches = secondLevelCaches;
+  }
+
+  @Override
+  protected Cache decorateCache(final Cache cache) {
+    Cache secondLevel = secondLevelCaches.get(cache.getName());
+    return super.decorateCache(secondLevel == null ? cache : new TieredCache(cache, secondLevel));
+  }
+}
@@ -1,14 +1,24 @@
 package org.galatea.starter.utils.http.converter;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
-import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class CsvSerializer {
 
+  private static final CsvMapper MAPPER = createMapper();
+
+  // Building a schema introspects the class, so the writer for each class is only built once
+  private static final Map<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+
   private CsvSerializer() {}
 
   /**
@@ -23,19 +33,50 @@ public class CsvSerializer {
    * @param rows the collection of objects that should be serialized into the CSV document
    * @param clazz the class that is the type of the row data
    * @param <T> the type of the row data
-   * @return an xlsx spreadsheet as a byte array
+   * @return the CSV document as a string
    */
   public static <T> String serializeToCsv(final Iterable<T> rows, final Class<T> clazz)
       throws IOException {
+    return writerFor(clazz).writeValueAsString(rows);
+    // See CsvWriterTest for examples of Jackson CSV behavior
+  }
+
+  /**
+   * Write the given objects to the output stream as a UTF-8 CSV document, in the same format as
+   * serializeToCsv.
+   *
+   * <p>Rows are written as they are taken from the Iterable, so the document is never held in
+   * memory as a whole. The output stream is flushed but not closed.
+   *
+   * @param rows the objects that should be written as the rows of the CSV document
+   * @param clazz the class that is the type of the row data
+   * @param out the stream to write the CSV document to
+   * @param <T> the type of the row data
+   */
+  public static <T> void writeCsv(final Iterable<? extends T> rows, final Class<T> clazz,
+      final OutputStream out) throws IOException {
+    try (SequenceWriter writer = writerFor(clazz).writeValues(out)) {
+      for (T row : rows) {
+        writer.write(row);
+      }
+    }
+  }
+
+  private static CsvMapper createMapper() {
     // Note that Jackson CSV doesn't work on objects with fields that hold complex objects
     // See https://github.com/FasterXML/jackson-dataformat-csv/issues/9
     CsvMapper mapper = new CsvMapper();
     mapper.disable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY);
+    // Whoever passed in the output stream is responsible for closing it
+    mapper.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    return mapper;
+  }
+
+  private static ObjectWriter writerFor(final Class<?> clazz) {
     // Jackson CSV uses the property names for the header row by default. To have a custom header
     // for one or more columns, see
     // https://stackoverflow.com/questions/40221223/jackson-dataformat-csv-are-custom-column-names-possible
-    CsvSchema schema = mapper.schemaFor(clazz).withHeader();
-    return mapper.writer(schema).writeValueAsString(rows);
-    // See CsvWriterTest for examples of Jackson CSV behavior
+    return WRITERS.computeIfAbsent(clazz,
+        key -> MAPPER.writer(MAPPER.schemaFor(key).withHeader()));
   }
 }
@@ -4,32 +4,51 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import lombok.SneakyThrows;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.reflect.FieldUtils;
+import org.apache.commons.lang3.ClassUtils;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 @Slf4j
 // See XlsxSerializerTest for example output
 public class XlsxSerializer {
 
+  /**
+   * Number of rows that writeXlsx keeps in memory by default. Older rows are flushed to a
+   * temporary file.
+   */
+  public static final int DEFAULT_ROW_WINDOW = 100;
+
+  // Looking up the fields and building their accessors is only done once per class
+  private static final Map<Class<?>, List<Column>> COLUMNS = new ConcurrentHashMap<>();
+
   private XlsxSerializer() {}
 
   /**
    * Serialize the given objects to an XLSX spreadsheet.
    *
-   * <p>Doesn't do any special handling of nested complex objects or collections in the given
-   * row objects - each field in the row object is basically toString()'ed and put in a cell.
+   * <p>Numeric fields are written as numeric cells. Doesn't do any special handling of nested
+   * complex objects or collections in the given row objects - each other field in the row object
+   * is basically toString()'ed and put in a cell.
    *
    * @param rows the row data that the spreadsheet should hold
    * @param clazz the class that is the type of the row data
@@ -41,14 +60,82 @@ public class XlsxSerializer {
     // XSSF is used for xlsx-format spreadsheets, HSSF is used for xls-format
     // SXSSF is the streaming version of XSSF, and is useful for working with large spreadsheets
     try (Workbook wb = new XSSFWorkbook()) {
-      Sheet sheet = wb.createSheet(clazz.getSimpleName());
-      List<Field> fieldsToSerialize = getFieldsToSerialize(clazz);
-      populateHeaderRow(sheet, getHeaderValues(fieldsToSerialize));
-      populateDataRows(sheet, fieldsToSerialize, rows);
+      populateSheet(wb.createSheet(clazz.getSimpleName()), rows, clazz);
       return writeSpreadsheetToBytes(wb);
     }
   }
 
+  /**
+   * Write the given objects to the output stream as an XLSX spreadsheet, in the same format as
+   * serializeToXlsx, keeping at most DEFAULT_ROW_WINDOW rows in memory.
+   */
+  public static <T> void writeXlsx(final Iterable<? extends T> rows, final Class<T> clazz,
+      final OutputStream out) throws IOException {
+    writeXlsx(rows, clazz, out, DEFAULT_ROW_WINDOW);
+  }
+
+  /**
+   * Write the given objects to the output stream as an XLSX spreadsheet, in the same format as
+   * serializeToXlsx.
+   *
+   * <p>Only the last rowWindow rows are kept in memory as the sheet is populated; older rows are
+   * flushed to a compressed temporary file, which is copied to the output stream and deleted at
+   * the end. The output stream is not closed.
+   *
+   * @param rows the row data that the spreadsheet should hold
+   * @param clazz the class that is the type of the row data
+   * @param out the stream to write the spreadsheet to
+   * @param rowWindow the number of rows to keep in memory
+   * @param <T> the type of the row data
+   */
+  public static <T> void writeXlsx(final Iterable<? extends T> rows, final Class<T> clazz,
+      final OutputStream out, final int rowWindow) throws IOException {
+    SXSSFWorkbook wb = new SXSSFWorkbook(rowWindow);
+    try {
+      wb.setCompressTempFiles(true);
+      populateSheet(wb.createSheet(clazz.getSimpleName()), rows, clazz);
+      wb.write(out);
+    } finally {
+      // Delete the temporary file, which close() doesn't do
+      wb.dispose();
+      wb.close();
+    }
+  }
+
+  private static <T> void populateSheet(final Sheet sheet, final Iterable<? extends T> rows,
+      final Class<T> clazz) {
+    List<Column> columns = COLUMNS.computeIfAbsent(clazz, XlsxSerializer::getColumns);
+    populateHeaderRow(sheet, columns);
+    populateDataRows(sheet, columns, rows);
+  }
+
+  /*
+   * Get the columns to write for the given class, one for each field that should be serialized.
+   */
+  private static List<Column> getColumns(final Class<?> clazz) {
+    List<Field> fields = getFieldsToSerialize(clazz);
+    List<String> headers = getHeaderValues(fields);
+    List<Column> columns = new ArrayList<>(fields.size());
+    for (int i = 0; i < fields.size(); i++) {
+      Field field = fields.get(i);
+      Class<?> type = ClassUtils.primitiveToWrapper(field.getType());
+      columns.add(new Column(headers.get(i), getAccessor(field),
+          Number.class.isAssignableFrom(type)));
+    }
+    return columns;
+  }
+
+  /*
+   * Get a method handle that reads the given field, taking the row as an Object and returning the
+   * value as an Object, so that it can be invoked without reflection's per-call access checks.
+   */
+  @SneakyThrows(IllegalAccessException.class)
+  private static MethodHandle getAccessor(final Field field) {
+    field.setAccessible(true);
+    return MethodHandles.lookup().unreflectGetter(field)
+        .asType(MethodType.methodType(Object.class, Object.class));
+  }
+
   /*
    * Get a list of all fields in the given class, including inherited and private fields, but
    * excluding any @JsonIgnore'd fields.
@@ -110,34 +197,55 @@ public class XlsxSerializer {
   }
 
   /*
-   * Populate the first row of the given sheet using the given list of header values.
+   * Populate the first row of the given sheet using the headers of the given columns.
    */
-  private static void populateHeaderRow(final Sheet sheet, final List<String> headers) {
+  private static void populateHeaderRow(final Sheet sheet, final List<Column> columns) {
     Row headerRow = sheet.createRow(0);
-    for (int col = 0; col < headers.size(); col++) {
+    for (int col = 0; col < columns.size(); col++) {
       Cell headerCell = headerRow.createCell(col);
-      headerCell.setCellValue(headers.get(col));
+      headerCell.setCellValue(columns.get(col).getHeader());
     }
   }
 
   /*
    * Populate the rows of the given sheet using the given row data.
    */
-  @SneakyThrows(IllegalAccessException.class)
-  private static <T> void populateDataRows(final Sheet sheet, final List<Field> fieldsToSerialize,
+  private static <T> void populateDataRows(final Sheet sheet, final List<Column> columns,
       final Iterable<T> rows) {
     int rowIndex = 1; // header is row 0
     for (T row : rows) {
       Row dataRow = sheet.createRow(rowIndex);
       rowIndex++;
-      for (int col = 0; col < fieldsToSerialize.size(); col++) {
+      for (int col = 0; col < columns.size(); col++) {
+        Column column = columns.get(col);
         Cell dataCell = dataRow.createCell(col);
-        Object cellObject = FieldUtils.readField(fieldsToSerialize.get(col), row, true);
-        dataCell.setCellValue(stringify(cellObject));
+        Object cellObject = readCell(column, row);
+        if (column.isNumeric()) {
+          // Leave the cell blank for null numbers
+          if (cellObject != null) {
+            dataCell.setCellValue(((Number) cellObject).doubleValue());
+          }
+        } else {
+          dataCell.setCellValue(stringify(cellObject));
+        }
       }
     }
   }
 
+  /*
+   * Read the value of the given column's field from the given row.
+   */
+  private static Object readCell(final Column column, final Object row) {
+    try {
+      return (Object) column.getAccessor().invokeExact(row);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      // Field getters don't throw checked exceptions
+      throw new UndeclaredThrowableException(e);
+    }
+  }
+
   /*
    * Get a useful string representation of the given object.
    */
@@ -170,4 +278,16 @@ public class XlsxSerializer {
       throw e;
     }
   }
+
+  /*
+   * A column of the spreadsheet: its header, how to read its value from a row object, and
+   * whether the value is a number.
+   */
+  @Value
+  private static class Column {
+
+    private String header;
+    private MethodHandle accessor;
+    private boolean numeric;
+  }
 }
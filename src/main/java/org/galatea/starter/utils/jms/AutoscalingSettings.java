@@ -0,0 +1,36 @@
+package org.galatea.starter.utils.jms;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Settings of the ConcurrencyController of each listener container. The bounds of the number of
+ * consumers are the concurrency of the container's endpoint.
+ */
+@Builder
+@Value
+public class AutoscalingSettings {
+
+  /**
+   * Milliseconds between scaling decisions.
+   */
+  private long intervalMillis;
+
+  /**
+   * Enough consumers are run to work off the queue's backlog within this many milliseconds, at
+   * their recent latency.
+   */
+  private long targetDrainMillis;
+
+  /**
+   * Consumers are removed, and never added, while the number of database connections in use or
+   * waited for is at least this fraction of the pool's size.
+   */
+  private double maxPoolSaturation;
+
+  /**
+   * Receives by each consumer before its thread is handed back, which is when surplus consumers
+   * stop.
+   */
+  private int maxMessagesPerTask;
+}
@@ -0,0 +1,27 @@
+package org.galatea.starter.utils.jms;
+
+import javax.jms.MessageListener;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.jms.config.AbstractJmsListenerEndpoint;
+import org.springframework.jms.listener.MessageListenerContainer;
+
+/**
+ * Endpoint for a BatchMessageListener.
+ *
+ * <p>This is deliberately not a SimpleJmsListenerEndpoint: the tracing registry wraps the listener
+ * of those in a plain MessageListener, which would hide the batch interface from the container.
+ */
+@ToString(callSuper = true)
+public class BatchJmsListenerEndpoint extends AbstractJmsListenerEndpoint {
+
+  @Getter
+  @Setter
+  private BatchMessageListener messageListener;
+
+  @Override
+  protected MessageListener createMessageListener(final MessageListenerContainer container) {
+    return messageListener;
+  }
+}
@@ -0,0 +1,35 @@
+package org.galatea.starter.utils.jms;
+
+import java.util.Collections;
+import java.util.List;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import org.springframework.jms.support.JmsUtils;
+
+/**
+ * Listener that handles several messages at once. When it is registered with a
+ * FuseBatchMessageListenerContainer, all of the messages passed to one onMessages call are
+ * acknowledged (or rolled back) together.
+ */
+@FunctionalInterface
+public interface BatchMessageListener extends MessageListener {
+
+  /**
+   * Handle a batch of messages, in the order they were received.
+   */
+  void onMessages(List<Message> messages) throws JMSException;
+
+  /**
+   * Handle a single message as a batch of one. This is only used if the listener is registered
+   * with a container that does not support batches.
+   */
+  @Override
+  default void onMessage(final Message message) {
+    try {
+      onMessages(Collections.singletonList(message));
+    } catch (JMSException e) {
+      throw JmsUtils.convertJmsAccessException(e);
+    }
+  }
+}
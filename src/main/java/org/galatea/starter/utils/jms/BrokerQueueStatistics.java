@@ -0,0 +1,107 @@
+package org.galatea.starter.utils.jms;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.OptionalLong;
+import java.util.Set;
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import org.apache.activemq.util.JMXSupport;
+
+/**
+ * Reads the number of messages waiting on ActiveMQ queues from the QueueSize attribute of their
+ * QueueViewMBean, which the broker keeps up to date as messages are sent and acknowledged, so
+ * that the depth of a queue costs one attribute read however deep it is.
+ *
+ * <p>A broker in the same JVM (such as the embedded vm:// broker) registers its MBeans with the
+ * platform MBean server; the MBeans of a remote broker are read through its JMX connector (see
+ * connect).
+ */
+public class BrokerQueueStatistics implements AutoCloseable {
+
+  private static final String QUEUE_NAME_FORMAT =
+      "org.apache.activemq:type=Broker,brokerName=%s,destinationType=Queue,destinationName=%s";
+
+  private final MBeanServerConnection mbeanServer;
+
+  // Null if the MBean server is in this JVM
+  private final JMXConnector connector;
+
+  private final String description;
+
+  /**
+   * Create statistics that read the MBeans of the given MBean server.
+   */
+  public BrokerQueueStatistics(final MBeanServerConnection mbeanServer) {
+    this(mbeanServer, null, mbeanServer.toString());
+  }
+
+  private BrokerQueueStatistics(final MBeanServerConnection mbeanServer,
+      final JMXConnector connector, final String description) {
+    this.mbeanServer = mbeanServer;
+    this.connector = connector;
+    this.description = description;
+  }
+
+  /**
+   * Create statistics that read the MBeans of the broker's JMX connector at the given URL, or of
+   * the platform MBean server if the URL is empty.
+   *
+   * @param jmxUrl a JMX service URL, such as
+   *     service:jmx:rmi:///jndi/rmi://broker-host:1099/jmxrmi
+   */
+  public static BrokerQueueStatistics connect(final String jmxUrl) throws IOException {
+    if (jmxUrl.isEmpty()) {
+      return new BrokerQueueStatistics(ManagementFactory.getPlatformMBeanServer(), null,
+          "the platform MBean server");
+    }
+
+    JMXConnector connector = JMXConnectorFactory.connect(new JMXServiceURL(jmxUrl));
+    return new BrokerQueueStatistics(connector.getMBeanServerConnection(), connector, jmxUrl);
+  }
+
+  /**
+   * Returns the number of messages waiting on a queue.
+   *
+   * @param brokerName the name of the broker the queue is on, or null for the queue on any broker
+   * @param queueName the name of the queue
+   * @return the size of the queue, or empty if there is no MBean for it: the broker hasn't
+   *     created the queue yet, or isn't registered with this MBean server
+   */
+  public OptionalLong queueSize(final String brokerName, final String queueName)
+      throws IOException, JMException {
+    ObjectName pattern = new ObjectName(String.format(QUEUE_NAME_FORMAT,
+        brokerName == null ? "*" : JMXSupport.encodeObjectNamePart(brokerName),
+        JMXSupport.encodeObjectNamePart(queueName)));
+
+    Set<ObjectName> queues = mbeanServer.queryNames(pattern, null);
+    if (queues.isEmpty()) {
+      return OptionalLong.empty();
+    }
+
+    long size = 0;
+    for (ObjectName queue : queues) {
+      size += (Long) mbeanServer.getAttribute(queue, "QueueSize");
+    }
+    return OptionalLong.of(size);
+  }
+
+  /**
+   * Close the connection to the JMX connector, if there is one.
+   */
+  @Override
+  public void close() throws IOException {
+    if (connector != null) {
+      connector.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "BrokerQueueStatistics(" + description + ")";
+  }
+}
@@ -0,0 +1,166 @@
+package org.galatea.starter.utils.jms;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Decides how many consumers a listener container should run, between minConsumers and
+ * maxConsumers, from the depth of its queue, the latency of its listener and the saturation of
+ * the database connection pool.
+ *
+ * <p>Enough consumers to work off the backlog within targetDrainMillis are added right away:
+ * depth * latency per message / targetDrainMillis, and one more than are running if no message has
+ * been handled yet to measure the latency. Surplus consumers are removed one per decision, so that
+ * a short lull doesn't undo a scale up. While the pool is saturated, a consumer is removed instead,
+ * since more consumers would only wait longer for connections.
+ *
+ * <p>The decisions are counted in the {@value #SCALING_METRIC} meter, tagged with the queue, the
+ * direction (up or down) and the reason (backlog, surplus or db-saturated). The number of
+ * consumers decided on, the depth and the latency are gauged too.
+ */
+@Slf4j
+@ToString(of = {"queue", "minConsumers", "maxConsumers", "targetConsumers"})
+public class ConcurrencyController {
+
+  public static final String SCALING_METRIC = "jms.listener.scaling";
+
+  public static final String CONSUMERS_METRIC = "jms.listener.consumers";
+
+  public static final String QUEUE_DEPTH_METRIC = "jms.listener.queue.depth";
+
+  public static final String LATENCY_METRIC = "jms.listener.latency";
+
+  private final AutoscalingSettings settings;
+
+  private final int minConsumers;
+
+  private final int maxConsumers;
+
+  private final String queue;
+
+  private final DoubleSupplier poolSaturation;
+
+  private final MeterRegistry meterRegistry;
+
+  private final LongAdder latencyNanos = new LongAdder();
+
+  private final LongAdder handledMessages = new LongAdder();
+
+  // Mean latency per message of the last decision interval that handled any, or -1 before then
+  private volatile double meanLatencyNanos = -1;
+
+  private volatile long queueDepth;
+
+  private volatile int targetConsumers;
+
+  /**
+   * Create a controller and register its gauges.
+   *
+   * @param queue the name of the queue, used to tag the metrics
+   * @param poolSaturation returns the number of database connections in use or waited for, as a
+   *     fraction of the size of the pool
+   */
+  public ConcurrencyController(final AutoscalingSettings settings, final int minConsumers,
+      final int maxConsumers, final String queue, final DoubleSupplier poolSaturation,
+      final MeterRegistry meterRegistry) {
+    if (minConsumers < 1 || maxConsumers < minConsumers) {
+      throw new IllegalArgumentException("Invalid consumer bounds " + minConsumers + "-"
+          + maxConsumers);
+    }
+    this.settings = settings;
+    this.minConsumers = minConsumers;
+    this.maxConsumers = maxConsumers;
+    this.queue = queue;
+    this.poolSaturation = poolSaturation;
+    this.meterRegistry = meterRegistry;
+    this.targetConsumers = minConsumers;
+
+    Gauge.builder(CONSUMERS_METRIC, this, ConcurrencyController::getTargetConsumers)
+        .tag("queue", queue).description("Consumers the listener container was scaled to")
+        .register(meterRegistry);
+    Gauge.builder(QUEUE_DEPTH_METRIC, this, controller -> controller.queueDepth)
+        .tag("queue", queue).description("Messages waiting on the queue at the last decision")
+        .register(meterRegistry);
+    Gauge.builder(LATENCY_METRIC, this, controller -> controller.meanLatencyNanos)
+        .tag("queue", queue).baseUnit("nanoseconds")
+        .description("Mean time the listener took per message").register(meterRegistry);
+  }
+
+  /**
+   * The number of consumers decided on last, or minConsumers before the first decision.
+   */
+  public int getTargetConsumers() {
+    return targetConsumers;
+  }
+
+  /**
+   * Record how long the listener took to handle a number of messages (one, or a whole batch).
+   */
+  public void recordLatency(final long nanos, final int messages) {
+    latencyNanos.add(nanos);
+    handledMessages.add(messages);
+  }
+
+  /**
+   * Decide how many consumers to run.
+   *
+   * @param currentConsumers the number of consumers now
+   * @param depth the number of messages waiting on the queue
+   * @return the number of consumers to run
+   */
+  public int decide(final int currentConsumers, final long depth) {
+    long messages = handledMessages.sumThenReset();
+    long nanos = latencyNanos.sumThenReset();
+    if (messages > 0) {
+      meanLatencyNanos = (double) nanos / messages;
+    }
+    queueDepth = depth;
+    double saturation = poolSaturation.getAsDouble();
+
+    int target;
+    String reason;
+    if (saturation >= settings.getMaxPoolSaturation()) {
+      target = Math.max(minConsumers, currentConsumers - 1);
+      reason = "db-saturated";
+    } else {
+      int needed = clamp(neededConsumers(currentConsumers, depth));
+      target = needed > currentConsumers ? needed : Math.max(needed, currentConsumers - 1);
+      reason = needed > currentConsumers ? "backlog" : "surplus";
+    }
+    target = clamp(target);
+
+    if (target != currentConsumers) {
+      log.info("Scaling the consumers of {} from {} to {} ({}: depth {}, latency {} ns/message,"
+          + " pool saturation {})", queue, currentConsumers, target, reason, depth,
+          Math.round(meanLatencyNanos), saturation);
+      Counter.builder(SCALING_METRIC).tag("queue", queue)
+          .tag("direction", target > currentConsumers ? "up" : "down").tag("reason", reason)
+          .description("Scaling decisions of the listener container").register(meterRegistry)
+          .increment();
+    }
+    targetConsumers = target;
+    return target;
+  }
+
+  private int neededConsumers(final int currentConsumers, final long depth) {
+    if (depth == 0) {
+      return minConsumers;
+    }
+    if (meanLatencyNanos < 0) {
+      return currentConsumers + 1;
+    }
+    double backlogNanos = depth * meanLatencyNanos;
+    return (int) Math.min(Integer.MAX_VALUE,
+        Math.ceil(backlogNanos / TimeUnit.MILLISECONDS.toNanos(settings.getTargetDrainMillis())));
+  }
+
+  private int clamp(final int consumers) {
+    return Math.max(minConsumers, Math.min(maxConsumers, consumers));
+  }
+}
@@ -0,0 +1,40 @@
+package org.galatea.starter.utils.jms;
+
+import java.util.function.BiConsumer;
+import javax.jms.Message;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+
+/**
+ * Creates FuseBatchMessageListenerContainers for endpoints whose listener is a
+ * BatchMessageListener.
+ */
+@ToString(callSuper = true)
+@EqualsAndHashCode(callSuper = true)
+@Slf4j
+public class FuseBatchJmsListenerContainerFactory extends FuseJmsListenerContainerFactory {
+
+  protected final int batchSize;
+
+  protected final long batchLingerMillis;
+
+  /**
+   * Create a factory for containers that deliver batches of at most batchSize messages, waiting at
+   * most batchLingerMillis for a batch to fill up.
+   */
+  public FuseBatchJmsListenerContainerFactory(
+      final BiConsumer<Message, Exception> failedMessageConsumer, final int batchSize,
+      final long batchLingerMillis) {
+    super(failedMessageConsumer);
+    this.batchSize = batchSize;
+    this.batchLingerMillis = batchLingerMillis;
+  }
+
+  @Override
+  protected DefaultMessageListenerContainer createContainerInstance() {
+    return new FuseBatchMessageListenerContainer(failedMessageConsumer, batchSize,
+        batchLingerMillis);
+  }
+}
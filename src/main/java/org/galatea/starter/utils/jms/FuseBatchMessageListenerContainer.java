@@ -0,0 +1,166 @@
+package org.galatea.starter.utils.jms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.TransactionStatus;
+
+/**
+ * Listener container that drains up to batchSize messages from the consumer, waiting at most
+ * batchLingerMillis after the first one arrives, and hands them to a BatchMessageListener in a
+ * single call. The session is committed once for the whole batch, so either every message in the
+ * batch is acknowledged or they are all redelivered.
+ *
+ * <p>Listeners that are not a BatchMessageListener are invoked one message at a time, exactly as
+ * they are by FuseMessageListenerContainer.
+ */
+@Slf4j
+@ToString(callSuper = true)
+@EqualsAndHashCode(callSuper = true)
+public class FuseBatchMessageListenerContainer extends FuseMessageListenerContainer {
+
+  protected final int batchSize;
+
+  protected final long batchLingerMillis;
+
+  /**
+   * Create a container that delivers batches of at most batchSize messages.
+   */
+  public FuseBatchMessageListenerContainer(
+      final BiConsumer<Message, Exception> failedMessageConsumer, final int batchSize,
+      final long batchLingerMillis) {
+    super(failedMessageConsumer);
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1 but was " + batchSize);
+    }
+    this.batchSize = batchSize;
+    this.batchLingerMillis = batchLingerMillis;
+    // The session and consumer have to outlive a single receive for a batch to span them
+    setCacheLevel(CACHE_CONSUMER);
+  }
+
+  @Override
+  protected boolean doReceiveAndExecute(final Object invoker, final Session session,
+      final MessageConsumer consumer, final TransactionStatus status) throws JMSException {
+
+    if (!(getMessageListener() instanceof BatchMessageListener) || session == null
+        || consumer == null) {
+      return super.doReceiveAndExecute(invoker, session, consumer, status);
+    }
+
+    Message first = receiveMessage(consumer);
+    if (first == null) {
+      noMessageReceived(invoker, session);
+      if (shouldCommitAfterNoMessageReceived(session)) {
+        commitIfNecessary(session, null);
+      }
+      return false;
+    }
+    messageReceived(invoker, session);
+
+    List<Message> messages = drainBatch(first, consumer);
+    log.debug("Received a batch of {} messages", messages.size());
+
+    if (!isAcceptMessagesWhileStopping() && !isRunning()) {
+      log.debug("Rejecting batch of {} messages because the container is stopping",
+          messages.size());
+      rollbackIfNecessary(session);
+      return true;
+    }
+
+    try {
+      executeBatch(session, messages);
+    } catch (JMSException | RuntimeException | Error e) {
+      if (status != null) {
+        status.setRollbackOnly();
+      }
+      handleListenerException(e);
+      if (e instanceof JMSException) {
+        throw (JMSException) e;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Receive messages until the batch is full or the linger time since the first message is up.
+   */
+  protected List<Message> drainBatch(final Message first, final MessageConsumer consumer)
+      throws JMSException {
+    List<Message> messages = new ArrayList<>(batchSize);
+    messages.add(first);
+
+    long deadline = System.currentTimeMillis() + batchLingerMillis;
+    while (messages.size() < batchSize) {
+      long remaining = deadline - System.currentTimeMillis();
+      Message next = remaining > 0 ? consumer.receive(remaining) : consumer.receiveNoWait();
+      if (next == null) {
+        break;
+      }
+      messages.add(next);
+    }
+
+    return messages;
+  }
+
+  /**
+   * Invoke the batch listener and then commit or roll back the whole batch. As with single
+   * messages, a JMSException from the listener means that the batch can't be processed and should
+   * not be retried, so each of its messages goes to the failed message consumer and the batch is
+   * committed. The whole batch shares one internal request id, and the correlation id of its
+   * first message.
+   *
+   * <p>If there is a message retrier, a batch that fails is handled again one message at a time
+   * instead, so that only the messages that fail on their own are retried or dead-lettered, and
+   * the rest are committed with the batch.
+   */
+  protected void executeBatch(final Session session, final List<Message> messages)
+      throws JMSException {
+    putRequestIds(messages.get(0));
+    long start = System.nanoTime();
+    try {
+      ((BatchMessageListener) getMessageListener()).onMessages(messages);
+    } catch (JMSException | RuntimeException e) {
+      if (messageRetrier != null) {
+        log.warn("Batch of {} messages failed; handling them one at a time", messages.size(), e);
+        executeOneAtATime(session, messages);
+      } else if (e instanceof JMSException) {
+        messages.forEach(message -> failedMessageConsumer.accept(message, e));
+      } else {
+        rollbackOnExceptionIfNecessary(session, e);
+        throw e;
+      }
+    } catch (Error e) {
+      rollbackOnExceptionIfNecessary(session, e);
+      throw e;
+    } finally {
+      recordLatency(System.nanoTime() - start, messages.size());
+      removeRequestIds();
+    }
+    commitIfNecessary(session, messages.get(messages.size() - 1));
+  }
+
+  /**
+   * Invoke the batch listener with each message on its own, handing the ones that fail to
+   * handleFailure.
+   */
+  protected void executeOneAtATime(final Session session, final List<Message> messages)
+      throws JMSException {
+    for (Message message : messages) {
+      try {
+        ((BatchMessageListener) getMessageListener())
+            .onMessages(Collections.singletonList(message));
+      } catch (JMSException | RuntimeException e) {
+        handleFailure(session, message, e);
+      }
+    }
+  }
+}
@@ -1,10 +1,13 @@
 package org.galatea.starter.utils.jms;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import java.util.function.BiConsumer;
+import java.util.function.DoubleSupplier;
 import javax.jms.Message;
 import lombok.EqualsAndHashCode;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jms.config.DefaultJmsListenerContainerFactory;
@@ -20,9 +23,47 @@ public class FuseJmsListenerContainerFactory extends DefaultJmsListenerContainer
   @NonNull
   protected BiConsumer<Message, Exception> failedMessageConsumer;
 
+  @Setter
+  protected MessageRetrier messageRetrier;
+
+  protected AutoscalingSettings autoscalingSettings;
+
+  protected DoubleSupplier poolSaturation;
+
+  protected BrokerQueueStatistics queueStatistics;
+
+  protected MeterRegistry meterRegistry;
+
+  /**
+   * Let a ConcurrencyController scale the consumers of each container within the bounds of its
+   * concurrency.
+   *
+   * @see FuseMessageListenerContainer#setAutoscaling
+   */
+  public void setAutoscaling(final AutoscalingSettings autoscalingSettings,
+      final DoubleSupplier poolSaturation, final BrokerQueueStatistics queueStatistics,
+      final MeterRegistry meterRegistry) {
+    this.autoscalingSettings = autoscalingSettings;
+    this.poolSaturation = poolSaturation;
+    this.queueStatistics = queueStatistics;
+    this.meterRegistry = meterRegistry;
+  }
+
   @Override
   protected DefaultMessageListenerContainer createContainerInstance() {
     return new FuseMessageListenerContainer(failedMessageConsumer);
   }
 
+  @Override
+  protected void initializeContainer(final DefaultMessageListenerContainer container) {
+    super.initializeContainer(container);
+    if (container instanceof FuseMessageListenerContainer) {
+      ((FuseMessageListenerContainer) container).setMessageRetrier(messageRetrier);
+    }
+    if (autoscalingSettings != null && container instanceof FuseMessageListenerContainer) {
+      ((FuseMessageListenerContainer) container).setAutoscaling(autoscalingSettings,
+          poolSaturation, queueStatistics, meterRegistry);
+    }
+  }
+
 }
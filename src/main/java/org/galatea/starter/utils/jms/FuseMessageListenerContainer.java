@@ -1,16 +1,34 @@
 package org.galatea.starter.utils.jms;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
+import java.util.function.DoubleSupplier;
+import javax.jms.Connection;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.Session;
+import javax.management.JMException;
 import lombok.EqualsAndHashCode;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.SneakyThrows;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.activemq.ActiveMQConnection;
+import org.galatea.starter.entrypoint.BaseRestController;
+import org.galatea.starter.utils.RequestIds;
+import org.slf4j.MDC;
 import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.jms.support.JmsUtils;
+import org.springframework.web.util.UriUtils;
 
 @RequiredArgsConstructor
 @Slf4j
@@ -21,20 +39,222 @@ public class FuseMessageListenerContainer extends DefaultMessageListenerContaine
   @NonNull
   protected BiConsumer<Message, Exception> failedMessageConsumer;
 
+  // Reschedules failed messages if set; otherwise they are rolled back for the broker to redeliver
+  @Setter
+  protected MessageRetrier messageRetrier;
+
+  protected AutoscalingSettings autoscalingSettings;
+
+  protected DoubleSupplier poolSaturation;
+
+  protected BrokerQueueStatistics queueStatistics;
+
+  protected MeterRegistry meterRegistry;
+
+  // The broker the queue is on (null if unknown), looked up on the first scaling decision
+  @EqualsAndHashCode.Exclude
+  @ToString.Exclude
+  private volatile Optional<String> brokerName;
+
+  // Whether the warning that the queue has no MBean has been logged
+  @EqualsAndHashCode.Exclude
+  @ToString.Exclude
+  private volatile boolean missingQueueWarned;
+
+  // Created on initialize if autoscaling is enabled and the concurrency is a range
+  protected ConcurrencyController concurrencyController;
+
+  @EqualsAndHashCode.Exclude
+  @ToString.Exclude
+  private ScheduledExecutorService autoscaler;
+
+  /**
+   * Let a ConcurrencyController scale the consumers within the bounds of the concurrency of the
+   * container, rather than just scaling up when receives keep finding messages and down when
+   * they don't. Has no effect if the concurrency is a fixed number of consumers. Must be called
+   * before the container is initialized.
+   *
+   * @param poolSaturation returns the number of database connections in use or waited for, as a
+   *     fraction of the size of the pool
+   * @param queueStatistics reads the depth of the container's queue from the broker
+   */
+  public void setAutoscaling(final AutoscalingSettings autoscalingSettings,
+      final DoubleSupplier poolSaturation, final BrokerQueueStatistics queueStatistics,
+      final MeterRegistry meterRegistry) {
+    this.autoscalingSettings = autoscalingSettings;
+    this.poolSaturation = poolSaturation;
+    this.queueStatistics = queueStatistics;
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Override
+  public void initialize() {
+    if (autoscalingSettings != null && getConcurrentConsumers() < getMaxConcurrentConsumers()) {
+      // Consumers only stop, when scaling down, at the end of a task
+      setMaxMessagesPerTask(autoscalingSettings.getMaxMessagesPerTask());
+      concurrencyController = new ConcurrencyController(autoscalingSettings,
+          getConcurrentConsumers(), getMaxConcurrentConsumers(), getDestinationDescription(),
+          poolSaturation, meterRegistry);
+    }
+
+    super.initialize();
+
+    if (concurrencyController != null) {
+      autoscaler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jms-autoscaler-" + getDestinationDescription());
+        thread.setDaemon(true);
+        return thread;
+      });
+      autoscaler.scheduleWithFixedDelay(this::scale, autoscalingSettings.getIntervalMillis(),
+          autoscalingSettings.getIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  protected void doShutdown() throws JMSException {
+    if (autoscaler != null) {
+      autoscaler.shutdownNow();
+    }
+    super.doShutdown();
+  }
+
+  /**
+   * Set the number of consumers to the one the ConcurrencyController decides on. Consumers are
+   * added as receives find messages, and removed as they finish their tasks.
+   */
+  protected void scale() {
+    if (!isRunning()) {
+      return;
+    }
+
+    try {
+      int current = getConcurrentConsumers();
+      int target = concurrencyController.decide(current, queueDepth());
+      if (target != current) {
+        setConcurrentConsumers(target);
+        setMaxConcurrentConsumers(target);
+      }
+    } catch (IOException | JMException | JMSException | RuntimeException e) {
+      log.warn("Could not scale the consumers of {}", getDestinationDescription(), e);
+    }
+  }
+
+  /**
+   * Read the number of messages waiting on the queue from the broker's statistics, without
+   * browsing the queue. The name of the broker is read from a connection of the container's
+   * connection factory the first time, so that only the queue on that broker is counted.
+   *
+   * <p>A queue without an MBean counts as empty, which scales the consumers down to the minimum;
+   * since that usually means the statistics are read from the wrong MBean server (rather than
+   * that the broker hasn't created the queue yet), a warning is logged the first time.
+   */
+  protected long queueDepth() throws IOException, JMException, JMSException {
+    if (isPubSubDomain() || getDestinationName() == null) {
+      return 0;
+    }
+
+    if (brokerName == null) {
+      Connection connection = createConnection();
+      try {
+        brokerName = Optional.ofNullable(connection instanceof ActiveMQConnection
+            ? ((ActiveMQConnection) connection).getBrokerName() : null);
+      } finally {
+        JmsUtils.closeConnection(connection);
+      }
+    }
+    OptionalLong depth =
+        queueStatistics.queueSize(brokerName.orElse(null), getDestinationName());
+    if (!depth.isPresent() && !missingQueueWarned) {
+      missingQueueWarned = true;
+      log.warn("There is no MBean for queue {} on broker {} in {}, so it counts as empty; set"
+          + " jms.autoscaling-jmx-url to the JMX connector of the broker",
+          getDestinationName(), brokerName.orElse("*"), queueStatistics);
+    }
+    return depth.orElse(0);
+  }
+
   @Override
   @SneakyThrows
   protected void invokeListener(final Session session, final Message message) {
 
-    // We expect the listener to handle any retryable exceptions internally. If the exception
+    // We expect the listener to handle any retryable exceptions internally. If a JMSException
     // reaches the catch block, then we assume that the message has failed processing and should
-    // NOT be
-    // retried. That being said, the failed message consumer could decide to throw a
+    // NOT be retried. That being said, the failed message consumer could decide to throw a
     // RuntimeException, which would result in the message being placed back on the queue. While
-    // this is not encouraged, there may be certain circumstances where that is necessary.
+    // this is not encouraged, there may be certain circumstances where that is necessary. Other
+    // exceptions are retried later by the message retrier, if there is one, and otherwise roll
+    // the message back.
+    putRequestIds(message);
+    long start = System.nanoTime();
     try {
       super.invokeListener(session, message);
     } catch (JMSException e) {
-      failedMessageConsumer.accept(message, e);
+      handleFailure(session, message, e);
+    } catch (RuntimeException e) {
+      if (messageRetrier == null) {
+        throw e;
+      }
+      handleFailure(session, message, e);
+    } finally {
+      recordLatency(System.nanoTime() - start, 1);
+      removeRequestIds();
+    }
+  }
+
+  /**
+   * Give up on a message that failed with a JMSException, or hand one that failed with another
+   * exception to the message retrier. Messages that are given up on are dead-lettered, if there
+   * is a message retrier, and passed to the failed message consumer.
+   */
+  protected void handleFailure(final Session session, final Message message,
+      final Exception failure) throws JMSException {
+    if (messageRetrier == null) {
+      failedMessageConsumer.accept(message, failure);
+      return;
+    }
+
+    if (failure instanceof JMSException) {
+      messageRetrier.deadLetter(session, message, failure);
+    } else if (messageRetrier.retryOrDeadLetter(session, message, failure)) {
+      return;
+    }
+    failedMessageConsumer.accept(message, failure);
+  }
+
+  /**
+   * Record how long the listener took to handle a number of messages, for autoscaling.
+   */
+  protected void recordLatency(final long nanos, final int messages) {
+    if (concurrencyController != null) {
+      concurrencyController.recordLatency(nanos, messages);
+    }
+  }
+
+  /**
+   * Put a new internal request id into the MDC of the listener thread, like FuseHttpTraceFilter
+   * does for web requests, so that the log lines written while handling the message can be told
+   * apart. The message's correlation id (if it has one) is put in as the external request id.
+   */
+  protected void putRequestIds(final Message message) {
+    MDC.put(RequestIds.INTERNAL_REQUEST_ID, RequestIds.next());
+    try {
+      String correlationId = message == null ? null : message.getJMSCorrelationID();
+      if (correlationId != null) {
+        // Cleaned like the requestId of web requests, so it can't inject anything into the logs
+        MDC.put(BaseRestController.EXTERNAL_REQUEST_ID,
+            UriUtils.encode(correlationId, StandardCharsets.UTF_8));
+      }
+    } catch (JMSException e) {
+      log.debug("Could not read the correlation id of {}", message, e);
     }
   }
+
+  /**
+   * Remove the request ids put by putRequestIds. The rest of the listener thread's MDC is left
+   * alone.
+   */
+  protected void removeRequestIds() {
+    MDC.remove(RequestIds.INTERNAL_REQUEST_ID);
+    MDC.remove(BaseRestController.EXTERNAL_REQUEST_ID);
+  }
 }
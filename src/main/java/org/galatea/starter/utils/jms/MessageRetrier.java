@@ -0,0 +1,251 @@
+package org.galatea.starter.utils.jms;
+
+import java.util.Enumeration;
+import java.util.function.Predicate;
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.activemq.MessageTransformer;
+import org.apache.activemq.ScheduledMessage;
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.springframework.jms.support.JmsUtils;
+
+/**
+ * Reschedules messages that failed to be handled, instead of rolling them back for the broker to
+ * redeliver straight away to the same consumer.
+ *
+ * <p>A failed message is acknowledged, and a copy of it is sent back to its queue with an
+ * AMQ_SCHEDULED_DELAY, so the broker holds it back for initialDelayMillis, then multiplier times
+ * longer after each further failure, up to maxDelayMillis. The consumer moves on to other messages
+ * meanwhile. Once a message has failed maxAttempts times, or with an exception that isn't
+ * retryable, a copy of it goes to the dead-letter queue, named deadLetterPrefix followed by the
+ * name of its queue, with the failure in its {@value #FAILURE} property. When the listener session
+ * is transacted, the copy is sent in the same transaction as the acknowledgement of the original.
+ *
+ * <p>The broker needs scheduler support for the delay (schedulerSupport="true" on an ActiveMQ
+ * broker); without it, the retries are redelivered straight away. The copies keep the message ID
+ * of the first delivery in the {@value #ORIGINAL_MESSAGE_ID} property, for idempotency (see
+ * originalMessageId). On an ActiveMQ connection factory whose consumers are wrapped by JMS
+ * tracing, set the consumerTransformer so that retried bytes messages keep those properties.
+ */
+@Slf4j
+@ToString
+public class MessageRetrier {
+
+  public static final String ATTEMPT = "FuseAttempt";
+
+  public static final String ORIGINAL_MESSAGE_ID = "FuseOriginalMessageId";
+
+  public static final String FAILURE = "FuseFailure";
+
+  private final int maxAttempts;
+
+  private final long initialDelayMillis;
+
+  private final double multiplier;
+
+  private final long maxDelayMillis;
+
+  private final String deadLetterPrefix;
+
+  @ToString.Exclude
+  private final Predicate<Exception> retryable;
+
+  /**
+   * Create a retrier.
+   *
+   * @param maxAttempts the number of times a message is handled before it is dead-lettered,
+   *     including the first
+   * @param retryable returns false for the exceptions that no retry would get past, such as
+   *     malformed messages. Those messages are dead-lettered on their first failure.
+   */
+  public MessageRetrier(final int maxAttempts, final long initialDelayMillis,
+      final double multiplier, final long maxDelayMillis, final String deadLetterPrefix,
+      final Predicate<Exception> retryable) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("Max attempts must be at least 1 but was " + maxAttempts);
+    }
+    this.maxAttempts = maxAttempts;
+    this.initialDelayMillis = initialDelayMillis;
+    this.multiplier = multiplier;
+    this.maxDelayMillis = maxDelayMillis;
+    this.deadLetterPrefix = deadLetterPrefix;
+    this.retryable = retryable;
+  }
+
+  /**
+   * Returns the message ID of the first delivery of the message, which retries of it keep.
+   */
+  public static String originalMessageId(final Message message) throws JMSException {
+    String originalMessageId = message.getStringProperty(ORIGINAL_MESSAGE_ID);
+    return originalMessageId != null ? originalMessageId : message.getJMSMessageID();
+  }
+
+  /**
+   * Returns the number of times the message has been handled before, by earlier attempts.
+   */
+  public static int previousAttempts(final Message message) throws JMSException {
+    return message.propertyExists(ATTEMPT) ? message.getIntProperty(ATTEMPT) : 0;
+  }
+
+  /**
+   * Returns a transformer for the ActiveMQ connection factory that keeps the properties of the
+   * retried bytes messages its consumers receive.
+   *
+   * <p>JMS tracing clears the properties of each message it receives, to remove its own, and sets
+   * the others again. ActiveMQ only lets properties be set on a bytes message whose body is
+   * writable, so a retried bytes message would lose its {@value #ATTEMPT} and
+   * {@value #ORIGINAL_MESSAGE_ID} and be retried forever. The transformer runs inside the
+   * consumer, before tracing sees the message, and makes the body of retried bytes messages
+   * writable. The content is kept when the body is written to, and reset() makes it read-only
+   * again, so bytes messages have to be reset before their body is read.
+   */
+  public static MessageTransformer consumerTransformer() {
+    return new RetriedBytesMessageTransformer();
+  }
+
+  /**
+   * Returns how long a message is held back after failing the given attempt.
+   *
+   * @param attempt the attempt that failed, starting at 1
+   */
+  public long delayMillis(final int attempt) {
+    double delay = initialDelayMillis * Math.pow(multiplier, attempt - 1);
+    return (long) Math.min(delay, maxDelayMillis);
+  }
+
+  /**
+   * Send a copy of the failed message back to its queue to be retried later, or to the
+   * dead-letter queue if it can't be retried. The session has to be committed (or the message
+   * acknowledged) afterwards, so that the original isn't redelivered too.
+   *
+   * @return true if the message will be retried, false if it was dead-lettered
+   */
+  public boolean retryOrDeadLetter(final Session session, final Message message,
+      final Exception failure) throws JMSException {
+    int attempt = previousAttempts(message) + 1;
+    Destination destination = message.getJMSDestination();
+
+    if (attempt >= maxAttempts || !retryable.test(failure) || !(destination instanceof Queue)) {
+      deadLetter(session, message, failure);
+      return false;
+    }
+
+    long delay = delayMillis(attempt);
+    Message copy = copy(session, message, attempt);
+    copy.setLongProperty(ScheduledMessage.AMQ_SCHEDULED_DELAY, delay);
+    send(session, destination, message, copy, delay);
+    log.warn("Message {} failed on attempt {} of {}; retrying in {} ms",
+        originalMessageId(message), attempt, maxAttempts, delay, failure);
+    return true;
+  }
+
+  /**
+   * Send a copy of the failed message to the dead-letter queue, with the failure in its
+   * {@value #FAILURE} property. The session has to be committed (or the message acknowledged)
+   * afterwards, so that the original isn't redelivered too.
+   */
+  public void deadLetter(final Session session, final Message message, final Exception failure)
+      throws JMSException {
+    Destination destination = message.getJMSDestination();
+    Queue deadLetterQueue = session.createQueue(deadLetterPrefix + (destination instanceof Queue
+        ? ((Queue) destination).getQueueName() : "unknown"));
+    int attempt = previousAttempts(message) + 1;
+    Message copy = copy(session, message, attempt);
+    copy.setStringProperty(FAILURE, String.valueOf(failure));
+    send(session, deadLetterQueue, message, copy, 0);
+    log.error("Message {} failed on attempt {}; moved it to {}", originalMessageId(message),
+        attempt, deadLetterQueue, failure);
+  }
+
+  /**
+   * Copy the body, headers and properties of the message into a new one, since received messages
+   * can't be changed. Text and bytes messages are supported.
+   */
+  private static Message copy(final Session session, final Message message, final int attempt)
+      throws JMSException {
+    Message copy;
+    if (message instanceof TextMessage) {
+      copy = session.createTextMessage(((TextMessage) message).getText());
+    } else if (message instanceof BytesMessage) {
+      BytesMessage bytesMessage = (BytesMessage) message;
+      bytesMessage.reset();
+      byte[] body = new byte[(int) bytesMessage.getBodyLength()];
+      bytesMessage.readBytes(body);
+      BytesMessage bytesCopy = session.createBytesMessage();
+      bytesCopy.writeBytes(body);
+      copy = bytesCopy;
+    } else {
+      throw new JMSException("Can't copy " + message.getClass().getName() + " " + message);
+    }
+
+    Enumeration<?> names = message.getPropertyNames();
+    while (names.hasMoreElements()) {
+      String property = (String) names.nextElement();
+      // Other than the group, the JMSX properties are set by the provider. The scheduling ones
+      // only apply to the delivery they were set on, and the broker won't schedule a message that
+      // still has the job id of an earlier delay.
+      boolean copied = !property.startsWith("JMSX") || property.equals("JMSXGroupID")
+          || property.equals("JMSXGroupSeq");
+      boolean scheduling = property.startsWith("AMQ_SCHEDULED")
+          || property.equals(ScheduledMessage.AMQ_SCHEDULED_ID);
+      if (copied && !scheduling) {
+        copy.setObjectProperty(property, message.getObjectProperty(property));
+      }
+    }
+    copy.setJMSCorrelationID(message.getJMSCorrelationID());
+    copy.setJMSReplyTo(message.getJMSReplyTo());
+    copy.setJMSType(message.getJMSType());
+    copy.setStringProperty(ORIGINAL_MESSAGE_ID, originalMessageId(message));
+    copy.setIntProperty(ATTEMPT, attempt);
+    return copy;
+  }
+
+  /**
+   * Send the copy with the delivery mode and priority of the original, and a time to live that
+   * makes it expire about when the original would have. The broker restarts the time to live of a
+   * scheduled message when it delivers it, so the delay is taken off; a copy that would only be
+   * delivered after the original expired is sent with the shortest time to live instead.
+   */
+  private static void send(final Session session, final Destination destination,
+      final Message original, final Message copy, final long delayMillis) throws JMSException {
+    long timeToLive = Message.DEFAULT_TIME_TO_LIVE;
+    if (original.getJMSExpiration() != 0) {
+      timeToLive = Math.max(1,
+          original.getJMSExpiration() - System.currentTimeMillis() - delayMillis);
+    }
+
+    MessageProducer producer = session.createProducer(destination);
+    try {
+      producer.send(copy, original.getJMSDeliveryMode(), original.getJMSPriority(), timeToLive);
+    } finally {
+      JmsUtils.closeMessageProducer(producer);
+    }
+  }
+
+  private static class RetriedBytesMessageTransformer implements MessageTransformer {
+
+    @Override
+    public Message producerTransform(final Session session, final MessageProducer producer,
+        final Message message) {
+      return message;
+    }
+
+    @Override
+    public Message consumerTransform(final Session session, final MessageConsumer consumer,
+        final Message message) throws JMSException {
+      if (message instanceof ActiveMQBytesMessage && message.propertyExists(ATTEMPT)) {
+        ((ActiveMQBytesMessage) message).setReadOnlyBody(false);
+      }
+      return message;
+    }
+  }
+}
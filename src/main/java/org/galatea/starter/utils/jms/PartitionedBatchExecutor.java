@@ -0,0 +1,211 @@
+package org.galatea.starter.utils.jms;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import javax.jms.JMSException;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.utils.MdcTaskDecorator;
+
+/**
+ * Handles the items of a batch in parallel across a fixed number of partitions, while keeping the
+ * items that share a key in order. Each key hashes to one partition, and the items of each
+ * partition are handed to the handler in a single call, in the order they were in the batch. The
+ * partitions of a batch run on a pool of partitions - 1 threads and the calling thread, and
+ * execute returns once all of them are done, so that the batch can be committed (or rolled back)
+ * as a whole and batches that are executed one after the other stay in order too.
+ *
+ * <p>An item whose keys hash to several partitions, like an envelope of agreements for several
+ * instruments, can't be put in any one of them. It is handled on its own once the partitions of
+ * the items before it are done, and before any of the items after it are started.
+ *
+ * <p>The partition threads log with the MDC of the calling thread.
+ */
+@Slf4j
+@ToString(of = "partitions")
+public class PartitionedBatchExecutor {
+
+  @Getter
+  private final int partitions;
+
+  // Null if there is a single partition, which runs on the calling thread
+  private final ExecutorService executor;
+
+  private final MdcTaskDecorator mdcTaskDecorator = new MdcTaskDecorator();
+
+  /**
+   * Create an executor with a pool of partitions - 1 daemon threads.
+   */
+  public PartitionedBatchExecutor(final int partitions) {
+    if (partitions < 1) {
+      throw new IllegalArgumentException("Partitions must be at least 1 but was " + partitions);
+    }
+    this.partitions = partitions;
+
+    AtomicInteger threads = new AtomicInteger();
+    this.executor = partitions == 1 ? null : Executors.newFixedThreadPool(partitions - 1,
+        runnable -> {
+          Thread thread = new Thread(runnable, "jms-partition-" + threads.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  /**
+   * Hand the items of the batch to the handler, partitioned by their keys. If a partition fails,
+   * the others are still waited for, and then the first failure is thrown.
+   *
+   * @param keys returns the keys of an item. Items without keys go to the first partition.
+   */
+  public <T> void execute(final List<T> items, final Function<T, Collection<?>> keys,
+      final PartitionHandler<T> handler) throws JMSException {
+    if (partitions == 1) {
+      handler.handle(items);
+      return;
+    }
+
+    List<List<T>> partitioned = newPartitions();
+    for (T item : items) {
+      int partition = partitionOf(keys.apply(item));
+      if (partition >= 0) {
+        partitioned.get(partition).add(item);
+      } else {
+        run(partitioned, handler);
+        partitioned = newPartitions();
+        handler.handle(Collections.singletonList(item));
+      }
+    }
+    run(partitioned, handler);
+  }
+
+  /**
+   * Stop the partition threads.
+   */
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns the partition that all of the keys hash to, or -1 if they hash to several.
+   */
+  int partitionOf(final Collection<?> keys) {
+    int partition = -1;
+    for (Object key : keys) {
+      int keyPartition = Math.floorMod(key == null ? 0 : key.hashCode(), partitions);
+      if (partition >= 0 && keyPartition != partition) {
+        return -1;
+      }
+      partition = keyPartition;
+    }
+    return Math.max(partition, 0);
+  }
+
+  private <T> List<List<T>> newPartitions() {
+    List<List<T>> partitioned = new ArrayList<>(partitions);
+    for (int i = 0; i < partitions; i++) {
+      partitioned.add(new ArrayList<>());
+    }
+    return partitioned;
+  }
+
+  /**
+   * Handle the non-empty partitions in parallel, the first of them on the calling thread.
+   */
+  private <T> void run(final List<List<T>> partitioned, final PartitionHandler<T> handler)
+      throws JMSException {
+    List<List<T>> nonEmpty = new ArrayList<>();
+    partitioned.stream().filter(partition -> !partition.isEmpty()).forEach(nonEmpty::add);
+    if (nonEmpty.isEmpty()) {
+      return;
+    }
+    log.debug("Handling {} partitions in parallel", nonEmpty.size());
+
+    List<Future<?>> futures = new ArrayList<>(nonEmpty.size() - 1);
+    for (List<T> partition : nonEmpty.subList(1, nonEmpty.size())) {
+      futures.add(executor.submit(mdcTaskDecorator.decorate(() -> {
+        try {
+          handler.handle(partition);
+        } catch (JMSException e) {
+          throw new PartitionFailure(e);
+        }
+      })));
+    }
+
+    Throwable failure = null;
+    try {
+      handler.handle(nonEmpty.get(0));
+    } catch (JMSException | RuntimeException | Error e) {
+      failure = e;
+    }
+
+    boolean interrupted = false;
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause() instanceof PartitionFailure ? e.getCause().getCause()
+            : e.getCause();
+        failure = firstFailure(failure, cause);
+      } catch (InterruptedException e) {
+        // The other partitions are still waited for, so that none outlives the batch
+        interrupted = true;
+        failure = firstFailure(failure, e);
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (failure instanceof JMSException) {
+      throw (JMSException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (failure != null) {
+      // Not a JMSException, so that the batch is rolled back rather than given up on
+      throw new IllegalStateException("Interrupted while waiting for the partitions", failure);
+    }
+  }
+
+  private static Throwable firstFailure(final Throwable first, final Throwable next) {
+    if (first == null) {
+      return next;
+    }
+    first.addSuppressed(next);
+    return first;
+  }
+
+  /**
+   * Handles the items of one partition of a batch.
+   */
+  @FunctionalInterface
+  public interface PartitionHandler<T> {
+
+    /**
+     * Handle the items of a partition, in the order they were in the batch.
+     */
+    void handle(List<T> items) throws JMSException;
+  }
+
+  /**
+   * Carries a JMSException out of a partition thread.
+   */
+  private static class PartitionFailure extends RuntimeException {
+
+    PartitionFailure(final JMSException cause) {
+      super(cause);
+    }
+  }
+}
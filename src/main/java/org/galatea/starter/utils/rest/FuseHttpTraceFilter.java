@@ -1,11 +1,13 @@
 package org.galatea.starter.utils.rest;
 
 import static org.galatea.starter.entrypoint.BaseRestController.EXTERNAL_REQUEST_ID;
+import static org.galatea.starter.utils.RequestIds.INTERNAL_REQUEST_ID;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-import java.util.Random;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
@@ -16,12 +18,14 @@ import lombok.NonNull;
 import lombok.SneakyThrows;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.utils.RequestIds;
 import org.slf4j.MDC;
 import org.springframework.boot.actuate.trace.http.HttpExchangeTracer;
 import org.springframework.boot.actuate.trace.http.HttpTraceRepository;
 import org.springframework.boot.actuate.web.trace.servlet.HttpTraceFilter;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerMapping;
 import org.springframework.web.util.ContentCachingRequestWrapper;
-import org.springframework.web.util.ContentCachingResponseWrapper;
 import org.springframework.web.util.WebUtils;
 
 /**
@@ -36,12 +40,19 @@ import org.springframework.web.util.WebUtils;
 @Slf4j
 public class FuseHttpTraceFilter extends HttpTraceFilter {
 
-  private static final String INTERNAL_REQUEST_ID = "internal-request-id";
+  @NonNull
+  protected final Predicate<String> pathsToSkip;
 
-  private static final Random QUERY_ID_GENERATOR = new Random();
+  // Bytes of each request and response body that are captured for tracing, and the most of a
+  // response body that is held back so that the audit headers can be added after it was written
+  protected final int maxPayloadSize;
 
+  // Response bodies of these types are sent to the client as they are written
   @NonNull
-  protected final Predicate<String> pathsToSkip;
+  protected final Collection<MediaType> streamedMediaTypes;
+
+  @NonNull
+  protected final LatencyHistograms latencyHistograms;
 
   /**
    * Sadly we have to write our own constructor since lombok can't call super with args.
@@ -49,11 +60,19 @@ public class FuseHttpTraceFilter extends HttpTraceFilter {
    * @param repository the repository where we store our trace
    * @param pathsToSkip a predicate that will return try if we want to a skip a certain url
    *     path
+   * @param maxPayloadSize the number of bytes of each body captured for tracing. Larger
+   *     response bodies are passed through to the client once they reach this size.
+   * @param streamedMediaTypes response bodies of these types are always passed through
+   * @param latencyHistograms where the latency of each traced request is recorded
    */
   public FuseHttpTraceFilter(final HttpTraceRepository repository, final HttpExchangeTracer tracer,
-      final Predicate<String> pathsToSkip) {
+      final Predicate<String> pathsToSkip, final int maxPayloadSize,
+      final Collection<MediaType> streamedMediaTypes, final LatencyHistograms latencyHistograms) {
     super(repository, tracer);
     this.pathsToSkip = pathsToSkip;
+    this.maxPayloadSize = maxPayloadSize;
+    this.streamedMediaTypes = streamedMediaTypes;
+    this.latencyHistograms = latencyHistograms;
   }
 
   @Override
@@ -61,74 +80,95 @@ public class FuseHttpTraceFilter extends HttpTraceFilter {
       final HttpServletResponse response, final FilterChain filterChain)
       throws ServletException, IOException {
 
-    // generate the internal request Id
-    // we want positive numbers only, so use nextInt(upperBound)
-    String internallyGeneratedId =
-        Integer.toString(QUERY_ID_GENERATOR.nextInt(Integer.MAX_VALUE));
+    // generate the internal request Id, without contending with other requests (see RequestIds)
+    String internallyGeneratedId = RequestIds.next();
 
     log.debug("Created internal request id: {}", internallyGeneratedId);
 
     // And add to MDC so it will show up in the logs
     // The key used here must align with the key defined in the logging
     // config's log-pattern
-    MDC.put(INTERNAL_REQUEST_ID, internallyGeneratedId + " - ");
+    MDC.put(INTERNAL_REQUEST_ID, internallyGeneratedId);
 
     // Skip paths that are not interesting to trace
     if (pathsToSkip.test(request.getRequestURI())) {
-      filterChain.doFilter(request, response);
+      try {
+        filterChain.doFilter(request, response);
+      } finally {
+        MDC.clear();
+      }
       return;
     }
 
     boolean isFirstRequest = !isAsyncDispatch(request);
     HttpServletRequest requestToUse = request;
     HttpServletResponse responseToUse = response;
+    long requestReceivedNanos = System.nanoTime();
+    Instant requestReceivedTime = Instant.now();
 
     // We need to do this for the request and response since you can only read the stream that holds
-    // the payload once
+    // the payload once. Only a capped prefix of each body is kept, and large or streamed response
+    // bodies are passed through to the client rather than held in memory until the end.
     if (isFirstRequest && !(request instanceof ContentCachingRequestWrapper)) {
-      requestToUse = new ContentCachingRequestWrapper(request);
+      requestToUse = new ContentCachingRequestWrapper(request, maxPayloadSize);
     }
-    if (isFirstRequest && !(response instanceof ContentCachingRequestWrapper)) {
-      responseToUse = new ContentCachingResponseWrapper(response);
+    if (isFirstRequest && !(response instanceof PayloadCapturingResponseWrapper)) {
+      responseToUse = new PayloadCapturingResponseWrapper(response, maxPayloadSize,
+          streamedMediaTypes,
+          () -> addAuditHeaders(requestReceivedTime, requestReceivedNanos, response));
     }
 
-    doFilterInternalHelper(requestToUse, responseToUse, filterChain, Instant.now());
+    doFilterInternalHelper(requestToUse, responseToUse, filterChain, requestReceivedTime,
+        requestReceivedNanos);
   }
 
+  /**
+   * Runs the request through the rest of the chain and the trace, then finishes the response and
+   * records how long the request took.
+   */
   @SneakyThrows
-  // what's this method responsible for?
   protected void doFilterInternalHelper(final HttpServletRequest request,
       final HttpServletResponse response, final FilterChain filterChain,
-      final Instant requestReceivedTime) {
+      final Instant requestReceivedTime, final long requestReceivedNanos) {
 
     try {
       super.doFilterInternal(request, response, filterChain);
     } finally {
-      addAuditHeaders(requestReceivedTime.toString(), response);
-      updateResponse(response);
+      PayloadCapturingResponseWrapper responseWrapper =
+          WebUtils.getNativeResponse(response, PayloadCapturingResponseWrapper.class);
+      if (responseWrapper == null) {
+        addAuditHeaders(requestReceivedTime, requestReceivedNanos, response);
+      } else {
+        // Adds the audit headers, unless the body was passed through and they were added then
+        responseWrapper.finish();
+        logPayloads(request, responseWrapper);
+      }
+      latencyHistograms.record(request.getMethod(),
+          (String) request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE),
+          response.getStatus(), response.getContentType(),
+          System.nanoTime() - requestReceivedNanos);
       MDC.clear();
     }
   }
 
-  private void addAuditHeaders(final String requestReceivedTime,
+  private void addAuditHeaders(final Instant requestReceivedTime, final long requestReceivedNanos,
       final HttpServletResponse response) {
     log.info("Attempting to add audit headers");
     String internalQueryId = MDC.get(INTERNAL_REQUEST_ID);
     if (internalQueryId != null) {
-      logAndAddAuditHeader(response, "internalQueryId",
-          internalQueryId.replace(" - ", "")); // internalQueryId has a ' - ' in MDC
+      logAndAddAuditHeader(response, "internalQueryId", internalQueryId);
     }
     String externalQueryId = MDC.get(EXTERNAL_REQUEST_ID);
     if (externalQueryId != null) {
-      logAndAddAuditHeader(response, "externalQueryId",
-          externalQueryId.replace(" - ", "")); // externalQueryId has a ' - ' in MDC
+      logAndAddAuditHeader(response, "externalQueryId", externalQueryId);
     }
 
-    logAndAddAuditHeader(response, "requestReceivedTime", requestReceivedTime);
+    logAndAddAuditHeader(response, "requestReceivedTime", requestReceivedTime.toString());
 
-    String requestElapsedTimeMillis =
-        String.valueOf(Instant.parse(requestReceivedTime).until(Instant.now(), ChronoUnit.MILLIS));
-    logAndAddAuditHeader(response, "requestElapsedTimeMillis", requestElapsedTimeMillis);
+    long requestElapsedTimeMillis =
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestReceivedNanos);
+    logAndAddAuditHeader(response, "requestElapsedTimeMillis",
+        Long.toString(requestElapsedTimeMillis));
   }
 
   /**
@@ -145,13 +185,22 @@ public class FuseHttpTraceFilter extends HttpTraceFilter {
   }
 
   /**
-   * Updates the response because we add headers *after* the filter has been applied. This way we
-   * ensure that any fields that were created during request handling (e.g. externalQueryId) will
-   * make it onto the response.
+   * Logs the captured prefix of the request and response bodies.
    */
-  private void updateResponse(final HttpServletResponse response) throws IOException {
-    ContentCachingResponseWrapper responseWrapper =
-        WebUtils.getNativeResponse(response, ContentCachingResponseWrapper.class);
-    responseWrapper.copyBodyToResponse();
+  private void logPayloads(final HttpServletRequest request,
+      final PayloadCapturingResponseWrapper response) {
+    if (!log.isDebugEnabled()) {
+      return;
+    }
+
+    ContentCachingRequestWrapper requestWrapper =
+        WebUtils.getNativeRequest(request, ContentCachingRequestWrapper.class);
+    if (requestWrapper != null) {
+      log.debug("Request payload (first {} bytes): {}", maxPayloadSize,
+          new String(requestWrapper.getContentAsByteArray(), StandardCharsets.UTF_8));
+    }
+    log.debug("Response payload (first {} bytes, passed through: {}): {}", maxPayloadSize,
+        response.isPassThrough(),
+        new String(response.getCapturedPayload(), StandardCharsets.UTF_8));
   }
 }
@@ -0,0 +1,41 @@
+package org.galatea.starter.utils.rest;
+
+import java.util.Comparator;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import org.galatea.starter.utils.rest.LatencyHistograms.Summary;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+/**
+ * Actuator endpoint with the request latency percentiles recorded by FuseHttpTraceFilter. GET
+ * /actuator/latency lists them for every endpoint, status and media type, covering the window
+ * since the last DELETE /actuator/latency.
+ */
+@RequiredArgsConstructor
+@Endpoint(id = "latency")
+public class LatencyEndpoint {
+
+  private final LatencyHistograms latencyHistograms;
+
+  /**
+   * Latency percentiles of the current window, by endpoint.
+   */
+  @ReadOperation
+  public List<Summary> latencies() {
+    List<Summary> summaries = latencyHistograms.summarize();
+    summaries.sort(Comparator.comparing(Summary::getEndpoint,
+        Comparator.nullsLast(Comparator.<String>naturalOrder()))
+        .thenComparing(Summary::getMethod).thenComparingInt(Summary::getStatus));
+    return summaries;
+  }
+
+  /**
+   * Start a new window.
+   */
+  @DeleteOperation
+  public void reset() {
+    latencyHistograms.reset();
+  }
+}
@@ -0,0 +1,210 @@
+package org.galatea.starter.utils.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.Builder;
+import lombok.Value;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * High resolution latency histograms of HTTP requests, one for each combination of endpoint (HTTP
+ * method and the path pattern of the handler), response status and response media type.
+ *
+ * <p>Latencies are recorded in nanoseconds into HdrHistogram Recorders, which are wait-free and
+ * don't allocate. Finding the recorder doesn't allocate either once an endpoint has been seen:
+ * each thread looks it up with a reusable key, and a key of its own is only created the first time
+ * a combination is recorded. Each histogram covers the window since it was last reset (or first
+ * recorded to).
+ */
+public class LatencyHistograms {
+
+  // Enough for percentiles within 0.1% of the recorded values
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private final Map<Key, Latencies> latencies = new ConcurrentHashMap<>();
+
+  private final ThreadLocal<LookupKey> lookupKeys = ThreadLocal.withInitial(LookupKey::new);
+
+  /**
+   * Record the latency of a request.
+   *
+   * @param method the HTTP method of the request
+   * @param endpoint the path pattern of the handler, or null if no handler was found
+   * @param status the status of the response
+   * @param contentType the content type of the response, or null if it had none. Parameters such
+   *     as the charset are ignored.
+   * @param nanos the latency of the request
+   */
+  public void record(final String method, final String endpoint, final int status,
+      final String contentType, final long nanos) {
+    LookupKey lookupKey = lookupKeys.get();
+    lookupKey.set(method, endpoint, status, contentType);
+    Latencies recorder = latencies.get(lookupKey);
+    if (recorder == null) {
+      recorder = latencies.computeIfAbsent(lookupKey.copy(), key -> new Latencies());
+    }
+    recorder.record(nanos);
+  }
+
+  /**
+   * Summarize the latencies recorded in the current window of each histogram.
+   */
+  public List<Summary> summarize() {
+    List<Summary> summaries = new ArrayList<>();
+    latencies.forEach((key, recorder) -> summaries.add(recorder.summarize(key)));
+    return summaries;
+  }
+
+  /**
+   * Start a new window for all of the histograms.
+   */
+  public void reset() {
+    latencies.values().forEach(Latencies::reset);
+  }
+
+  /**
+   * Percentiles of the latencies of one endpoint, status and media type, in nanoseconds.
+   */
+  @Builder
+  @Value
+  public static class Summary {
+
+    private String method;
+
+    private String endpoint;
+
+    private int status;
+
+    private String mediaType;
+
+    private long count;
+
+    private long p50Nanos;
+
+    private long p99Nanos;
+
+    private long p999Nanos;
+
+    private long maxNanos;
+  }
+
+  /**
+   * The recorder of one combination, and the histogram of its current window.
+   */
+  private static class Latencies {
+
+    private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+
+    // Values moved out of the recorder since the window started. Guarded by this.
+    private final Histogram window = new Histogram(SIGNIFICANT_DIGITS);
+
+    private Histogram interval;
+
+    void record(final long nanos) {
+      recorder.recordValue(Math.max(nanos, 0));
+    }
+
+    synchronized Summary summarize(final Key key) {
+      interval = recorder.getIntervalHistogram(interval);
+      window.add(interval);
+      return Summary.builder().method(key.method).endpoint(key.endpoint).status(key.status)
+          .mediaType(key.mediaType()).count(window.getTotalCount())
+          .p50Nanos(window.getValueAtPercentile(50)).p99Nanos(window.getValueAtPercentile(99))
+          .p999Nanos(window.getValueAtPercentile(99.9)).maxNanos(window.getMaxValue()).build();
+    }
+
+    synchronized void reset() {
+      interval = recorder.getIntervalHistogram(interval);
+      window.reset();
+    }
+  }
+
+  /**
+   * Identifies a histogram. Only the media type part of contentType (before any parameters) is
+   * compared, so that it doesn't have to be cut out of the content type for each lookup.
+   */
+  private static class Key {
+
+    String method;
+
+    String endpoint;
+
+    int status;
+
+    String contentType;
+
+    int mediaTypeLength;
+
+    String mediaType() {
+      return contentType == null ? null : contentType.substring(0, mediaTypeLength);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return status == key.status && Objects.equals(method, key.method)
+          && Objects.equals(endpoint, key.endpoint)
+          && mediaTypeEquals(key);
+    }
+
+    private boolean mediaTypeEquals(final Key key) {
+      if (contentType == null || key.contentType == null) {
+        return contentType == null && key.contentType == null;
+      }
+      return mediaTypeLength == key.mediaTypeLength
+          && contentType.regionMatches(true, 0, key.contentType, 0, mediaTypeLength);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = 31 * status + (method == null ? 0 : method.hashCode());
+      hash = 31 * hash + (endpoint == null ? 0 : endpoint.hashCode());
+      if (contentType != null) {
+        for (int i = 0; i < mediaTypeLength; i++) {
+          hash = 31 * hash + Character.toLowerCase(contentType.charAt(i));
+        }
+      }
+      return hash;
+    }
+  }
+
+  /**
+   * A key that each thread reuses to look up histograms.
+   */
+  private static final class LookupKey extends Key {
+
+    void set(final String method, final String endpoint, final int status,
+        final String contentType) {
+      this.method = method;
+      this.endpoint = endpoint;
+      this.status = status;
+      this.contentType = contentType;
+      if (contentType != null) {
+        int parameters = contentType.indexOf(';');
+        int end = parameters < 0 ? contentType.length() : parameters;
+        while (end > 0 && contentType.charAt(end - 1) == ' ') {
+          end--;
+        }
+        this.mediaTypeLength = end;
+      }
+    }
+
+    Key copy() {
+      Key key = new Key();
+      key.method = method;
+      key.endpoint = endpoint;
+      key.status = status;
+      // Drop the parameters so that the map doesn't hold on to the first request's charset
+      key.contentType = mediaType();
+      key.mediaTypeLength = mediaTypeLength;
+      return key;
+    }
+  }
+}
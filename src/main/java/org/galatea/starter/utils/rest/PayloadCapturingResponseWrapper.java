@@ -0,0 +1,249 @@
+package org.galatea.starter.utils.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collection;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+/**
+ * Response wrapper that holds a small body back until the response is finished, so that headers
+ * can still be added after the handler has written it, and keeps a capped prefix of the body for
+ * tracing.
+ *
+ * <p>Unlike ContentCachingResponseWrapper, it never holds more than maxPayloadSize bytes. As soon
+ * as the body outgrows that, or the first time a body with one of the streamed media types is
+ * written, it switches to passing the body straight through to the client: beforeCommit is run
+ * (to add the headers that can't be added once the response is committed), whatever was held back
+ * is written and everything after it is written as it comes. Only the first maxPayloadSize bytes
+ * are kept either way.
+ */
+@Slf4j
+public class PayloadCapturingResponseWrapper extends HttpServletResponseWrapper {
+
+  private final int maxPayloadSize;
+
+  private final Collection<MediaType> streamedMediaTypes;
+
+  private final Runnable beforeCommit;
+
+  // The held back body before switching to pass through, and the captured prefix of it after
+  private final ByteArrayOutputStream payload;
+
+  private boolean passThrough;
+
+  private boolean beforeCommitRun;
+
+  private ServletOutputStream outputStream;
+
+  private PrintWriter writer;
+
+  private String checkedContentType;
+
+  private boolean streamedContentType;
+
+  /**
+   * Wrap the response.
+   *
+   * @param maxPayloadSize number of bytes of the body that are held back and captured
+   * @param streamedMediaTypes bodies of these media types are passed through from the first write
+   * @param beforeCommit run once before anything of the body is sent to the client
+   */
+  public PayloadCapturingResponseWrapper(final HttpServletResponse response,
+      final int maxPayloadSize, final Collection<MediaType> streamedMediaTypes,
+      final Runnable beforeCommit) {
+    super(response);
+    this.maxPayloadSize = maxPayloadSize;
+    this.streamedMediaTypes = streamedMediaTypes;
+    this.beforeCommit = beforeCommit;
+    this.payload = new ByteArrayOutputStream(Math.min(maxPayloadSize, 1024));
+  }
+
+  /**
+   * The first maxPayloadSize bytes of the body that was written so far.
+   */
+  public byte[] getCapturedPayload() {
+    return payload.toByteArray();
+  }
+
+  /**
+   * Whether the body is passed through to the client as it is written, rather than held back.
+   */
+  public boolean isPassThrough() {
+    return passThrough;
+  }
+
+  /**
+   * Send the held back body (if it wasn't passed through), running beforeCommit first if it hasn't
+   * been run yet. Call once the response is complete.
+   */
+  public void finish() throws IOException {
+    if (writer != null) {
+      writer.flush();
+    }
+    if (passThrough) {
+      return;
+    }
+
+    runBeforeCommit();
+    passThrough = true;
+    if (payload.size() > 0) {
+      if (!isCommitted() && getHeader("Content-Length") == null) {
+        super.setContentLength(payload.size());
+      }
+      payload.writeTo(super.getOutputStream());
+    }
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (outputStream == null) {
+      outputStream = new CapturingOutputStream(super.getOutputStream());
+    }
+    return outputStream;
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (writer == null) {
+      writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+    }
+    return writer;
+  }
+
+  @Override
+  public void flushBuffer() throws IOException {
+    // Flushing while holding the body back would commit the response before the headers are added
+    if (writer != null) {
+      writer.flush();
+    }
+    if (passThrough) {
+      super.flushBuffer();
+    }
+  }
+
+  @Override
+  public void resetBuffer() {
+    if (!passThrough) {
+      payload.reset();
+    }
+    super.resetBuffer();
+  }
+
+  @Override
+  public void reset() {
+    if (!passThrough) {
+      payload.reset();
+    }
+    super.reset();
+  }
+
+  @Override
+  public void sendError(final int sc) throws IOException {
+    discardHeldBackBody();
+    super.sendError(sc);
+  }
+
+  @Override
+  public void sendError(final int sc, final String msg) throws IOException {
+    discardHeldBackBody();
+    super.sendError(sc, msg);
+  }
+
+  @Override
+  public void sendRedirect(final String location) throws IOException {
+    discardHeldBackBody();
+    super.sendRedirect(location);
+  }
+
+  private void discardHeldBackBody() {
+    if (!passThrough) {
+      runBeforeCommit();
+      payload.reset();
+      passThrough = true;
+    }
+  }
+
+  private void runBeforeCommit() {
+    if (!beforeCommitRun) {
+      beforeCommitRun = true;
+      beforeCommit.run();
+    }
+  }
+
+  private boolean isStreamedContentType() {
+    String contentType = getContentType();
+    if (contentType != null && !contentType.equals(checkedContentType)) {
+      checkedContentType = contentType;
+      try {
+        MediaType mediaType = MediaType.parseMediaType(contentType);
+        streamedContentType = streamedMediaTypes.stream()
+            .anyMatch(streamed -> streamed.includes(mediaType));
+      } catch (InvalidMediaTypeException e) {
+        log.debug("Not streaming a response with an invalid content type", e);
+        streamedContentType = false;
+      }
+    }
+    return contentType != null && streamedContentType;
+  }
+
+  private void write(final ServletOutputStream target, final byte[] bytes, final int off,
+      final int len) throws IOException {
+    if (!passThrough && (payload.size() + len > maxPayloadSize || isStreamedContentType())) {
+      log.debug("Passing the response body through, {} bytes were held back", payload.size());
+      runBeforeCommit();
+      passThrough = true;
+      payload.writeTo(target);
+    }
+
+    if (payload.size() < maxPayloadSize) {
+      payload.write(bytes, off, Math.min(len, maxPayloadSize - payload.size()));
+    }
+    if (passThrough) {
+      target.write(bytes, off, len);
+    }
+  }
+
+  private class CapturingOutputStream extends ServletOutputStream {
+
+    private final ServletOutputStream target;
+
+    private CapturingOutputStream(final ServletOutputStream target) {
+      this.target = target;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int off, final int len) throws IOException {
+      PayloadCapturingResponseWrapper.this.write(target, bytes, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (passThrough) {
+        target.flush();
+      }
+    }
+
+    @Override
+    public boolean isReady() {
+      return target.isReady();
+    }
+
+    @Override
+    public void setWriteListener(final WriteListener writeListener) {
+      target.setWriteListener(writeListener);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package org.galatea.starter.utils.translation;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessage;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessages;
+
+/**
+ * Reads the TradeAgreements of a JMS BytesMessage whose body is either a serialized
+ * TradeAgreementProtoMessage or a TradeAgreementProtoMessages envelope of them.
+ *
+ * <p>TradeAgreementProtoMessage has no field 1, so a body that starts with field 1 (the repeated
+ * message field of TradeAgreementProtoMessages) is read as an envelope; any other body is read as a
+ * single agreement. An empty body is an empty envelope.
+ *
+ * <p>Going through a message converter and TradeAgreementProtoMessage.parseFrom copies the body
+ * into a new byte[] and builds a TradeAgreementProtoMessage (with its unknown field set) that is
+ * thrown away right after the agreement is built from it. This reads the body into a buffer that
+ * each thread reuses, and builds the agreement from the fields as CodedInputStream reads them.
+ * Fields that TradeAgreement doesn't have are skipped, and missing fields get the proto3 defaults,
+ * exactly as with parseFrom.
+ *
+ * <p>The body is read from the start, so a message can be read again (e.g. when a failed batch is
+ * handled again one message at a time).
+ */
+public class TradeAgreementProtoReader
+    implements ITranslator<BytesMessage, List<TradeAgreement>> {
+
+  // Buffers that grew past this while reading an unusually large message are not kept
+  static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+  private static final int INITIAL_BUFFER_SIZE = 256;
+
+  private static final int MESSAGE_TAG = lengthDelimitedTag(
+      TradeAgreementProtoMessages.MESSAGE_FIELD_NUMBER);
+
+  private static final int INSTRUMENT_TAG = lengthDelimitedTag(
+      TradeAgreementProtoMessage.INSTRUMENT_FIELD_NUMBER);
+
+  private static final int INTERNAL_PARTY_TAG = lengthDelimitedTag(
+      TradeAgreementProtoMessage.INTERNAL_PARTY_FIELD_NUMBER);
+
+  private static final int EXTERNAL_PARTY_TAG = lengthDelimitedTag(
+      TradeAgreementProtoMessage.EXTERNAL_PARTY_FIELD_NUMBER);
+
+  private static final int BUY_SELL_TAG = lengthDelimitedTag(
+      TradeAgreementProtoMessage.BUY_SELL_FIELD_NUMBER);
+
+  private static final int QTY_TAG = tag(
+      TradeAgreementProtoMessage.QTY_FIELD_NUMBER, WireFormat.WIRETYPE_FIXED64);
+
+  private final ThreadLocal<byte[]> buffers =
+      ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_SIZE]);
+
+  @Override
+  public List<TradeAgreement> translate(final BytesMessage message) {
+    try {
+      message.reset();
+      int length = (int) message.getBodyLength();
+      byte[] buffer = buffer(length);
+      if (length > 0 && message.readBytes(buffer, length) != length) {
+        throw new InvalidProtocolBufferException("Could not read the whole body of " + message);
+      }
+      return read(CodedInputStream.newInstance(buffer, 0, length));
+    } catch (JMSException | IOException e) {
+      throw new TranslationException("Could not translate the message to trade agreements.", e);
+    }
+  }
+
+  private byte[] buffer(final int length) {
+    byte[] buffer = buffers.get();
+    if (buffer.length < length) {
+      buffer = new byte[Math.max(length, buffer.length * 2)];
+      if (buffer.length <= MAX_RETAINED_BUFFER_SIZE) {
+        buffers.set(buffer);
+      }
+    }
+    return buffer;
+  }
+
+  private static List<TradeAgreement> read(final CodedInputStream input) throws IOException {
+    int tag = input.readTag();
+    if (tag == 0) {
+      return Collections.emptyList();
+    }
+    if (tag != MESSAGE_TAG) {
+      return Collections.singletonList(readAgreement(input, tag));
+    }
+
+    List<TradeAgreement> agreements = new ArrayList<>();
+    for (; tag != 0; tag = input.readTag()) {
+      if (tag == MESSAGE_TAG) {
+        int limit = input.pushLimit(input.readRawVarint32());
+        agreements.add(readAgreement(input, input.readTag()));
+        input.popLimit(limit);
+      } else {
+        skipField(input, tag);
+      }
+    }
+    return agreements;
+  }
+
+  /**
+   * Read the fields of an agreement, starting with the one whose tag was just read, up to the end
+   * of the input or its current limit.
+   */
+  private static TradeAgreement readAgreement(final CodedInputStream input, final int firstTag)
+      throws IOException {
+    // The defaults of proto3 fields that aren't present
+    String instrument = "";
+    String internalParty = "";
+    String externalParty = "";
+    String buySell = "";
+    double qty = 0;
+
+    for (int tag = firstTag; tag != 0; tag = input.readTag()) {
+      if (tag == INSTRUMENT_TAG) {
+        instrument = input.readStringRequireUtf8();
+      } else if (tag == INTERNAL_PARTY_TAG) {
+        internalParty = input.readStringRequireUtf8();
+      } else if (tag == EXTERNAL_PARTY_TAG) {
+        externalParty = input.readStringRequireUtf8();
+      } else if (tag == BUY_SELL_TAG) {
+        buySell = input.readStringRequireUtf8();
+      } else if (tag == QTY_TAG) {
+        qty = input.readDouble();
+      } else {
+        skipField(input, tag);
+      }
+    }
+
+    return TradeAgreement.builder().instrument(instrument).internalParty(internalParty)
+        .externalParty(externalParty).buySell(buySell).qty(qty).build();
+  }
+
+  private static void skipField(final CodedInputStream input, final int tag)
+      throws IOException {
+    if (!input.skipField(tag)) {
+      // An end group tag, which parseFrom rejects at the top level of a message too
+      throw new InvalidProtocolBufferException("Unexpected end group tag " + tag);
+    }
+  }
+
+  private static int lengthDelimitedTag(final int fieldNumber) {
+    return tag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  // Same as WireFormat.makeTag, which isn't public
+  private static int tag(final int fieldNumber, final int wireType) {
+    return fieldNumber << 3 | wireType;
+  }
+}
@@ -0,0 +1,55 @@
+package org.galatea.starter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.testutils.TestDataGenerator;
+import org.galatea.starter.utils.cache.TieredCache;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@ContextConfiguration(classes = AppConfig.class)
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "cache-missions-offheap-bytes=16777216")
+public class AppConfigOffHeapTest {
+
+  @Autowired
+  CacheManager springCacheManager;
+
+  /**
+   * Confirm that the missions cache gets an off-heap tier behind the heap cache from the config file.
+   */
+  @Test
+  public void cacheManager() {
+    Cache missions = springCacheManager.getCache("missions");
+    assertTrue(missions instanceof TieredCache);
+
+    SettlementMission mission1 = TestDataGenerator.defaultSettlementMissionData().id(1L).build();
+    SettlementMission mission2 = TestDataGenerator.defaultSettlementMissionData().id(2L).build();
+    missions.put(1L, mission1);
+    missions.put(2L, mission2);
+    missions.put(3L, null);
+
+    assertEquals(mission1, missions.get(1L).get());
+    assertEquals(mission2, missions.get(2L).get());
+    assertNull(missions.get(3L).get());
+
+    // Evicting from the heap tier only leaves the missions to be read back from off-heap
+    net.sf.ehcache.Cache heap = (net.sf.ehcache.Cache) ((TieredCache) missions).getHeap()
+        .getNativeCache();
+    heap.removeAll();
+    assertEquals(mission1, missions.get(1L).get());
+    assertNull(missions.get(3L).get());
+
+    // The heap tier is still configured by the config file
+    assertEquals(1200L, heap.getCacheConfiguration().getTimeToLiveSeconds());
+  }
+}
@@ -0,0 +1,47 @@
+package org.galatea.starter.domain.rpsy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.galatea.starter.ASpringTest;
+import org.galatea.starter.domain.MissionEvent;
+import org.galatea.starter.domain.MissionEvent.Type;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+
+@DataJpaTest
+public class IMissionEventRpsyTest extends ASpringTest {
+
+  @Autowired
+  private IMissionEventRpsy eventRpsy;
+
+  @Autowired
+  private TestEntityManager entityManager;
+
+  @Test
+  public void testOldestEventsAreClaimedFirstAndDeletedOncePublished() {
+    List<Long> ids = IntStream.range(0, 3)
+        .mapToObj(i -> eventRpsy.save(MissionEvent.builder().type(Type.CREATED)
+            .missions(new byte[] {(byte) i}).missionCount(1).createdAt(Instant.now()).build()))
+        .map(MissionEvent::getId).collect(Collectors.toList());
+
+    List<MissionEvent> oldest = eventRpsy.claimOldest(PageRequest.of(0, 2));
+    assertEquals(ids.subList(0, 2),
+        oldest.stream().map(MissionEvent::getId).collect(Collectors.toList()));
+    assertArrayEquals(new byte[] {1}, oldest.get(1).getMissions());
+
+    assertEquals(2, eventRpsy.deletePublished(ids.subList(0, 2)));
+    entityManager.clear();
+    assertEquals(Collections.singletonList(ids.get(2)),
+        eventRpsy.claimOldest(PageRequest.of(0, 2)).stream()
+            .map(MissionEvent::getId).collect(Collectors.toList()));
+  }
+}
@@ -0,0 +1,124 @@
+package org.galatea.starter.domain.rpsy;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.galatea.starter.ASpringTest;
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.testutils.TestDataGenerator;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+
+@DataJpaTest
+public class ISettlementMissionRpsyTest extends ASpringTest {
+
+  @Autowired
+  private ISettlementMissionRpsy missionRpsy;
+
+  @Autowired
+  private TestEntityManager entityManager;
+
+  @Test
+  public void testStreamMissionsPagesByKeyset() {
+    // Every third mission is in another depot
+    List<SettlementMission> missions = IntStream.range(0, 9)
+        .mapToObj(i -> TestDataGenerator.defaultSettlementMissionData().id(null)
+            .depot(i % 3 == 0 ? "OTHER" : "DTC").build())
+        .collect(Collectors.toList());
+    List<Long> dtcIds = StreamSupport.stream(missionRpsy.saveAll(missions).spliterator(), false)
+        .filter(mission -> "DTC".equals(mission.getDepot()))
+        .map(SettlementMission::getId).sorted().collect(Collectors.toList());
+
+    List<Long> firstPage = streamDtcIds(0, 4);
+    assertEquals(dtcIds.subList(0, 4), firstPage);
+
+    // The next page starts after the last id of the previous one
+    List<Long> secondPage = streamDtcIds(firstPage.get(3), 4);
+    assertEquals(dtcIds.subList(4, 6), secondPage);
+  }
+
+  @Test
+  public void testStreamMissionsWithoutCriteria() {
+    List<SettlementMission> missions = IntStream.range(0, 3)
+        .mapToObj(i -> TestDataGenerator.defaultSettlementMissionData().id(null).build())
+        .collect(Collectors.toList());
+    missionRpsy.saveAll(missions);
+
+    try (Stream<SettlementMission> all = missionRpsy.streamMissions(0, null, null, null, null,
+        PageRequest.of(0, 10))) {
+      assertEquals(3, all.count());
+    }
+  }
+
+  @Test
+  public void testUpdateIfVersionMatches() {
+    SettlementMission saved = missionRpsy.save(
+        TestDataGenerator.defaultSettlementMissionData().id(null).build());
+    long version = saved.getVersion();
+
+    SettlementMission update = TestDataGenerator.defaultSettlementMissionData().id(null)
+        .depot("NEW").version(version).build();
+    assertEquals(1, missionRpsy.updateIfVersionMatches(saved.getId(), update));
+
+    // The update went around the persistence context, so read the row back fresh
+    entityManager.clear();
+    SettlementMission updated = missionRpsy.findById(saved.getId()).get();
+    assertEquals("NEW", updated.getDepot());
+    assertEquals(version + 1, (long) updated.getVersion());
+
+    // The same version can't be used twice, and missing missions aren't updated
+    assertEquals(0, missionRpsy.updateIfVersionMatches(saved.getId(), update));
+    assertEquals(0, missionRpsy.updateIfVersionMatches(saved.getId() + 1000, update));
+  }
+
+  @Test
+  public void testDeleteAndAmendMatching() {
+    // Every other mission is in another depot
+    List<SettlementMission> missions = IntStream.range(0, 4)
+        .mapToObj(i -> TestDataGenerator.defaultSettlementMissionData().id(null)
+            .depot(i % 2 == 0 ? "OTHER" : "DTC").build())
+        .collect(Collectors.toList());
+    List<Long> ids = StreamSupport.stream(missionRpsy.saveAll(missions).spliterator(), false)
+        .map(SettlementMission::getId).sorted().collect(Collectors.toList());
+    assertEquals(Arrays.asList(ids.get(1), ids.get(3)),
+        missionRpsy.findIds(Long.MIN_VALUE, "DTC", null, null, null, PageRequest.of(0, 10)));
+    // The ids are read in chunks, each after the last id of the one before
+    assertEquals(Collections.singletonList(ids.get(1)),
+        missionRpsy.findIds(Long.MIN_VALUE, "DTC", null, null, null, PageRequest.of(0, 1)));
+    assertEquals(Collections.singletonList(ids.get(3)),
+        missionRpsy.findIds(ids.get(1), "DTC", null, null, null, PageRequest.of(0, 1)));
+    assertEquals(Collections.singletonList(ids.get(1)),
+        missionRpsy.findIdsIn(ids.subList(0, 2), "DTC", null, null, null));
+
+    // Only the given ids that match the criteria are amended, and only the given fields change
+    assertEquals(1, missionRpsy.amendMatching(ids.subList(0, 2), "DTC", null, null, null,
+        null, null, "NEW", null, 5d));
+    // The missions are read back fresh, since the amendment clears the persistence context
+    SettlementMission amended = missionRpsy.findById(ids.get(1)).get();
+    assertEquals("NEW", amended.getDepot());
+    assertEquals(5d, amended.getQty(), 0);
+    assertEquals("IBM", amended.getInstrument());
+    assertEquals(1, (long) amended.getVersion());
+    assertEquals("OTHER", missionRpsy.findById(ids.get(0)).get().getDepot());
+
+    assertEquals(2, missionRpsy.deleteMatching(ids, "OTHER", null, null, null));
+    entityManager.clear();
+    assertEquals(2, missionRpsy.count());
+  }
+
+  private List<Long> streamDtcIds(final long afterId, final int limit) {
+    try (Stream<SettlementMission> page = missionRpsy.streamMissions(afterId, "DTC", null, null,
+        null, PageRequest.of(0, limit))) {
+      return page.map(SettlementMission::getId).collect(Collectors.toList());
+    }
+  }
+}
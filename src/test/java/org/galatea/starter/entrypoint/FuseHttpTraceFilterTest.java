@@ -3,6 +3,8 @@ package org.galatea.starter.entrypoint;
 
 import static java.util.Collections.singletonList;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.isEmptyOrNullString;
 import static org.hamcrest.Matchers.not;
 import static org.mockito.BDDMockito.given;
@@ -32,6 +34,7 @@ import org.galatea.starter.entrypoint.messagecontracts.TradeAgreementMessage;
 import org.galatea.starter.entrypoint.messagecontracts.TradeAgreementMessages;
 import org.galatea.starter.service.SettlementService;
 import org.galatea.starter.testutils.TestDataGenerator;
+import org.galatea.starter.utils.LongIdSet;
 import org.galatea.starter.utils.translation.ITranslator;
 import org.junit.Before;
 import org.junit.Test;
@@ -106,7 +109,7 @@ public class FuseHttpTraceFilterTest extends ASpringTest {
     TradeAgreementMessages agreementMessages = agreementJsonTester.parse(agreementJson).getObject();
     log.info("Agreement objects that the service will expect {}", agreementMessages);
 
-    given(this.mockSettlementService.spawnMissions(singletonList(expectedAgreement)))
+    given(this.mockSettlementService.spawnMissions("1234", singletonList(expectedAgreement)))
         .willReturn(Sets.newTreeSet(expectedMissionIds));
 
     Response response =
@@ -136,7 +139,7 @@ public class FuseHttpTraceFilterTest extends ASpringTest {
     m.marshal(messages, writer);
     String xml = writer.toString();
 
-    given(this.mockSettlementService.spawnMissions(toTradeAgreements(messages)))
+    given(this.mockSettlementService.spawnMissions("1234", toTradeAgreements(messages)))
         .willReturn(Sets.newTreeSet(singletonList(1L)));
 
     Response response =
@@ -219,7 +222,7 @@ public class FuseHttpTraceFilterTest extends ASpringTest {
     SettlementMission mission2 = TestDataGenerator.defaultSettlementMissionData()
         .id(2L).build();
 
-    BDDMockito.given(this.mockSettlementService.findMissions(Arrays.asList(1L, 2L)))
+    BDDMockito.given(this.mockSettlementService.findMissions(LongIdSet.of(1L, 2L)))
         .willReturn(Arrays.asList(mission1, mission2));
 
     Response response =
@@ -240,7 +243,7 @@ public class FuseHttpTraceFilterTest extends ASpringTest {
     SettlementMission mission2 = TestDataGenerator.defaultSettlementMissionData()
         .id(2L).build();
 
-    BDDMockito.given(this.mockSettlementService.findMissions(Arrays.asList(1L, 2L)))
+    BDDMockito.given(this.mockSettlementService.findMissions(LongIdSet.of(1L, 2L)))
         .willReturn(Arrays.asList(mission1, mission2));
 
     Response response =
@@ -263,7 +266,7 @@ public class FuseHttpTraceFilterTest extends ASpringTest {
         .id(2L).instrument("ABC").externalParty("EXT-1").depot("DEPOT-1").direction("REC")
         .qty(100.0).version(0L).build();
 
-    BDDMockito.given(this.mockSettlementService.findMissions(Arrays.asList(1L, 2L)))
+    BDDMockito.given(this.mockSettlementService.findMissions(LongIdSet.of(1L, 2L)))
         .willReturn(Arrays.asList(mission1, mission2));
 
     Response response =
@@ -286,7 +289,7 @@ public class FuseHttpTraceFilterTest extends ASpringTest {
         .id(2L).instrument("ABC").externalParty("EXT-1").depot("DEPOT-1").direction("REC")
         .qty(100.0).version(0L).build();
 
-    BDDMockito.given(this.mockSettlementService.findMissions(Arrays.asList(1L, 2L)))
+    BDDMockito.given(this.mockSettlementService.findMissions(LongIdSet.of(1L, 2L)))
         .willReturn(Arrays.asList(mission1, mission2));
 
     Response response =
@@ -300,6 +303,36 @@ public class FuseHttpTraceFilterTest extends ASpringTest {
     verifyHeadersPresent(response);
   }
 
+  @Test
+  public void testLatencyIsRecorded() {
+    given(this.mockSettlementService.findMission(MISSION_ID_1))
+        .willReturn(Optional.of(TestDataGenerator.defaultSettlementMissionData().build()));
+
+    RestAssured.given()
+        .accept(MediaType.APPLICATION_JSON_VALUE)
+        .when()
+        .get("/settlementEngine/mission/" + MISSION_ID_1 + "?requestId=1234")
+        .then()
+        .statusCode(200);
+
+    RestAssured.given()
+        .when()
+        .get("/actuator/latency")
+        .then()
+        .statusCode(200)
+        .body("find { it.endpoint == '/settlementEngine/mission/{id}' && it.method == 'GET' "
+            + "&& it.status == 200 }.count", greaterThanOrEqualTo(1));
+
+    // Resetting starts a new window
+    RestAssured.given().when().delete("/actuator/latency").then().statusCode(204);
+    RestAssured.given()
+        .when()
+        .get("/actuator/latency")
+        .then()
+        .body("findAll { it.endpoint == '/settlementEngine/mission/{id}' }.count.sum()",
+            equalTo(0));
+  }
+
   /**
    * Verifies required audit fields are present
    */
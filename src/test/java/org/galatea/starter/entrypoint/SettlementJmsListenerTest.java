@@ -1,11 +1,33 @@
 package org.galatea.starter.entrypoint;
 
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.jms.BytesMessage;
+import javax.jms.Message;
 import javax.jms.TextMessage;
 import lombok.EqualsAndHashCode;
 import lombok.RequiredArgsConstructor;
@@ -13,15 +35,21 @@ import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.galatea.starter.ASpringTest;
 import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementResponseProtoMessage;
 import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessage;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessages;
 import org.galatea.starter.service.SettlementService;
 import org.galatea.starter.testutils.TestDataGenerator;
+import org.galatea.starter.utils.jms.MessageRetrier;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.jms.config.JmsListenerEndpointRegistry;
 import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.listener.MessageListenerContainer;
 import org.springframework.test.annotation.DirtiesContext;
 
 
@@ -29,12 +57,18 @@ import org.springframework.test.annotation.DirtiesContext;
 @Slf4j
 @ToString
 @EqualsAndHashCode(callSuper = true)
-@SpringBootTest
+// A single consumer per queue, so that a batch can't be spread over several consumers
+@SpringBootTest(properties = "jms.listener-concurrency=1")
 public class SettlementJmsListenerTest extends ASpringTest {
 
+  private static final String REPLY_QUEUE = "test.agreement.replies";
+
   @Autowired
   protected JmsTemplate jmsTemplate;
 
+  @Autowired
+  protected JmsListenerEndpointRegistry listenerRegistry;
+
   @MockBean
   private SettlementService mockSettlementService;
 
@@ -44,6 +78,12 @@ public class SettlementJmsListenerTest extends ASpringTest {
   @Value("${jms.agreement-queue-proto}")
   protected String protoQueueName;
 
+  @Value("${mvc.getMissionPath}")
+  protected String getMissionPath;
+
+  @Value("${jms.dead-letter-prefix}")
+  protected String deadLetterPrefix;
+
   /*
   The ActiveMQ broker doesn't get shutdown after each test so we have the cleanup method in the base
   class to kill it manually. The side effect of that method is that it kills the listener containers
@@ -71,7 +111,10 @@ public class SettlementJmsListenerTest extends ASpringTest {
       return msg;
     });
 
-    verify(mockSettlementService, timeout(10000)).spawnMissions(expectedAgreements);
+    // Batch listeners are enabled, and pass the message IDs along as idempotency keys
+    verify(mockSettlementService, timeout(10000))
+        .spawnMissionsOnce(argThat(ids -> ids.size() == 1 && ids.get(0).startsWith("ID:")),
+            eq(expectedAgreements));
   }
 
   @Test
@@ -87,6 +130,148 @@ public class SettlementJmsListenerTest extends ASpringTest {
 
     jmsTemplate.convertAndSend(protoQueueName, message.toByteArray());
 
-    verify(mockSettlementService, timeout(10000)).spawnMissions(agreements);
+    verify(mockSettlementService, timeout(10000)).spawnMissionsOnce(anyList(), eq(agreements));
+  }
+
+  @Test
+  @DirtiesContext
+  public void testSettleBatchOfAgreementsProto() throws InterruptedException {
+    List<String> instruments = Arrays.asList("IBM", "MSFT", "AAPL", "IBM", "MSFT", "IBM");
+
+    // Queue up the whole batch while the listener is stopped so that it is drained in one go. The
+    // sleep lets a receive that was already in progress time out first.
+    MessageListenerContainer container =
+        listenerRegistry.getListenerContainer("settleAgreementsProto");
+    container.stop();
+    Thread.sleep(1500);
+
+    // The quantities number the agreements for each instrument in the order they are sent
+    Map<String, Integer> sent = new HashMap<>();
+    instruments.forEach(instrument -> jmsTemplate.convertAndSend(protoQueueName,
+        TestDataGenerator.defaultTradeAgreementProtoMessageData().setInstrument(instrument)
+            .setQty(sent.merge(instrument, 1, Integer::sum)).build().toByteArray()));
+
+    container.start();
+
+    // The batch is partitioned by instrument, and each partition spawned in one call
+    List<List<TradeAgreement>> calls = new ArrayList<>();
+    await().atMost(10, TimeUnit.SECONDS).until(() -> {
+      @SuppressWarnings("unchecked")
+      ArgumentCaptor<List<TradeAgreement>> captor = ArgumentCaptor.forClass(List.class);
+      verify(mockSettlementService, atLeast(0)).spawnMissionsOnce(anyList(), captor.capture());
+      calls.clear();
+      calls.addAll(captor.getAllValues());
+      return calls.stream().mapToInt(List::size).sum() == instruments.size();
+    });
+
+    for (String instrument : sent.keySet()) {
+      List<List<Double>> quantities = calls.stream()
+          .map(agreements -> agreements.stream()
+              .filter(agreement -> agreement.getInstrument().equals(instrument))
+              .map(TradeAgreement::getQty).collect(Collectors.toList()))
+          .filter(call -> !call.isEmpty()).collect(Collectors.toList());
+      List<Double> expected = IntStream.rangeClosed(1, sent.get(instrument)).asDoubleStream()
+          .boxed().collect(Collectors.toList());
+      assertEquals(Collections.singletonList(expected), quantities);
+    }
+  }
+
+  @Test
+  @DirtiesContext
+  public void testSettleEnvelopeProtoWithReply() throws Exception {
+    TradeAgreementProtoMessages envelope = TradeAgreementProtoMessages.newBuilder()
+        .addMessage(TestDataGenerator.defaultTradeAgreementProtoMessageData())
+        .addMessage(TestDataGenerator.defaultTradeAgreementProtoMessageData().setQty(0))
+        .addMessage(TestDataGenerator.defaultTradeAgreementProtoMessageData()
+            .setInstrument("MSFT"))
+        .build();
+
+    // The agreement with no quantity is rejected, and the other two spawned in one call
+    List<TradeAgreement> validAgreements = Arrays.asList(
+        TestDataGenerator.defaultTradeAgreementData().build(),
+        TestDataGenerator.defaultTradeAgreementData().instrument("MSFT").build());
+    when(mockSettlementService.spawnMissions(startsWith("ID:"), eq(validAgreements)))
+        .thenReturn(new HashSet<>(Arrays.asList(1L, 2L)));
+
+    jmsTemplate.send(protoQueueName, s -> {
+      BytesMessage msg = s.createBytesMessage();
+      msg.writeBytes(envelope.toByteArray());
+      msg.setJMSCorrelationID("envelope-1");
+      msg.setJMSReplyTo(s.createQueue(REPLY_QUEUE));
+      return msg;
+    });
+
+    JmsTemplate replyTemplate = new JmsTemplate(jmsTemplate.getConnectionFactory());
+    replyTemplate.setReceiveTimeout(10000);
+    BytesMessage reply = (BytesMessage) replyTemplate.receive(REPLY_QUEUE);
+    assertNotNull(reply);
+    assertEquals("envelope-1", reply.getJMSCorrelationID());
+
+    byte[] body = new byte[(int) reply.getBodyLength()];
+    reply.readBytes(body);
+    SettlementResponseProtoMessage response = SettlementResponseProtoMessage.parseFrom(body);
+    assertEquals(new HashSet<>(Arrays.asList(getMissionPath + 1, getMissionPath + 2)),
+        new HashSet<>(response.getSpawnedMissionPathsList()));
+    assertEquals(1, response.getFailuresCount());
+    assertEquals(1, response.getFailures(0).getIndex());
+    assertEquals("Quantity must be greater than 0. ", response.getFailures(0).getReason());
+  }
+
+  @Test
+  @DirtiesContext
+  public void testInvalidProtoAgreementIsDeadLettered() throws Exception {
+    jmsTemplate.convertAndSend(protoQueueName,
+        TestDataGenerator.defaultTradeAgreementProtoMessageData().setQty(0).build().toByteArray());
+
+    assertDeadLettered("Quantity must be greater than 0");
+    verify(mockSettlementService, never()).spawnMissionsOnce(anyList(), anyList());
+    verify(mockSettlementService, never()).spawnMissions(anyString(), anyList());
+  }
+
+  @Test
+  @DirtiesContext
+  public void testEnvelopeWithInvalidAgreementAndNoReplyIsDeadLettered() throws Exception {
+    TradeAgreementProtoMessages envelope = TradeAgreementProtoMessages.newBuilder()
+        .addMessage(TestDataGenerator.defaultTradeAgreementProtoMessageData())
+        .addMessage(TestDataGenerator.defaultTradeAgreementProtoMessageData().setQty(0))
+        .build();
+
+    jmsTemplate.send(protoQueueName, s -> {
+      BytesMessage msg = s.createBytesMessage();
+      msg.writeBytes(envelope.toByteArray());
+      return msg;
+    });
+
+    // Nobody would hear of the rejected agreement, so the valid one isn't spawned on its own
+    assertDeadLettered("1 of the 2 agreements");
+    verify(mockSettlementService, never()).spawnMissions(anyString(), anyList());
+  }
+
+  private void assertDeadLettered(final String failure) throws Exception {
+    JmsTemplate deadLetterTemplate = new JmsTemplate(jmsTemplate.getConnectionFactory());
+    deadLetterTemplate.setReceiveTimeout(10000);
+    Message deadLetter = deadLetterTemplate.receive(deadLetterPrefix + protoQueueName);
+    assertNotNull(deadLetter);
+    assertEquals(1, deadLetter.getIntProperty(MessageRetrier.ATTEMPT));
+    assertTrue(deadLetter.getStringProperty(MessageRetrier.FAILURE).contains(failure));
+  }
+
+  @Test
+  @DirtiesContext
+  public void testRetriedProtoMessageKeepsItsMessageId() {
+    // Fails as part of a batch, and then on its own, so that it is retried
+    IllegalStateException failure = new IllegalStateException("Failed on purpose");
+    when(mockSettlementService.spawnMissionsOnce(anyList(), anyList()))
+        .thenThrow(failure, failure).thenReturn(Collections.singleton(1L));
+
+    jmsTemplate.convertAndSend(protoQueueName,
+        TestDataGenerator.defaultTradeAgreementProtoMessageData().build().toByteArray());
+
+    // The retry is a new message, but has to be settled with the same idempotency key
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<String>> messageIds = ArgumentCaptor.forClass(List.class);
+    verify(mockSettlementService, timeout(10000).times(3))
+        .spawnMissionsOnce(messageIds.capture(), anyList());
+    assertEquals(messageIds.getAllValues().get(0), messageIds.getAllValues().get(2));
   }
 }
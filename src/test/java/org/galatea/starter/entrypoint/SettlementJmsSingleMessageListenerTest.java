@@ -0,0 +1,140 @@
+package org.galatea.starter.entrypoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import javax.jms.BytesMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.galatea.starter.ASpringTest;
+import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementResponseProtoMessage;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessages;
+import org.galatea.starter.service.SettlementService;
+import org.galatea.starter.testutils.TestDataGenerator;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+
+@Slf4j
+// The @JmsListener methods, which handle one message at a time, only run without batch listeners
+@SpringBootTest(properties = {"jms.listener-batch-enabled=false", "jms.listener-concurrency=1"})
+public class SettlementJmsSingleMessageListenerTest extends ASpringTest {
+
+  private static final String REPLY_QUEUE = "test.agreement.single.replies";
+
+  @Autowired
+  protected JmsTemplate jmsTemplate;
+
+  @MockBean
+  private SettlementService mockSettlementService;
+
+  @Value("${jms.agreement-queue-json}")
+  protected String jsonQueueName;
+
+  @Value("${jms.agreement-queue-proto}")
+  protected String protoQueueName;
+
+  @Value("${mvc.getMissionPath}")
+  protected String getMissionPath;
+
+  // Each test gets a new context, since the cleanup of the base class stops the listeners
+
+  @Test
+  @DirtiesContext
+  public void testSettleOneAgreementJson() throws IOException {
+    String message = readData("Test_IBM_Agreement.json").replace("\n", "")
+        .replace("[", "").replace("]", "");
+
+    jmsTemplate.send(jsonQueueName, s -> s.createTextMessage(message));
+
+    TradeAgreement agreement = TradeAgreement.builder().instrument("IBM").internalParty("INT-1")
+        .externalParty("EXT-1").buySell("B").qty(100d).build();
+    verify(mockSettlementService, timeout(10000))
+        .spawnMissions(startsWith("ID:"), eq(Collections.singletonList(agreement)));
+  }
+
+  @Test
+  @DirtiesContext
+  public void testSettleOneAgreementProto() {
+    jmsTemplate.convertAndSend(protoQueueName,
+        TestDataGenerator.defaultTradeAgreementProtoMessageData().build().toByteArray());
+
+    List<TradeAgreement> agreements =
+        Collections.singletonList(TestDataGenerator.defaultTradeAgreementData().build());
+    verify(mockSettlementService, timeout(10000))
+        .spawnMissions(startsWith("ID:"), eq(agreements));
+  }
+
+  @Test
+  @DirtiesContext
+  public void testSettleEnvelopeProtoWithReply() throws Exception {
+    TradeAgreementProtoMessages envelope = TradeAgreementProtoMessages.newBuilder()
+        .addMessage(TestDataGenerator.defaultTradeAgreementProtoMessageData())
+        .addMessage(TestDataGenerator.defaultTradeAgreementProtoMessageData().setQty(0))
+        .build();
+
+    // The agreement with no quantity is rejected, and the other one spawned
+    List<TradeAgreement> validAgreements =
+        Collections.singletonList(TestDataGenerator.defaultTradeAgreementData().build());
+    when(mockSettlementService.spawnMissions(startsWith("ID:"), eq(validAgreements)))
+        .thenReturn(new HashSet<>(Collections.singletonList(1L)));
+
+    // Without a correlation ID, the reply is correlated by the message ID
+    jmsTemplate.send(protoQueueName, s -> {
+      BytesMessage msg = s.createBytesMessage();
+      msg.writeBytes(envelope.toByteArray());
+      msg.setJMSReplyTo(s.createQueue(REPLY_QUEUE));
+      return msg;
+    });
+
+    JmsTemplate replyTemplate = new JmsTemplate(jmsTemplate.getConnectionFactory());
+    replyTemplate.setReceiveTimeout(10000);
+    BytesMessage reply = (BytesMessage) replyTemplate.receive(REPLY_QUEUE);
+    assertNotNull(reply);
+
+    ArgumentCaptor<String> idempotencyKey = ArgumentCaptor.forClass(String.class);
+    verify(mockSettlementService).spawnMissions(idempotencyKey.capture(), eq(validAgreements));
+    assertEquals(idempotencyKey.getValue(), reply.getJMSCorrelationID());
+
+    byte[] body = new byte[(int) reply.getBodyLength()];
+    reply.readBytes(body);
+    SettlementResponseProtoMessage response = SettlementResponseProtoMessage.parseFrom(body);
+    assertEquals(Collections.singletonList(getMissionPath + 1),
+        response.getSpawnedMissionPathsList());
+    assertEquals(1, response.getFailuresCount());
+    assertEquals(1, response.getFailures(0).getIndex());
+  }
+
+  @Test
+  @DirtiesContext
+  public void testRetriedProtoMessageKeepsItsMessageId() {
+    when(mockSettlementService.spawnMissions(anyString(), anyList()))
+        .thenThrow(new IllegalStateException("Failed on purpose"))
+        .thenReturn(Collections.singleton(1L));
+
+    jmsTemplate.convertAndSend(protoQueueName,
+        TestDataGenerator.defaultTradeAgreementProtoMessageData().build().toByteArray());
+
+    // The retry is a new message, but has to be settled with the same idempotency key
+    ArgumentCaptor<String> messageIds = ArgumentCaptor.forClass(String.class);
+    verify(mockSettlementService, timeout(10000).times(2))
+        .spawnMissions(messageIds.capture(), anyList());
+    assertEquals(messageIds.getAllValues().get(0), messageIds.getAllValues().get(1));
+  }
+}
@@ -1,28 +1,39 @@
 package org.galatea.starter.entrypoint;
 
 import static java.util.Collections.singletonList;
+import static org.galatea.starter.MvcConfig.APPLICATION_PROTOBUF_DELIMITED_VALUE;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.BDDMockito.given;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.google.common.collect.Sets;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 import java.util.Optional;
 import junitparams.JUnitParamsRunner;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.galatea.starter.ASpringTest;
 import org.galatea.starter.ProtoMessageTranslationConfig;
+import org.galatea.starter.domain.MissionAmendment;
+import org.galatea.starter.domain.MissionFilter;
 import org.galatea.starter.domain.SettlementMission;
 import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementBulkResponseProtoMessage;
 import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementMissionProtoMessage;
 import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementResponseProtoMessage;
 import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessage;
 import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessages;
 import org.galatea.starter.service.SettlementService;
 import org.galatea.starter.testutils.TestDataGenerator;
+import org.galatea.starter.utils.LongIdSet;
 import org.galatea.starter.utils.translation.ITranslator;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -30,6 +41,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
@@ -56,6 +69,9 @@ public class SettlementProtoRestControllerTest extends ASpringTest {
   @Autowired
   private MockMvc mvc;
 
+  @Autowired
+  private SettlementProtoRestController settlementProtoRestController;
+
   @MockBean
   private SettlementService mockSettlementService;
 
@@ -74,7 +90,7 @@ public class SettlementProtoRestControllerTest extends ASpringTest {
     TradeAgreementProtoMessages messages = TradeAgreementProtoMessages.newBuilder()
         .addMessage(message).build();
 
-    given(this.mockSettlementService.spawnMissions(singletonList(agreement)))
+    given(this.mockSettlementService.spawnMissions("1234", singletonList(agreement)))
         .willReturn(Sets.newTreeSet(singletonList(expectedId)));
 
     MvcResult result = this.mvc.perform(
@@ -89,6 +105,49 @@ public class SettlementProtoRestControllerTest extends ASpringTest {
         .contains("/settlementEngine/mission/" + expectedId));
   }
 
+  @Test
+  public void testSettleAgreementStream() throws Exception {
+    TradeAgreement agreement1 = TestDataGenerator.defaultTradeAgreementData().build();
+    TradeAgreement agreement2 = TestDataGenerator.defaultTradeAgreementData().instrument("MSFT")
+        .build();
+    TradeAgreement agreement3 = TestDataGenerator.defaultTradeAgreementData().instrument("AAPL")
+        .build();
+
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    for (String instrument : Arrays.asList("IBM", "MSFT", "AAPL")) {
+      TestDataGenerator.defaultTradeAgreementProtoMessageData().setInstrument(instrument).build()
+          .writeDelimitedTo(body);
+    }
+
+    given(this.mockSettlementService.spawnMissions("1234#0", Arrays.asList(agreement1, agreement2)))
+        .willReturn(Sets.newTreeSet(Arrays.asList(1L, 2L)));
+    given(this.mockSettlementService.spawnMissions("1234#1", singletonList(agreement3)))
+        .willReturn(Sets.newTreeSet(singletonList(3L)));
+
+    // Use a small chunk size so that the stream is committed in more than one chunk
+    Object controller = AopTestUtils.getTargetObject(settlementProtoRestController);
+    Object chunkSize = ReflectionTestUtils.getField(controller, "settleStreamChunkSize");
+    ReflectionTestUtils.setField(controller, "settleStreamChunkSize", 2);
+    try {
+      MvcResult result = this.mvc.perform(
+          post("/settlementEngine?requestId=1234").contentType(APPLICATION_PROTOBUF_DELIMITED_VALUE)
+              .accept(APPLICATION_PROTOBUF_DELIMITED_VALUE).content(body.toByteArray()))
+          .andExpect(status().isOk()).andReturn();
+
+      ByteArrayInputStream received =
+          new ByteArrayInputStream(result.getResponse().getContentAsByteArray());
+      assertEquals(Arrays.asList("/settlementEngine/mission/1", "/settlementEngine/mission/2"),
+          SettlementResponseProtoMessage.parseDelimitedFrom(received)
+              .getSpawnedMissionPathsList());
+      assertEquals(singletonList("/settlementEngine/mission/3"),
+          SettlementResponseProtoMessage.parseDelimitedFrom(received)
+              .getSpawnedMissionPathsList());
+      assertNull(SettlementResponseProtoMessage.parseDelimitedFrom(received));
+    } finally {
+      ReflectionTestUtils.setField(controller, "settleStreamChunkSize", chunkSize);
+    }
+  }
+
   @Test
   public void testGetMission() throws Exception {
     SettlementMission mission = TestDataGenerator.defaultSettlementMissionData().build();
@@ -116,4 +175,36 @@ public class SettlementProtoRestControllerTest extends ASpringTest {
             .accept(APPLICATION_X_PROTOBUF))
         .andExpect(status().is4xxClientError());
   }
+
+  @Test
+  public void testDeleteMissions() throws Exception {
+    given(this.mockSettlementService.deleteMissions(null,
+        MissionFilter.builder().depot("DTC").build())).willReturn(3);
+
+    MvcResult result = this.mvc.perform(
+        delete("/settlementEngine/missions?depot=DTC&requestId=1234")
+            .accept(APPLICATION_X_PROTOBUF)).andExpect(status().isOk()).andReturn();
+
+    assertEquals(3, SettlementBulkResponseProtoMessage
+        .parseFrom(result.getResponse().getContentAsByteArray()).getAffectedMissions());
+  }
+
+  @Test
+  public void testUpdateMissions() throws Exception {
+    // Fields left at their defaults are not changed
+    SettlementMissionProtoMessage amendment = SettlementMissionProtoMessage.newBuilder()
+        .setDepot("NEW").build();
+    given(this.mockSettlementService.amendMissions(LongIdSet.of(1L, 2L),
+        MissionFilter.builder().build(), MissionAmendment.builder().depot("NEW").build()))
+        .willReturn(2);
+
+    MvcResult result = this.mvc.perform(
+        patch("/settlementEngine/missions?ids=1,2&requestId=1234")
+            .contentType(APPLICATION_X_PROTOBUF).accept(APPLICATION_X_PROTOBUF)
+            .content(amendment.toByteArray()))
+        .andExpect(status().isOk()).andReturn();
+
+    assertEquals(2, SettlementBulkResponseProtoMessage
+        .parseFrom(result.getResponse().getContentAsByteArray()).getAffectedMissions());
+  }
 }
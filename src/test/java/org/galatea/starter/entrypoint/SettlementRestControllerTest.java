@@ -3,9 +3,11 @@ package org.galatea.starter.entrypoint;
 import static io.restassured.module.mockmvc.RestAssuredMockMvc.given;
 import static java.util.Collections.singletonList;
 import static org.galatea.starter.MvcConfig.APPLICATION_EXCEL;
+import static org.galatea.starter.MvcConfig.APPLICATION_NDJSON_VALUE;
 import static org.galatea.starter.MvcConfig.TEXT_CSV;
 import static org.hamcrest.Matchers.hasXPath;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
@@ -16,7 +18,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Sets;
 import io.restassured.module.mockmvc.RestAssuredMockMvc;
 import io.restassured.module.mockmvc.response.MockMvcResponse;
+import java.io.IOException;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -24,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.Marshaller;
 import junitparams.FileParameters;
@@ -31,15 +36,19 @@ import junitparams.JUnitParamsRunner;
 import lombok.extern.slf4j.Slf4j;
 import org.galatea.starter.ASpringTest;
 import org.galatea.starter.MessageTranslationConfig;
+import org.galatea.starter.domain.MissionAmendment;
+import org.galatea.starter.domain.MissionFilter;
 import org.galatea.starter.domain.SettlementMission;
 import org.galatea.starter.domain.TradeAgreement;
 import org.galatea.starter.entrypoint.messagecontracts.SettlementMissionList;
 import org.galatea.starter.entrypoint.messagecontracts.SettlementMissionMessage;
+import org.galatea.starter.entrypoint.messagecontracts.SettlementMissionPage;
 import org.galatea.starter.entrypoint.messagecontracts.TradeAgreementMessage;
 import org.galatea.starter.entrypoint.messagecontracts.TradeAgreementMessages;
 import org.galatea.starter.service.SettlementService;
 import org.galatea.starter.testutils.TestDataGenerator;
 import org.galatea.starter.testutils.XlsxComparator;
+import org.galatea.starter.utils.LongIdSet;
 import org.galatea.starter.utils.http.converter.SettlementMissionCsvConverter;
 import org.galatea.starter.utils.http.converter.SettlementMissionXlsxConverter;
 import org.galatea.starter.utils.translation.ITranslator;
@@ -47,10 +56,13 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.BDDMockito;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.PropertyPlaceholderConfigurer;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnNotWebApplication;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
 import org.springframework.boot.test.json.JacksonTester;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Bean;
@@ -64,12 +76,16 @@ import org.springframework.http.MediaType;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.http.converter.xml.Jaxb2RootElementHttpMessageConverter;
 import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.accept.ContentNegotiationManager;
 import org.springframework.web.accept.ParameterContentNegotiationStrategy;
 
 @Slf4j
 @Import({MessageTranslationConfig.class})
+// The controller reads and writes NDJSON streams with the application's ObjectMapper
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
 @RunWith(JUnitParamsRunner.class)
 public class SettlementRestControllerTest
     extends ASpringTest {
@@ -83,12 +99,21 @@ public class SettlementRestControllerTest
   @Value("${mvc.getMissionsPath}")
   private String getMissionsPath;
 
+  @Value("${mvc.listMissionsPath}")
+  private String listMissionsPath;
+
   @Value("${mvc.deleteMissionPath}")
   private String deleteMissionPath;
 
   @Value("${mvc.updateMissionPath}")
   private String updateMissionPath;
 
+  @Value("${mvc.deleteMissionsPath}")
+  private String deleteMissionsPath;
+
+  @Value("${mvc.updateMissionsPath}")
+  private String updateMissionsPath;
+
   @Autowired
   private ITranslator<TradeAgreementMessages, List<TradeAgreement>> tradeAgreementTranslator;
 
@@ -134,7 +159,10 @@ public class SettlementRestControllerTest
             addPlaceholderValue("mvc.settleMissionPath", settleMissionPath).
             addPlaceholderValue("mvc.deleteMissionPath", deleteMissionPath).
             addPlaceholderValue("mvc.updateMissionPath", updateMissionPath).
+            addPlaceholderValue("mvc.deleteMissionsPath", deleteMissionsPath).
+            addPlaceholderValue("mvc.updateMissionsPath", updateMissionsPath).
             addPlaceholderValue("mvc.getMissionsPath", getMissionsPath).
+            addPlaceholderValue("mvc.listMissionsPath", listMissionsPath).
             addPlaceholderValue("mvc.getMissionPath", getMissionPath).
             setContentNegotiationManager(manager).
             setMessageConverters(new MappingJackson2HttpMessageConverter(),
@@ -164,7 +192,8 @@ public class SettlementRestControllerTest
     TradeAgreementMessages agreementMessages = agreementJsonTester.parse(agreementJson).getObject();
     log.info("Agreement objects that the service will expect {}", agreementMessages);
 
-    BDDMockito.given(this.mockSettlementService.spawnMissions(singletonList(expectedAgreement)))
+    BDDMockito.given(
+        this.mockSettlementService.spawnMissions("1234", singletonList(expectedAgreement)))
         .willReturn(Sets.newTreeSet(expectedMissionIds));
 
     given()
@@ -200,7 +229,8 @@ public class SettlementRestControllerTest
 
     log.info("Expected xml response {}", expectedXmlEntry);
 
-    BDDMockito.given(this.mockSettlementService.spawnMissions(toTradeAgreements(messages)))
+    BDDMockito.given(
+        this.mockSettlementService.spawnMissions("1234", toTradeAgreements(messages)))
         .willReturn(Sets.newTreeSet(expectedMissionIds));
 
     given()
@@ -216,6 +246,61 @@ public class SettlementRestControllerTest
         .statusCode(HttpStatus.OK.value());
   }
 
+  @Test
+  public void testSettleAgreementStream_NDJSON() throws Exception {
+    TradeAgreement agreement1 = TestDataGenerator.defaultTradeAgreementData().build();
+    TradeAgreement agreement2 = TestDataGenerator.defaultTradeAgreementData().instrument("MSFT")
+        .build();
+    TradeAgreement agreement3 = TestDataGenerator.defaultTradeAgreementData().instrument("AAPL")
+        .build();
+
+    String ndjson = Stream.of("IBM", "MSFT", "AAPL")
+        .map(instrument -> "{\"instrument\":\"" + instrument + "\",\"internalParty\":\"INT-1\","
+            + "\"externalParty\":\"EXT-1\",\"buySell\":\"B\",\"qty\":100}")
+        .collect(Collectors.joining("\n"));
+
+    BDDMockito.given(this.mockSettlementService.spawnMissions("1234#0",
+        Arrays.asList(agreement1, agreement2)))
+        .willReturn(Sets.newTreeSet(Arrays.asList(1L, 2L)));
+    BDDMockito.given(
+        this.mockSettlementService.spawnMissions("1234#1", singletonList(agreement3)))
+        .willReturn(Sets.newTreeSet(singletonList(3L)));
+
+    // Use a small chunk size so that the stream is committed in more than one chunk
+    Object controller = AopTestUtils.getTargetObject(settlementRestController);
+    Object chunkSize = ReflectionTestUtils.getField(controller, "settleStreamChunkSize");
+    ReflectionTestUtils.setField(controller, "settleStreamChunkSize", 2);
+    try {
+      MockMvcResponse response = given()
+          .log().ifValidationFails()
+          .contentType(APPLICATION_NDJSON_VALUE)
+          .accept(APPLICATION_NDJSON_VALUE)
+          .body(ndjson)
+          .when()
+          .post("/settlementEngine?requestId=1234");
+
+      assertEquals(HttpStatus.OK.value(), response.getStatusCode());
+
+      List<JsonNode> lines = Arrays.stream(response.asString().split("\n"))
+          .map(this::readTree).collect(Collectors.toList());
+      assertEquals(2, lines.size());
+      assertEquals(objectMapper.readTree("{\"spawnedMissions\":[\"/settlementEngine/mission/1\","
+          + "\"/settlementEngine/mission/2\"]}"), lines.get(0));
+      assertEquals(objectMapper.readTree(
+          "{\"spawnedMissions\":[\"/settlementEngine/mission/3\"]}"), lines.get(1));
+    } finally {
+      ReflectionTestUtils.setField(controller, "settleStreamChunkSize", chunkSize);
+    }
+  }
+
+  private JsonNode readTree(final String json) {
+    try {
+      return objectMapper.readTree(json);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
   private List<TradeAgreement> toTradeAgreements(TradeAgreementMessages messages) {
     return tradeAgreementTranslator.translate(messages);
   }
@@ -291,7 +376,7 @@ public class SettlementRestControllerTest
         .id(2L).build();
     List<SettlementMission> missions = Arrays.asList(mission1, mission2);
 
-    BDDMockito.given(this.mockSettlementService.findMissions(Arrays.asList(1L, 2L)))
+    BDDMockito.given(this.mockSettlementService.findMissions(LongIdSet.of(1L, 2L)))
         .willReturn(Arrays.asList(mission1, mission2));
 
     given()
@@ -304,6 +389,52 @@ public class SettlementRestControllerTest
         .content(is(objectMapper.writeValueAsString(new SettlementMissionList(missions))));
   }
 
+  @Test
+  public void testListMissions() throws Exception {
+    SettlementMission mission1 = TestDataGenerator.defaultSettlementMissionData()
+        .id(11L).build();
+    SettlementMission mission2 = TestDataGenerator.defaultSettlementMissionData()
+        .id(12L).build();
+    SettlementMission mission3 = TestDataGenerator.defaultSettlementMissionData()
+        .id(13L).build();
+    MissionFilter filter = MissionFilter.builder().depot("DTC").direction("REC").build();
+
+    // One more mission than the limit is asked for, to tell whether there is a next page
+    BDDMockito.given(this.mockSettlementService.listMissions(filter, 10L, 3))
+        .willReturn(Arrays.asList(mission1, mission2, mission3));
+
+    given()
+        .log().ifValidationFails()
+        .when()
+        .get("/settlementEngine/missions/list?depot=DTC&direction=REC&after=10&limit=2"
+            + "&format=json&requestId=1234")
+        .then()
+        .log().ifValidationFails()
+        .statusCode(HttpStatus.OK.value())
+        .content(is(objectMapper.writeValueAsString(
+            new SettlementMissionPage(Arrays.asList(mission1, mission2), 12L))));
+  }
+
+  @Test
+  public void testListMissionsLastPage() throws Exception {
+    SettlementMission mission1 = TestDataGenerator.defaultSettlementMissionData()
+        .id(11L).build();
+
+    BDDMockito.given(this.mockSettlementService.listMissions(
+        MissionFilter.builder().build(), 0L, 1001))
+        .willReturn(Collections.singletonList(mission1));
+
+    given()
+        .log().ifValidationFails()
+        .when()
+        .get("/settlementEngine/missions/list?format=json")
+        .then()
+        .log().ifValidationFails()
+        .statusCode(HttpStatus.OK.value())
+        .content(is(objectMapper.writeValueAsString(
+            new SettlementMissionPage(Collections.singletonList(mission1), null))));
+  }
+
   @Test
   public void testGetMissionsFound_XML() {
     SettlementMission mission1 = TestDataGenerator.defaultSettlementMissionData()
@@ -311,7 +442,7 @@ public class SettlementRestControllerTest
     SettlementMission mission2 = TestDataGenerator.defaultSettlementMissionData()
         .id(2L).build();
 
-    BDDMockito.given(this.mockSettlementService.findMissions(Arrays.asList(1L, 2L)))
+    BDDMockito.given(this.mockSettlementService.findMissions(LongIdSet.of(1L, 2L)))
         .willReturn(Arrays.asList(mission1, mission2));
 
     given()
@@ -345,7 +476,7 @@ public class SettlementRestControllerTest
         .id(2L).instrument("ABC").externalParty("EXT-1").depot("DEPOT-1").direction("REC")
         .qty(100.0).version(0L).build();
 
-    BDDMockito.given(this.mockSettlementService.findMissions(Arrays.asList(1L, 2L)))
+    BDDMockito.given(this.mockSettlementService.findMissions(LongIdSet.of(1L, 2L)))
         .willReturn(Arrays.asList(mission1, mission2));
 
     String expectedCsv = readData("SettlementMissions.csv");
@@ -370,7 +501,7 @@ public class SettlementRestControllerTest
         .id(2L).instrument("ABC").externalParty("EXT-1").depot("DEPOT-1").direction("REC")
         .qty(100.0).version(0L).build();
 
-    BDDMockito.given(this.mockSettlementService.findMissions(Arrays.asList(1L, 2L)))
+    BDDMockito.given(this.mockSettlementService.findMissions(LongIdSet.of(1L, 2L)))
         .willReturn(Arrays.asList(mission1, mission2));
 
     byte[] expectedXlsx = readBytes("SettlementMissions.xlsx");
@@ -432,9 +563,7 @@ public class SettlementRestControllerTest
     SettlementMission settlementMission = TestDataGenerator.defaultSettlementMissionData().build();
     settlementMission.setId(MISSION_ID_1);
 
-    when(mockSettlementService.missionExists(MISSION_ID_1))
-        .thenReturn(true);
-    when(mockSettlementService.updateMission(MISSION_ID_1, settlementMission))
+    when(mockSettlementService.updateMissionIfCurrent(MISSION_ID_1, settlementMission))
         .thenReturn(Optional.of(settlementMission));
 
     given()
@@ -453,8 +582,10 @@ public class SettlementRestControllerTest
   public void testUpdateNonExistentMission() {
     SettlementMission settlementMission = TestDataGenerator.defaultSettlementMissionData().build();
 
-    when(mockSettlementService.missionExists(MISSION_ID_1))
-        .thenReturn(false);
+    settlementMission.setId(MISSION_ID_1);
+
+    when(mockSettlementService.updateMissionIfCurrent(MISSION_ID_1, settlementMission))
+        .thenReturn(Optional.empty());
 
     given()
         .log().ifValidationFails()
@@ -473,11 +604,8 @@ public class SettlementRestControllerTest
     SettlementMission settlementMission = TestDataGenerator.defaultSettlementMissionData().build();
     settlementMission.setId(MISSION_ID_1);
 
-    when(mockSettlementService.missionExists(MISSION_ID_1))
-        .thenReturn(true);
-
-    when(mockSettlementService.updateMission(MISSION_ID_1, settlementMission)).thenThrow(
-        ObjectOptimisticLockingFailureException.class);
+    when(mockSettlementService.updateMissionIfCurrent(MISSION_ID_1, settlementMission))
+        .thenThrow(ObjectOptimisticLockingFailureException.class);
 
     given()
         .log().ifValidationFails()
@@ -520,6 +648,72 @@ public class SettlementRestControllerTest
         .statusCode(HttpStatus.NOT_FOUND.value());
   }
 
+  @Test
+  public void testDeleteMissions() throws Exception {
+    BDDMockito.given(this.mockSettlementService.deleteMissions(LongIdSet.of(1L, 2L),
+        MissionFilter.builder().depot("DTC").build())).willReturn(2);
+
+    given()
+        .log().ifValidationFails()
+        .accept(MediaType.APPLICATION_JSON_VALUE)
+        .when()
+        .delete("/settlementEngine/missions?ids=1,2&depot=DTC&requestId=1234")
+        .then()
+        .log().ifValidationFails()
+        .statusCode(HttpStatus.OK.value())
+        .body("affectedMissions", is(2));
+  }
+
+  @Test
+  public void testDeleteMissionsByFilter() throws Exception {
+    BDDMockito.given(this.mockSettlementService.deleteMissions(null,
+        MissionFilter.builder().instrument("IBM").build())).willReturn(3);
+
+    given()
+        .log().ifValidationFails()
+        .accept(MediaType.APPLICATION_JSON_VALUE)
+        .when()
+        .delete("/settlementEngine/missions?instrument=IBM")
+        .then()
+        .log().ifValidationFails()
+        .statusCode(HttpStatus.OK.value())
+        .body("affectedMissions", is(3));
+  }
+
+  @Test
+  public void testDeleteMissionsWithoutSelection() {
+    // Neither ids nor criteria, which would delete every mission
+    given()
+        .log().ifValidationFails()
+        .accept(MediaType.APPLICATION_JSON_VALUE)
+        .when()
+        .delete("/settlementEngine/missions?requestId=1234")
+        .then()
+        .log().ifValidationFails()
+        .statusCode(HttpStatus.BAD_REQUEST.value());
+
+    Mockito.verifyZeroInteractions(mockSettlementService);
+  }
+
+  @Test
+  public void testUpdateMissions() throws Exception {
+    MissionAmendment amendment = MissionAmendment.builder().depot("NEW").qty(5d).build();
+    BDDMockito.given(this.mockSettlementService.amendMissions(LongIdSet.of(1L, 2L),
+        MissionFilter.builder().build(), amendment)).willReturn(2);
+
+    given()
+        .log().ifValidationFails()
+        .contentType(MediaType.APPLICATION_JSON_VALUE)
+        .body("{\"depot\": \"NEW\", \"qty\": 5}")
+        .accept(MediaType.APPLICATION_JSON_VALUE)
+        .when()
+        .patch("/settlementEngine/missions?ids=1,2&requestId=1234")
+        .then()
+        .log().ifValidationFails()
+        .statusCode(HttpStatus.OK.value())
+        .body("affectedMissions", is(2));
+  }
+
   @Configuration
   @Import(SettlementRestController.class)
   @ConditionalOnNotWebApplication
@@ -0,0 +1,115 @@
+package org.galatea.starter.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.galatea.starter.ASpringTest;
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.domain.rpsy.ISettlementMissionRpsy;
+import org.galatea.starter.testutils.TestDataGenerator;
+import org.galatea.starter.utils.LongIdSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+public class CachingMissionLoaderTest extends ASpringTest {
+
+  @MockBean
+  private ISettlementMissionRpsy mockSettlementMissionRpsy;
+
+  private CacheManager cacheManager;
+
+  private MeterRegistry meterRegistry;
+
+  private CachingMissionLoader loader;
+
+  @Before
+  public void setup() {
+    cacheManager = new ConcurrentMapCacheManager(CachingMissionLoader.CACHE_NAME);
+    meterRegistry = new SimpleMeterRegistry();
+    loader = new CachingMissionLoader(cacheManager, mockSettlementMissionRpsy,
+        new MissionCacheWriter(cacheManager, true), meterRegistry);
+  }
+
+  @Test
+  public void testOnlyMissesAreLoaded() {
+    SettlementMission mission1 = TestDataGenerator.defaultSettlementMissionData().id(1L).build();
+    SettlementMission mission2 = TestDataGenerator.defaultSettlementMissionData().id(2L).build();
+    SettlementMission mission3 = TestDataGenerator.defaultSettlementMissionData().id(3L).build();
+    cacheManager.getCache(CachingMissionLoader.CACHE_NAME).put(2L, mission2);
+
+    given(mockSettlementMissionRpsy.findAllById(Arrays.asList(1L, 3L)))
+        .willReturn(Arrays.asList(mission1, mission3));
+
+    SettlementMission[] found = loader.findAllById(LongIdSet.of(3L, 2L, 1L));
+
+    // Results line up with the ids, wherever they came from
+    assertArrayEquals(new SettlementMission[] {mission3, mission2, mission1}, found);
+    assertEquals(1, hitCount(), 0);
+    assertEquals(2, missCount(), 0);
+
+    // The misses were written back, so a second lookup doesn't touch the database
+    Mockito.reset(mockSettlementMissionRpsy);
+    assertArrayEquals(found, loader.findAllById(LongIdSet.of(3L, 2L, 1L)));
+    verify(mockSettlementMissionRpsy, never()).findAllById(Mockito.any());
+    assertEquals(4, hitCount(), 0);
+    assertEquals(2, missCount(), 0);
+  }
+
+  @Test
+  public void testMissingIdsAreNull() {
+    given(mockSettlementMissionRpsy.findAllById(Collections.singletonList(1L)))
+        .willReturn(Collections.emptyList());
+
+    SettlementMission[] found = loader.findAllById(LongIdSet.of(1L));
+
+    assertArrayEquals(new SettlementMission[1], found);
+    assertEquals(1, missCount(), 0);
+  }
+
+  @Test
+  public void testConsecutiveIdsAreLoadedByRange() {
+    int runLength = CachingMissionLoader.MIN_RANGE_LENGTH;
+    LongIdSet ids = new LongIdSet(runLength + 1);
+    List<SettlementMission> run = new ArrayList<>();
+    for (int i = 0; i < runLength; i++) {
+      ids.add(100L + i);
+      run.add(TestDataGenerator.defaultSettlementMissionData().id(100L + i).build());
+    }
+    ids.add(500L);
+    SettlementMission scattered = TestDataGenerator.defaultSettlementMissionData().id(500L)
+        .build();
+
+    given(mockSettlementMissionRpsy.findByIdBetween(100L, 100L + runLength - 1))
+        .willReturn(run);
+    given(mockSettlementMissionRpsy.findAllById(Collections.singletonList(500L)))
+        .willReturn(Collections.singletonList(scattered));
+
+    SettlementMission[] found = loader.findAllById(ids);
+
+    assertEquals(run, Arrays.asList(found).subList(0, runLength));
+    assertEquals(scattered, found[runLength]);
+  }
+
+  private double hitCount() {
+    return meterRegistry.get(CachingMissionLoader.METRIC_NAME).tag("result", "hit").counter()
+        .count();
+  }
+
+  private double missCount() {
+    return meterRegistry.get(CachingMissionLoader.METRIC_NAME).tag("result", "miss").counter()
+        .count();
+  }
+}
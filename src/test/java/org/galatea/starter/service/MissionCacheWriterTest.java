@@ -0,0 +1,81 @@
+package org.galatea.starter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import org.galatea.starter.ASpringTest;
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.testutils.TestDataGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class MissionCacheWriterTest extends ASpringTest {
+
+  private ConcurrentMapCacheManager cacheManager;
+
+  private Cache cache;
+
+  @Before
+  public void setup() {
+    cacheManager = new ConcurrentMapCacheManager(CachingMissionLoader.CACHE_NAME);
+    cache = cacheManager.getCache(CachingMissionLoader.CACHE_NAME);
+  }
+
+  @After
+  public void clearSynchronization() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  public void testOlderVersionIsNotCached() {
+    MissionCacheWriter writer = new MissionCacheWriter(cacheManager, true);
+    SettlementMission version1 = TestDataGenerator.defaultSettlementMissionData().version(1L)
+        .build();
+    SettlementMission version2 = TestDataGenerator.defaultSettlementMissionData().version(2L)
+        .build();
+
+    assertTrue(writer.putIfNewer(version2));
+    assertFalse(writer.putIfNewer(version1));
+    assertFalse(writer.putIfNewer(version2));
+
+    assertEquals(version2, cache.get(version2.getId()).get());
+  }
+
+  @Test
+  public void testSavedMissionIsCachedAfterCommit() {
+    MissionCacheWriter writer = new MissionCacheWriter(cacheManager, true);
+    SettlementMission mission = TestDataGenerator.defaultSettlementMissionData().build();
+
+    TransactionSynchronizationManager.initSynchronization();
+    writer.missionsSaved(Collections.singletonList(mission));
+    assertNull(cache.get(mission.getId()));
+
+    TransactionSynchronizationManager.getSynchronizations()
+        .forEach(TransactionSynchronization::afterCommit);
+    assertEquals(mission, cache.get(mission.getId()).get());
+  }
+
+  @Test
+  public void testSavedMissionIsEvictedWithoutWriteThrough() {
+    MissionCacheWriter writer = new MissionCacheWriter(cacheManager, false);
+    SettlementMission version1 = TestDataGenerator.defaultSettlementMissionData().version(1L)
+        .build();
+    SettlementMission version2 = TestDataGenerator.defaultSettlementMissionData().version(2L)
+        .build();
+    cache.put(version1.getId(), version1);
+
+    writer.missionsSaved(Collections.singletonList(version2));
+
+    assertNull(cache.get(version1.getId()));
+  }
+}
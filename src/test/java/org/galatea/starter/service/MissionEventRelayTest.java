@@ -0,0 +1,148 @@
+package org.galatea.starter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Collectors;
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.galatea.starter.domain.MissionEvent;
+import org.galatea.starter.domain.MissionEvent.Type;
+import org.galatea.starter.domain.rpsy.IMissionEventRpsy;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementMissionProtoMessage;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementMissionProtoMessages;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+public class MissionEventRelayTest {
+
+  private static final String TOPIC = "test.mission.events";
+
+  private final ActiveMQConnectionFactory connectionFactory =
+      new ActiveMQConnectionFactory("vm://relay-test?broker.persistent=false");
+
+  private final IMissionEventRpsy eventRpsy = mock(IMissionEventRpsy.class);
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final TransactionOperations transactionOperations = new TransactionOperations() {
+    @Override
+    public <T> T execute(final TransactionCallback<T> action) {
+      return action.doInTransaction(null);
+    }
+  };
+
+  private MissionEventRelay relay;
+
+  private Connection subscriberConnection;
+
+  private MessageConsumer subscriber;
+
+  @Before
+  public void subscribe() throws JMSException {
+    subscriberConnection = connectionFactory.createConnection();
+    subscriberConnection.start();
+    Session session = subscriberConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    subscriber = session.createConsumer(session.createTopic(TOPIC));
+
+    // Not started, so only relays when the tests call it
+    relay = new MissionEventRelay(eventRpsy, connectionFactory, TOPIC, 2, transactionOperations,
+        60000, meterRegistry);
+  }
+
+  @After
+  public void shutdown() throws JMSException {
+    relay.stop();
+    subscriberConnection.close();
+  }
+
+  private static MissionEvent event(final long id, final Type type, final long... missionIds) {
+    SettlementMissionProtoMessages.Builder missions = SettlementMissionProtoMessages.newBuilder();
+    for (long missionId : missionIds) {
+      missions.addMessage(SettlementMissionProtoMessage.newBuilder().setId(missionId));
+    }
+    return MissionEvent.builder().id(id).type(type).missions(missions.build().toByteArray())
+        .missionCount(missionIds.length).createdAt(Instant.now()).build();
+  }
+
+  private SettlementMissionProtoMessages receive(final long eventId, final Type type)
+      throws Exception {
+    BytesMessage message = (BytesMessage) subscriber.receive(5000);
+    assertEquals(eventId, message.getLongProperty(MissionEventRelay.EVENT_ID));
+    assertEquals(type.name(), message.getStringProperty(MissionEventRelay.TYPE));
+    byte[] body = new byte[(int) message.getBodyLength()];
+    message.readBytes(body);
+    return SettlementMissionProtoMessages.parseFrom(body);
+  }
+
+  @Test
+  public void testEventsArePublishedInBatchesUntilTheOutboxIsEmpty() throws Exception {
+    given(eventRpsy.claimOldest(any(Pageable.class))).willReturn(
+        Arrays.asList(event(1, Type.CREATED, 10, 11), event(2, Type.UPDATED, 10)),
+        Collections.singletonList(event(3, Type.DELETED, 11)));
+
+    assertEquals(3, relay.relay());
+
+    assertEquals(Arrays.asList(10L, 11L), receive(1, Type.CREATED).getMessageList().stream()
+        .map(SettlementMissionProtoMessage::getId).collect(Collectors.toList()));
+    assertEquals(10L, receive(2, Type.UPDATED).getMessage(0).getId());
+    assertEquals(11L, receive(3, Type.DELETED).getMessage(0).getId());
+    verify(eventRpsy).deletePublished(Arrays.asList(1L, 2L));
+    verify(eventRpsy).deletePublished(Collections.singletonList(3L));
+    assertEquals(2, meterRegistry.get(MissionEventRelay.METRIC_NAME).tag("type", "CREATED")
+        .counter().count(), 0);
+  }
+
+  @Test
+  public void testEventsStayInTheOutboxIfTheyCantBePublished() throws Exception {
+    given(eventRpsy.claimOldest(any(Pageable.class)))
+        .willReturn(Collections.singletonList(event(1, Type.CREATED, 10)));
+    MissionEventRelay unreachable = new MissionEventRelay(eventRpsy,
+        new ActiveMQConnectionFactory("vm://no-such-broker?create=false"), TOPIC, 2,
+        transactionOperations, 60000, meterRegistry);
+
+    assertEquals(0, unreachable.relay());
+
+    verify(eventRpsy, never()).deletePublished(anyCollection());
+    assertNull(subscriber.receive(500));
+  }
+
+  @Test
+  public void testRelayRunsBetweenStartAndStop() throws Exception {
+    given(eventRpsy.claimOldest(any(Pageable.class)))
+        .willReturn(Collections.singletonList(event(1, Type.CREATED, 10)))
+        .willReturn(Collections.emptyList());
+    MissionEventRelay scheduled = new MissionEventRelay(eventRpsy, connectionFactory, TOPIC, 2,
+        transactionOperations, 10, meterRegistry);
+    assertFalse(scheduled.isRunning());
+
+    scheduled.start();
+    try {
+      assertTrue(scheduled.isRunning());
+      assertEquals(10L, receive(1, Type.CREATED).getMessage(0).getId());
+    } finally {
+      scheduled.stop();
+    }
+    assertFalse(scheduled.isRunning());
+  }
+}
@@ -2,26 +2,51 @@ package org.galatea.starter.service;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.doNothing;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.google.common.collect.Sets;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 import org.galatea.starter.ASpringTest;
+import org.galatea.starter.ProtoMessageTranslationConfig;
+import org.galatea.starter.domain.AgreementSubmission;
+import org.galatea.starter.domain.MissionAmendment;
+import org.galatea.starter.domain.MissionEvent;
+import org.galatea.starter.domain.MissionEvent.Type;
+import org.galatea.starter.domain.MissionFilter;
 import org.galatea.starter.domain.SettlementMission;
 import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.domain.rpsy.IAgreementSubmissionRpsy;
+import org.galatea.starter.domain.rpsy.IMissionEventRpsy;
 import org.galatea.starter.domain.rpsy.ISettlementMissionRpsy;
 import org.galatea.starter.entrypoint.exception.EntityNotFoundException;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementMissionProtoMessage;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.SettlementMissionProtoMessages;
 import org.galatea.starter.testutils.TestDataGenerator;
+import org.galatea.starter.utils.LongIdSet;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
 
 public class SettlementServiceTest extends ASpringTest {
 
@@ -31,11 +56,58 @@ public class SettlementServiceTest extends ASpringTest {
   @MockBean
   private IAgreementTransformer mockAgreementTransformer;
 
+  @MockBean
+  private IAgreementSubmissionRpsy mockSubmissionRpsy;
+
+  @MockBean
+  private IMissionEventRpsy mockMissionEventRpsy;
+
+  private CacheManager cacheManager;
+
+  private MissionCacheWriter missionCacheWriter;
+
+  private CachingMissionLoader missionLoader;
+
+  private SubmissionIndex submissionIndex;
+
+  private MissionEventOutbox missionEventOutbox;
+
+  // Runs the callback without a transaction
+  private final TransactionOperations transactionOperations = new TransactionOperations() {
+    @Override
+    public <T> T execute(final TransactionCallback<T> action) {
+      return action.doInTransaction(null);
+    }
+  };
+
   private SettlementService service;
 
+  /**
+   * Returns the only event saved to the outbox, and the missions in it.
+   */
+  private SettlementMissionProtoMessages savedEvent(final Type type)
+      throws InvalidProtocolBufferException {
+    ArgumentCaptor<MissionEvent> captor = ArgumentCaptor.forClass(MissionEvent.class);
+    Mockito.verify(this.mockMissionEventRpsy).save(captor.capture());
+    assertEquals(type, captor.getValue().getType());
+    SettlementMissionProtoMessages missions =
+        SettlementMissionProtoMessages.parseFrom(captor.getValue().getMissions());
+    assertEquals(missions.getMessageCount(), captor.getValue().getMissionCount());
+    return missions;
+  }
+
   @Before
   public void setup() {
-    service = new SettlementService(mockSettlementMissionRpsy, mockAgreementTransformer);
+    cacheManager = new ConcurrentMapCacheManager("missions");
+    missionCacheWriter = new MissionCacheWriter(cacheManager, true);
+    missionLoader = new CachingMissionLoader(cacheManager, mockSettlementMissionRpsy,
+        missionCacheWriter, new SimpleMeterRegistry());
+    submissionIndex = new SubmissionIndex(mockSubmissionRpsy, 1000, 60);
+    missionEventOutbox = new MissionEventOutbox(mockMissionEventRpsy,
+        new ProtoMessageTranslationConfig().settlementMissionProtoTranslator(), true);
+    service = new SettlementService(mockSettlementMissionRpsy, mockAgreementTransformer,
+        missionLoader, missionCacheWriter, submissionIndex, transactionOperations,
+        missionEventOutbox);
   }
 
   @Test
@@ -76,10 +148,25 @@ public class SettlementServiceTest extends ASpringTest {
 
     given(this.mockSettlementMissionRpsy.findAllById(ids)).willReturn(settlementMissions);
 
-    List<SettlementMission> actual = service.findMissions(ids);
+    List<SettlementMission> actual = service.findMissions(LongIdSet.of(1L, 2L));
     assertEquals(settlementMissions, actual);
   }
 
+  @Test
+  public void testFindMissionsKeepsRequestedOrder() {
+    SettlementMission settlementMission1 = TestDataGenerator.defaultSettlementMissionData()
+        .id(1L).build();
+    SettlementMission settlementMission2 = TestDataGenerator.defaultSettlementMissionData()
+        .id(2L).build();
+
+    given(this.mockSettlementMissionRpsy.findAllById(Arrays.asList(1L, 2L)))
+        .willReturn(Arrays.asList(settlementMission1, settlementMission2));
+
+    // Duplicate ids are only returned once
+    List<SettlementMission> actual = service.findMissions(LongIdSet.of(2L, 1L, 2L));
+    assertEquals(Arrays.asList(settlementMission2, settlementMission1), actual);
+  }
+
   @Test
   public void testFindMissionsNotFound() {
     List<Long> ids = Arrays.asList(1L, 2L);
@@ -91,7 +178,7 @@ public class SettlementServiceTest extends ASpringTest {
     given(this.mockSettlementMissionRpsy.findAllById(ids)).willReturn(settlementMissions);
 
     try {
-      service.findMissions(ids);
+      service.findMissions(LongIdSet.of(1L, 2L));
       fail("An EntityNotFoundException was expected but not thrown");
     } catch (EntityNotFoundException e) {
       // Exception is expected
@@ -99,7 +186,7 @@ public class SettlementServiceTest extends ASpringTest {
   }
 
   @Test
-  public void testSpawnMissions() {
+  public void testSpawnMissions() throws Exception {
 
     SettlementMission testSettlementMission = SettlementMission.builder().id(35L).depot("DTC")
         .externalParty("EXT-1").instrument("IBM").direction("REC").qty(100d).version(0L).build();
@@ -112,22 +199,116 @@ public class SettlementServiceTest extends ASpringTest {
 
     Set<Long> missionIds = service.spawnMissions(Collections.singletonList(testTradeAgreement));
     assertEquals(1, missionIds.size());
+
+    // Spawned missions are written through to the cache
+    assertEquals(testSettlementMission, cacheManager.getCache("missions").get(35L).get());
+
+    // And published
+    SettlementMissionProtoMessages created = savedEvent(Type.CREATED);
+    assertEquals(1, created.getMessageCount());
+    assertEquals(35L, created.getMessage(0).getId());
+    assertEquals("IBM", created.getMessage(0).getInstrument());
   }
 
   @Test
-  public void testUpdateMission() {
+  public void testSpawnMissionsReplayed() {
+    SettlementMission testSettlementMission = TestDataGenerator.defaultSettlementMissionData()
+        .id(35L).build();
+    List<TradeAgreement> agreements =
+        Collections.singletonList(TestDataGenerator.defaultTradeAgreementData().build());
 
-    SettlementMission testSettlementMission = SettlementMission.builder().depot("DTC")
-        .externalParty("EXT-1").instrument("IBM").direction("REC").qty(100d).version(0L).build();
+    given(this.mockSettlementMissionRpsy.saveAll(Mockito.anyList()))
+        .willReturn(Collections.singletonList(testSettlementMission));
 
-    given(this.mockSettlementMissionRpsy.save(testSettlementMission))
-        .willReturn(testSettlementMission);
+    assertEquals(Collections.singleton(35L), service.spawnMissions("req-1", agreements));
+    Mockito.verify(this.mockSubmissionRpsy).saveAll(Mockito.anyList());
 
-    SettlementService service =
-        new SettlementService(this.mockSettlementMissionRpsy, this.mockAgreementTransformer);
+    // The replay is answered from the index
+    assertEquals(Collections.singleton(35L), service.spawnMissions("req-1", agreements));
+    Mockito.verify(this.mockAgreementTransformer, Mockito.times(1)).transform(Mockito.any());
+    Mockito.verify(this.mockSettlementMissionRpsy, Mockito.times(1)).saveAll(Mockito.anyList());
+  }
+
+  @Test
+  public void testSpawnMissionsReplayedFromDatabase() {
+    given(this.mockSubmissionRpsy.findById("req-1")).willReturn(Optional.of(
+        AgreementSubmission.builder().idempotencyKey("req-1").missionIds("35,36")
+            .submittedAt(Instant.now()).build()));
+
+    assertEquals(Sets.newHashSet(35L, 36L), service.spawnMissions("req-1",
+        Collections.singletonList(TestDataGenerator.defaultTradeAgreementData().build())));
+    Mockito.verifyZeroInteractions(this.mockAgreementTransformer, this.mockSettlementMissionRpsy);
+  }
 
-    Optional<SettlementMission> settlementMissionOptional = service.updateMission(35L, testSettlementMission);
-    assertEquals((Long) 35L, settlementMissionOptional.get().getId());
+  @Test
+  public void testSpawnMissionsOnce() {
+    TradeAgreement replayedAgreement = TestDataGenerator.defaultTradeAgreementData().build();
+    TradeAgreement newAgreement = TestDataGenerator.defaultTradeAgreementData().instrument("MSFT")
+        .build();
+    SettlementMission newMission = TestDataGenerator.defaultSettlementMissionData().id(36L)
+        .instrument("MSFT").build();
+
+    given(this.mockSubmissionRpsy.findAllById(Sets.newHashSet("ID:1", "ID:2")))
+        .willReturn(Collections.singletonList(AgreementSubmission.builder().idempotencyKey("ID:1")
+            .missionIds("35").submittedAt(Instant.now()).build()));
+    given(this.mockAgreementTransformer.transform(newAgreement)).willReturn(newMission);
+    given(this.mockSettlementMissionRpsy.saveAll(Collections.singletonList(newMission)))
+        .willReturn(Collections.singletonList(newMission));
+
+    assertEquals(Sets.newHashSet(35L, 36L), service.spawnMissionsOnce(
+        Arrays.asList("ID:1", "ID:2"), Arrays.asList(replayedAgreement, newAgreement)));
+    Mockito.verify(this.mockAgreementTransformer, Mockito.never()).transform(replayedAgreement);
+    // The keys are looked up together, rather than one query per key
+    Mockito.verify(this.mockSubmissionRpsy, Mockito.never()).findById(Mockito.anyString());
+
+    // The new agreement's message is a replay from now on
+    assertEquals(Optional.of(Collections.singleton(36L)), submissionIndex.find("ID:2"));
+  }
+
+  @Test
+  public void testUpdateMissionIfCurrent() throws Exception {
+    SettlementMission testSettlementMission = TestDataGenerator.defaultSettlementMissionData()
+        .id(null).version(3L).build();
+
+    given(this.mockSettlementMissionRpsy.updateIfVersionMatches(35L, testSettlementMission))
+        .willReturn(1);
+
+    Optional<SettlementMission> updated = service.updateMissionIfCurrent(35L,
+        testSettlementMission);
+
+    assertEquals((Long) 35L, updated.get().getId());
+    assertEquals((Long) 4L, updated.get().getVersion());
+    assertEquals(updated.get(), cacheManager.getCache("missions").get(35L).get());
+    Mockito.verify(this.mockSettlementMissionRpsy, Mockito.never()).existsById(35L);
+    assertEquals(4L, savedEvent(Type.UPDATED).getMessage(0).getVersion());
+  }
+
+  @Test
+  public void testUpdateMissionIfCurrentNotFound() {
+    SettlementMission testSettlementMission = TestDataGenerator.defaultSettlementMissionData()
+        .build();
+
+    given(this.mockSettlementMissionRpsy.updateIfVersionMatches(35L, testSettlementMission))
+        .willReturn(0);
+    given(this.mockSettlementMissionRpsy.existsById(35L)).willReturn(false);
+
+    assertFalse(service.updateMissionIfCurrent(35L, testSettlementMission).isPresent());
+  }
+
+  @Test(expected = ObjectOptimisticLockingFailureException.class)
+  public void testUpdateMissionIfCurrentConflict() {
+    SettlementMission testSettlementMission = TestDataGenerator.defaultSettlementMissionData()
+        .build();
+
+    given(this.mockSettlementMissionRpsy.updateIfVersionMatches(35L, testSettlementMission))
+        .willReturn(0);
+    given(this.mockSettlementMissionRpsy.existsById(35L)).willReturn(true);
+
+    try {
+      service.updateMissionIfCurrent(35L, testSettlementMission);
+    } finally {
+      Mockito.verifyZeroInteractions(this.mockMissionEventRpsy);
+    }
   }
 
   @Test
@@ -137,22 +318,116 @@ public class SettlementServiceTest extends ASpringTest {
         .willReturn(true);
 
     SettlementService service =
-        new SettlementService(this.mockSettlementMissionRpsy, this.mockAgreementTransformer);
+        new SettlementService(this.mockSettlementMissionRpsy, this.mockAgreementTransformer,
+            this.missionLoader, this.missionCacheWriter, this.submissionIndex,
+            this.transactionOperations, this.missionEventOutbox);
 
     boolean missionExists = service.missionExists(35L);
     assertTrue(missionExists);
   }
 
   @Test
-  public void testDeleteMission() {
+  public void testDeleteMission() throws Exception {
 
     doNothing().when(this.mockSettlementMissionRpsy).deleteById(35L);
 
     SettlementService service =
-        new SettlementService(this.mockSettlementMissionRpsy, this.mockAgreementTransformer);
+        new SettlementService(this.mockSettlementMissionRpsy, this.mockAgreementTransformer,
+            this.missionLoader, this.missionCacheWriter, this.submissionIndex,
+            this.transactionOperations, this.missionEventOutbox);
 
     service.deleteMission(35L);
     boolean missionExists = service.missionExists(35L);
     assertFalse(missionExists);
+    assertEquals(SettlementMissionProtoMessages.newBuilder()
+        .addMessage(SettlementMissionProtoMessage.newBuilder().setId(35L)).build(),
+        savedEvent(Type.DELETED));
+  }
+
+  @Test
+  public void testDeleteMissionsByIds() throws Exception {
+    MissionFilter filter = MissionFilter.builder().depot("DTC").build();
+    cacheManager.getCache("missions").put(35L,
+        TestDataGenerator.defaultSettlementMissionData().id(35L).build());
+
+    // Only one of the missions matches the filter, so only it is deleted
+    given(this.mockSettlementMissionRpsy.findIdsIn(Arrays.asList(35L, 36L), "DTC", null, null,
+        null)).willReturn(Collections.singletonList(35L));
+    given(this.mockSettlementMissionRpsy.deleteMatching(Collections.singletonList(35L), "DTC",
+        null, null, null)).willReturn(1);
+
+    assertEquals(1, service.deleteMissions(LongIdSet.of(35L, 36L), filter));
+    assertNull(cacheManager.getCache("missions").get(35L));
+    assertEquals(SettlementMissionProtoMessages.newBuilder()
+        .addMessage(SettlementMissionProtoMessage.newBuilder().setId(35L)).build(),
+        savedEvent(Type.DELETED));
+    Mockito.verify(this.mockSettlementMissionRpsy, Mockito.never()).findIds(Mockito.anyLong(),
+        Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+  }
+
+  @Test
+  public void testDeleteMissionsByFilter() {
+    MissionFilter filter = MissionFilter.builder().depot("DTC").build();
+    cacheManager.getCache("missions").put(35L,
+        TestDataGenerator.defaultSettlementMissionData().id(35L).build());
+
+    // More ids than fit in one statement, so they are read and deleted in two chunks
+    List<Long> ids = LongStream.range(0, SettlementService.BULK_STATEMENT_SIZE + 1).boxed()
+        .collect(Collectors.toList());
+    PageRequest chunk = PageRequest.of(0, SettlementService.BULK_STATEMENT_SIZE);
+    given(this.mockSettlementMissionRpsy.findIds(Long.MIN_VALUE, "DTC", null, null, null, chunk))
+        .willReturn(ids.subList(0, SettlementService.BULK_STATEMENT_SIZE));
+    given(this.mockSettlementMissionRpsy.findIds(SettlementService.BULK_STATEMENT_SIZE - 1, "DTC",
+        null, null, null, chunk))
+        .willReturn(ids.subList(SettlementService.BULK_STATEMENT_SIZE, ids.size()));
+    given(this.mockSettlementMissionRpsy.deleteMatching(
+        ids.subList(0, SettlementService.BULK_STATEMENT_SIZE), "DTC", null, null, null))
+        .willReturn(SettlementService.BULK_STATEMENT_SIZE);
+    given(this.mockSettlementMissionRpsy.deleteMatching(
+        ids.subList(SettlementService.BULK_STATEMENT_SIZE, ids.size()), "DTC", null, null, null))
+        .willReturn(1);
+
+    assertEquals(ids.size(), service.deleteMissions(null, filter));
+    // The missions that matched aren't known any more, so the whole cache is cleared
+    assertNull(cacheManager.getCache("missions").get(35L));
+    // One event is recorded per chunk
+    Mockito.verify(this.mockMissionEventRpsy, Mockito.times(2)).save(Mockito.any());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDeleteMissionsWithoutSelection() {
+    service.deleteMissions(null, MissionFilter.builder().build());
+  }
+
+  @Test
+  public void testAmendMissions() throws Exception {
+    MissionFilter filter = MissionFilter.builder().build();
+    MissionAmendment amendment = MissionAmendment.builder().depot("NEW").build();
+    cacheManager.getCache("missions").put(35L,
+        TestDataGenerator.defaultSettlementMissionData().id(35L).build());
+
+    List<Long> ids = Collections.singletonList(35L);
+    given(this.mockSettlementMissionRpsy.findIdsIn(ids, null, null, null, null)).willReturn(ids);
+    given(this.mockSettlementMissionRpsy.amendMatching(ids, null, null, null, null, null, null,
+        "NEW", null, null)).willReturn(1);
+    SettlementMission amended =
+        TestDataGenerator.defaultSettlementMissionData().id(35L).depot("NEW").version(1L).build();
+    given(this.mockSettlementMissionRpsy.findAllById(ids))
+        .willReturn(Collections.singletonList(amended));
+
+    assertEquals(1, service.amendMissions(LongIdSet.of(35L), filter, amendment));
+    assertNull(cacheManager.getCache("missions").get(35L));
+    // The event has the missions as they were read again after the amendment
+    assertEquals(SettlementMissionProtoMessages.newBuilder()
+        .addMessage(new ProtoMessageTranslationConfig().settlementMissionProtoTranslator()
+            .translate(amended)).build(),
+        savedEvent(Type.UPDATED));
+  }
+
+  @Test
+  public void testAmendMissionsWithoutChanges() {
+    assertEquals(0, service.amendMissions(LongIdSet.of(35L), MissionFilter.builder().build(),
+        MissionAmendment.builder().build()));
+    Mockito.verifyZeroInteractions(this.mockSettlementMissionRpsy);
   }
 }
@@ -0,0 +1,106 @@
+package org.galatea.starter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Sets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.galatea.starter.ASpringTest;
+import org.galatea.starter.domain.AgreementSubmission;
+import org.galatea.starter.domain.rpsy.IAgreementSubmissionRpsy;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@DataJpaTest
+@Import(SubmissionIndex.class)
+public class SubmissionIndexTest extends ASpringTest {
+
+  @Autowired
+  private SubmissionIndex submissionIndex;
+
+  @Autowired
+  private IAgreementSubmissionRpsy submissionRpsy;
+
+  @Autowired
+  private TestEntityManager entityManager;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Test
+  public void testRecordAndFind() {
+    assertFalse(submissionIndex.find("req-1").isPresent());
+
+    submissionIndex.record(Collections.singletonMap("req-1", Sets.newHashSet(1L, 2L)));
+    entityManager.flush();
+
+    assertEquals(Optional.of(Sets.newHashSet(1L, 2L)), submissionIndex.find("req-1"));
+    assertEquals("req-1", submissionRpsy.findById("req-1").get().getIdempotencyKey());
+  }
+
+  @Test
+  public void testFindAll() {
+    String longKey = Strings.repeat("j", 1000);
+    submissionIndex.record(Collections.singletonMap("req-a", Collections.singleton(1L)));
+    submissionIndex.record(Collections.singletonMap(longKey, Collections.singleton(4L)));
+    submissionRpsy.save(AgreementSubmission.builder().idempotencyKey("req-b").missionIds("2,3")
+        .submittedAt(Instant.now()).build());
+    entityManager.flush();
+    // Puts req-a in the index, while the others are only in the database
+    submissionIndex.find("req-a");
+
+    Map<String, Set<Long>> expected = new HashMap<>();
+    expected.put("req-a", Collections.singleton(1L));
+    expected.put("req-b", Sets.newHashSet(2L, 3L));
+    expected.put(longKey, Collections.singleton(4L));
+    assertEquals(expected,
+        submissionIndex.findAll(Arrays.asList("req-a", "req-b", longKey, "req-c")));
+  }
+
+  @Test
+  public void testLongKeysAreHashed() {
+    String key = Strings.repeat("k", 1000);
+
+    submissionIndex.record(Collections.singletonMap(key, Collections.singleton(1L)));
+    entityManager.flush();
+
+    assertEquals(Optional.of(Collections.singleton(1L)), submissionIndex.find(key));
+    assertEquals(1, submissionRpsy.count());
+    assertFalse(submissionRpsy.findById(key).isPresent());
+  }
+
+  @Test(expected = DataIntegrityViolationException.class)
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public void testKeysCanOnlyBeRecordedOnce() {
+    // Commit each record in its own transaction, the way SettlementService does, since the
+    // duplicate key is only translated to a DataIntegrityViolationException on commit
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    try {
+      transactionTemplate.execute(status -> {
+        submissionIndex.record(Collections.singletonMap("req-1", Collections.singleton(1L)));
+        return null;
+      });
+      transactionTemplate.execute(status -> {
+        submissionIndex.record(Collections.singletonMap("req-1", Collections.singleton(2L)));
+        return null;
+      });
+    } finally {
+      submissionRpsy.deleteAll();
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package org.galatea.starter.utils;
+
+import static org.awaitility.Awaitility.await;
+import static org.galatea.starter.utils.HttpTraceSamplerTest.trace;
+import static org.junit.Assert.assertEquals;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.lang.Thread.State;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.galatea.starter.utils.FuseHttpTraceRepository.FullBufferPolicy;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.boot.actuate.trace.http.HttpTrace;
+
+public class FuseHttpTraceRepositoryTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private FuseHttpTraceRepository repository;
+
+  @After
+  public void closeRepository() throws Exception {
+    repository.close();
+  }
+
+  private double count(final String result) {
+    return meterRegistry.get(FuseHttpTraceRepository.METRIC_NAME).tag("result", result).counter()
+        .count();
+  }
+
+  @Test
+  public void testTracesAreRecordedInTheBackground() {
+    repository = new FuseHttpTraceRepository(new ObjectMapper(), 16, FullBufferPolicy.DROP,
+        new HttpTraceSampler(1.0, "/trace=0", 400), meterRegistry);
+
+    repository.add(trace("/settlementEngine/mission/1", 200));
+    repository.add(trace("/trace", 200));
+    repository.add(trace("/settlementEngine/mission/2", 200));
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> repository.findAll().size() == 2);
+    assertEquals(2, count("recorded"), 0);
+    assertEquals(1, count("skipped"), 0);
+    assertEquals(0, count("dropped"), 0);
+  }
+
+  @Test
+  public void testIdleWriterWaitsUntilATraceIsAdded() {
+    repository = new FuseHttpTraceRepository(new ObjectMapper(), 16, FullBufferPolicy.DROP,
+        new HttpTraceSampler(1.0, "", 400), meterRegistry);
+    Thread writer = Thread.getAllStackTraces().keySet().stream()
+        .filter(thread -> "http-trace-writer".equals(thread.getName()) && thread.isAlive())
+        .findFirst().get();
+
+    // Parked without a timeout, rather than waking up to poll the empty buffer
+    await().atMost(5, TimeUnit.SECONDS).until(() -> writer.getState() == State.WAITING);
+
+    repository.add(trace("/settlementEngine/mission/1", 200));
+    await().atMost(5, TimeUnit.SECONDS).until(() -> count("recorded") == 1);
+    await().atMost(5, TimeUnit.SECONDS).until(() -> writer.getState() == State.WAITING);
+  }
+
+  @Test
+  public void testTracesAreDroppedWhenTheBufferIsFull() throws Exception {
+    CountDownLatch writerBlocked = new CountDownLatch(1);
+    CountDownLatch releaseWriter = new CountDownLatch(1);
+    // Holds up the writer on its first trace so that the buffer fills up behind it
+    ObjectMapper slowMapper = new ObjectMapper() {
+      @Override
+      public String writeValueAsString(final Object value) {
+        writerBlocked.countDown();
+        try {
+          releaseWriter.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return "{}";
+      }
+    };
+    repository = new FuseHttpTraceRepository(slowMapper, 2, FullBufferPolicy.DROP,
+        new HttpTraceSampler(1.0, "", 400), meterRegistry);
+
+    HttpTrace trace = trace("/settlementEngine/mission/1", 200);
+    repository.add(trace);
+    writerBlocked.await(5, TimeUnit.SECONDS);
+    for (int i = 0; i < 4; i++) {
+      repository.add(trace);
+    }
+    releaseWriter.countDown();
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> count("recorded") == 3);
+    assertEquals(2, count("dropped"), 0);
+  }
+
+  @Test
+  public void testCloseRecordsBufferedTraces() throws Exception {
+    repository = new FuseHttpTraceRepository(new ObjectMapper(), 1024, FullBufferPolicy.BLOCK,
+        new HttpTraceSampler(1.0, "", 400), meterRegistry);
+
+    for (int i = 0; i < 1000; i++) {
+      repository.add(trace("/settlementEngine/mission/" + i, 200));
+    }
+    repository.close();
+
+    assertEquals(1000, count("recorded"), 0);
+  }
+}
@@ -0,0 +1,44 @@
+package org.galatea.starter.utils;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.Collections;
+import org.junit.Test;
+import org.springframework.boot.actuate.trace.http.HttpTrace;
+
+public class HttpTraceSamplerTest {
+
+  static HttpTrace trace(final String path, final int status) {
+    return new HttpTrace(
+        new HttpTrace.Request("GET", URI.create("http://localhost" + path),
+            Collections.emptyMap(), null),
+        new HttpTrace.Response(status, Collections.emptyMap()), Instant.now(), null, null, 1L);
+  }
+
+  @Test
+  public void testLongestPrefixWins() {
+    HttpTraceSampler sampler = new HttpTraceSampler(1.0,
+        "/settlementEngine=0, /settlementEngine/missions=1", 400);
+
+    assertTrue(sampler.test(trace("/settlementEngine/missions?ids=1", 200)));
+    assertFalse(sampler.test(trace("/settlementEngine/mission/1", 200)));
+    assertTrue(sampler.test(trace("/iex/symbols", 200)));
+  }
+
+  @Test
+  public void testFailuresAreAlwaysTraced() {
+    HttpTraceSampler sampler = new HttpTraceSampler(0, "", 400);
+
+    assertFalse(sampler.test(trace("/settlementEngine/mission/1", 200)));
+    assertTrue(sampler.test(trace("/settlementEngine/mission/1", 404)));
+    assertTrue(sampler.test(trace("/settlementEngine/mission/1", 500)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRatesAreChecked() {
+    new HttpTraceSampler(1.0, "/iex=2", 400);
+  }
+}
@@ -0,0 +1,59 @@
+package org.galatea.starter.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LongIdSetTest {
+
+  @Test
+  public void testParse() {
+    LongIdSet ids = LongIdSet.parse("3,-1,3,9000000000");
+
+    // Duplicates are dropped and the rest keep their order
+    assertArrayEquals(new long[] {3L, -1L, 9000000000L}, ids.toArray());
+    assertEquals(LongIdSet.of(7L), LongIdSet.parse("7"));
+  }
+
+  @Test
+  public void testParseSkipsEmptyIds() {
+    assertEquals(LongIdSet.of(1L, 2L), LongIdSet.parse("1,2,"));
+    assertEquals(LongIdSet.of(1L, 2L), LongIdSet.parse("1,,2"));
+    assertEquals(LongIdSet.of(1L), LongIdSet.parse(",1"));
+    assertEquals(0, LongIdSet.parse("").size());
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testParseRejectsNonNumbers() {
+    LongIdSet.parse("1,two");
+  }
+
+  @Test
+  public void testIndexOf() {
+    // Enough ids to grow the set a few times
+    LongIdSet ids = new LongIdSet(1);
+    for (long id = 1000; id > 0; id -= 2) {
+      assertTrue(ids.add(id));
+    }
+    assertFalse(ids.add(1000));
+
+    assertEquals(500, ids.size());
+    for (int i = 0; i < ids.size(); i++) {
+      assertEquals(i, ids.indexOf(1000 - 2 * i));
+      assertEquals(1000 - 2 * i, ids.get(i));
+    }
+    assertEquals(-1, ids.indexOf(999));
+    assertFalse(ids.contains(0));
+  }
+
+  @Test
+  public void testEquality() {
+    assertEquals(LongIdSet.of(1L, 2L), LongIdSet.of(1L, 2L, 1L));
+    assertEquals(LongIdSet.of(1L, 2L).hashCode(), LongIdSet.of(1L, 2L, 1L).hashCode());
+    assertFalse(LongIdSet.of(1L, 2L).equals(LongIdSet.of(2L, 1L)));
+    assertEquals("[1, 2]", LongIdSet.of(1L, 2L).toString());
+  }
+}
@@ -0,0 +1,50 @@
+package org.galatea.starter.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+public class MdcTaskDecoratorTest {
+
+  private final MdcTaskDecorator decorator = new MdcTaskDecorator();
+
+  @After
+  public void clearMdc() {
+    MDC.clear();
+  }
+
+  @Test
+  public void testTasksRunWithTheSubmittersMdc() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      MDC.put(RequestIds.INTERNAL_REQUEST_ID, "req-1");
+      Runnable task = decorator.decorate(() -> { });
+      AtomicReference<String> seen = new AtomicReference<>();
+      Runnable check = decorator.decorate(() -> seen.set(MDC.get(RequestIds.INTERNAL_REQUEST_ID)));
+
+      // Changes after submitting don't affect the task
+      MDC.put(RequestIds.INTERNAL_REQUEST_ID, "req-2");
+      executor.submit(task).get();
+      executor.submit(check).get();
+      assertEquals("req-1", seen.get());
+
+      // The executor thread's MDC is left as it was
+      executor.submit(() -> seen.set(MDC.get(RequestIds.INTERNAL_REQUEST_ID))).get();
+      assertNull(seen.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testTasksWithoutMdcAreNotWrapped() {
+    Runnable task = () -> { };
+    assertEquals(task, decorator.decorate(task));
+  }
+}
@@ -0,0 +1,89 @@
+package org.galatea.starter.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class MpscRingBufferTest {
+
+  @Test
+  public void testCapacityIsRoundedUpToPowerOfTwo() {
+    assertEquals(1, new MpscRingBuffer<>(1).capacity());
+    assertEquals(8, new MpscRingBuffer<>(5).capacity());
+    assertEquals(8, new MpscRingBuffer<>(8).capacity());
+  }
+
+  @Test
+  public void testOfferFailsWhenFull() {
+    MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(buffer.offer(i));
+    }
+    assertFalse(buffer.offer(4));
+    assertEquals(4, buffer.size());
+
+    // Polling frees a slot for the next lap
+    assertEquals(Integer.valueOf(0), buffer.poll());
+    assertTrue(buffer.offer(4));
+
+    List<Integer> drained = new ArrayList<>();
+    assertEquals(4, buffer.drain(drained::add, 10));
+    assertEquals(List.of(1, 2, 3, 4), drained);
+    assertNull(buffer.poll());
+    assertEquals(0, buffer.size());
+  }
+
+  @Test
+  public void testConcurrentProducers() throws Exception {
+    int producers = 4;
+    int perProducer = 20_000;
+    MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(256);
+    ExecutorService executor = Executors.newFixedThreadPool(producers);
+    CountDownLatch start = new CountDownLatch(1);
+
+    for (int p = 0; p < producers; p++) {
+      int producer = p;
+      executor.execute(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        for (int i = 0; i < perProducer; i++) {
+          while (!buffer.offer(producer * perProducer + i)) {
+            Thread.yield();
+          }
+        }
+      });
+    }
+    start.countDown();
+
+    // Every element arrives exactly once, in order per producer
+    int[] next = new int[producers];
+    int received = 0;
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while (received < producers * perProducer && System.nanoTime() < deadline) {
+      Integer element = buffer.poll();
+      if (element != null) {
+        int producer = element / perProducer;
+        assertEquals(producer * perProducer + next[producer], (int) element);
+        next[producer]++;
+        received++;
+      }
+    }
+    executor.shutdown();
+
+    assertEquals(producers * perProducer, received);
+    assertNull(buffer.poll());
+  }
+}
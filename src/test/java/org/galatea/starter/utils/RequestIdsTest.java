@@ -0,0 +1,60 @@
+package org.galatea.starter.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+public class RequestIdsTest {
+
+  @Test
+  public void testFormat() {
+    assertEquals("00000000-000000000000", RequestIds.format(0, 0));
+    assertEquals("5f3a09c1-0000000004e2", RequestIds.format(0x5f3a09c1, 0x4e2));
+    assertEquals("ffffffff-ffffffffffff", RequestIds.format(-1, (1L << 48) - 1));
+  }
+
+  @Test
+  public void testIdsOfOneThreadAreSequential() {
+    String first = RequestIds.next();
+    String second = RequestIds.next();
+
+    // Same instance, so the same node id; the next sequence number within the thread's block
+    // (unless the first id was the last of a block)
+    assertEquals(first.substring(0, 9), second.substring(0, 9));
+    assertNotEquals(first, second);
+  }
+
+  @Test
+  public void testIdsAreUniqueAcrossThreads() throws Exception {
+    int threads = 4;
+    int idsPerThread = 5 * RequestIds.BLOCK_SIZE;
+    Set<String> ids = ConcurrentHashMap.newKeySet();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < idsPerThread; i++) {
+            assertTrue(ids.add(RequestIds.next()));
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(threads * idsPerThread, ids.size());
+  }
+}
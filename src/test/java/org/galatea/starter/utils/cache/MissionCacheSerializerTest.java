@@ -0,0 +1,37 @@
+package org.galatea.starter.utils.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.testutils.TestDataGenerator;
+import org.junit.Test;
+import org.springframework.cache.support.NullValue;
+
+public class MissionCacheSerializerTest {
+
+  private final MissionCacheSerializer serializer = new MissionCacheSerializer();
+
+  @Test
+  public void testMissionRoundTrip() {
+    SettlementMission mission = TestDataGenerator.defaultSettlementMissionData().version(3L)
+        .build();
+
+    ByteBuffer binary = ByteBuffer.allocate(serializer.serializedSize(mission));
+    serializer.serialize(mission, binary);
+    binary.flip();
+
+    assertEquals(binary.capacity(), binary.remaining());
+    assertEquals(mission, serializer.deserialize(binary));
+  }
+
+  @Test
+  public void testNullValueRoundTrip() {
+    ByteBuffer binary = ByteBuffer.allocate(serializer.serializedSize(NullValue.INSTANCE));
+    serializer.serialize(NullValue.INSTANCE, binary);
+    binary.flip();
+
+    assertSame(NullValue.INSTANCE, serializer.deserialize(binary));
+  }
+}
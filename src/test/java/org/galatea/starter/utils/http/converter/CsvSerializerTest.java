@@ -1,12 +1,18 @@
 package org.galatea.starter.utils.http.converter;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.fail;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -100,6 +106,45 @@ public class CsvSerializerTest {
     assertEquals(expected, actual);
   }
 
+  @Test
+  public void writeCsv_basic() throws Exception {
+    BasicClass row1 = new BasicClass("foo", "bar");
+    BasicClass row2 = new BasicClass("baz", null);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    CsvSerializer.writeCsv(Arrays.asList(row1, row2), BasicClass.class, out);
+
+    // Same document as serializeToCsv
+    assertEquals(CsvSerializer.serializeToCsv(Arrays.asList(row1, row2), BasicClass.class),
+        out.toString(StandardCharsets.UTF_8.name()));
+  }
+
+  @Test
+  public void writeCsv_leavesStreamOpen() throws Exception {
+    AtomicBoolean closed = new AtomicBoolean();
+    OutputStream out = new FilterOutputStream(new ByteArrayOutputStream()) {
+      @Override
+      public void close() {
+        closed.set(true);
+      }
+    };
+
+    CsvSerializer.writeCsv(Collections.singletonList(new BasicClass("foo", "bar")),
+        BasicClass.class, out);
+
+    assertFalse(closed.get());
+  }
+
+  @Test
+  public void writeCsv_empty() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    CsvSerializer.writeCsv(Collections.emptyList(), BasicClass.class, out);
+
+    assertEquals(CsvSerializer.serializeToCsv(Collections.emptyList(), BasicClass.class),
+        out.toString(StandardCharsets.UTF_8.name()));
+  }
+
   @AllArgsConstructor
   @NoArgsConstructor
   @Getter
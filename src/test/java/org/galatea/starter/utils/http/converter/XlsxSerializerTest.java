@@ -1,11 +1,14 @@
 package org.galatea.starter.utils.http.converter;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -13,9 +16,11 @@ import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.galatea.starter.testutils.XlsxComparator;
 import org.junit.Test;
@@ -160,6 +165,40 @@ public class XlsxSerializerTest {
     assertTrue(XlsxComparator.equals(expected, actual));
   }
 
+  @Test
+  public void serializeToXlsx_numbers() throws Exception {
+    NumericClass row1 = new NumericClass(1, 2.5, null, "foo");
+
+    byte[] actual = XlsxSerializer.serializeToXlsx(
+        Collections.singletonList(row1), NumericClass.class);
+
+    try (Workbook wb = WorkbookFactory.create(new ByteArrayInputStream(actual))) {
+      Row row = wb.getSheetAt(0).getRow(1);
+      assertEquals(CellType.NUMERIC, row.getCell(0).getCellType());
+      assertEquals(1, row.getCell(0).getNumericCellValue(), 0);
+      assertEquals(CellType.NUMERIC, row.getCell(1).getCellType());
+      assertEquals(2.5, row.getCell(1).getNumericCellValue(), 0);
+      // Null numbers are left blank
+      assertEquals(CellType.BLANK, row.getCell(2).getCellType());
+      assertEquals(CellType.STRING, row.getCell(3).getCellType());
+    }
+  }
+
+  @Test
+  public void writeXlsx_streaming() throws Exception {
+    // More rows than the row window, so that some are flushed before the end
+    List<NumericClass> rows = new ArrayList<>();
+    for (int i = 0; i < 25; i++) {
+      rows.add(new NumericClass(i, i / 2d, (long) i, "row" + i));
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    XlsxSerializer.writeXlsx(rows, NumericClass.class, out, 10);
+
+    assertTrue(XlsxComparator.equals(
+        XlsxSerializer.serializeToXlsx(rows, NumericClass.class), out.toByteArray()));
+  }
+
   private static byte[] writeSpreadsheetToBytes(final Workbook wb) throws IOException {
     try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
       wb.write(baos);
@@ -215,4 +254,13 @@ public class XlsxSerializerTest {
     @JsonProperty("Header 3")
     private String field3;
   }
-}
\ No newline at end of file
+
+  @AllArgsConstructor
+  private static class NumericClass {
+
+    private int field1;
+    private double field2;
+    private Long field3;
+    private String field4;
+  }
+}
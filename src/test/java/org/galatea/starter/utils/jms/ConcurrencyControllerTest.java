@@ -0,0 +1,86 @@
+package org.galatea.starter.utils.jms;
+
+import static org.junit.Assert.assertEquals;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ConcurrencyControllerTest {
+
+  private static final AutoscalingSettings SETTINGS = AutoscalingSettings.builder()
+      .intervalMillis(1000).targetDrainMillis(1000).maxPoolSaturation(0.9)
+      .maxMessagesPerTask(20).build();
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private double poolSaturation;
+
+  private final ConcurrencyController controller = new ConcurrencyController(SETTINGS, 1, 10,
+      "queue", () -> poolSaturation, meterRegistry);
+
+  private double decisions(final String direction, final String reason) {
+    return meterRegistry.find(ConcurrencyController.SCALING_METRIC).tag("direction", direction)
+        .tag("reason", reason).counters().stream().mapToDouble(counter -> counter.count()).sum();
+  }
+
+  @Test
+  public void testScalesUpToDrainTheBacklog() {
+    // 10ms a message: 500 messages take 5 seconds for one consumer, and 1 second for five
+    controller.recordLatency(TimeUnit.MILLISECONDS.toNanos(100), 10);
+
+    assertEquals(5, controller.decide(1, 500));
+    assertEquals(1, decisions("up", "backlog"), 0);
+    assertEquals(5, meterRegistry.get(ConcurrencyController.CONSUMERS_METRIC).gauge().value(), 0);
+    assertEquals(500, meterRegistry.get(ConcurrencyController.QUEUE_DEPTH_METRIC).gauge().value(),
+        0);
+  }
+
+  @Test
+  public void testScalesUpToTheMaximum() {
+    controller.recordLatency(TimeUnit.MILLISECONDS.toNanos(10), 1);
+
+    assertEquals(10, controller.decide(2, 100000));
+  }
+
+  @Test
+  public void testAddsOneConsumerBeforeTheLatencyIsKnown() {
+    assertEquals(3, controller.decide(2, 10));
+    assertEquals(1, decisions("up", "backlog"), 0);
+  }
+
+  @Test
+  public void testScalesDownOneConsumerAtATime() {
+    controller.recordLatency(TimeUnit.MILLISECONDS.toNanos(10), 1);
+
+    assertEquals(7, controller.decide(8, 0));
+    // The latency of the earlier interval is kept while no messages are handled
+    assertEquals(6, controller.decide(7, 10));
+    assertEquals(2, decisions("down", "surplus"), 0);
+  }
+
+  @Test
+  public void testHoldsWhenTheConsumersAreEnough() {
+    controller.recordLatency(TimeUnit.MILLISECONDS.toNanos(10), 1);
+
+    assertEquals(3, controller.decide(3, 300));
+    assertEquals(1, controller.decide(1, 0));
+    assertEquals(0, meterRegistry.find(ConcurrencyController.SCALING_METRIC).counters().size());
+  }
+
+  @Test
+  public void testScalesDownWhileThePoolIsSaturated() {
+    controller.recordLatency(TimeUnit.MILLISECONDS.toNanos(10), 1);
+    poolSaturation = 1.2;
+
+    assertEquals(4, controller.decide(5, 100000));
+    assertEquals(1, controller.decide(1, 100000));
+    assertEquals(1, decisions("down", "db-saturated"), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidBounds() {
+    new ConcurrencyController(SETTINGS, 3, 2, "queue", () -> 0, meterRegistry);
+  }
+}
@@ -0,0 +1,248 @@
+package org.galatea.starter.utils.jms;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.TextMessage;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import lombok.Value;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jms.core.JmsTemplate;
+
+public class FuseMessageListenerContainerTest {
+
+  private static final String QUEUE = "test.container";
+
+  private static final String DEAD_LETTER_QUEUE = "DLQ." + QUEUE;
+
+  private final ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(
+      "vm://container-test?broker.persistent=false&broker.schedulerSupport=true");
+
+  private final List<Message> failedMessages = new CopyOnWriteArrayList<>();
+
+  private final FuseMessageListenerContainer container =
+      new FuseMessageListenerContainer((message, e) -> failedMessages.add(message));
+
+  private final JmsTemplate jmsTemplate = new JmsTemplate(connectionFactory);
+
+  private final BrokerQueueStatistics queueStatistics =
+      new BrokerQueueStatistics(ManagementFactory.getPlatformMBeanServer());
+
+  // Keeps the embedded broker, and the messages on it, alive between the connections of the test
+  private Connection brokerConnection;
+
+  @Before
+  public void startBroker() throws JMSException {
+    brokerConnection = connectionFactory.createConnection();
+    jmsTemplate.setReceiveTimeout(10000);
+  }
+
+  @After
+  public void shutdown() throws JMSException {
+    container.shutdown();
+    brokerConnection.close();
+  }
+
+  private void initialize(final String concurrency, final MessageListener listener) {
+    container.setConnectionFactory(connectionFactory);
+    container.setDestinationName(QUEUE);
+    container.setConcurrency(concurrency);
+    container.setSessionTransacted(true);
+    container.setMessageListener(listener);
+    container.initialize();
+  }
+
+  private static MessageRetrier retrier(final int maxAttempts, final long initialDelayMillis) {
+    return new MessageRetrier(maxAttempts, initialDelayMillis, 2, 10000, "DLQ.",
+        failure -> !(failure instanceof IllegalArgumentException));
+  }
+
+  @Test
+  public void testQueueDepthIsReadFromTheBroker() throws Exception {
+    container.setAutoscaling(AutoscalingSettings.builder().intervalMillis(60000)
+        .targetDrainMillis(1000).maxPoolSaturation(0.9).maxMessagesPerTask(20).build(),
+        () -> 0, queueStatistics, new SimpleMeterRegistry());
+    initialize("1-5", message -> { });
+    assertNotNull(container.concurrencyController);
+    assertEquals(0, container.queueDepth());
+
+    for (int i = 0; i < 6; i++) {
+      jmsTemplate.convertAndSend(QUEUE, "message " + i);
+    }
+    assertEquals(6, container.queueDepth());
+
+    // The same queue on another broker in the JVM isn't counted
+    ActiveMQConnectionFactory otherBroker =
+        new ActiveMQConnectionFactory("vm://other-container-test?broker.persistent=false");
+    Connection otherBrokerConnection = otherBroker.createConnection();
+    try {
+      new JmsTemplate(otherBroker).convertAndSend(QUEUE, "elsewhere");
+      assertEquals(6, container.queueDepth());
+    } finally {
+      otherBrokerConnection.close();
+    }
+
+    assertEquals("message 0", jmsTemplate.receiveAndConvert(QUEUE));
+    assertEquals(5, container.queueDepth());
+  }
+
+  @Test
+  public void testQueueDepthIsReadThroughTheJmxConnector() throws Exception {
+    JMXConnectorServer connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(
+        new JMXServiceURL("service:jmx:rmi://"), null, ManagementFactory.getPlatformMBeanServer());
+    connectorServer.start();
+    try (BrokerQueueStatistics remoteStatistics =
+        BrokerQueueStatistics.connect(connectorServer.getAddress().toString())) {
+      jmsTemplate.convertAndSend(QUEUE, "message");
+
+      assertEquals(OptionalLong.of(1), remoteStatistics.queueSize(null, QUEUE));
+      assertEquals(OptionalLong.empty(), remoteStatistics.queueSize(null, "test.no-such-queue"));
+    } finally {
+      connectorServer.stop();
+    }
+  }
+
+  @Test
+  public void testFixedConcurrencyIsNotScaled() {
+    container.setAutoscaling(AutoscalingSettings.builder().intervalMillis(60000)
+        .targetDrainMillis(1000).maxPoolSaturation(0.9).maxMessagesPerTask(20).build(),
+        () -> 0, queueStatistics, new SimpleMeterRegistry());
+    initialize("3-3", message -> { });
+
+    assertNull(container.concurrencyController);
+  }
+
+  @Test
+  public void testFailedMessagesAreRetriedLaterWhileOthersAreHandled() throws Exception {
+    List<Delivery> deliveries = new CopyOnWriteArrayList<>();
+    container.setMessageRetrier(retrier(3, 1000));
+    initialize("1", message -> {
+      try {
+        deliveries.add(new Delivery(((TextMessage) message).getText(),
+            MessageRetrier.previousAttempts(message), MessageRetrier.originalMessageId(message),
+            System.nanoTime()));
+        if (MessageRetrier.previousAttempts(message) == 0
+            && ((TextMessage) message).getText().equals("fails once")) {
+          throw new IllegalStateException("Failed on purpose");
+        }
+      } catch (JMSException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    container.start();
+
+    jmsTemplate.convertAndSend(QUEUE, "fails once");
+    jmsTemplate.convertAndSend(QUEUE, "healthy");
+
+    await().atMost(10, TimeUnit.SECONDS).until(() -> deliveries.size() == 3);
+    Delivery first = deliveries.get(0);
+    Delivery retry = deliveries.get(2);
+    assertEquals("fails once", first.body);
+    // The healthy message doesn't wait for the retry
+    assertEquals("healthy", deliveries.get(1).body);
+    assertEquals("fails once", retry.body);
+    assertEquals(1, retry.previousAttempts);
+    assertEquals(first.originalMessageId, retry.originalMessageId);
+    assertTrue(retry.nanos - first.nanos >= TimeUnit.MILLISECONDS.toNanos(900));
+    assertTrue(failedMessages.isEmpty());
+  }
+
+  @Test
+  public void testMessagesAreDeadLetteredAfterTheLastAttempt() throws Exception {
+    List<Message> deliveries = new CopyOnWriteArrayList<>();
+    container.setMessageRetrier(retrier(3, 100));
+    initialize("1", message -> {
+      deliveries.add(message);
+      throw new IllegalStateException("Failed on purpose");
+    });
+    container.start();
+
+    jmsTemplate.convertAndSend(QUEUE, "always fails");
+
+    Message deadLetter = jmsTemplate.receive(DEAD_LETTER_QUEUE);
+    assertNotNull(deadLetter);
+    assertEquals("always fails", ((TextMessage) deadLetter).getText());
+    assertEquals(3, deadLetter.getIntProperty(MessageRetrier.ATTEMPT));
+    assertEquals(deliveries.get(0).getJMSMessageID(),
+        deadLetter.getStringProperty(MessageRetrier.ORIGINAL_MESSAGE_ID));
+    assertTrue(deadLetter.getStringProperty(MessageRetrier.FAILURE).contains("Failed on purpose"));
+    assertEquals(3, deliveries.size());
+    assertEquals(1, failedMessages.size());
+  }
+
+  @Test
+  public void testRetriesKeepTheExpirationOfTheOriginal() throws Exception {
+    List<Message> deliveries = new CopyOnWriteArrayList<>();
+    container.setMessageRetrier(retrier(3, 500));
+    initialize("1", message -> {
+      deliveries.add(message);
+      throw new IllegalStateException("Failed on purpose");
+    });
+    container.start();
+
+    JmsTemplate expiringTemplate = new JmsTemplate(connectionFactory);
+    expiringTemplate.setExplicitQosEnabled(true);
+    expiringTemplate.setTimeToLive(60000);
+    expiringTemplate.convertAndSend(QUEUE, "always fails");
+
+    Message deadLetter = jmsTemplate.receive(DEAD_LETTER_QUEUE);
+    assertNotNull(deadLetter);
+    assertEquals(3, deliveries.size());
+    long expiration = deliveries.get(0).getJMSExpiration();
+    assertTrue(expiration != 0);
+    for (Message message : Arrays.asList(deliveries.get(1), deliveries.get(2), deadLetter)) {
+      // Give or take how late the broker's scheduler delivers the retries
+      assertTrue(Math.abs(message.getJMSExpiration() - expiration) < 2000);
+    }
+  }
+
+  @Test
+  public void testFailuresThatCantBeRetriedAreDeadLetteredRightAway() throws Exception {
+    List<Message> deliveries = new CopyOnWriteArrayList<>();
+    container.setMessageRetrier(retrier(3, 100));
+    initialize("1", message -> {
+      deliveries.add(message);
+      throw new IllegalArgumentException("Malformed on purpose");
+    });
+    container.start();
+
+    jmsTemplate.convertAndSend(QUEUE, "malformed");
+
+    Message deadLetter = jmsTemplate.receive(DEAD_LETTER_QUEUE);
+    assertNotNull(deadLetter);
+    assertEquals(1, deadLetter.getIntProperty(MessageRetrier.ATTEMPT));
+    assertEquals(1, deliveries.size());
+    assertEquals(1, failedMessages.size());
+  }
+
+  @Value
+  private static class Delivery {
+
+    private String body;
+
+    private int previousAttempts;
+
+    private String originalMessageId;
+
+    private long nanos;
+  }
+}
@@ -0,0 +1,46 @@
+package org.galatea.starter.utils.jms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.junit.Test;
+
+public class MessageRetrierTest {
+
+  @Test
+  public void testDelaysGrowExponentiallyUpToTheMaximum() {
+    MessageRetrier retrier = new MessageRetrier(10, 1000, 2, 10000, "DLQ.", failure -> true);
+
+    assertEquals(1000, retrier.delayMillis(1));
+    assertEquals(2000, retrier.delayMillis(2));
+    assertEquals(8000, retrier.delayMillis(4));
+    assertEquals(10000, retrier.delayMillis(5));
+    assertEquals(10000, retrier.delayMillis(100));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidMaxAttempts() {
+    new MessageRetrier(0, 1000, 2, 10000, "DLQ.", failure -> true);
+  }
+
+  @Test
+  public void testRetriedBytesMessageKeepsItsPropertiesWhenTheyAreSetAgain() throws Exception {
+    ActiveMQBytesMessage message = new ActiveMQBytesMessage();
+    message.writeBytes(new byte[] {1, 2, 3});
+    message.setIntProperty(MessageRetrier.ATTEMPT, 2);
+    message.reset();
+    message.setReadOnlyProperties(true);
+
+    MessageRetrier.consumerTransformer().consumerTransform(null, null, message);
+    // What JMS tracing does to each message it receives
+    message.clearProperties();
+    message.setObjectProperty(MessageRetrier.ATTEMPT, 2);
+
+    assertEquals(2, MessageRetrier.previousAttempts(message));
+    message.reset();
+    byte[] body = new byte[(int) message.getBodyLength()];
+    message.readBytes(body);
+    assertArrayEquals(new byte[] {1, 2, 3}, body);
+  }
+}
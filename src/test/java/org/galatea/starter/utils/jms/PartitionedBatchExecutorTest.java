@@ -0,0 +1,144 @@
+package org.galatea.starter.utils.jms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import javax.jms.JMSException;
+import org.galatea.starter.utils.RequestIds;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+public class PartitionedBatchExecutorTest {
+
+  private final PartitionedBatchExecutor executor = new PartitionedBatchExecutor(4);
+
+  private final List<List<String>> handled = new CopyOnWriteArrayList<>();
+
+  @After
+  public void shutdown() {
+    executor.shutdown();
+    MDC.clear();
+  }
+
+  // Items are "<key>:<sequence>", or several keys separated by "+"
+  private static List<String> keys(final String item) {
+    return Arrays.asList(item.split(":")[0].split("\\+"));
+  }
+
+  private List<String> handledWithKey(final String key) {
+    return handled.stream().flatMap(List::stream).filter(item -> keys(item).contains(key))
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void testItemsWithTheSameKeyAreHandledInOrderInOneCall() throws Exception {
+    // 4 and 5 hash to different partitions
+    List<String> items = Arrays.asList("4:1", "5:1", "4:2", "5:2", "4:3");
+
+    executor.execute(items, PartitionedBatchExecutorTest::keys, handled::add);
+
+    assertEquals(2, handled.size());
+    assertEquals(Arrays.asList("4:1", "4:2", "4:3"), handledWithKey("4"));
+    assertEquals(Arrays.asList("5:1", "5:2"), handledWithKey("5"));
+  }
+
+  @Test
+  public void testPartitionsRunInParallel() throws Exception {
+    CountDownLatch bothStarted = new CountDownLatch(2);
+
+    executor.execute(Arrays.asList("4:1", "5:1"), PartitionedBatchExecutorTest::keys, items -> {
+      bothStarted.countDown();
+      try {
+        // Only returns if the other partition runs at the same time
+        assertTrue(bothStarted.await(5, TimeUnit.SECONDS));
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      handled.add(items);
+    });
+
+    assertEquals(2, handled.size());
+  }
+
+  @Test
+  public void testItemsWithKeysOfSeveralPartitionsAreHandledBetweenThem() throws Exception {
+    List<String> items = Arrays.asList("4:1", "5:1", "4+5:2", "4:3", "5:3");
+
+    executor.execute(items, PartitionedBatchExecutorTest::keys, handled::add);
+
+    assertEquals(Arrays.asList("4:1", "4+5:2", "4:3"), handledWithKey("4"));
+    assertEquals(Arrays.asList("5:1", "4+5:2", "5:3"), handledWithKey("5"));
+    // Handled on its own, after the partitions before it and before the ones after it
+    assertEquals(Collections.singletonList("4+5:2"), handled.get(2));
+  }
+
+  @Test
+  public void testKeysInTheSamePartitionDontSplitAnItem() {
+    assertEquals(0, executor.partitionOf(Arrays.asList(4, 8)));
+    assertEquals(-1, executor.partitionOf(Arrays.asList(4, 5)));
+    assertEquals(0, executor.partitionOf(Collections.emptyList()));
+    assertNotEquals(-1, executor.partitionOf(Collections.singletonList(null)));
+  }
+
+  @Test
+  public void testTheFirstFailureIsThrownOnceAllPartitionsAreDone() throws Exception {
+    try {
+      executor.execute(Arrays.asList("4:1", "5:1", "6:1"), PartitionedBatchExecutorTest::keys,
+          items -> {
+            if (items.get(0).startsWith("5")) {
+              throw new JMSException("Failed on purpose");
+            }
+            // Still running when the other partition fails
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            handled.add(items);
+          });
+      fail("Expected a JMSException");
+    } catch (JMSException e) {
+      assertEquals("Failed on purpose", e.getMessage());
+    }
+
+    assertEquals(2, handled.size());
+  }
+
+  @Test
+  public void testPartitionsRunWithTheCallersMdc() throws Exception {
+    MDC.put(RequestIds.INTERNAL_REQUEST_ID, "req-1");
+    List<String> requestIds = new CopyOnWriteArrayList<>();
+
+    executor.execute(Arrays.asList("4:1", "5:1", "6:1"), PartitionedBatchExecutorTest::keys,
+        items -> requestIds.add(MDC.get(RequestIds.INTERNAL_REQUEST_ID)));
+
+    assertEquals(Arrays.asList("req-1", "req-1", "req-1"), requestIds);
+  }
+
+  @Test
+  public void testASinglePartitionRunsTheWholeBatchOnTheCallingThread() throws Exception {
+    PartitionedBatchExecutor single = new PartitionedBatchExecutor(1);
+    List<String> items = Arrays.asList("4:1", "5:1", "4+5:2");
+    List<Thread> threads = new CopyOnWriteArrayList<>();
+
+    single.execute(items, PartitionedBatchExecutorTest::keys, batch -> {
+      threads.add(Thread.currentThread());
+      handled.add(batch);
+    });
+
+    assertEquals(Collections.singletonList(items), handled);
+    assertEquals(Collections.singletonList(Thread.currentThread()), threads);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidPartitions() {
+    new PartitionedBatchExecutor(0);
+  }
+}
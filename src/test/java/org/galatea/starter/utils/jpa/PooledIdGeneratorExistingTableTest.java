@@ -0,0 +1,31 @@
+package org.galatea.starter.utils.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.galatea.starter.ASpringTest;
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.domain.rpsy.ISettlementMissionRpsy;
+import org.galatea.starter.testutils.TestDataGenerator;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.TestPropertySource;
+
+@DataJpaTest
+@TestPropertySource(
+    properties = "spring.datasource.schema=classpath:existing-settlement-missions.sql")
+public class PooledIdGeneratorExistingTableTest extends ASpringTest {
+
+  @Autowired
+  private ISettlementMissionRpsy missionRpsy;
+
+  @Test
+  public void testIdsStartAfterTheExistingMissions() {
+    SettlementMission mission = missionRpsy.save(
+        TestDataGenerator.defaultSettlementMissionData().id(null).build());
+
+    assertTrue(mission.getId() + " should be after the existing ids", mission.getId() > 4000);
+    assertEquals(3, missionRpsy.count());
+  }
+}
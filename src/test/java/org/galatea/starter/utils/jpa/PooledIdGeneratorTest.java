@@ -0,0 +1,53 @@
+package org.galatea.starter.utils.jpa;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+import org.galatea.starter.ASpringTest;
+import org.galatea.starter.domain.SettlementMission;
+import org.galatea.starter.domain.rpsy.ISettlementMissionRpsy;
+import org.galatea.starter.testutils.TestDataGenerator;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+@DataJpaTest
+@TestPropertySource(properties = "spring.jpa.properties." + PooledIdGenerator.BLOCK_SIZE_SETTING
+    + "=" + PooledIdGeneratorTest.BLOCK_SIZE)
+public class PooledIdGeneratorTest extends ASpringTest {
+
+  static final int BLOCK_SIZE = 10;
+
+  @Autowired
+  private ISettlementMissionRpsy missionRpsy;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Test
+  public void testIdsAreAllocatedInBlocks() {
+    int missionCount = BLOCK_SIZE + 5;
+    List<SettlementMission> missions = IntStream.range(0, missionCount)
+        .mapToObj(i -> TestDataGenerator.defaultSettlementMissionData().id(null).build())
+        .collect(Collectors.toList());
+
+    List<Long> ids = StreamSupport.stream(missionRpsy.saveAll(missions).spliterator(), false)
+        .map(SettlementMission::getId).sorted().collect(Collectors.toList());
+
+    // Ids within the blocks are handed out locally, so they are contiguous
+    long firstId = ids.get(0);
+    for (int i = 0; i < missionCount; i++) {
+      assertEquals(firstId + i, (long) ids.get(i));
+    }
+
+    // Two blocks were needed, so the sequence should have been bumped twice by the block size
+    Long nextValue = jdbcTemplate.queryForObject(
+        "select next_val from settlement_mission_seq", Long.class);
+    assertEquals(firstId + 2 * BLOCK_SIZE, (long) nextValue);
+  }
+}
@@ -0,0 +1,87 @@
+package org.galatea.starter.utils.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import org.galatea.starter.utils.rest.LatencyHistograms.Summary;
+import org.junit.Test;
+
+public class LatencyHistogramsTest {
+
+  private final LatencyHistograms histograms = new LatencyHistograms();
+
+  @Test
+  public void testPercentiles() {
+    for (long i = 1; i <= 1000; i++) {
+      histograms.record("GET", "/settlementEngine/mission/{id}", 200, "application/json",
+          i * 1000);
+    }
+
+    List<Summary> summaries = histograms.summarize();
+    assertEquals(1, summaries.size());
+    Summary summary = summaries.get(0);
+    assertEquals("application/json", summary.getMediaType());
+    assertEquals(1000, summary.getCount());
+    // HdrHistogram values are within 0.1% with 3 significant digits
+    assertEquals(500_000, summary.getP50Nanos(), 500);
+    assertEquals(990_000, summary.getP99Nanos(), 990);
+    assertEquals(999_000, summary.getP999Nanos(), 999);
+    assertEquals(1_000_000, summary.getMaxNanos(), 1000);
+  }
+
+  @Test
+  public void testHistogramsAreKeyedByEndpointStatusAndMediaType() {
+    histograms.record("GET", "/settlementEngine/mission/{id}", 200, "application/json", 1);
+    histograms.record("GET", "/settlementEngine/mission/{id}", 200,
+        "application/json;charset=UTF-8", 1);
+    histograms.record("GET", "/settlementEngine/mission/{id}", 404, "application/json", 1);
+    histograms.record("DELETE", "/settlementEngine/mission/{id}", 200, "application/json", 1);
+    histograms.record("GET", "/settlementEngine/missions", 200, "text/csv", 1);
+    histograms.record("GET", null, 404, null, 1);
+
+    List<Summary> summaries = histograms.summarize();
+    assertEquals(5, summaries.size());
+    assertTrue(summaries.stream().anyMatch(summary -> summary.getCount() == 2
+        && summary.getStatus() == 200 && "GET".equals(summary.getMethod())
+        && "application/json".equals(summary.getMediaType())));
+  }
+
+  @Test
+  public void testReset() {
+    histograms.record("GET", "/settlementEngine/missions", 200, "application/json", 5000);
+    assertEquals(1, histograms.summarize().get(0).getCount());
+
+    histograms.reset();
+    assertEquals(0, histograms.summarize().get(0).getCount());
+
+    histograms.record("GET", "/settlementEngine/missions", 200, "application/json", 7000);
+    Summary summary = histograms.summarize().get(0);
+    assertEquals(1, summary.getCount());
+    assertEquals(7000, summary.getMaxNanos(), 7);
+  }
+
+  @Test
+  public void testRecordingDoesNotAllocate() {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+
+    // The first recordings create the key and grow the histogram to the range of the values
+    for (int i = 0; i < 10_000; i++) {
+      histograms.record("GET", "/settlementEngine/missions", 200,
+          "application/json;charset=UTF-8", 1_000_000 + i);
+    }
+
+    long before = threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < 100_000; i++) {
+      histograms.record("GET", "/settlementEngine/missions", 200,
+          "application/json;charset=UTF-8", 1_000_000 + i % 10_000);
+    }
+    long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+    // Leave some room for the measurement itself
+    assertTrue("Allocated " + allocated + " bytes", allocated < 10_000);
+  }
+}
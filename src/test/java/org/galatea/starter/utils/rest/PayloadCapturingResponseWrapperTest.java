@@ -0,0 +1,93 @@
+package org.galatea.starter.utils.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.galatea.starter.MvcConfig;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class PayloadCapturingResponseWrapperTest {
+
+  private final MockHttpServletResponse response = new MockHttpServletResponse();
+
+  private final AtomicInteger beforeCommitCalls = new AtomicInteger();
+
+  private PayloadCapturingResponseWrapper wrap(final int maxPayloadSize) {
+    return new PayloadCapturingResponseWrapper(response, maxPayloadSize,
+        Collections.singletonList(MvcConfig.TEXT_CSV), () -> {
+          beforeCommitCalls.incrementAndGet();
+          response.addHeader("audit", "yes");
+        });
+  }
+
+  @Test
+  public void testSmallBodiesAreHeldBack() throws Exception {
+    PayloadCapturingResponseWrapper wrapper = wrap(16);
+    wrapper.setContentType("application/json");
+    wrapper.getOutputStream().write("{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+    wrapper.flushBuffer();
+
+    assertEquals(0, response.getContentAsByteArray().length);
+    assertFalse(response.isCommitted());
+
+    wrapper.finish();
+    assertEquals("{\"a\":1}", response.getContentAsString());
+    assertEquals(7, response.getContentLength());
+    assertEquals("yes", response.getHeader("audit"));
+    assertEquals(1, beforeCommitCalls.get());
+  }
+
+  @Test
+  public void testLargeBodiesArePassedThrough() throws Exception {
+    PayloadCapturingResponseWrapper wrapper = wrap(4);
+    wrapper.setContentType("application/json");
+    wrapper.getOutputStream().write("abc".getBytes(StandardCharsets.UTF_8));
+    assertFalse(wrapper.isPassThrough());
+
+    wrapper.getOutputStream().write("defgh".getBytes(StandardCharsets.UTF_8));
+    assertTrue(wrapper.isPassThrough());
+    assertEquals("abcdefgh", response.getContentAsString());
+    assertEquals("yes", response.getHeader("audit"));
+
+    wrapper.getOutputStream().write("ijk".getBytes(StandardCharsets.UTF_8));
+    wrapper.finish();
+
+    // Only the prefix is captured, and the audit headers are only added once
+    assertEquals("abcdefghijk", response.getContentAsString());
+    assertArrayEquals("abcd".getBytes(StandardCharsets.UTF_8), wrapper.getCapturedPayload());
+    assertEquals(1, beforeCommitCalls.get());
+  }
+
+  @Test
+  public void testStreamedMediaTypesArePassedThrough() throws Exception {
+    PayloadCapturingResponseWrapper wrapper = wrap(1024);
+    wrapper.setContentType("text/csv;charset=UTF-8");
+    PrintWriter writer = wrapper.getWriter();
+    writer.write("id,instrument\n");
+    writer.flush();
+
+    assertTrue(wrapper.isPassThrough());
+    assertEquals("id,instrument\n", response.getContentAsString());
+    assertEquals("yes", response.getHeader("audit"));
+
+    wrapper.finish();
+    assertEquals(1, beforeCommitCalls.get());
+  }
+
+  @Test
+  public void testEmptyBodies() throws Exception {
+    PayloadCapturingResponseWrapper wrapper = wrap(16);
+    wrapper.setStatus(204);
+    wrapper.finish();
+
+    assertEquals(0, response.getContentAsByteArray().length);
+    assertEquals("yes", response.getHeader("audit"));
+  }
+}
@@ -0,0 +1,140 @@
+package org.galatea.starter.utils.translation;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.base.Strings;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnknownFieldSet;
+import java.util.Collections;
+import java.util.List;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.galatea.starter.ProtoMessageTranslationConfig;
+import org.galatea.starter.domain.TradeAgreement;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessage;
+import org.galatea.starter.entrypoint.messagecontracts.ProtobufMessages.TradeAgreementProtoMessages;
+import org.galatea.starter.testutils.TestDataGenerator;
+import org.junit.Test;
+
+public class TradeAgreementProtoReaderTest {
+
+  private final TradeAgreementProtoReader reader = new TradeAgreementProtoReader();
+
+  private final ProtoMessageTranslationConfig config = new ProtoMessageTranslationConfig();
+
+  private final ITranslator<byte[], TradeAgreement> parsingTranslator =
+      config.tradeAgreementBinaryProtobufTranslator(config.tradeAgreementProtoTranslator());
+
+  private final ITranslator<TradeAgreementProtoMessages, List<TradeAgreement>>
+      envelopeTranslator =
+      config.tradeAgreementProtoMessagesTranslator(config.tradeAgreementProtoTranslator());
+
+  private static BytesMessage bytesMessage(final byte[] body) throws JMSException {
+    ActiveMQBytesMessage message = new ActiveMQBytesMessage();
+    message.writeBytes(body);
+    message.reset();
+    return message;
+  }
+
+  @Test
+  public void testReadsLikeParseFrom() throws Exception {
+    byte[] body = TestDataGenerator.defaultTradeAgreementProtoMessageData().build().toByteArray();
+
+    List<TradeAgreement> agreements = reader.translate(bytesMessage(body));
+
+    assertEquals(Collections.singletonList(TestDataGenerator.defaultTradeAgreementData().build()),
+        agreements);
+    assertEquals(Collections.singletonList(parsingTranslator.translate(body)), agreements);
+  }
+
+  @Test
+  public void testMissingFieldsGetDefaults() throws Exception {
+    byte[] body = TradeAgreementProtoMessage.newBuilder().setInstrument("IBM").build()
+        .toByteArray();
+
+    assertEquals(Collections.singletonList(parsingTranslator.translate(body)),
+        reader.translate(bytesMessage(body)));
+  }
+
+  @Test
+  public void testReadsEnvelopesLikeParseFrom() throws Exception {
+    TradeAgreementProtoMessages envelope = TradeAgreementProtoMessages.newBuilder()
+        .addMessage(TestDataGenerator.defaultTradeAgreementProtoMessageData())
+        .addMessage(TradeAgreementProtoMessage.newBuilder().setInstrument("MSFT"))
+        .addMessage(TradeAgreementProtoMessage.getDefaultInstance())
+        .addMessage(TestDataGenerator.defaultTradeAgreementProtoMessageData().setQty(-1))
+        .build();
+
+    List<TradeAgreement> agreements = reader.translate(bytesMessage(envelope.toByteArray()));
+
+    assertEquals(4, agreements.size());
+    assertEquals(envelopeTranslator.translate(envelope), agreements);
+  }
+
+  @Test
+  public void testReadsAMessageAgain() throws Exception {
+    BytesMessage message = bytesMessage(
+        TestDataGenerator.defaultTradeAgreementProtoMessageData().build().toByteArray());
+
+    assertEquals(reader.translate(message), reader.translate(message));
+  }
+
+  @Test
+  public void testEmptyBodyIsAnEmptyEnvelope() throws Exception {
+    assertEquals(Collections.emptyList(), reader.translate(bytesMessage(new byte[0])));
+  }
+
+  @Test
+  public void testUnknownEnvelopeFieldsAreSkipped() throws Exception {
+    byte[] body = TradeAgreementProtoMessages.newBuilder()
+        .addMessage(TestDataGenerator.defaultTradeAgreementProtoMessageData())
+        .addMessage(TestDataGenerator.defaultTradeAgreementProtoMessageData())
+        .setUnknownFields(UnknownFieldSet.newBuilder()
+            .addField(20, UnknownFieldSet.Field.newBuilder()
+                .addLengthDelimited(ByteString.copyFromUtf8("ignored")).build())
+            .build())
+        .build().toByteArray();
+
+    assertEquals(Collections.nCopies(2, TestDataGenerator.defaultTradeAgreementData().build()),
+        reader.translate(bytesMessage(body)));
+  }
+
+  @Test
+  public void testUnknownFieldsAreSkipped() throws Exception {
+    byte[] body = TestDataGenerator.defaultTradeAgreementProtoMessageData()
+        .setUnknownFields(UnknownFieldSet.newBuilder()
+            .addField(1, UnknownFieldSet.Field.newBuilder().addVarint(42).build())
+            .addField(20, UnknownFieldSet.Field.newBuilder()
+                .addLengthDelimited(ByteString.copyFromUtf8("ignored")).build())
+            .build())
+        .build().toByteArray();
+
+    assertEquals(Collections.singletonList(TestDataGenerator.defaultTradeAgreementData().build()),
+        reader.translate(bytesMessage(body)));
+  }
+
+  @Test
+  public void testMessagesLargerThanTheBuffer() throws Exception {
+    String instrument = Strings.repeat("I", TradeAgreementProtoReader.MAX_RETAINED_BUFFER_SIZE);
+    byte[] body = TestDataGenerator.defaultTradeAgreementProtoMessageData()
+        .setInstrument(instrument).build().toByteArray();
+
+    assertEquals(instrument, reader.translate(bytesMessage(body)).get(0).getInstrument());
+    // The next, small message is read with the thread's usual buffer
+    assertEquals(Collections.singletonList(TestDataGenerator.defaultTradeAgreementData().build()),
+        reader.translate(bytesMessage(TestDataGenerator.defaultTradeAgreementProtoMessageData()
+            .build().toByteArray())));
+  }
+
+  @Test(expected = TranslationException.class)
+  public void testInvalidBody() throws Exception {
+    reader.translate(bytesMessage(new byte[] {0x12, 0x7f, 'a'}));
+  }
+
+  @Test(expected = TranslationException.class)
+  public void testInvalidEnvelope() throws Exception {
+    // An envelope whose second agreement claims to be longer than the rest of the body
+    reader.translate(bytesMessage(new byte[] {0x0a, 0x02, 0x12, 0x00, 0x0a, 0x7f, 0x12}));
+  }
+}
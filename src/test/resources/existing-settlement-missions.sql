@@ -0,0 +1,6 @@
+-- Missions saved before their ids came from settlement_mission_seq
+create table settlement_mission (id bigint not null, depot varchar(255), direction varchar(255),
+    external_party varchar(255), instrument varchar(255), qty double, version bigint,
+    primary key (id));
+insert into settlement_mission values (1, 'DTC', 'RECEIVE', 'EXT-1', 'IBM', 100, 0);
+insert into settlement_mission values (4000, 'DTC', 'DELIVER', 'EXT-1', 'IBM', 200, 0);